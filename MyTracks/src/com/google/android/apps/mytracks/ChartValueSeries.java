@@ -36,6 +36,8 @@ import java.text.NumberFormat;
 public class ChartValueSeries {
 
   private static final float STROKE_WIDTH = 2f;
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int MAX_PYRAMID_LEVELS = 31;
 
   private final int absoluteMin;
   private final int absoluteMax;
@@ -48,13 +50,62 @@ public class ChartValueSeries {
   private final Paint markerPaint;
   private final ExtremityMonitor extremityMonitor;
   private final NumberFormat numberFormat;
-  private final Path path;
   
   private int interval = 1;
   private int minMarkerValue = 0;
   private int maxMarkerValue = interval * ChartView.Y_AXIS_INTERVALS;
   private boolean enabled = true;
 
+  // The points in chart values, x and y interleaved
+  private float[] points = new float[INITIAL_CAPACITY];
+  private int numberOfPoints = 0;
+
+  // The line segments in unscaled screen coordinates, see draw
+  private float[] lines = new float[INITIAL_CAPACITY];
+  private int linesSize = 0;
+
+  // The visible line segments in screen coordinates, reused by draw
+  private float[] screenLines = new float[INITIAL_CAPACITY];
+
+  // The fill polygon below the visible line segments, reused by draw
+  private final Path fillPath = new Path();
+
+  /*
+   * Min/max decimation pyramid. Level l, l >= 1, has one bucket per 2^l
+   * consecutive points, keeping the indexes of the min and the max y value of
+   * the bucket. Only complete buckets are kept.
+   */
+  private final int[][] pyramidMinIndexes = new int[MAX_PYRAMID_LEVELS][];
+  private final int[][] pyramidMaxIndexes = new int[MAX_PYRAMID_LEVELS][];
+  private final int[] pyramidSizes = new int[MAX_PYRAMID_LEVELS];
+
+  // The number of points mapped to lines
+  private int numberOfMappedPoints = 0;
+
+  /*
+   * The mapped state before the pixel column of the last point. That column
+   * can still change when more points are added.
+   */
+  private int closedPoints = 0;
+  private int closedLinesSize = 0;
+  private boolean hasClosedVertex = false;
+  private float closedVertexX;
+  private float closedVertexY;
+
+  // The last mapped vertex
+  private boolean hasLastVertex;
+  private float lastVertexX;
+  private float lastVertexY;
+
+  // The screen mapping of lines
+  private float xOffset = Float.NaN;
+  private float xScale = Float.NaN;
+  private float yTop = Float.NaN;
+  private float yHeight = Float.NaN;
+  private float yBottom = Float.NaN;
+  private int mappedInterval = -1;
+  private int mappedMinMarkerValue = 0;
+
   /**
    * Constructor.
    * 
@@ -101,7 +152,6 @@ public class ChartValueSeries {
 
     extremityMonitor = new ExtremityMonitor();
     numberFormat = NumberFormat.getIntegerInstance();
-    path = new Path();
   }
 
   /**
@@ -137,20 +187,349 @@ public class ChartValueSeries {
   }
 
   /**
-   * Gets the path.
+   * Adds a point. The x values must not decrease.
+   * 
+   * @param x the x value
+   * @param y the y value
+   */
+  public void addPoint(double x, double y) {
+    points = ensureCapacity(points, numberOfPoints * 2 + 2);
+    points[numberOfPoints * 2] = (float) x;
+    points[numberOfPoints * 2 + 1] = (float) y;
+    numberOfPoints++;
+    updatePyramid(numberOfPoints - 1);
+  }
+
+  /**
+   * Gets the number of points.
    */
-  public Path getPath() {
-    return path;
+  public int getNumberOfPoints() {
+    return numberOfPoints;
   }
 
   /**
-   * Draws the path on canvas.
+   * Clears the points.
+   */
+  public void clearPoints() {
+    numberOfPoints = 0;
+    for (int i = 0; i < MAX_PYRAMID_LEVELS; i++) {
+      pyramidSizes[i] = 0;
+    }
+    resetLines();
+  }
+
+  /**
+   * Updates the screen coordinates of the points. The points are decimated to
+   * at most 4 vertices per pixel column, the first, min, max and last points of
+   * the column, so peaks are kept. Only the points added since the last update
+   * are mapped, unless the mapping or the y axis dimension changed.
+   * 
+   * @param newXOffset the screen x of the x value 0
+   * @param newXScale the number of pixels per x value
+   * @param newYTop the screen y of the max marker value
+   * @param newYHeight the screen height from the min to the max marker value
+   * @param newYBottom the screen y of the bottom of the fill
+   * @return the number of points mapped, not counting the points of the last
+   *         column mapped again.
+   */
+  public int updateLines(float newXOffset, float newXScale, float newYTop, float newYHeight,
+      float newYBottom) {
+    if (newXOffset != xOffset || newXScale != xScale || newYTop != yTop || newYHeight != yHeight
+        || newYBottom != yBottom || interval != mappedInterval
+        || minMarkerValue != mappedMinMarkerValue) {
+      xOffset = newXOffset;
+      xScale = newXScale;
+      yTop = newYTop;
+      yHeight = newYHeight;
+      yBottom = newYBottom;
+      mappedInterval = interval;
+      mappedMinMarkerValue = minMarkerValue;
+      resetLines();
+    }
+
+    int numberOfNewPoints = numberOfPoints - numberOfMappedPoints;
+    if (numberOfNewPoints == 0) {
+      return 0;
+    }
+
+    // Map again from the last column, it can change with the new points
+    linesSize = closedLinesSize;
+    hasLastVertex = hasClosedVertex;
+    lastVertexX = closedVertexX;
+    lastVertexY = closedVertexY;
+
+    float yScale = yHeight / (interval * ChartView.Y_AXIS_INTERVALS);
+    int index = closedPoints;
+    while (index < numberOfPoints) {
+      int columnStart = index;
+      float columnEnd = (float) Math.floor(getScreenX(index)) + 1f;
+      int minIndex = index;
+      int maxIndex = index;
+      index++;
+      while (index < numberOfPoints) {
+        // Skip the largest complete bucket in the column
+        int level = getLargestBucketLevel(index, columnEnd);
+        if (level != 0) {
+          int bucket = index >> level;
+          int bucketMin = pyramidMinIndexes[level][bucket];
+          int bucketMax = pyramidMaxIndexes[level][bucket];
+          if (getY(bucketMin) < getY(minIndex)) {
+            minIndex = bucketMin;
+          }
+          if (getY(bucketMax) > getY(maxIndex)) {
+            maxIndex = bucketMax;
+          }
+          index += 1 << level;
+        } else if (getScreenX(index) < columnEnd) {
+          if (getY(index) < getY(minIndex)) {
+            minIndex = index;
+          }
+          if (getY(index) > getY(maxIndex)) {
+            maxIndex = index;
+          }
+          index++;
+        } else {
+          break;
+        }
+      }
+      int lastIndex = index - 1;
+
+      // Add the column vertices in x order
+      addVertex(columnStart, yScale);
+      int first = Math.min(minIndex, maxIndex);
+      int second = Math.max(minIndex, maxIndex);
+      if (first != columnStart) {
+        addVertex(first, yScale);
+      }
+      if (second != first && second != columnStart) {
+        addVertex(second, yScale);
+      }
+      if (lastIndex != second && lastIndex != columnStart) {
+        addVertex(lastIndex, yScale);
+      }
+
+      if (index < numberOfPoints) {
+        closedPoints = index;
+        closedLinesSize = linesSize;
+        hasClosedVertex = hasLastVertex;
+        closedVertexX = lastVertexX;
+        closedVertexY = lastVertexY;
+      }
+    }
+    numberOfMappedPoints = numberOfPoints;
+    return numberOfNewPoints;
+  }
+
+  /**
+   * Gets the number of mapped line segments.
+   */
+  @VisibleForTesting
+  int getNumberOfLines() {
+    return linesSize / 4;
+  }
+
+  /**
+   * Gets the min screen y of the mapped line segments.
+   */
+  @VisibleForTesting
+  float getMinLinesY() {
+    float min = Float.POSITIVE_INFINITY;
+    for (int i = 0; i < linesSize; i += 2) {
+      min = Math.min(min, lines[i + 1]);
+    }
+    return min;
+  }
+
+  /**
+   * Draws the series on canvas. Only draws the lines between left and right.
+   * The lines are scaled horizontally to screen coordinates before drawing,
+   * so the stroke width is kept and the fill has no gaps.
    * 
    * @param canvas the canvas
+   * @param left the left x of the lines
+   * @param right the right x of the lines
+   * @param scaleX the horizontal scale from the lines to the screen
+   * @param originX the x kept by the scale
    */
-  public void drawPath(Canvas canvas) {
-    canvas.drawPath(path, fillPaint);
-    canvas.drawPath(path, strokePaint);
+  public void draw(Canvas canvas, float left, float right, float scaleX, float originX) {
+    int numberOfLines = linesSize / 4;
+    // First line ending at or after left
+    int low = 0;
+    int high = numberOfLines;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (lines[middle * 4 + 2] < left) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    int first = low;
+    // First line starting after right
+    high = numberOfLines;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (lines[middle * 4] <= right) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    if (low <= first) {
+      return;
+    }
+
+    int size = (low - first) * 4;
+    screenLines = ensureCapacity(screenLines, size);
+    for (int i = 0; i < size; i += 2) {
+      screenLines[i] = originX + (lines[first * 4 + i] - originX) * scaleX;
+      screenLines[i + 1] = lines[first * 4 + i + 1];
+    }
+
+    // The lines are connected, so the fill is the polygon through their starts,
+    // the end of the last line, and down to the bottom
+    fillPath.rewind();
+    fillPath.moveTo(screenLines[0], yBottom);
+    for (int i = 0; i < size; i += 4) {
+      fillPath.lineTo(screenLines[i], screenLines[i + 1]);
+    }
+    fillPath.lineTo(screenLines[size - 2], screenLines[size - 1]);
+    fillPath.lineTo(screenLines[size - 2], yBottom);
+    fillPath.close();
+    canvas.drawPath(fillPath, fillPaint);
+    canvas.drawLines(screenLines, 0, size, strokePaint);
+  }
+
+  /**
+   * Adds a vertex to the lines.
+   * 
+   * @param index the point index
+   * @param yScale the number of pixels per y value
+   */
+  private void addVertex(int index, float yScale) {
+    float x = getScreenX(index);
+    float y = getScreenY(index, yScale);
+    if (hasLastVertex) {
+      lines = ensureCapacity(lines, linesSize + 4);
+      lines[linesSize++] = lastVertexX;
+      lines[linesSize++] = lastVertexY;
+      lines[linesSize++] = x;
+      lines[linesSize++] = y;
+    }
+    hasLastVertex = true;
+    lastVertexX = x;
+    lastVertexY = y;
+  }
+
+  /**
+   * Gets the level of the largest complete pyramid bucket starting at a point
+   * and ending before a screen x. Returns 0 if none.
+   * 
+   * @param index the point index
+   * @param maxScreenX the max screen x, exclusive
+   */
+  private int getLargestBucketLevel(int index, float maxScreenX) {
+    int level = Integer.numberOfTrailingZeros(index);
+    if (level >= MAX_PYRAMID_LEVELS) {
+      level = MAX_PYRAMID_LEVELS - 1;
+    }
+    for (; level > 0; level--) {
+      if ((index >> level) < pyramidSizes[level]
+          && getScreenX(index + (1 << level) - 1) < maxScreenX) {
+        return level;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Updates the pyramid buckets completed by a new point.
+   * 
+   * @param index the new point index
+   */
+  private void updatePyramid(int index) {
+    for (int level = 1; level < MAX_PYRAMID_LEVELS
+        && ((index + 1) & ((1 << level) - 1)) == 0; level++) {
+      int bucket = index >> level;
+      int minIndex;
+      int maxIndex;
+      if (level == 1) {
+        boolean lower = getY(index - 1) <= getY(index);
+        minIndex = lower ? index - 1 : index;
+        maxIndex = lower ? index : index - 1;
+      } else {
+        int[] childMinIndexes = pyramidMinIndexes[level - 1];
+        int[] childMaxIndexes = pyramidMaxIndexes[level - 1];
+        int left = bucket * 2;
+        int right = left + 1;
+        minIndex = getY(childMinIndexes[left]) <= getY(childMinIndexes[right])
+            ? childMinIndexes[left] : childMinIndexes[right];
+        maxIndex = getY(childMaxIndexes[left]) >= getY(childMaxIndexes[right])
+            ? childMaxIndexes[left] : childMaxIndexes[right];
+      }
+      if (pyramidMinIndexes[level] == null) {
+        pyramidMinIndexes[level] = new int[16];
+        pyramidMaxIndexes[level] = new int[16];
+      }
+      pyramidMinIndexes[level] = ensureCapacity(pyramidMinIndexes[level], bucket + 1);
+      pyramidMaxIndexes[level] = ensureCapacity(pyramidMaxIndexes[level], bucket + 1);
+      pyramidMinIndexes[level][bucket] = minIndex;
+      pyramidMaxIndexes[level][bucket] = maxIndex;
+      pyramidSizes[level] = bucket + 1;
+    }
+  }
+
+  private float getScreenX(int index) {
+    return xOffset + points[index * 2] * xScale;
+  }
+
+  private float getScreenY(int index, float yScale) {
+    return yTop + yHeight - (points[index * 2 + 1] - minMarkerValue) * yScale;
+  }
+
+  private float getY(int index) {
+    return points[index * 2 + 1];
+  }
+
+  private void resetLines() {
+    linesSize = 0;
+    numberOfMappedPoints = 0;
+    closedPoints = 0;
+    closedLinesSize = 0;
+    hasClosedVertex = false;
+    hasLastVertex = false;
+  }
+
+  /**
+   * Ensures an array has a minimum capacity. Returns the array or a larger
+   * copy.
+   * 
+   * @param array the array
+   * @param minCapacity the minimum capacity
+   */
+  private static float[] ensureCapacity(float[] array, int minCapacity) {
+    if (minCapacity <= array.length) {
+      return array;
+    }
+    float[] newArray = new float[Math.max(minCapacity, array.length * 2)];
+    System.arraycopy(array, 0, newArray, 0, array.length);
+    return newArray;
+  }
+
+  /**
+   * Ensures an array has a minimum capacity. Returns the array or a larger
+   * copy.
+   * 
+   * @param array the array
+   * @param minCapacity the minimum capacity
+   */
+  private static int[] ensureCapacity(int[] array, int minCapacity) {
+    if (minCapacity <= array.length) {
+      return array;
+    }
+    int[] newArray = new int[Math.max(minCapacity, array.length * 2)];
+    System.arraycopy(array, 0, newArray, 0, array.length);
+    return newArray;
   }
 
   /**
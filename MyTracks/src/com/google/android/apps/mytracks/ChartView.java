@@ -33,7 +33,6 @@ import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
-import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.view.MotionEvent;
@@ -82,11 +81,17 @@ public class ChartView extends View {
   private static final int SPACER = 4;
   private static final int Y_AXIS_OFFSET = 16;
 
+  // The series lines are mapped for an x range up to this factor larger than
+  // the data, and stretched to the data when drawn. Appending points then only
+  // maps the new points until the data outgrows the mapped range.
+  private static final double LINES_MAX_X_FACTOR = 1.25;
+
   private final ChartValueSeries[] series = new ChartValueSeries[NUM_SERIES];
   private final ArrayList<double[]> chartData = new ArrayList<double[]>();
   private final ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
   private final ExtremityMonitor xExtremityMonitor = new ExtremityMonitor();
   private double maxX = 1.0;
+  private double linesMaxX = 1.0;
 
   private final Paint axisPaint;
   private final Paint xAxisMarkerPaint;
@@ -282,11 +287,45 @@ public class ChartView extends View {
         for (int j = 0; j < series.length; j++) {
           if (!Double.isNaN(dataPoint[j + 1])) {
             series[j].update(dataPoint[j + 1]);
+            series[j].addPoint(dataPoint[0], dataPoint[j + 1]);
           }
         }
       }
       updateDimensions();
-      updatePaths();
+      updateLines();
+    }
+  }
+
+  /**
+   * Removes data points. The value series keep their extremities.
+   * 
+   * @param indexes the indexes of the data points to remove, in increasing
+   *          order
+   */
+  public void removeDataPoints(int[] indexes) {
+    synchronized (chartData) {
+      int next = 0;
+      int size = 0;
+      for (int i = 0; i < chartData.size(); i++) {
+        if (next < indexes.length && indexes[next] == i) {
+          next++;
+        } else {
+          chartData.set(size++, chartData.get(i));
+        }
+      }
+      chartData.subList(size, chartData.size()).clear();
+      for (int j = 0; j < series.length; j++) {
+        series[j].clearPoints();
+      }
+      for (int i = 0; i < size; i++) {
+        double[] dataPoint = chartData.get(i);
+        for (int j = 0; j < series.length; j++) {
+          if (!Double.isNaN(dataPoint[j + 1])) {
+            series[j].addPoint(dataPoint[0], dataPoint[j + 1]);
+          }
+        }
+      }
+      updateLines();
     }
   }
 
@@ -296,6 +335,9 @@ public class ChartView extends View {
   public void reset() {
     synchronized (chartData) {
       chartData.clear();
+      for (ChartValueSeries chartValueSeries : series) {
+        chartValueSeries.clearPoints();
+      }
       xExtremityMonitor.reset();
       zoomLevel = 1;
       updateDimensions();
@@ -349,7 +391,7 @@ public class ChartView extends View {
   public void zoomIn() {
     if (canZoomIn()) {
       zoomLevel++;
-      updatePaths();
+      updateLines();
       invalidate();
     }
   }
@@ -367,7 +409,7 @@ public class ChartView extends View {
         scrollX = maxWidth;
         scrollTo(scrollX, 0);
       }
-      updatePaths();
+      updateLines();
       invalidate();
     }
   }
@@ -542,9 +584,12 @@ public class ChartView extends View {
    * @param canvas the canvas
    */
   private void drawDataSeries(Canvas canvas) {
+    float linesScale = (float) (linesMaxX / maxX);
+    float left = leftBorder + getScrollX() / linesScale;
+    float right = left + effectiveWidth / linesScale;
     for (ChartValueSeries chartValueSeries : series) {
       if (chartValueSeries.isEnabled() && chartValueSeries.hasData()) {
-        chartValueSeries.drawPath(canvas);
+        chartValueSeries.draw(canvas, left, right, linesScale, leftBorder);
       }
     }
   }
@@ -813,81 +858,24 @@ public class ChartView extends View {
   }
 
   /**
-   * Updates paths. The path needs to be updated any time after the data or the
-   * dimensions change.
+   * Updates the series lines. Needs to be called any time after the data or the
+   * dimensions change. A series only maps its new points unless its mapping
+   * changed. The x mapping only changes when the max x leaves the mapped x
+   * range.
    */
-  private void updatePaths() {
+  private void updateLines() {
     synchronized (chartData) {
-      for (ChartValueSeries chartValueSeries : series) {
-        chartValueSeries.getPath().reset();
+      if (linesMaxX < maxX || linesMaxX > maxX * LINES_MAX_X_FACTOR) {
+        linesMaxX = maxX * LINES_MAX_X_FACTOR;
       }
-      drawPaths();
-      closePaths();
-    }
-  }
-
-  /**
-   * Draws all paths.
-   */
-  private void drawPaths() {
-    boolean[] hasMoved = new boolean[series.length];
-    
-    for (int i = 0; i < chartData.size(); i++) {
-      double[] dataPoint = chartData.get(i);
-      for (int j = 0; j < series.length; j++) {
-        double value = dataPoint[j + 1];
-        if (Double.isNaN(value)) {
-          continue;
-        }
-        ChartValueSeries chartValueSeries = series[j];
-        Path path = chartValueSeries.getPath();
-        int x = getX(dataPoint[0]);
-        int y = getY(chartValueSeries, value);
-        if (!hasMoved[j]) {
-          hasMoved[j] = true;
-          path.moveTo(x, y);
-        } else {
-          path.lineTo(x, y);
-        }
-      }
-    }
-  }
-
-  /**
-   * Closes all paths.
-   */
-  private void closePaths() {
-    for (int i = 0; i < series.length; i++) {
-      int first = getFirstPopulatedChartDataIndex(i);
-
-      if (first != -1) {
-        int xCorner = getX(chartData.get(first)[0]);
-        int yCorner = topBorder + effectiveHeight;
-        ChartValueSeries chartValueSeries = series[i];
-        Path path = chartValueSeries.getPath();
-        // Bottom right corner
-        path.lineTo(getX(chartData.get(chartData.size() - 1)[0]), yCorner);
-        // Bottom left corner
-        path.lineTo(xCorner, yCorner);
-        // Top right corner
-        path.lineTo(xCorner, getY(chartValueSeries, chartData.get(first)[i + 1]));
-      }
-    }
-  }
-
-  /**
-   * Finds the index of the first data point containing data for a series.
-   * Returns -1 if no data point contains data for the series.
-   * 
-   * @param seriesIndex the series's index
-   */
-  private int getFirstPopulatedChartDataIndex(int seriesIndex) {
-    for (int i = 0; i < chartData.size(); i++) {
-      if (!Double.isNaN(chartData.get(i)[seriesIndex + 1])) {
-        return i;
+      float xScale = (float) (effectiveWidth * zoomLevel / linesMaxX);
+      float yTop = topBorder + yAxisOffset;
+      float yHeight = effectiveHeight - 2 * yAxisOffset;
+      float yBottom = topBorder + effectiveHeight;
+      for (ChartValueSeries chartValueSeries : series) {
+        chartValueSeries.updateLines(leftBorder, xScale, yTop, yHeight, yBottom);
       }
     }
-    return -1;
   }
 
   /**
@@ -941,7 +929,7 @@ public class ChartView extends View {
       width = newWidth;
       height = newHeight;
       updateEffectiveDimensions();
-      updatePaths();
+      updateLines();
     }
   }
 
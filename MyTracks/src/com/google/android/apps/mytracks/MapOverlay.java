@@ -112,6 +112,19 @@ public class MapOverlay {
       this.speed = location.hasSpeed() ? location.getSpeed() * UnitConversions.MS_TO_KMH : -1.0;
     }
 
+    /**
+     * Constructor for a valid cached location.
+     * 
+     * @param latitude the latitude
+     * @param longitude the longitude
+     * @param speed the speed in kilometers per hour, -1 if not available
+     */
+    public CachedLocation(double latitude, double longitude, double speed) {
+      this.valid = true;
+      this.latLng = new LatLng(latitude, longitude);
+      this.speed = speed;
+    }
+
     /**
      * Returns true if the location is valid.
      */
@@ -180,6 +193,19 @@ public class MapOverlay {
     }
   }
 
+  /**
+   * Replaces the locations.
+   * 
+   * @param newLocations the new locations
+   */
+  public void setLocations(List<CachedLocation> newLocations) {
+    synchronized (locations) {
+      locations.clear();
+      pendingLocations.clear();
+      locations.addAll(newLocations);
+    }
+  }
+
   /**
    * Adds a waypoint.
    * 
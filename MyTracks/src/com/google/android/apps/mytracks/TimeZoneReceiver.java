@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks;
+
+import static android.content.Intent.ACTION_TIMEZONE_CHANGED;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Moves the tracks to the aggregate periods of the new time zone when the time
+ * zone changes. The aggregates are rebuilt in one transaction on a background
+ * thread, so they are either all moved or, if the process is killed first,
+ * all kept in the periods of the former time zone. Requires API level 11 to
+ * call the provider.
+ */
+public class TimeZoneReceiver extends BroadcastReceiver {
+
+  private static final String TAG = TimeZoneReceiver.class.getSimpleName();
+
+  @Override
+  public void onReceive(Context context, Intent intent) {
+    if (!ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+      Log.w(TAG, "TimeZoneReceiver: unsupported action");
+      return;
+    }
+    final MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(
+        context.getApplicationContext());
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        if (!myTracksProviderUtils.rebuildAggregates()) {
+          Log.e(TAG, "Unable to rebuild the aggregates");
+        }
+      }
+    }).start();
+  }
+}
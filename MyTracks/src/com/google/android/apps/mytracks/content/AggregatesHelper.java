@@ -0,0 +1,383 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Calendar;
+
+/**
+ * Maintains the aggregates table. Triggers on the tracks table add the
+ * statistics of an inserted track to the aggregates of its periods, and
+ * subtract the ones of a deleted track. An updated track is subtracted then
+ * added again.
+ * <p>
+ * The sums are updated in constant time. A minimum or a maximum is recomputed
+ * from the tracks of its period only when a track holding it is removed from
+ * the period or updated with a less extreme value, which does not happen while
+ * recording.
+ * <p>
+ * The periods are in the local time zone when the track start time is
+ * written. Their start times are stored in the track row, see
+ * {@link #addPeriodStarts(ContentValues)}, so an updated or a deleted track is
+ * subtracted from the periods it was added to, even after a time zone change.
+ * {@link #rebuild(SQLiteDatabase)} moves all the tracks to the periods of the
+ * current time zone. It is called when the time zone changes, see
+ * {@link com.google.android.apps.mytracks.TimeZoneReceiver}.
+ */
+class AggregatesHelper {
+
+  private static final String[] PERIODS = { AggregatesColumns.PERIOD_DAY,
+      AggregatesColumns.PERIOD_WEEK, AggregatesColumns.PERIOD_MONTH,
+      AggregatesColumns.PERIOD_YEAR };
+
+  // The tracks table columns holding the start times of the periods
+  private static final String[] PERIOD_START_COLUMNS = { TracksColumns.DAYSTART,
+      TracksColumns.WEEKSTART, TracksColumns.MONTHSTART, TracksColumns.YEARSTART };
+
+  // The summed columns, with the same name in the tracks table
+  private static final String[] SUM_COLUMNS = { AggregatesColumns.TOTALDISTANCE,
+      AggregatesColumns.TOTALTIME, AggregatesColumns.MOVINGTIME, AggregatesColumns.ELEVATIONGAIN,
+      AggregatesColumns.CALORIE };
+
+  // The maximum columns, with the same name in the tracks table
+  private static final String[] MAX_COLUMNS = {
+      AggregatesColumns.MAXSPEED, AggregatesColumns.MAXELEVATION, AggregatesColumns.MAXGRADE };
+
+  // The minimum columns, with the same name in the tracks table
+  private static final String[] MIN_COLUMNS = {
+      AggregatesColumns.MINELEVATION, AggregatesColumns.MINGRADE };
+
+  private static final String INSERT_TRIGGER = "aggregates_tracks_insert_trigger";
+  private static final String UPDATE_TRIGGER = "aggregates_tracks_update_trigger";
+  private static final String DELETE_TRIGGER = "aggregates_tracks_delete_trigger";
+
+  private AggregatesHelper() {}
+
+  /**
+   * Creates the aggregates table, its index, the tracks table period start
+   * indexes, and the tracks table triggers maintaining it, if they don't
+   * exist. The tracks table must have all its columns.
+   *
+   * @param db the database
+   */
+  static void create(SQLiteDatabase db) {
+    db.execSQL(AggregatesColumns.CREATE_TABLE);
+    db.execSQL(AggregatesColumns.CREATE_PERIOD_PERIODSTART_CATEGORY_INDEX);
+    db.execSQL(TracksColumns.CREATE_DAYSTART_INDEX);
+    db.execSQL(TracksColumns.CREATE_WEEKSTART_INDEX);
+    db.execSQL(TracksColumns.CREATE_MONTHSTART_INDEX);
+    db.execSQL(TracksColumns.CREATE_YEARSTART_INDEX);
+
+    StringBuilder insert = new StringBuilder();
+    StringBuilder update = new StringBuilder();
+    StringBuilder delete = new StringBuilder();
+    for (int i = 0; i < PERIODS.length; i++) {
+      appendAdd(insert, i);
+      appendSubtract(update, i, true);
+      appendAdd(update, i);
+      appendSubtract(delete, i, false);
+    }
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + INSERT_TRIGGER + " AFTER INSERT ON "
+        + TracksColumns.TABLE_NAME + " BEGIN " + insert + "END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + UPDATE_TRIGGER + " AFTER UPDATE ON "
+        + TracksColumns.TABLE_NAME + " WHEN " + getChanged() + " BEGIN " + update + "END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + DELETE_TRIGGER + " AFTER DELETE ON "
+        + TracksColumns.TABLE_NAME + " BEGIN " + delete + "END;");
+  }
+
+  /**
+   * Drops the tracks table triggers maintaining the aggregates, e.g., to
+   * create them again after an upgrade.
+   *
+   * @param db the database
+   */
+  static void dropTriggers(SQLiteDatabase db) {
+    db.execSQL("DROP TRIGGER IF EXISTS " + INSERT_TRIGGER);
+    db.execSQL("DROP TRIGGER IF EXISTS " + UPDATE_TRIGGER);
+    db.execSQL("DROP TRIGGER IF EXISTS " + DELETE_TRIGGER);
+  }
+
+  /**
+   * Returns the values of a track with the start times of the periods of its
+   * start time in the current local time zone. Returns the values if they
+   * don't set the start time, otherwise a copy.
+   *
+   * @param values the values of the track
+   */
+  static ContentValues addPeriodStarts(ContentValues values) {
+    if (!values.containsKey(TracksColumns.STARTTIME)) {
+      return values;
+    }
+    ContentValues result = new ContentValues(values);
+    Long startTime = values.getAsLong(TracksColumns.STARTTIME);
+    if (startTime == null || startTime <= 0L) {
+      for (String column : PERIOD_START_COLUMNS) {
+        result.putNull(column);
+      }
+      return result;
+    }
+    long[] periodStarts = getPeriodStarts(startTime);
+    for (int i = 0; i < PERIODS.length; i++) {
+      result.put(PERIOD_START_COLUMNS[i], periodStarts[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Recomputes the aggregates from the tracks table, in the periods of the
+   * current local time zone. Call in a transaction.
+   *
+   * @param db the database
+   */
+  static void rebuild(SQLiteDatabase db) {
+    updatePeriodStarts(db);
+    db.execSQL("DELETE FROM " + AggregatesColumns.TABLE_NAME);
+    for (int i = 0; i < PERIODS.length; i++) {
+      StringBuilder columns = new StringBuilder();
+      StringBuilder values = new StringBuilder();
+      columns.append(AggregatesColumns.PERIOD).append(", ").append(AggregatesColumns.PERIODSTART)
+          .append(", ").append(AggregatesColumns.CATEGORY).append(", ")
+          .append(AggregatesColumns.NUMTRACKS);
+      values.append('\'').append(PERIODS[i]).append("', ")
+          .append(PERIOD_START_COLUMNS[i]).append(", ")
+          .append(getCategory(TracksColumns.CATEGORY)).append(", COUNT(*)");
+      for (String column : SUM_COLUMNS) {
+        columns.append(", ").append(column);
+        values.append(", IFNULL(SUM(").append(column).append("), 0)");
+      }
+      for (String column : MAX_COLUMNS) {
+        columns.append(", ").append(column);
+        values.append(", MAX(").append(column).append(")");
+      }
+      for (String column : MIN_COLUMNS) {
+        columns.append(", ").append(column);
+        values.append(", MIN(").append(column).append(")");
+      }
+      db.execSQL("INSERT INTO " + AggregatesColumns.TABLE_NAME + " (" + columns + ") SELECT "
+          + values + " FROM " + TracksColumns.TABLE_NAME + " WHERE " + TracksColumns.STARTTIME
+          + " > 0 GROUP BY 2, 3");
+    }
+  }
+
+  /**
+   * Appends the statements adding the new track to the aggregate of a period.
+   *
+   * @param sql the trigger statements
+   * @param period the period index
+   */
+  private static void appendAdd(StringBuilder sql, int period) {
+    sql.append("INSERT OR IGNORE INTO ").append(AggregatesColumns.TABLE_NAME).append(" (")
+        .append(AggregatesColumns.PERIOD).append(", ").append(AggregatesColumns.PERIODSTART)
+        .append(", ").append(AggregatesColumns.CATEGORY).append(") SELECT '")
+        .append(PERIODS[period]).append("', ")
+        .append(getPeriodStart(period, "NEW")).append(", ")
+        .append(getCategory("NEW." + TracksColumns.CATEGORY)).append(" WHERE NEW.")
+        .append(TracksColumns.STARTTIME).append(" > 0; ");
+
+    sql.append("UPDATE ").append(AggregatesColumns.TABLE_NAME).append(" SET ")
+        .append(AggregatesColumns.NUMTRACKS).append(" = ").append(AggregatesColumns.NUMTRACKS)
+        .append(" + 1");
+    for (String column : SUM_COLUMNS) {
+      sql.append(", ").append(column).append(" = ").append(column).append(" + IFNULL(NEW.")
+          .append(column).append(", 0)");
+    }
+    for (String column : MAX_COLUMNS) {
+      appendExtremity(sql, column, ">");
+    }
+    for (String column : MIN_COLUMNS) {
+      appendExtremity(sql, column, "<");
+    }
+    sql.append(" WHERE ").append(getAggregate(period, "NEW")).append("; ");
+  }
+
+  /**
+   * Appends the statements subtracting the old track from the aggregate of a
+   * period.
+   *
+   * @param sql the trigger statements
+   * @param period the period index
+   * @param updated true if the track is updated, false if deleted
+   */
+  private static void appendSubtract(StringBuilder sql, int period, boolean updated) {
+    String aggregate = getAggregate(period, "OLD");
+    sql.append("UPDATE ").append(AggregatesColumns.TABLE_NAME).append(" SET ")
+        .append(AggregatesColumns.NUMTRACKS).append(" = ").append(AggregatesColumns.NUMTRACKS)
+        .append(" - 1");
+    for (String column : SUM_COLUMNS) {
+      sql.append(", ").append(column).append(" = ").append(column).append(" - IFNULL(OLD.")
+          .append(column).append(", 0)");
+    }
+    sql.append(" WHERE ").append(aggregate).append("; ");
+
+    sql.append("DELETE FROM ").append(AggregatesColumns.TABLE_NAME).append(" WHERE ")
+        .append(AggregatesColumns.NUMTRACKS).append(" <= 0 AND ").append(aggregate)
+        .append("; ");
+
+    // Recompute the extremities if the old track may hold one of them. Uses the
+    // period start index of the tracks table
+    String tracks = TracksColumns.TABLE_NAME;
+    String inPeriod = tracks + "." + TracksColumns.STARTTIME + " > 0 AND "
+        + getPeriodStart(period, tracks) + " = "
+        + AggregatesColumns.TABLE_NAME + "." + AggregatesColumns.PERIODSTART + " AND "
+        + getCategory(tracks + "." + TracksColumns.CATEGORY) + " = "
+        + AggregatesColumns.TABLE_NAME + "." + AggregatesColumns.CATEGORY;
+    StringBuilder held = new StringBuilder();
+    StringBuilder kept = new StringBuilder();
+    sql.append("UPDATE ").append(AggregatesColumns.TABLE_NAME).append(" SET ");
+    for (int i = 0; i < MAX_COLUMNS.length + MIN_COLUMNS.length; i++) {
+      boolean max = i < MAX_COLUMNS.length;
+      String column = max ? MAX_COLUMNS[i] : MIN_COLUMNS[i - MAX_COLUMNS.length];
+      String operator = max ? ">=" : "<=";
+      sql.append(i == 0 ? "" : ", ").append(column).append(" = (SELECT ")
+          .append(max ? "MAX(" : "MIN(").append(tracks).append('.').append(column)
+          .append(") FROM ").append(tracks).append(" WHERE ").append(inPeriod).append(")");
+      held.append(i == 0 ? "" : " OR ").append("OLD.").append(column).append(' ')
+          .append(operator).append(' ').append(column);
+      kept.append(" AND IFNULL(NEW.").append(column).append(' ').append(operator)
+          .append(" OLD.").append(column).append(", OLD.").append(column).append(" IS NULL)");
+    }
+    sql.append(" WHERE ").append(aggregate).append(" AND (").append(held).append(")");
+    if (updated) {
+      // Adding the new track is enough if it stays in the period and extends
+      sql.append(" AND NOT IFNULL(NEW.").append(TracksColumns.STARTTIME).append(" > 0 AND ")
+          .append(getPeriodStart(period, "NEW")).append(" = ")
+          .append(getPeriodStart(period, "OLD")).append(" AND ")
+          .append(getCategory("NEW." + TracksColumns.CATEGORY)).append(" = ")
+          .append(getCategory("OLD." + TracksColumns.CATEGORY)).append(kept).append(", 0)");
+    }
+    sql.append("; ");
+  }
+
+  /**
+   * Appends the assignment of an extremity column with the one of the new
+   * track if more extreme.
+   *
+   * @param sql the statement
+   * @param column the column
+   * @param operator the operator, ">" for a maximum, "<" for a minimum
+   */
+  private static void appendExtremity(StringBuilder sql, String column, String operator) {
+    sql.append(", ").append(column).append(" = CASE WHEN ").append(column)
+        .append(" IS NULL OR NEW.").append(column).append(' ').append(operator).append(' ')
+        .append(column).append(" THEN NEW.").append(column).append(" ELSE ").append(column)
+        .append(" END");
+  }
+
+  /**
+   * Gets the condition selecting the aggregate of a track row in a period.
+   *
+   * @param period the period index
+   * @param row the track row, "NEW" or "OLD"
+   */
+  private static String getAggregate(int period, String row) {
+    return row + "." + TracksColumns.STARTTIME + " > 0 AND " + AggregatesColumns.PERIOD + " = '"
+        + PERIODS[period] + "' AND " + AggregatesColumns.PERIODSTART + " = "
+        + getPeriodStart(period, row) + " AND "
+        + AggregatesColumns.CATEGORY + " = " + getCategory(row + "." + TracksColumns.CATEGORY);
+  }
+
+  /**
+   * Gets the expression of the start time of a period of a track row, stored
+   * in the row.
+   *
+   * @param period the period index
+   * @param row the track row, "NEW", "OLD", or the tracks table
+   */
+  private static String getPeriodStart(int period, String row) {
+    return row + "." + PERIOD_START_COLUMNS[period];
+  }
+
+  /**
+   * Gets the start times of the local day, week, month, and year of a time.
+   * A week starts on Monday.
+   *
+   * @param time the time
+   */
+  private static long[] getPeriodStarts(long time) {
+    long[] periodStarts = new long[PERIODS.length];
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(time);
+    calendar.set(Calendar.HOUR_OF_DAY, 0);
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    periodStarts[0] = calendar.getTimeInMillis();
+
+    Calendar week = (Calendar) calendar.clone();
+    week.add(Calendar.DAY_OF_MONTH,
+        -((calendar.get(Calendar.DAY_OF_WEEK) - Calendar.MONDAY + 7) % 7));
+    periodStarts[1] = week.getTimeInMillis();
+
+    calendar.set(Calendar.DAY_OF_MONTH, 1);
+    periodStarts[2] = calendar.getTimeInMillis();
+    calendar.set(Calendar.DAY_OF_YEAR, 1);
+    periodStarts[3] = calendar.getTimeInMillis();
+    return periodStarts;
+  }
+
+  /**
+   * Recomputes the period start times of all the tracks in the current local
+   * time zone. The update trigger moves the tracks whose periods change.
+   *
+   * @param db the database
+   */
+  private static void updatePeriodStarts(SQLiteDatabase db) {
+    Cursor cursor = db.query(TracksColumns.TABLE_NAME,
+        new String[] { TracksColumns._ID, TracksColumns.STARTTIME }, null, null, null, null, null);
+    try {
+      while (cursor.moveToNext()) {
+        ContentValues values = new ContentValues();
+        values.put(TracksColumns.STARTTIME, cursor.getLong(1));
+        values = addPeriodStarts(values);
+        values.remove(TracksColumns.STARTTIME);
+        db.update(TracksColumns.TABLE_NAME, values, TracksColumns._ID + "=?",
+            new String[] { Long.toString(cursor.getLong(0)) });
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Gets the expression of a category, empty if null.
+   *
+   * @param category the category expression
+   */
+  private static String getCategory(String category) {
+    return "IFNULL(" + category + ", '')";
+  }
+
+  /**
+   * Gets the condition of the update trigger, true if an aggregated column of
+   * the track changed.
+   */
+  private static String getChanged() {
+    StringBuilder changed = new StringBuilder();
+    String[][] columns = { { TracksColumns.STARTTIME, TracksColumns.CATEGORY },
+        PERIOD_START_COLUMNS, SUM_COLUMNS, MAX_COLUMNS, MIN_COLUMNS };
+    for (String[] group : columns) {
+      for (String column : group) {
+        changed.append(changed.length() == 0 ? "" : " OR ").append("OLD.").append(column)
+            .append(" IS NOT NEW.").append(column);
+      }
+    }
+    return changed.toString();
+  }
+}
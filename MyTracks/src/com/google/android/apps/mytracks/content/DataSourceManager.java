@@ -35,6 +35,11 @@ import java.util.Set;
 public class DataSourceManager {
 
   private static final String TAG = DataSourceManager.class.getSimpleName();
+
+  /**
+   * Default window, in milliseconds, in which table changes are coalesced.
+   */
+  public static final long DEFAULT_COALESCING_WINDOW = 250L;
   
   /**
    * Observer when the tracks table is updated.
@@ -49,7 +54,7 @@ public class DataSourceManager {
 
     @Override
     public void onChange(boolean selfChange) {
-      dataSourceListener.notifyTracksTableUpdated();
+      onTableChanged(TrackDataType.TRACKS_TABLE);
     }
   }
 
@@ -66,7 +71,7 @@ public class DataSourceManager {
 
     @Override
     public void onChange(boolean selfChange) {
-      dataSourceListener.notifyWaypointsTableUpdated();
+      onTableChanged(TrackDataType.WAYPOINTS_TABLE);
     }
   }
 
@@ -83,7 +88,7 @@ public class DataSourceManager {
 
     @Override
     public void onChange(boolean selfChange) {
-      dataSourceListener.notifyTrackPointsTableUpdated();
+      onTableChanged(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
     }
   }
 
@@ -112,9 +117,32 @@ public class DataSourceManager {
   private final TrackPointsTableObserver trackPointsTableObserver;
   private final PreferenceListener preferenceListener;
 
-  public DataSourceManager(DataSource dataSource, DataSourceListener dataSourceListener) {
+  // Table changes coalescing, accessed in the handler thread
+  private final long coalescingWindow;
+  private final Set<TrackDataType> pendingTableChanges = EnumSet.noneOf(TrackDataType.class);
+  private final Runnable notifyTableChangesRunnable = new Runnable() {
+    @Override
+    public void run() {
+      notifyTableChanges();
+    }
+  };
+  private volatile int numberOfTableChanges;
+  private volatile int numberOfCoalescedTableChanges;
+
+  /**
+   * Constructor.
+   * 
+   * @param dataSource the data source
+   * @param dataSourceListener the data source listener
+   * @param coalescingWindow the window, in milliseconds, in which table changes
+   *          are coalesced into one notification per table. 0 to notify each
+   *          change immediately
+   */
+  public DataSourceManager(
+      DataSource dataSource, DataSourceListener dataSourceListener, long coalescingWindow) {
     this.dataSource = dataSource;
     this.dataSourceListener = dataSourceListener;
+    this.coalescingWindow = coalescingWindow;
 
     handler = new Handler();
     tracksTableObserver = new TracksTableObserver();
@@ -132,13 +160,31 @@ public class DataSourceManager {
     EnumSet<TrackDataType> neededListeners = EnumSet.copyOf(listeners);
 
     /*
-     * Map SAMPLED_OUT_POINT_UPDATES to POINT_UPDATES since they correspond to
-     * the same internal listener
+     * Map SAMPLED_OUT_POINT_UPDATES, TRACK_POINT_BUFFER,
+     * TRACK_POINT_BUFFER_SENSOR_DATA, SAMPLED_TRACK_POINT_BATCHES and
+     * LAST_TRACK_POINT to POINT_UPDATES since they correspond to the same
+     * internal listener
      */
     if (neededListeners.contains(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE)) {
       neededListeners.remove(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE);
       neededListeners.add(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
     }
+    if (neededListeners.contains(TrackDataType.TRACK_POINT_BUFFER)) {
+      neededListeners.remove(TrackDataType.TRACK_POINT_BUFFER);
+      neededListeners.add(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
+    }
+    if (neededListeners.contains(TrackDataType.TRACK_POINT_BUFFER_SENSOR_DATA)) {
+      neededListeners.remove(TrackDataType.TRACK_POINT_BUFFER_SENSOR_DATA);
+      neededListeners.add(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
+    }
+    if (neededListeners.contains(TrackDataType.SAMPLED_TRACK_POINT_BATCHES)) {
+      neededListeners.remove(TrackDataType.SAMPLED_TRACK_POINT_BATCHES);
+      neededListeners.add(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
+    }
+    if (neededListeners.contains(TrackDataType.LAST_TRACK_POINT)) {
+      neededListeners.remove(TrackDataType.LAST_TRACK_POINT);
+      neededListeners.add(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
+    }
 
     Log.d(TAG, "Updating listeners " + neededListeners);
 
@@ -185,6 +231,18 @@ public class DataSourceManager {
       case SAMPLED_OUT_TRACK_POINTS_TABLE:
         // Do nothing. SAMPLED_OUT_POINT_UPDATES is mapped to POINT_UPDATES.
         break;
+      case TRACK_POINT_BUFFER:
+        // Do nothing. TRACK_POINT_BUFFER is mapped to POINT_UPDATES.
+        break;
+      case TRACK_POINT_BUFFER_SENSOR_DATA:
+        // Do nothing. TRACK_POINT_BUFFER_SENSOR_DATA is mapped to POINT_UPDATES.
+        break;
+      case SAMPLED_TRACK_POINT_BATCHES:
+        // Do nothing. SAMPLED_TRACK_POINT_BATCHES is mapped to POINT_UPDATES.
+        break;
+      case LAST_TRACK_POINT:
+        // Do nothing. LAST_TRACK_POINT is mapped to POINT_UPDATES.
+        break;
       case PREFERENCE:
         dataSource.registerOnSharedPreferenceChangeListener(preferenceListener);
         break;
@@ -212,6 +270,18 @@ public class DataSourceManager {
       case SAMPLED_OUT_TRACK_POINTS_TABLE:
         // Do nothing. SAMPLED_OUT_POINT_UPDATES is mapped to POINT_UPDATES.
         break;
+      case TRACK_POINT_BUFFER:
+        // Do nothing. TRACK_POINT_BUFFER is mapped to POINT_UPDATES.
+        break;
+      case TRACK_POINT_BUFFER_SENSOR_DATA:
+        // Do nothing. TRACK_POINT_BUFFER_SENSOR_DATA is mapped to POINT_UPDATES.
+        break;
+      case SAMPLED_TRACK_POINT_BATCHES:
+        // Do nothing. SAMPLED_TRACK_POINT_BATCHES is mapped to POINT_UPDATES.
+        break;
+      case LAST_TRACK_POINT:
+        // Do nothing. LAST_TRACK_POINT is mapped to POINT_UPDATES.
+        break;
       case PREFERENCE:
         dataSource.unregisterOnSharedPreferenceChangeListener(preferenceListener);
         break;
@@ -227,5 +297,68 @@ public class DataSourceManager {
     for (TrackDataType trackDataType : TrackDataType.values()) {
       unregisterListener(trackDataType);
     }
+    handler.removeCallbacks(notifyTableChangesRunnable);
+    pendingTableChanges.clear();
+    Log.d(TAG, "Coalesced " + numberOfCoalescedTableChanges + " of " + numberOfTableChanges
+        + " table changes.");
+  }
+
+  /**
+   * Gets the number of table changes observed.
+   */
+  public int getNumberOfTableChanges() {
+    return numberOfTableChanges;
+  }
+
+  /**
+   * Gets the number of table changes coalesced into an already pending
+   * notification.
+   */
+  public int getNumberOfCoalescedTableChanges() {
+    return numberOfCoalescedTableChanges;
+  }
+
+  /**
+   * Called when a table changes. Notifies the {@link DataSourceListener} at the
+   * end of the coalescing window, once for all the tables changed during the
+   * window. To be run in the {@link #handler} thread.
+   * 
+   * @param trackDataType the table data type
+   */
+  private void onTableChanged(TrackDataType trackDataType) {
+    numberOfTableChanges++;
+    if (pendingTableChanges.isEmpty()) {
+      if (coalescingWindow > 0) {
+        handler.postDelayed(notifyTableChangesRunnable, coalescingWindow);
+      }
+    } else {
+      numberOfCoalescedTableChanges++;
+    }
+    pendingTableChanges.add(trackDataType);
+    if (coalescingWindow <= 0) {
+      notifyTableChanges();
+    }
+  }
+
+  /**
+   * Notifies the {@link DataSourceListener} of the pending table changes. The
+   * tracks table goes first so the track points are read with the latest
+   * track. To be run in the {@link #handler} thread.
+   */
+  private void notifyTableChanges() {
+    boolean tracksTableChanged = pendingTableChanges.contains(TrackDataType.TRACKS_TABLE);
+    boolean trackPointsTableChanged = pendingTableChanges.contains(
+        TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
+    boolean waypointsTableChanged = pendingTableChanges.contains(TrackDataType.WAYPOINTS_TABLE);
+    pendingTableChanges.clear();
+    if (tracksTableChanged) {
+      dataSourceListener.notifyTracksTableUpdated();
+    }
+    if (trackPointsTableChanged) {
+      dataSourceListener.notifyTrackPointsTableUpdated();
+    }
+    if (waypointsTableChanged) {
+      dataSourceListener.notifyWaypointsTableUpdated();
+    }
   }
 }
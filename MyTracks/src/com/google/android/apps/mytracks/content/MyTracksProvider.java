@@ -22,10 +22,14 @@ import com.google.android.maps.mytracks.R;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -33,8 +37,10 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.text.TextUtils;
@@ -42,6 +48,7 @@ import android.util.Log;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
 
 /**
  * A {@link ContentProvider} that handles access to track points, tracks, and
@@ -53,11 +60,36 @@ public class MyTracksProvider extends ContentProvider {
 
   private static final String TAG = MyTracksProvider.class.getSimpleName();
   @VisibleForTesting
-  static final int DATABASE_VERSION = 22;
+  static final int DATABASE_VERSION = 27;
 
   @VisibleForTesting
   static final String DATABASE_NAME = "mytracks.db";
 
+  // The track point insert, with the columns bound by insertTrackPoints
+  private static final String INSERT_TRACK_POINT = "INSERT INTO " + TrackPointsColumns.TABLE_NAME
+      + " (" + TrackPointsColumns.TRACKID + ", " + TrackPointsColumns.LONGITUDE + ", "
+      + TrackPointsColumns.LATITUDE + ", " + TrackPointsColumns.TIME + ", "
+      + TrackPointsColumns.ALTITUDE + ", " + TrackPointsColumns.ACCURACY + ", "
+      + TrackPointsColumns.SPEED + ", " + TrackPointsColumns.BEARING + ", "
+      + TrackPointsColumns.SENSOR + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+  /*
+   * The search tables. CROSS JOIN to read the matching rows of the index, then
+   * their tracks or waypoints. Not a subquery of the index, since matchinfo
+   * needs the index table, so the name, description, and category columns are
+   * ambiguous.
+   */
+  @VisibleForTesting
+  static final String TRACKS_SEARCH_TABLES = SearchIndexColumns.TRACKS_TABLE_NAME
+      + " CROSS JOIN " + TracksColumns.TABLE_NAME + " ON " + TracksColumns.TABLE_NAME + "."
+      + TracksColumns._ID + " = " + SearchIndexColumns.TRACKS_TABLE_NAME + "."
+      + SearchIndexColumns.DOCID;
+  @VisibleForTesting
+  static final String WAYPOINTS_SEARCH_TABLES = SearchIndexColumns.WAYPOINTS_TABLE_NAME
+      + " CROSS JOIN " + WaypointsColumns.TABLE_NAME + " ON " + WaypointsColumns.TABLE_NAME + "."
+      + WaypointsColumns._ID + " = " + SearchIndexColumns.WAYPOINTS_TABLE_NAME + "."
+      + SearchIndexColumns.DOCID;
+
   /**
    * Database helper for creating and upgrading the database.
    */
@@ -78,6 +110,21 @@ public class MyTracksProvider extends ContentProvider {
       db.execSQL(TrackPointsColumns.CREATE_TABLE);
       db.execSQL(TracksColumns.CREATE_TABLE);
       db.execSQL(WaypointsColumns.CREATE_TABLE);
+      createIndexes(db);
+      AggregatesHelper.create(db);
+      SpatialIndexHelper.create(db);
+      SearchIndexHelper.create(db);
+    }
+
+    /**
+     * Creates the track points and waypoints indexes.
+     * 
+     * @param db the database
+     */
+    private void createIndexes(SQLiteDatabase db) {
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_ID_INDEX);
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_TIME_INDEX);
+      db.execSQL(WaypointsColumns.CREATE_TRACKID_TYPE_ID_INDEX);
     }
 
     @Override
@@ -88,6 +135,11 @@ public class MyTracksProvider extends ContentProvider {
         db.execSQL("DROP TABLE IF EXISTS " + TrackPointsColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + TracksColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + WaypointsColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + AggregatesColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SpatialIndexColumns.TRACKS_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SpatialIndexColumns.WAYPOINTS_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SearchIndexColumns.TRACKS_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + SearchIndexColumns.WAYPOINTS_TABLE_NAME);
         onCreate(db);
       } else {
         // Incremental upgrades. One if statement per DB version.
@@ -145,6 +197,46 @@ public class MyTracksProvider extends ContentProvider {
           db.execSQL("ALTER TABLE " + TracksColumns.TABLE_NAME + " ADD " + TracksColumns.CALORIE
               + " FLOAT");
         }
+
+        // Add track points and waypoints indexes
+        if (oldVersion <= 22) {
+          Log.w(TAG, "Upgrade DB: Adding track points and waypoints indexes.");
+          createIndexes(db);
+        }
+
+        // Add spatial index tables
+        if (oldVersion <= 24) {
+          Log.w(TAG, "Upgrade DB: Adding spatial index tables.");
+          SpatialIndexHelper.create(db);
+          SpatialIndexHelper.rebuild(db);
+        }
+
+        // Add search index tables
+        if (oldVersion <= 25) {
+          Log.w(TAG, "Upgrade DB: Adding search index tables.");
+          SearchIndexHelper.create(db);
+          SearchIndexHelper.rebuild(db);
+        }
+
+        // Add track DAYSTART, WEEKSTART, MONTHSTART, and YEARSTART columns
+        if (oldVersion <= 26) {
+          Log.w(TAG, "Upgrade DB: Adding track period start columns.");
+          String[] columns = { TracksColumns.DAYSTART, TracksColumns.WEEKSTART,
+              TracksColumns.MONTHSTART, TracksColumns.YEARSTART };
+          for (String column : columns) {
+            db.execSQL("ALTER TABLE " + TracksColumns.TABLE_NAME + " ADD " + column + " INTEGER");
+          }
+        }
+
+        // Add aggregates table (version 24), maintained with the track period
+        // start columns (version 27). Its triggers use the track columns, so
+        // it is created after all the track columns are added.
+        if (oldVersion <= 26) {
+          Log.w(TAG, "Upgrade DB: Adding aggregates table.");
+          AggregatesHelper.dropTriggers(db);
+          AggregatesHelper.create(db);
+          AggregatesHelper.rebuild(db);
+        }
       }
     }
   }
@@ -156,7 +248,8 @@ public class MyTracksProvider extends ContentProvider {
    */
   @VisibleForTesting
   enum UrlType {
-    TRACKPOINTS, TRACKPOINTS_ID, TRACKS, TRACKS_ID, WAYPOINTS, WAYPOINTS_ID
+    TRACKPOINTS, TRACKPOINTS_ID, TRACKS, TRACKS_ID, WAYPOINTS, WAYPOINTS_ID, AGGREGATES,
+    TRACKS_SEARCH, WAYPOINTS_SEARCH
   }
 
   private final UriMatcher uriMatcher;
@@ -176,6 +269,12 @@ public class MyTracksProvider extends ContentProvider {
         MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME, UrlType.WAYPOINTS.ordinal());
     uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME + "/#",
         UrlType.WAYPOINTS_ID.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, AggregatesColumns.TABLE_NAME,
+        UrlType.AGGREGATES.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, SearchIndexColumns.TRACKS_TABLE_NAME,
+        UrlType.TRACKS_SEARCH.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, SearchIndexColumns.WAYPOINTS_TABLE_NAME,
+        UrlType.WAYPOINTS_SEARCH.ordinal());
   }
 
   @Override
@@ -234,7 +333,7 @@ public class MyTracksProvider extends ContentProvider {
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    notifyChange(url);
 
     if (shouldVacuum) {
       // If a potentially large amount of data was deleted, reclaim its space.
@@ -262,6 +361,12 @@ public class MyTracksProvider extends ContentProvider {
         return WaypointsColumns.CONTENT_TYPE;
       case WAYPOINTS_ID:
         return WaypointsColumns.CONTENT_ITEMTYPE;
+      case AGGREGATES:
+        return AggregatesColumns.CONTENT_TYPE;
+      case TRACKS_SEARCH:
+        return TracksColumns.CONTENT_TYPE;
+      case WAYPOINTS_SEARCH:
+        return WaypointsColumns.CONTENT_TYPE;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
@@ -283,7 +388,7 @@ public class MyTracksProvider extends ContentProvider {
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    notifyChange(url);
     return result;
   }
 
@@ -309,10 +414,54 @@ public class MyTracksProvider extends ContentProvider {
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    notifyChange(url);
     return numInserted;
   }
 
+  @Override
+  public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+      throws OperationApplicationException {
+    if (!canAccess()) {
+      return new ContentProviderResult[0];
+    }
+    ContentProviderResult[] results;
+    try {
+      // Use a transaction in order to apply the operations at once
+      db.beginTransaction();
+      results = super.applyBatch(operations);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    return results;
+  }
+
+  @Override
+  public Bundle call(String method, String arg, Bundle extras) {
+    /*
+     * A transaction is bound to the thread calling the provider. Only allow it
+     * within the process, where the provider is called on the caller thread,
+     * not on a binder thread.
+     */
+    if (Binder.getCallingPid() != Process.myPid()) {
+      return null;
+    }
+    if (MyTracksProviderUtils.METHOD_BEGIN_TRANSACTION.equals(method)) {
+      db.beginTransaction();
+    } else if (MyTracksProviderUtils.METHOD_SET_TRANSACTION_SUCCESSFUL.equals(method)) {
+      db.setTransactionSuccessful();
+    } else if (MyTracksProviderUtils.METHOD_END_TRANSACTION.equals(method)) {
+      db.endTransaction();
+    } else if (MyTracksProviderUtils.METHOD_INSERT_TRACK_POINTS.equals(method)) {
+      return insertTrackPoints(extras);
+    } else if (MyTracksProviderUtils.METHOD_REBUILD_AGGREGATES.equals(method)) {
+      rebuildAggregates();
+    } else {
+      return null;
+    }
+    return new Bundle();
+  }
+
   @Override
   public Cursor query(
       Uri url, String[] projection, String selection, String[] selectionArgs, String sort) {
@@ -346,6 +495,18 @@ public class MyTracksProvider extends ContentProvider {
         queryBuilder.setTables(WaypointsColumns.TABLE_NAME);
         queryBuilder.appendWhere("_id=" + url.getPathSegments().get(1));
         break;
+      case AGGREGATES:
+        queryBuilder.setTables(AggregatesColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : AggregatesColumns.DEFAULT_SORT_ORDER;
+        break;
+      case TRACKS_SEARCH:
+        queryBuilder.setTables(TRACKS_SEARCH_TABLES);
+        sortOrder = sort;
+        break;
+      case WAYPOINTS_SEARCH:
+        queryBuilder.setTables(WAYPOINTS_SEARCH_TABLES);
+        sortOrder = sort;
+        break;
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
@@ -399,6 +560,9 @@ public class MyTracksProvider extends ContentProvider {
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
+    if (table.equals(TracksColumns.TABLE_NAME)) {
+      values = AggregatesHelper.addPeriodStarts(values);
+    }
     int count;
     try {
       db.beginTransaction();
@@ -407,7 +571,7 @@ public class MyTracksProvider extends ContentProvider {
     } finally {
       db.endTransaction();
     }
-    getContext().getContentResolver().notifyChange(url, null, false);
+    notifyChange(url);
     return count;
   }
 
@@ -440,6 +604,36 @@ public class MyTracksProvider extends ContentProvider {
     }
   }
 
+  /**
+   * Notifies the observers of a url. A change of the tracks also changes the
+   * aggregates.
+   * 
+   * @param url the url
+   */
+  private void notifyChange(Uri url) {
+    ContentResolver contentResolver = getContext().getContentResolver();
+    contentResolver.notifyChange(url, null, false);
+    UrlType urlType = getUrlType(url);
+    if (urlType == UrlType.TRACKS || urlType == UrlType.TRACKS_ID) {
+      contentResolver.notifyChange(AggregatesColumns.CONTENT_URI, null, false);
+    }
+  }
+
+  /**
+   * Recomputes the aggregates from the tracks in the periods of the current
+   * time zone.
+   */
+  private void rebuildAggregates() {
+    try {
+      db.beginTransaction();
+      AggregatesHelper.rebuild(db);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    getContext().getContentResolver().notifyChange(AggregatesColumns.CONTENT_URI, null, false);
+  }
+
   /**
    * Gets the {@link UrlType} for a url.
    * 
@@ -489,6 +683,89 @@ public class MyTracksProvider extends ContentProvider {
     throw new SQLiteException("Failed to insert a track point " + url);
   }
 
+  /**
+   * Inserts track points from the primitive arrays of the
+   * {@link MyTracksProviderUtils#METHOD_INSERT_TRACK_POINTS} extras. Binds
+   * them to one compiled statement, in one transaction, instead of going
+   * through a {@link ContentValues} and a {@link SQLiteDatabase#insert} per
+   * track point.
+   * 
+   * @param extras the extras
+   * @return the ids of the first and the last inserted track points
+   */
+  private Bundle insertTrackPoints(Bundle extras) {
+    long trackId = extras.getLong(MyTracksProviderUtils.EXTRA_TRACK_ID);
+    int[] longitudes = extras.getIntArray(MyTracksProviderUtils.EXTRA_LONGITUDES);
+    int[] latitudes = extras.getIntArray(MyTracksProviderUtils.EXTRA_LATITUDES);
+    long[] times = extras.getLongArray(MyTracksProviderUtils.EXTRA_TIMES);
+    double[] altitudes = extras.getDoubleArray(MyTracksProviderUtils.EXTRA_ALTITUDES);
+    float[] accuracies = extras.getFloatArray(MyTracksProviderUtils.EXTRA_ACCURACIES);
+    float[] speeds = extras.getFloatArray(MyTracksProviderUtils.EXTRA_SPEEDS);
+    float[] bearings = extras.getFloatArray(MyTracksProviderUtils.EXTRA_BEARINGS);
+    byte[][] sensors = (byte[][]) extras.getSerializable(MyTracksProviderUtils.EXTRA_SENSORS);
+    if (longitudes == null || latitudes == null || times == null) {
+      throw new IllegalArgumentException("Latitude, longitude, and time values are required.");
+    }
+
+    long startId = -1L;
+    long stopId = -1L;
+    SQLiteStatement statement = null;
+    try {
+      db.beginTransaction();
+      statement = db.compileStatement(INSERT_TRACK_POINT);
+      for (int i = 0; i < longitudes.length; i++) {
+        statement.bindLong(1, trackId);
+        statement.bindLong(2, longitudes[i]);
+        statement.bindLong(3, latitudes[i]);
+        statement.bindLong(4, times[i]);
+        bindDouble(statement, 5, altitudes != null ? altitudes[i] : Double.NaN);
+        bindDouble(statement, 6, accuracies != null ? accuracies[i] : Double.NaN);
+        bindDouble(statement, 7, speeds != null ? speeds[i] : Double.NaN);
+        bindDouble(statement, 8, bearings != null ? bearings[i] : Double.NaN);
+        if (sensors != null && sensors[i] != null) {
+          statement.bindBlob(9, sensors[i]);
+        } else {
+          statement.bindNull(9);
+        }
+        long rowId = statement.executeInsert();
+        if (rowId < 0) {
+          throw new SQLiteException("Failed to insert a track point");
+        }
+        if (startId == -1L) {
+          startId = rowId;
+        }
+        stopId = rowId;
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      if (statement != null) {
+        statement.close();
+      }
+      db.endTransaction();
+    }
+    getContext().getContentResolver().notifyChange(TrackPointsColumns.CONTENT_URI, null, false);
+
+    Bundle result = new Bundle();
+    result.putLong(MyTracksProviderUtils.EXTRA_START_ID, startId);
+    result.putLong(MyTracksProviderUtils.EXTRA_STOP_ID, stopId);
+    return result;
+  }
+
+  /**
+   * Binds a double to a statement, or null if NaN.
+   * 
+   * @param statement the statement
+   * @param index the index of the parameter, starting at 1
+   * @param value the value
+   */
+  private static void bindDouble(SQLiteStatement statement, int index, double value) {
+    if (Double.isNaN(value)) {
+      statement.bindNull(index);
+    } else {
+      statement.bindDouble(index, value);
+    }
+  }
+
   /**
    * Inserts a track.
    * 
@@ -501,7 +778,8 @@ public class MyTracksProvider extends ContentProvider {
     if (!hasStartTime || !hasStartId) {
       throw new IllegalArgumentException("Both start time and start id values are required.");
     }
-    long rowId = db.insert(TracksColumns.TABLE_NAME, TracksColumns._ID, contentValues);
+    long rowId = db.insert(TracksColumns.TABLE_NAME, TracksColumns._ID,
+        AggregatesHelper.addPeriodStarts(contentValues));
     if (rowId >= 0) {
       return ContentUris.appendId(TracksColumns.CONTENT_URI.buildUpon(), rowId).build();
     }
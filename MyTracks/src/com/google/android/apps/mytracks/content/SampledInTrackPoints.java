@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+/**
+ * The sampled-in track points sent to the {@link TrackDataListener}s, in the
+ * order sent. Used by the {@link TrackDataHub} to thin the sampled-in track
+ * points in memory instead of reloading the track at a lower sampling
+ * frequency. Not thread safe.
+ */
+class SampledInTrackPoints {
+
+  private int size;
+  // The track point ids, in increasing order
+  private long[] ids = new long[64];
+  // The number of each track point among all the loaded track points
+  private int[] numbers = new int[64];
+  // True for the track points to always keep, e.g., after a segment split
+  private boolean[] keeps = new boolean[64];
+
+  /**
+   * Gets the number of sampled-in track points.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Clears the sampled-in track points.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * Adds a sampled-in track point.
+   *
+   * @param id the track point id
+   * @param number the number of the track point among all the loaded track
+   *          points
+   * @param keep true to always keep the track point
+   */
+  public void add(long id, int number, boolean keep) {
+    if (size == ids.length) {
+      int capacity = size * 2;
+      long[] newIds = new long[capacity];
+      System.arraycopy(ids, 0, newIds, 0, size);
+      ids = newIds;
+      int[] newNumbers = new int[capacity];
+      System.arraycopy(numbers, 0, newNumbers, 0, size);
+      numbers = newNumbers;
+      boolean[] newKeeps = new boolean[capacity];
+      System.arraycopy(keeps, 0, newKeeps, 0, size);
+      keeps = newKeeps;
+    }
+    ids[size] = id;
+    numbers[size] = number;
+    keeps[size] = keep;
+    size++;
+  }
+
+  /**
+   * Returns true if a track point is sampled in.
+   *
+   * @param id the track point id
+   */
+  public boolean contains(long id) {
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (ids[middle] < id) {
+        low = middle + 1;
+      } else if (ids[middle] > id) {
+        high = middle - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Thins the sampled-in track points to a sampling frequency. Keeps the track
+   * points whose number is a multiple of the sampling frequency, the track
+   * points to always keep, and the last track point. Returns the indexes of the
+   * removed track points, in increasing order.
+   *
+   * @param samplingFrequency the sampling frequency
+   */
+  public int[] thin(int samplingFrequency) {
+    int[] removed = new int[size];
+    int numberOfRemoved = 0;
+    int newSize = 0;
+    for (int i = 0; i < size; i++) {
+      if (keeps[i] || numbers[i] % samplingFrequency == 0 || i == size - 1) {
+        ids[newSize] = ids[i];
+        numbers[newSize] = numbers[i];
+        keeps[newSize] = keeps[i];
+        newSize++;
+      } else {
+        removed[numberOfRemoved++] = i;
+      }
+    }
+    size = newSize;
+    int[] indexes = new int[numberOfRemoved];
+    System.arraycopy(removed, 0, indexes, 0, numberOfRemoved);
+    return indexes;
+  }
+}
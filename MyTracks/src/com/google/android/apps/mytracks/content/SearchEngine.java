@@ -15,17 +15,22 @@
  */
 package com.google.android.apps.mytracks.content;
 
-import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.LocationUtils;
 import com.google.android.apps.mytracks.util.UnitConversions;
+import com.google.common.annotations.VisibleForTesting;
 
 import android.database.Cursor;
 import android.location.Location;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -36,23 +41,46 @@ import java.util.TreeSet;
  */
 public class SearchEngine {
 
-  /** WHERE query to get tracks by name. */
-  private static final String TRACK_SELECTION_QUERY =
-      TracksColumns.NAME + " LIKE ? OR " +
-      TracksColumns.DESCRIPTION + " LIKE ? OR " +
-      TracksColumns.CATEGORY + " LIKE ?";
+  /** Alias of the matchinfo of a result. */
+  private static final String MATCHINFO = "matchinfo";
 
-  /** WHERE query to get waypoints by name. */
-  private static final String WAYPOINT_SELECTION_QUERY =
-      WaypointsColumns.NAME + " LIKE ? OR " +
-      WaypointsColumns.DESCRIPTION + " LIKE ? OR " +
-      WaypointsColumns.CATEGORY + " LIKE ?";
-
-  /** Order of track results. */
-  private static final String TRACK_SELECTION_ORDER = TracksColumns._ID + " DESC LIMIT 1000";
-
-  /** Order of waypoint results. */
-  private static final String WAYPOINT_SELECTION_ORDER = WaypointsColumns._ID + " DESC";
+  /**
+   * Alias of the number of rows of the tracks or the waypoints table. It only
+   * weights the terms, so it is read by the first search with results of an
+   * engine, i.e., of a search session, instead of counted on every search.
+   */
+  private static final String NUM_ROWS = "numrows";
+
+  /** Columns read to score the track results. */
+  private static final String[] TRACK_PROJECTION = new String[] {
+      TracksColumns._ID,
+      TracksColumns.STARTTIME,
+      TracksColumns.STOPTIME,
+      TracksColumns.MINLAT,
+      TracksColumns.MAXLAT,
+      TracksColumns.MINLON,
+      TracksColumns.MAXLON,
+      SearchIndexColumns.TRACKS_MATCHINFO + " AS " + MATCHINFO };
+
+  /** Columns read to score the track results and count the tracks. */
+  private static final String[] TRACK_NUM_ROWS_PROJECTION = getNumRowsProjection(
+      TRACK_PROJECTION, TracksColumns.TABLE_NAME);
+
+  /** Columns read to score the waypoint results. */
+  private static final String[] WAYPOINT_PROJECTION = new String[] {
+      WaypointsColumns._ID,
+      WaypointsColumns.TRACKID,
+      WaypointsColumns.LATITUDE,
+      WaypointsColumns.LONGITUDE,
+      WaypointsColumns.TIME,
+      SearchIndexColumns.WAYPOINTS_MATCHINFO + " AS " + MATCHINFO };
+
+  /** Columns read to score the waypoint results and count the waypoints. */
+  private static final String[] WAYPOINT_NUM_ROWS_PROJECTION = getNumRowsProjection(
+      WAYPOINT_PROJECTION, WaypointsColumns.TABLE_NAME);
+
+  /** Term frequency saturation of the BM25 relevance. */
+  private static final double BM25_K1 = 1.2;
 
   /** How much we promote a match in the track category. */
   private static final double TRACK_CATEGORY_PROMOTION = 2.0;
@@ -69,8 +97,11 @@ public class SearchEngine {
   /** How much we promote a track result if it's the currently-selected track. */
   private static final double CURRENT_TRACK_DEMOTION = 0.5;
 
-  /** Maximum number of waypoints which will be retrieved and scored. */
-  private static final int MAX_SCORED_WAYPOINTS = 100;
+  /** Maximum number of tracks which will be retrieved, the best scored ones. */
+  private static final int MAX_RETRIEVED_TRACKS = 100;
+
+  /** Maximum number of waypoints which will be retrieved, the best scored ones. */
+  private static final int MAX_RETRIEVED_WAYPOINTS = 100;
 
   /** Oldest timestamp for which we rank based on time (2000-01-01 00:00:00.000) */
   private static final long OLDEST_ALLOWED_TIMESTAMP = 946692000000L;
@@ -148,8 +179,40 @@ public class SearchEngine {
         }
       };
 
+  /**
+   * A track or waypoint result which has been scored but not retrieved yet.
+   */
+  private static class Candidate {
+    Candidate(long id, double score) {
+      this.id = id;
+      this.score = score;
+    }
+
+    final long id;
+    final double score;
+  }
+
+  /** Comparator for candidates, the worst first. */
+  private static final Comparator<Candidate> CANDIDATE_COMPARATOR =
+      new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1, Candidate c2) {
+          int scoreDiff = Double.compare(c1.score, c2.score);
+          if (scoreDiff != 0) {
+            return scoreDiff;
+          }
+
+          // Same arbitrary ordering as the scored results, by ID.
+          return Long.signum(c1.id - c2.id);
+        }
+      };
+
   private final MyTracksProviderUtils providerUtils;
 
+  // Number of rows of the tracks and the waypoints tables, -1 if not read yet
+  private int numTracks = -1;
+  private int numWaypoints = -1;
+
   public SearchEngine(MyTracksProviderUtils providerUtils) {
     this.providerUtils = providerUtils;
   }
@@ -161,40 +224,114 @@ public class SearchEngine {
    * @return a set of results, sorted according to their score
    */
   public SortedSet<ScoredResult> search(SearchQuery query) {
-    ArrayList<Track> tracks = new ArrayList<Track>();
-    ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
     TreeSet<ScoredResult> scoredResults = new TreeSet<ScoredResult>(SCORED_RESULT_COMPARATOR);
+    String match = getMatch(query.textQuery);
+    if (match == null) {
+      return scoredResults;
+    }
 
-    retrieveTracks(query, tracks);
-    retrieveWaypoints(query, waypoints);
-
-    scoreTrackResults(tracks, query, scoredResults);
-    scoreWaypointResults(waypoints, query, scoredResults);
+    retrieveTracks(query, match, scoredResults);
+    retrieveWaypoints(query, match, scoredResults);
 
     return scoredResults;
   }
 
   /**
-   * Retrieves tracks matching the given query from the database.
+   * Gets the full text query of a text query, a prefix term for each word of
+   * the text query. Returns null if the text query has no word.
    *
-   * @param query the query to retrieve for
-   * @param tracks list to fill with the resulting tracks
+   * @param textQuery the text query
    */
-  private void retrieveTracks(SearchQuery query, ArrayList<Track> tracks) {
-    String queryLikeSelection = "%" + query.textQuery + "%";
-    String[] trackSelectionArgs = new String[] {
-        queryLikeSelection,
-        queryLikeSelection,
-        queryLikeSelection };
+  @VisibleForTesting
+  static String getMatch(String textQuery) {
+    StringBuilder match = new StringBuilder();
+    int start = -1;
+    for (int i = 0; i <= textQuery.length(); i++) {
+      if (i < textQuery.length() && Character.isLetterOrDigit(textQuery.charAt(i))) {
+        if (start == -1) {
+          start = i;
+        }
+      } else if (start != -1) {
+        if (match.length() != 0) {
+          match.append(' ');
+        }
+        match.append(textQuery, start, i).append('*');
+        start = -1;
+      }
+    }
+    return match.length() != 0 ? match.toString() : null;
+  }
 
+  /**
+   * Scores the tracks matching the given query, then retrieves the best
+   * scored ones from the database.
+   *
+   * @param query the query to retrieve for
+   * @param match the full text query
+   * @param output the collection to fill with scored results
+   */
+  private void retrieveTracks(SearchQuery query, String match, Collection<ScoredResult> output) {
+    PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(
+        MAX_RETRIEVED_TRACKS, CANDIDATE_COMPARATOR);
     Cursor cursor = null;
     try {
-      cursor = providerUtils.getTrackCursor(
-          TRACK_SELECTION_QUERY, trackSelectionArgs, TRACK_SELECTION_ORDER);
+      cursor = providerUtils.getTrackSearchCursor(
+          numTracks == -1 ? TRACK_NUM_ROWS_PROJECTION : TRACK_PROJECTION, match);
+      if (cursor != null && cursor.moveToFirst()) {
+        int idIndex = cursor.getColumnIndexOrThrow(TracksColumns._ID);
+        int startTimeIndex = cursor.getColumnIndexOrThrow(TracksColumns.STARTTIME);
+        int stopTimeIndex = cursor.getColumnIndexOrThrow(TracksColumns.STOPTIME);
+        int minLatIndex = cursor.getColumnIndexOrThrow(TracksColumns.MINLAT);
+        int maxLatIndex = cursor.getColumnIndexOrThrow(TracksColumns.MAXLAT);
+        int minLonIndex = cursor.getColumnIndexOrThrow(TracksColumns.MINLON);
+        int maxLonIndex = cursor.getColumnIndexOrThrow(TracksColumns.MAXLON);
+        int matchinfoIndex = cursor.getColumnIndexOrThrow(MATCHINFO);
+        if (numTracks == -1) {
+          numTracks = cursor.getInt(cursor.getColumnIndexOrThrow(NUM_ROWS));
+        }
+        double[] idfs = null;
+        do {
+          int[] matchinfo = getMatchinfo(cursor.getBlob(matchinfoIndex));
+          if (idfs == null) {
+            idfs = getIdfs(matchinfo, numTracks);
+          }
+          long id = cursor.getLong(idIndex);
+          long startTime = cursor.isNull(startTimeIndex) ? -1L : cursor.getLong(startTimeIndex);
+          long stopTime = cursor.isNull(stopTimeIndex) ? -1L : cursor.getLong(stopTimeIndex);
+
+          // Same mean position as the trip statistics, NaN without bounds
+          double meanLatitude = Double.NaN;
+          double meanLongitude = Double.NaN;
+          if (!cursor.isNull(minLatIndex) && !cursor.isNull(maxLatIndex)
+              && !cursor.isNull(minLonIndex) && !cursor.isNull(maxLonIndex)) {
+            meanLatitude = (cursor.getInt(minLatIndex) / 1E6 + cursor.getInt(maxLatIndex) / 1E6)
+                / 2.0;
+            meanLongitude = (cursor.getInt(minLonIndex) / 1E6
+                + cursor.getInt(maxLonIndex) / 1E6) / 2.0;
+          }
+          double score = scoreTrackResult(
+              query, id, matchinfo, idfs, meanLatitude, meanLongitude, startTime, stopTime);
+          addCandidate(candidates, new Candidate(id, score), MAX_RETRIEVED_TRACKS);
+        } while (cursor.moveToNext());
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (candidates.isEmpty()) {
+      return;
+    }
+
+    HashMap<Long, Double> scores = new HashMap<Long, Double>();
+    String selection = TracksColumns._ID + " IN (" + getIds(candidates, scores) + ")";
+    cursor = null;
+    try {
+      cursor = providerUtils.getTrackCursor(selection, null, null);
       if (cursor != null) {
-        tracks.ensureCapacity(cursor.getCount());
         while (cursor.moveToNext()) {
-          tracks.add(providerUtils.createTrack(cursor));
+          Track track = providerUtils.createTrack(cursor);
+          output.add(new ScoredResult(track, scores.get(track.getId())));
         }
       }
     } finally {
@@ -205,28 +342,71 @@ public class SearchEngine {
   }
 
   /**
-   * Retrieves waypoints matching the given query from the database.
+   * Scores the waypoints matching the given query, then retrieves the best
+   * scored ones from the database.
    *
    * @param query the query to retrieve for
-   * @param waypoints list to fill with the resulting waypoints
+   * @param match the full text query
+   * @param output the collection to fill with scored results
    */
-  private void retrieveWaypoints(SearchQuery query, ArrayList<Waypoint> waypoints) {
-    String queryLikeSelection2 = "%" + query.textQuery + "%";
-    String[] waypointSelectionArgs = new String[] {
-        queryLikeSelection2,
-        queryLikeSelection2,
-        queryLikeSelection2 };
+  private void retrieveWaypoints(
+      SearchQuery query, String match, Collection<ScoredResult> output) {
+    PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(
+        MAX_RETRIEVED_WAYPOINTS, CANDIDATE_COMPARATOR);
     Cursor cursor = null;
     try {
-      cursor = providerUtils.getWaypointCursor(WAYPOINT_SELECTION_QUERY, waypointSelectionArgs,
-          WAYPOINT_SELECTION_ORDER, MAX_SCORED_WAYPOINTS);
+      cursor = providerUtils.getWaypointSearchCursor(
+          numWaypoints == -1 ? WAYPOINT_NUM_ROWS_PROJECTION : WAYPOINT_PROJECTION, match);
+      if (cursor != null && cursor.moveToFirst()) {
+        int idIndex = cursor.getColumnIndexOrThrow(WaypointsColumns._ID);
+        int trackIdIndex = cursor.getColumnIndexOrThrow(WaypointsColumns.TRACKID);
+        int latitudeIndex = cursor.getColumnIndexOrThrow(WaypointsColumns.LATITUDE);
+        int longitudeIndex = cursor.getColumnIndexOrThrow(WaypointsColumns.LONGITUDE);
+        int timeIndex = cursor.getColumnIndexOrThrow(WaypointsColumns.TIME);
+        int matchinfoIndex = cursor.getColumnIndexOrThrow(MATCHINFO);
+        if (numWaypoints == -1) {
+          numWaypoints = cursor.getInt(cursor.getColumnIndexOrThrow(NUM_ROWS));
+        }
+        double[] idfs = null;
+        Location location = new Location("");
+        do {
+          // Same location as the waypoint, 0 for a missing value
+          location.setLatitude(
+              cursor.isNull(latitudeIndex) ? 0.0 : cursor.getInt(latitudeIndex) / 1E6);
+          location.setLongitude(
+              cursor.isNull(longitudeIndex) ? 0.0 : cursor.getInt(longitudeIndex) / 1E6);
+          location.setTime(cursor.isNull(timeIndex) ? 0L : cursor.getLong(timeIndex));
+          if (!LocationUtils.isValidLocation(location)) {
+            continue;
+          }
+          int[] matchinfo = getMatchinfo(cursor.getBlob(matchinfoIndex));
+          if (idfs == null) {
+            idfs = getIdfs(matchinfo, numWaypoints);
+          }
+          long id = cursor.getLong(idIndex);
+          long trackId = cursor.isNull(trackIdIndex) ? -1L : cursor.getLong(trackIdIndex);
+          double score = scoreWaypointResult(query, trackId, matchinfo, idfs, location);
+          addCandidate(candidates, new Candidate(id, score), MAX_RETRIEVED_WAYPOINTS);
+        } while (cursor.moveToNext());
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    if (candidates.isEmpty()) {
+      return;
+    }
+
+    HashMap<Long, Double> scores = new HashMap<Long, Double>();
+    String selection = WaypointsColumns._ID + " IN (" + getIds(candidates, scores) + ")";
+    cursor = null;
+    try {
+      cursor = providerUtils.getWaypointCursor(selection, null, null, -1);
       if (cursor != null) {
-        waypoints.ensureCapacity(cursor.getCount());
         while (cursor.moveToNext()) {
           Waypoint waypoint = providerUtils.createWaypoint(cursor);
-          if (LocationUtils.isValidLocation(waypoint.getLocation())) {
-            waypoints.add(waypoint);
-          }
+          output.add(new ScoredResult(waypoint, scores.get(waypoint.getId())));
         }
       }
     } finally {
@@ -237,115 +417,218 @@ public class SearchEngine {
   }
 
   /**
-   * Scores a collection of track results.
+   * Adds a candidate, keeping only the best scored ones.
    *
-   * @param tracks the results to score
-   * @param query the query to score for
-   * @param output the collection to fill with scored results
+   * @param candidates the candidates, the worst first
+   * @param candidate the candidate to add
+   * @param maxCandidates the maximum number of candidates
    */
-  private void scoreTrackResults(Collection<Track> tracks, SearchQuery query, Collection<ScoredResult> output) {
-    for (Track track : tracks) {
-      // Calculate the score.
-      double score = scoreTrackResult(query, track);
+  private static void addCandidate(
+      PriorityQueue<Candidate> candidates, Candidate candidate, int maxCandidates) {
+    if (candidates.size() < maxCandidates) {
+      candidates.add(candidate);
+    } else if (CANDIDATE_COMPARATOR.compare(candidate, candidates.peek()) > 0) {
+      candidates.poll();
+      candidates.add(candidate);
+    }
+  }
 
-      // Add to the output.
-      output.add(new ScoredResult(track, score));
+  /**
+   * Gets the comma separated ids of candidates.
+   *
+   * @param candidates the candidates
+   * @param scores the map to fill with the score of each id
+   */
+  private static String getIds(Collection<Candidate> candidates, Map<Long, Double> scores) {
+    StringBuilder ids = new StringBuilder();
+    for (Candidate candidate : candidates) {
+      if (ids.length() != 0) {
+        ids.append(',');
+      }
+      ids.append(candidate.id);
+      scores.put(candidate.id, candidate.score);
     }
+    return ids.toString();
   }
 
   /**
    * Scores a single track result.
    *
    * @param query the query to score for
-   * @param track the results to score
+   * @param trackId the track id
+   * @param matchinfo the matchinfo of the track
+   * @param idfs the inverse document frequencies of the query terms
+   * @param meanLatitude the mean latitude of the track
+   * @param meanLongitude the mean longitude of the track
+   * @param startTime the start time of the track
+   * @param stopTime the stop time of the track
    * @return the score for the track
    */
-  private double scoreTrackResult(SearchQuery query, Track track) {
-    double score = 1.0;
+  private double scoreTrackResult(SearchQuery query, long trackId, int[] matchinfo,
+      double[] idfs, double meanLatitude, double meanLongitude, long startTime, long stopTime) {
+    double score = getRelevance(matchinfo, idfs);
 
-    score *= getTitleBoost(query, track.getName(), track.getDescription(), track.getCategory());
+    score *= getTitleBoost(matchinfo);
 
-    TripStatistics statistics = track.getTripStatistics();
     // TODO: Also boost for proximity to the currently-centered position on the map.
-    score *= getDistanceBoost(query, statistics.getMeanLatitude(), statistics.getMeanLongitude());
+    score *= getDistanceBoost(query, meanLatitude, meanLongitude);
 
-    long meanTimestamp = (statistics.getStartTime() + statistics.getStopTime()) / 2L;
+    long meanTimestamp = (startTime + stopTime) / 2L;
     score *= getTimeBoost(query, meanTimestamp);
 
     // Score the currently-selected track lower (user is already there, wouldn't be searching for it).
-    if (track.getId() == query.currentTrackId) {
+    if (trackId == query.currentTrackId) {
       score *= CURRENT_TRACK_DEMOTION;
     }
 
     return score;
   }
 
-  /**
-   * Scores a collection of waypoint results.
-   *
-   * @param waypoints the results to score
-   * @param query the query to score for
-   * @param output the collection to fill with scored results
-   */
-  private void scoreWaypointResults(Collection<Waypoint> waypoints, SearchQuery query, Collection<ScoredResult> output) {
-    for (Waypoint waypoint : waypoints) {
-      // Calculate the score.
-      double score = scoreWaypointResult(query, waypoint);
-
-      // Add to the output.
-      output.add(new ScoredResult(waypoint, score));
-    }
-  }
-
   /**
    * Scores a single waypoint result.
    *
    * @param query the query to score for
-   * @param waypoint the results to score
+   * @param trackId the track id of the waypoint
+   * @param matchinfo the matchinfo of the waypoint
+   * @param idfs the inverse document frequencies of the query terms
+   * @param location the location of the waypoint
    * @return the score for the waypoint
    */
-  private double scoreWaypointResult(SearchQuery query, Waypoint waypoint) {
-    double score = 1.0;
+  private double scoreWaypointResult(
+      SearchQuery query, long trackId, int[] matchinfo, double[] idfs, Location location) {
+    double score = getRelevance(matchinfo, idfs);
 
-    Location location = waypoint.getLocation();
-    score *= getTitleBoost(query, waypoint.getName(), waypoint.getDescription(), waypoint.getCategory());
+    score *= getTitleBoost(matchinfo);
     // TODO: Also boost for proximity to the currently-centered position on the map.
     score *= getDistanceBoost(query, location.getLatitude(), location.getLongitude());
     score *= getTimeBoost(query, location.getTime());
 
     // Score waypoints in the currently-selected track higher (searching inside the current track).
-    if (query.currentTrackId != -1 && waypoint.getTrackId() == query.currentTrackId) {
+    if (query.currentTrackId != -1 && trackId == query.currentTrackId) {
       score *= CURRENT_TRACK_WAYPOINT_PROMOTION;
     }
 
     return score;
   }
 
+  /**
+   * Gets a projection with the number of rows of a table appended.
+   *
+   * @param projection the projection
+   * @param table the tracks or the waypoints table
+   */
+  private static String[] getNumRowsProjection(String[] projection, String table) {
+    String[] numRowsProjection = new String[projection.length + 1];
+    System.arraycopy(projection, 0, numRowsProjection, 0, projection.length);
+    numRowsProjection[projection.length] = "(SELECT COUNT(*) FROM " + table + ") AS " + NUM_ROWS;
+    return numRowsProjection;
+  }
+
+  /**
+   * Gets the values of a matchinfo blob.
+   *
+   * @param blob the matchinfo blob, in native byte order
+   */
+  private static int[] getMatchinfo(byte[] blob) {
+    IntBuffer buffer = ByteBuffer.wrap(blob).order(ByteOrder.nativeOrder()).asIntBuffer();
+    int[] matchinfo = new int[buffer.remaining()];
+    buffer.get(matchinfo);
+    return matchinfo;
+  }
+
+  /**
+   * Gets a value of a matchinfo for a query term and a column.
+   *
+   * @param matchinfo the matchinfo
+   * @param term the query term
+   * @param column the column
+   * @param value 0 for the number of hits in the row, 1 for the number of hits
+   *          in all the rows, 2 for the number of rows with hits
+   */
+  private static int getMatchinfoValue(int[] matchinfo, int term, int column, int value) {
+    return matchinfo[2 + 3 * (term * matchinfo[1] + column) + value];
+  }
+
+  /**
+   * Calculates the BM25 inverse document frequencies of the query terms. These
+   * are the same for every row of a table.
+   *
+   * @param matchinfo the matchinfo of any matching row
+   * @param numRows the number of rows of the table
+   */
+  private static double[] getIdfs(int[] matchinfo, int numRows) {
+    double[] idfs = new double[matchinfo[0]];
+    for (int i = 0; i < idfs.length; i++) {
+      // A row with hits in several columns is counted once per column
+      int rows = 0;
+      for (int j = 0; j < matchinfo[1]; j++) {
+        rows += getMatchinfoValue(matchinfo, i, j, 2);
+      }
+      rows = Math.min(rows, numRows);
+      idfs[i] = Math.log1p((numRows - rows + 0.5) / (rows + 0.5));
+    }
+    return idfs;
+  }
+
+  /**
+   * Calculates the BM25 relevance of a row, without length normalization,
+   * divided by the sum of the inverse document frequencies. The relevance of a
+   * row with one hit per query term is 1, so that the relevances of the tracks
+   * and the waypoints are comparable.
+   *
+   * @param matchinfo the matchinfo of the row
+   * @param idfs the inverse document frequencies of the query terms
+   */
+  private static double getRelevance(int[] matchinfo, double[] idfs) {
+    double relevance = 0.0;
+    double sum = 0.0;
+    for (int i = 0; i < idfs.length; i++) {
+      int hits = 0;
+      for (int j = 0; j < matchinfo[1]; j++) {
+        hits += getMatchinfoValue(matchinfo, i, j, 0);
+      }
+      relevance += idfs[i] * hits * (BM25_K1 + 1.0) / (hits + BM25_K1);
+      sum += idfs[i];
+    }
+    return relevance / sum;
+  }
+
   /**
    * Calculates the boosting of the score due to the field(s) in which the match occured.
    *
-   * @param query the query to boost for
-   * @param name the name of the track or waypoint
-   * @param description the description of the track or waypoint
-   * @param category the category of the track or waypoint
+   * @param matchinfo the matchinfo of the track or waypoint
    * @return the total boost to be applied to the result
    */
-  private double getTitleBoost(SearchQuery query,
-      String name, String description, String category) {
+  private static double getTitleBoost(int[] matchinfo) {
     // Title boost: track name > description > category.
     double boost = 1.0;
-    if (name.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
+    if (hasHits(matchinfo, SearchIndexColumns.NAME_COLUMN)) {
       boost *= TRACK_NAME_PROMOTION;
     }
-    if (description.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
+    if (hasHits(matchinfo, SearchIndexColumns.DESCRIPTION_COLUMN)) {
       boost *= TRACK_DESCRIPTION_PROMOTION;
     }
-    if (category.toLowerCase(Locale.getDefault()).contains(query.textQuery)) {
+    if (hasHits(matchinfo, SearchIndexColumns.CATEGORY_COLUMN)) {
       boost *= TRACK_CATEGORY_PROMOTION;
     }
     return boost;
   }
 
+  /**
+   * Returns true if a query term has hits in a column.
+   *
+   * @param matchinfo the matchinfo of the row
+   * @param column the column
+   */
+  private static boolean hasHits(int[] matchinfo, int column) {
+    for (int i = 0; i < matchinfo[0]; i++) {
+      if (getMatchinfoValue(matchinfo, i, column, 0) > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Calculates the boosting of the score due to the recency of the matched entity.
    *
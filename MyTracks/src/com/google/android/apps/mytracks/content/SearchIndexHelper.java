@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Maintains the full text search index tables. Triggers on the tracks and the
+ * waypoints tables insert the text of an inserted track or waypoint, update it
+ * when its name, description, or category is updated, and delete it when it is
+ * deleted.
+ */
+class SearchIndexHelper {
+
+  private static final String TRACKS_INSERT_TRIGGER = "searchindex_tracks_insert_trigger";
+  private static final String TRACKS_UPDATE_TRIGGER = "searchindex_tracks_update_trigger";
+  private static final String TRACKS_DELETE_TRIGGER = "searchindex_tracks_delete_trigger";
+  private static final String WAYPOINTS_INSERT_TRIGGER = "searchindex_waypoints_insert_trigger";
+  private static final String WAYPOINTS_UPDATE_TRIGGER = "searchindex_waypoints_update_trigger";
+  private static final String WAYPOINTS_DELETE_TRIGGER = "searchindex_waypoints_delete_trigger";
+
+  private SearchIndexHelper() {}
+
+  /**
+   * Creates the search index tables, and the tracks and waypoints tables
+   * triggers maintaining them. The search index tables must not exist.
+   *
+   * @param db the database
+   */
+  static void create(SQLiteDatabase db) {
+    db.execSQL(SearchIndexColumns.CREATE_TRACKS_TABLE);
+    db.execSQL(SearchIndexColumns.CREATE_WAYPOINTS_TABLE);
+    createTriggers(db, TracksColumns.TABLE_NAME, SearchIndexColumns.TRACKS_TABLE_NAME,
+        TRACKS_INSERT_TRIGGER, TRACKS_UPDATE_TRIGGER, TRACKS_DELETE_TRIGGER);
+    createTriggers(db, WaypointsColumns.TABLE_NAME, SearchIndexColumns.WAYPOINTS_TABLE_NAME,
+        WAYPOINTS_INSERT_TRIGGER, WAYPOINTS_UPDATE_TRIGGER, WAYPOINTS_DELETE_TRIGGER);
+  }
+
+  /**
+   * Recomputes the search index tables from the tracks and the waypoints
+   * tables. Call in a transaction.
+   *
+   * @param db the database
+   */
+  static void rebuild(SQLiteDatabase db) {
+    db.execSQL("DELETE FROM " + SearchIndexColumns.TRACKS_TABLE_NAME);
+    db.execSQL(getInsert(SearchIndexColumns.TRACKS_TABLE_NAME) + " SELECT " + TracksColumns._ID
+        + ", " + TracksColumns.NAME + ", " + TracksColumns.DESCRIPTION + ", "
+        + TracksColumns.CATEGORY + " FROM " + TracksColumns.TABLE_NAME);
+    db.execSQL("DELETE FROM " + SearchIndexColumns.WAYPOINTS_TABLE_NAME);
+    db.execSQL(getInsert(SearchIndexColumns.WAYPOINTS_TABLE_NAME) + " SELECT "
+        + WaypointsColumns._ID + ", " + WaypointsColumns.NAME + ", "
+        + WaypointsColumns.DESCRIPTION + ", " + WaypointsColumns.CATEGORY + " FROM "
+        + WaypointsColumns.TABLE_NAME);
+  }
+
+  /**
+   * Creates the triggers maintaining a search index table. The tracks and the
+   * waypoints tables have the same _id, name, description, and category
+   * columns.
+   *
+   * @param db the database
+   * @param table the tracks or the waypoints table
+   * @param index the search index table
+   * @param insertTrigger the insert trigger name
+   * @param updateTrigger the update trigger name
+   * @param deleteTrigger the delete trigger name
+   */
+  private static void createTriggers(SQLiteDatabase db, String table, String index,
+      String insertTrigger, String updateTrigger, String deleteTrigger) {
+    String changed = "OLD." + TracksColumns.NAME + " IS NOT NEW." + TracksColumns.NAME
+        + " OR OLD." + TracksColumns.DESCRIPTION + " IS NOT NEW." + TracksColumns.DESCRIPTION
+        + " OR OLD." + TracksColumns.CATEGORY + " IS NOT NEW." + TracksColumns.CATEGORY;
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + insertTrigger + " AFTER INSERT ON " + table
+        + " BEGIN " + getInsert(index) + " VALUES (NEW." + TracksColumns._ID + ", NEW."
+        + TracksColumns.NAME + ", NEW." + TracksColumns.DESCRIPTION + ", NEW."
+        + TracksColumns.CATEGORY + "); END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + updateTrigger + " AFTER UPDATE ON " + table
+        + " WHEN " + changed + " BEGIN UPDATE " + index + " SET " + SearchIndexColumns.NAME
+        + " = NEW." + TracksColumns.NAME + ", " + SearchIndexColumns.DESCRIPTION + " = NEW."
+        + TracksColumns.DESCRIPTION + ", " + SearchIndexColumns.CATEGORY + " = NEW."
+        + TracksColumns.CATEGORY + " WHERE " + SearchIndexColumns.DOCID + " = OLD."
+        + TracksColumns._ID + "; END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + deleteTrigger + " AFTER DELETE ON " + table
+        + " BEGIN DELETE FROM " + index + " WHERE " + SearchIndexColumns.DOCID + " = OLD."
+        + TracksColumns._ID + "; END;");
+  }
+
+  /**
+   * Gets the beginning of the statement inserting rows in a search index
+   * table.
+   *
+   * @param index the search index table
+   */
+  private static String getInsert(String index) {
+    return "INSERT INTO " + index + " (" + SearchIndexColumns.DOCID + ", "
+        + SearchIndexColumns.NAME + ", " + SearchIndexColumns.DESCRIPTION + ", "
+        + SearchIndexColumns.CATEGORY + ")";
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Maintains the spatial index tables. Triggers on the tracks and the waypoints
+ * tables insert the cell of an inserted track or waypoint, replace it when its
+ * bounding box or location is updated, and delete it when it is deleted. A
+ * track without a valid bounding box, e.g., without track points, or a
+ * waypoint without a valid location, is not indexed.
+ * <p>
+ * The SQLite of the platform is not built with the R*Tree module, hence the
+ * cells computed with integer shifts.
+ */
+class SpatialIndexHelper {
+
+  private static final String TRACKS_INSERT_TRIGGER = "spatialindex_tracks_insert_trigger";
+  private static final String TRACKS_UPDATE_TRIGGER = "spatialindex_tracks_update_trigger";
+  private static final String TRACKS_DELETE_TRIGGER = "spatialindex_tracks_delete_trigger";
+  private static final String WAYPOINTS_INSERT_TRIGGER = "spatialindex_waypoints_insert_trigger";
+  private static final String WAYPOINTS_UPDATE_TRIGGER = "spatialindex_waypoints_update_trigger";
+  private static final String WAYPOINTS_DELETE_TRIGGER = "spatialindex_waypoints_delete_trigger";
+
+  private SpatialIndexHelper() {}
+
+  /**
+   * Creates the spatial index tables, their indexes, and the tracks and
+   * waypoints tables triggers maintaining them, if they don't exist.
+   *
+   * @param db the database
+   */
+  static void create(SQLiteDatabase db) {
+    db.execSQL(SpatialIndexColumns.CREATE_TRACKS_TABLE);
+    db.execSQL(SpatialIndexColumns.CREATE_TRACKS_LEVEL_CELLX_CELLY_INDEX);
+    db.execSQL(SpatialIndexColumns.CREATE_WAYPOINTS_TABLE);
+    db.execSQL(SpatialIndexColumns.CREATE_WAYPOINTS_LEVEL_CELLX_CELLY_INDEX);
+
+    String tracks = TracksColumns.TABLE_NAME;
+    String tracksIndex = SpatialIndexColumns.TRACKS_TABLE_NAME;
+    String trackChanged = "OLD." + TracksColumns.MINLAT + " IS NOT NEW." + TracksColumns.MINLAT
+        + " OR OLD." + TracksColumns.MAXLAT + " IS NOT NEW." + TracksColumns.MAXLAT + " OR OLD."
+        + TracksColumns.MINLON + " IS NOT NEW." + TracksColumns.MINLON + " OR OLD."
+        + TracksColumns.MAXLON + " IS NOT NEW." + TracksColumns.MAXLON;
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRACKS_INSERT_TRIGGER + " AFTER INSERT ON "
+        + tracks + " BEGIN " + getInsertTrack("NEW.") + "; END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRACKS_UPDATE_TRIGGER + " AFTER UPDATE ON "
+        + tracks + " WHEN " + trackChanged + " BEGIN " + getDelete(tracksIndex) + "; "
+        + getInsertTrack("NEW.") + "; END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRACKS_DELETE_TRIGGER + " AFTER DELETE ON "
+        + tracks + " BEGIN " + getDelete(tracksIndex) + "; END;");
+
+    String waypoints = WaypointsColumns.TABLE_NAME;
+    String waypointsIndex = SpatialIndexColumns.WAYPOINTS_TABLE_NAME;
+    String waypointChanged = "OLD." + WaypointsColumns.LATITUDE + " IS NOT NEW."
+        + WaypointsColumns.LATITUDE + " OR OLD." + WaypointsColumns.LONGITUDE + " IS NOT NEW."
+        + WaypointsColumns.LONGITUDE;
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + WAYPOINTS_INSERT_TRIGGER + " AFTER INSERT ON "
+        + waypoints + " BEGIN " + getInsertWaypoint("NEW.") + "; END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + WAYPOINTS_UPDATE_TRIGGER + " AFTER UPDATE ON "
+        + waypoints + " WHEN " + waypointChanged + " BEGIN " + getDelete(waypointsIndex) + "; "
+        + getInsertWaypoint("NEW.") + "; END;");
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + WAYPOINTS_DELETE_TRIGGER + " AFTER DELETE ON "
+        + waypoints + " BEGIN " + getDelete(waypointsIndex) + "; END;");
+  }
+
+  /**
+   * Recomputes the spatial index tables from the tracks and the waypoints
+   * tables. Call in a transaction.
+   *
+   * @param db the database
+   */
+  static void rebuild(SQLiteDatabase db) {
+    db.execSQL("DELETE FROM " + SpatialIndexColumns.TRACKS_TABLE_NAME);
+    db.execSQL(getInsertTrack(""));
+    db.execSQL("DELETE FROM " + SpatialIndexColumns.WAYPOINTS_TABLE_NAME);
+    db.execSQL(getInsertWaypoint(""));
+  }
+
+  /**
+   * Gets the statement inserting the cells of tracks.
+   *
+   * @param row the track row prefix, "NEW." in a trigger, empty to insert the
+   *          cells of the tracks table
+   */
+  private static String getInsertTrack(String row) {
+    return getInsert(SpatialIndexColumns.TRACKS_TABLE_NAME, "SELECT " + row + TracksColumns._ID
+        + " AS " + TracksColumns._ID + ", " + row + TracksColumns.MINLAT + " AS "
+        + TracksColumns.MINLAT + ", " + row + TracksColumns.MAXLAT + " AS "
+        + TracksColumns.MAXLAT + ", " + row + TracksColumns.MINLON + " AS "
+        + TracksColumns.MINLON + ", " + row + TracksColumns.MAXLON + " AS "
+        + TracksColumns.MAXLON + (row.length() == 0 ? " FROM " + TracksColumns.TABLE_NAME : ""));
+  }
+
+  /**
+   * Gets the statement inserting the cells of waypoints.
+   *
+   * @param row the waypoint row prefix, "NEW." in a trigger, empty to insert
+   *          the cells of the waypoints table
+   */
+  private static String getInsertWaypoint(String row) {
+    String latitude = row + WaypointsColumns.LATITUDE;
+    String longitude = row + WaypointsColumns.LONGITUDE;
+    return getInsert(SpatialIndexColumns.WAYPOINTS_TABLE_NAME, "SELECT " + row
+        + WaypointsColumns._ID + " AS " + TracksColumns._ID + ", " + latitude + " AS "
+        + TracksColumns.MINLAT + ", " + latitude + " AS " + TracksColumns.MAXLAT + ", "
+        + longitude + " AS " + TracksColumns.MINLON + ", " + longitude + " AS "
+        + TracksColumns.MAXLON + (row.length() == 0 ? " FROM " + WaypointsColumns.TABLE_NAME : ""));
+  }
+
+  /**
+   * Gets the statement inserting the smallest cells containing bounding boxes.
+   *
+   * @param table the spatial index table
+   * @param boxes the query of the bounding boxes, in microdegrees, with the
+   *          columns of the tracks table
+   */
+  private static String getInsert(String table, String boxes) {
+    String minX = "(" + TracksColumns.MINLON + " + " + SpatialIndexColumns.LONGITUDE_OFFSET + ")";
+    String maxX = "(" + TracksColumns.MAXLON + " + " + SpatialIndexColumns.LONGITUDE_OFFSET + ")";
+    String minY = "(" + TracksColumns.MINLAT + " + " + SpatialIndexColumns.LATITUDE_OFFSET + ")";
+    String maxY = "(" + TracksColumns.MAXLAT + " + " + SpatialIndexColumns.LATITUDE_OFFSET + ")";
+
+    // The smallest level where both corners are in the same cell
+    StringBuilder level = new StringBuilder("CASE");
+    for (int i = SpatialIndexColumns.MIN_LEVEL; i < SpatialIndexColumns.MAX_LEVEL; i++) {
+      level.append(" WHEN ").append(minX).append(" >> ").append(i).append(" = ").append(maxX)
+          .append(" >> ").append(i).append(" AND ").append(minY).append(" >> ").append(i)
+          .append(" = ").append(maxY).append(" >> ").append(i).append(" THEN ").append(i);
+    }
+    level.append(" ELSE ").append(SpatialIndexColumns.MAX_LEVEL).append(" END");
+
+    String valid = TracksColumns.MINLAT + " >= -" + SpatialIndexColumns.LATITUDE_OFFSET + " AND "
+        + TracksColumns.MINLAT + " <= " + TracksColumns.MAXLAT + " AND " + TracksColumns.MAXLAT
+        + " <= " + SpatialIndexColumns.LATITUDE_OFFSET + " AND " + TracksColumns.MINLON + " >= -"
+        + SpatialIndexColumns.LONGITUDE_OFFSET + " AND " + TracksColumns.MINLON + " <= "
+        + TracksColumns.MAXLON + " AND " + TracksColumns.MAXLON + " <= "
+        + SpatialIndexColumns.LONGITUDE_OFFSET;
+
+    return "INSERT OR REPLACE INTO " + table + " (" + SpatialIndexColumns._ID + ", "
+        + SpatialIndexColumns.LEVEL + ", " + SpatialIndexColumns.CELLX + ", "
+        + SpatialIndexColumns.CELLY + ") SELECT " + SpatialIndexColumns._ID + ", "
+        + SpatialIndexColumns.LEVEL + ", x >> " + SpatialIndexColumns.LEVEL + ", y >> "
+        + SpatialIndexColumns.LEVEL + " FROM (SELECT " + TracksColumns._ID + ", " + minX
+        + " AS x, " + minY + " AS y, " + level + " AS " + SpatialIndexColumns.LEVEL + " FROM ("
+        + boxes + ") WHERE " + valid + ")";
+  }
+
+  /**
+   * Gets the statement deleting the cell of the old row.
+   *
+   * @param table the spatial index table
+   */
+  private static String getDelete(String table) {
+    return "DELETE FROM " + table + " WHERE " + SpatialIndexColumns._ID + " = OLD."
+        + SpatialIndexColumns._ID;
+  }
+}
@@ -54,11 +54,18 @@ public class TrackDataHub implements DataSourceListener {
    * more than this number of points.
    */
   public static final int TARGET_DISPLAYED_TRACK_POINTS = 5000;
+
+  /**
+   * Maximum number of track points in a {@link TrackPointBatch}.
+   */
+  @VisibleForTesting
+  static final int MAX_TRACK_POINT_BATCH_SIZE = 1024;
   
   private final Context context;
   private final TrackDataManager trackDataManager;
   private final MyTracksProviderUtils myTracksProviderUtils;
   private final int targetNumPoints;
+  private final long coalescingWindow;
 
   private boolean started;
   private HandlerThread handlerThread;
@@ -80,13 +87,20 @@ public class TrackDataHub implements DataSourceListener {
   private int numLoadedPoints;
   private long firstSeenLocationId;
   private long lastSeenLocationId;
+  // The minimum sampling frequency, raised each time the track points are thinned
+  private int minSamplingFrequency;
+  private final SampledInTrackPoints sampledInTrackPoints = new SampledInTrackPoints();
+
+  // The last track point id sent to the TRACK_POINT_BUFFER listeners
+  private long trackPointBufferTrackId;
+  private long trackPointBufferLastId;
 
   /**
    * Creates a new instance.
    */
   public synchronized static TrackDataHub newInstance(Context context) {
     return new TrackDataHub(context, new TrackDataManager(), MyTracksProviderUtils.Factory.get(
-        context), TARGET_DISPLAYED_TRACK_POINTS);
+        context), TARGET_DISPLAYED_TRACK_POINTS, DataSourceManager.DEFAULT_COALESCING_WINDOW);
   }
 
   /**
@@ -96,15 +110,20 @@ public class TrackDataHub implements DataSourceListener {
    * @param trackDataManager the track data manager
    * @param myTracksProviderUtils the my tracks provider utils
    * @param targetNumPoints the target number of points
+   * @param coalescingWindow the window, in milliseconds, in which table
+   *          changes are coalesced
    */
   @VisibleForTesting
   TrackDataHub(Context context, TrackDataManager trackDataManager,
-      MyTracksProviderUtils myTracksProviderUtils, int targetNumPoints) {
+      MyTracksProviderUtils myTracksProviderUtils, int targetNumPoints, long coalescingWindow) {
     this.context = context;
     this.trackDataManager = trackDataManager;
     this.myTracksProviderUtils = myTracksProviderUtils;
     this.targetNumPoints = targetNumPoints;
+    this.coalescingWindow = coalescingWindow;
     resetSamplingState();
+    trackPointBufferTrackId = -1L;
+    trackPointBufferLastId = -1L;
   }
 
   /**
@@ -120,7 +139,7 @@ public class TrackDataHub implements DataSourceListener {
     handlerThread.start();
     handler = new Handler(handlerThread.getLooper());
     dataSource = newDataSource();
-    dataSourceManager = new DataSourceManager(dataSource, this);
+    dataSourceManager = new DataSourceManager(dataSource, this, coalescingWindow);
 
     notifyPreferenceChanged(null);
     runInHanderThread(new Runnable() {
@@ -134,6 +153,14 @@ public class TrackDataHub implements DataSourceListener {
     });
   }
 
+  /**
+   * Gets the data source manager. Null if not started.
+   */
+  @VisibleForTesting
+  DataSourceManager getDataSourceManager() {
+    return dataSourceManager;
+  }
+
   /**
    * Stops.
    */
@@ -264,7 +291,10 @@ public class TrackDataHub implements DataSourceListener {
       public void run() {
         notifyTrackPointsTableUpdate(
             true, trackDataManager.getListeners(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE),
-            trackDataManager.getListeners(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE));
+            trackDataManager.getListeners(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE),
+            trackDataManager.getListeners(TrackDataType.SAMPLED_TRACK_POINT_BATCHES));
+        notifyTrackPointBufferUpdate(null);
+        notifyLastTrackPointUpdate(trackDataManager.getListeners(TrackDataType.LAST_TRACK_POINT));
       }
     });
   }
@@ -375,9 +405,30 @@ public class TrackDataHub implements DataSourceListener {
         trackDataManager.getListeners(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE)) {
       listener.clearTrackPoints();
     }
+    for (TrackDataListener listener :
+        trackDataManager.getListeners(TrackDataType.SAMPLED_TRACK_POINT_BATCHES)) {
+      if (!trackDataManager.getTrackDataTypes(listener).contains(
+          TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE)) {
+        listener.clearTrackPoints();
+      }
+    }
     notifyTrackPointsTableUpdate(true,
         trackDataManager.getListeners(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE),
-        trackDataManager.getListeners(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE));
+        trackDataManager.getListeners(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE),
+        trackDataManager.getListeners(TrackDataType.SAMPLED_TRACK_POINT_BATCHES));
+
+    trackPointBufferLastId = -1L;
+    for (TrackDataListener listener :
+        trackDataManager.getListeners(TrackDataType.TRACK_POINT_BUFFER)) {
+      if (!trackDataManager.getTrackDataTypes(listener).contains(
+          TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE)) {
+        listener.clearTrackPoints();
+      }
+    }
+    notifyTrackPointBufferUpdate(null);
+
+    notifyLastTrackPointUpdate(trackDataManager.getListeners(TrackDataType.LAST_TRACK_POINT));
+
     notifyWaypointsTableUpdate(trackDataManager.getListeners(TrackDataType.WAYPOINTS_TABLE));
   }
 
@@ -404,16 +455,32 @@ public class TrackDataHub implements DataSourceListener {
 
     boolean hasSampledIn = trackDataTypes.contains(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE);
     boolean hasSampledOut = trackDataTypes.contains(TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE);
-    if (hasSampledIn || hasSampledOut) {
+    boolean hasBatches = trackDataTypes.contains(TrackDataType.SAMPLED_TRACK_POINT_BATCHES);
+    if (hasSampledIn || hasSampledOut || hasBatches) {
       trackDataListener.clearTrackPoints();
       boolean isOnlyListener = trackDataManager.getNumberOfListeners() == 1;
       if (isOnlyListener) {
         resetSamplingState();
       }
-      Set<TrackDataListener> sampledInListeners = trackDataListeners;
+      Set<TrackDataListener> noListeners = Collections.<TrackDataListener> emptySet();
+      Set<TrackDataListener> sampledInListeners = hasSampledIn || hasSampledOut
+          ? trackDataListeners : noListeners;
       Set<TrackDataListener> sampledOutListeners = hasSampledOut ? trackDataListeners
-          : Collections.<TrackDataListener> emptySet();
-      notifyTrackPointsTableUpdate(isOnlyListener, sampledInListeners, sampledOutListeners);
+          : noListeners;
+      Set<TrackDataListener> batchListeners = hasBatches ? trackDataListeners : noListeners;
+      notifyTrackPointsTableUpdate(
+          isOnlyListener, sampledInListeners, sampledOutListeners, batchListeners);
+    }
+
+    if (trackDataTypes.contains(TrackDataType.TRACK_POINT_BUFFER)) {
+      if (!hasSampledIn && !hasSampledOut && !hasBatches) {
+        trackDataListener.clearTrackPoints();
+      }
+      notifyTrackPointBufferUpdate(trackDataListener);
+    }
+
+    if (trackDataTypes.contains(TrackDataType.LAST_TRACK_POINT)) {
+      notifyLastTrackPointUpdate(trackDataListeners);
     }
 
     if (trackDataTypes.contains(TrackDataType.WAYPOINTS_TABLE)) {
@@ -485,18 +552,30 @@ public class TrackDataHub implements DataSourceListener {
    * @param updateSamplingState true to update the sampling state
    * @param sampledInListeners the sampled-in listeners
    * @param sampledOutListeners the sampled-out listeners
+   * @param batchListeners the track point batch listeners
    */
   private void notifyTrackPointsTableUpdate(boolean updateSamplingState,
-      Set<TrackDataListener> sampledInListeners, Set<TrackDataListener> sampledOutListeners) {
-    if (sampledInListeners.isEmpty() && sampledOutListeners.isEmpty()) {
+      Set<TrackDataListener> sampledInListeners, Set<TrackDataListener> sampledOutListeners,
+      Set<TrackDataListener> batchListeners) {
+    if (sampledInListeners.isEmpty() && sampledOutListeners.isEmpty()
+        && batchListeners.isEmpty()) {
       return;
     }
-    if (updateSamplingState && numLoadedPoints >= targetNumPoints) {
-      // Reload and resample the track at a lower frequency.
-      Log.i(TAG, "Resampling track after " + numLoadedPoints + " points.");
-      resetSamplingState();
+    if (updateSamplingState && sampledInTrackPoints.size() >= targetNumPoints) {
+      // Thin the sent track points in memory and sample at a lower frequency.
+      int requiredSamplingFrequency = 2 * Math.max(minSamplingFrequency, 1 + (int) (Math.max(
+          0L, lastSeenLocationId - firstSeenLocationId) / targetNumPoints));
+      minSamplingFrequency = getSamplingFrequency(minSamplingFrequency, requiredSamplingFrequency);
+      int[] indexes = sampledInTrackPoints.thin(minSamplingFrequency);
+      Log.i(TAG, "Thinning " + indexes.length + " track points after " + numLoadedPoints
+          + " points.");
       for (TrackDataListener listener : sampledInListeners) {
-        listener.clearTrackPoints();
+        listener.onSampledInTrackPointsRemoved(indexes);
+      }
+      for (TrackDataListener listener : batchListeners) {
+        if (!sampledInListeners.contains(listener)) {
+          listener.onSampledInTrackPointsRemoved(indexes);
+        }
       }
     }
 
@@ -505,10 +584,16 @@ public class TrackDataHub implements DataSourceListener {
     long localLastSeenLocationId = updateSamplingState ? lastSeenLocationId : -1L;
     long maxPointId = updateSamplingState ? -1L : lastSeenLocationId;
 
+    // Send the same sampled-in track points as the other listeners
+    boolean replay = !updateSamplingState && lastSeenLocationId != -1L;
+
     long lastTrackPointId = myTracksProviderUtils.getLastTrackPointId(selectedTrackId);
     int samplingFrequency = -1;
     boolean includeNextPoint = false;
     LocationIterator locationIterator = null;
+    TrackPointBatch trackPointBatch = batchListeners.isEmpty() ? null
+        : new TrackPointBatch(updateSamplingState ? sampledInTrackPoints.size() : 0,
+            MAX_TRACK_POINT_BATCH_SIZE);
 
     try {
       locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(selectedTrackId,
@@ -529,27 +614,49 @@ public class TrackDataHub implements DataSourceListener {
 
         if (samplingFrequency == -1) {
           long numTotalPoints = Math.max(0L, lastTrackPointId - localFirstSeenLocationId);
-          samplingFrequency = 1 + (int) (numTotalPoints / targetNumPoints);
+          samplingFrequency = getSamplingFrequency(
+              minSamplingFrequency, 1 + (int) (numTotalPoints / targetNumPoints));
+        }
+
+        if (trackPointBatch != null && trackPointBatch.size() == MAX_TRACK_POINT_BATCH_SIZE) {
+          notifyTrackPointBatch(batchListeners, trackPointBatch);
+          trackPointBatch = new TrackPointBatch(
+              trackPointBatch.getStartIndex() + trackPointBatch.getNumberOfSampledIn(),
+              MAX_TRACK_POINT_BATCH_SIZE);
         }
 
         if (!LocationUtils.isValidLocation(location)) {
           // TODO: also include the last valid point before a split
           for (TrackDataListener trackDataListener : sampledInListeners) {
             trackDataListener.onSegmentSplit(location);
-            includeNextPoint = true;
           }
+          if (trackPointBatch != null) {
+            trackPointBatch.append(locationId, location, false);
+          }
+          includeNextPoint = true;
         } else {
           // Also include the last point if the selected track is not recording.
-          if (includeNextPoint || (localNumLoadedPoints % samplingFrequency == 0)
-              || (locationId == lastTrackPointId && !isSelectedTrackRecording())) {
+          boolean keep = includeNextPoint
+              || (locationId == lastTrackPointId && !isSelectedTrackRecording());
+          if (replay ? sampledInTrackPoints.contains(locationId)
+              : keep || (localNumLoadedPoints % samplingFrequency == 0)) {
             includeNextPoint = false;
+            if (updateSamplingState) {
+              sampledInTrackPoints.add(locationId, localNumLoadedPoints, keep);
+            }
             for (TrackDataListener trackDataListener : sampledInListeners) {
               trackDataListener.onSampledInTrackPoint(location);
             }
+            if (trackPointBatch != null) {
+              trackPointBatch.append(locationId, location, true);
+            }
           } else {
             for (TrackDataListener trackDataListener : sampledOutListeners) {
               trackDataListener.onSampledOutTrackPoint(location);
             }
+            if (trackPointBatch != null) {
+              trackPointBatch.append(locationId, location, false);
+            }
           }
         }
 
@@ -571,6 +678,106 @@ public class TrackDataHub implements DataSourceListener {
     for (TrackDataListener listener : sampledInListeners) {
       listener.onNewTrackPointsDone();
     }
+    if (trackPointBatch != null && trackPointBatch.size() != 0) {
+      notifyTrackPointBatch(batchListeners, trackPointBatch);
+    }
+  }
+
+  /**
+   * Sends a track point batch to the
+   * {@link TrackDataType#SAMPLED_TRACK_POINT_BATCHES} listeners. To be run in
+   * the {@link #handler} thread.
+   * 
+   * @param batchListeners the track point batch listeners
+   * @param trackPointBatch the track point batch
+   */
+  private void notifyTrackPointBatch(
+      Set<TrackDataListener> batchListeners, TrackPointBatch trackPointBatch) {
+    for (TrackDataListener trackDataListener : batchListeners) {
+      trackDataListener.onSampledTrackPoints(trackPointBatch);
+    }
+  }
+
+  /**
+   * Notifies last track point update. Reads the last valid track point of the
+   * selected track. To be run in the {@link #handler} thread.
+   * 
+   * @param trackDataListeners the track data listeners to notify
+   */
+  private void notifyLastTrackPointUpdate(Set<TrackDataListener> trackDataListeners) {
+    if (trackDataListeners.isEmpty()) {
+      return;
+    }
+    Location location = myTracksProviderUtils.getLastValidTrackPoint(selectedTrackId);
+    for (TrackDataListener trackDataListener : trackDataListeners) {
+      trackDataListener.onLastTrackPoint(location);
+    }
+  }
+
+  /**
+   * Notifies track point buffer update. Reads the track points of the selected
+   * track after the last one sent and sends them to the
+   * {@link TrackDataType#TRACK_POINT_BUFFER} listeners. The buffer is not kept,
+   * so the listeners only keep what they need. Reads the sensor data only if a
+   * listener is registered for
+   * {@link TrackDataType#TRACK_POINT_BUFFER_SENSOR_DATA}. To be run in the
+   * {@link #handler} thread.
+   * 
+   * @param reloadListener a listener to send all the track points to instead of
+   *          only the new ones. Can be null.
+   */
+  private void notifyTrackPointBufferUpdate(TrackDataListener reloadListener) {
+    Set<TrackDataListener> trackDataListeners = trackDataManager.getListeners(
+        TrackDataType.TRACK_POINT_BUFFER);
+    if (trackDataListeners.isEmpty()) {
+      return;
+    }
+    if (trackPointBufferTrackId != selectedTrackId) {
+      trackPointBufferTrackId = selectedTrackId;
+      trackPointBufferLastId = -1L;
+    }
+    boolean includeSensorData = !trackDataManager.getListeners(
+        TrackDataType.TRACK_POINT_BUFFER_SENSOR_DATA).isEmpty();
+    TrackPointBuffer trackPointBuffer = new TrackPointBuffer();
+    trackPointBuffer.fill(myTracksProviderUtils, selectedTrackId,
+        reloadListener != null ? 0L : trackPointBufferLastId + 1, includeSensorData);
+
+    // The index of the first track point not yet sent to the other listeners
+    int start = trackPointBuffer.size();
+    while (start > 0 && trackPointBuffer.getId(start - 1) > trackPointBufferLastId) {
+      start--;
+    }
+    int count = trackPointBuffer.size() - start;
+    if (trackPointBuffer.size() != 0) {
+      trackPointBufferLastId = trackPointBuffer.getLastId();
+    }
+    for (TrackDataListener trackDataListener : trackDataListeners) {
+      if (trackDataListener == reloadListener) {
+        if (trackPointBuffer.size() != 0) {
+          trackDataListener.onTrackPointsAppended(trackPointBuffer, 0, trackPointBuffer.size());
+        }
+      } else if (count != 0) {
+        trackDataListener.onTrackPointsAppended(trackPointBuffer, start, count);
+      }
+    }
+  }
+
+  /**
+   * Gets the smallest power of two multiple of the min sampling frequency that
+   * is at least a required sampling frequency. The track points sampled in at
+   * such frequencies are all sampled in at their lower frequencies, so thinning
+   * the sent track points keeps the ones a reload would sample in.
+   * 
+   * @param minSamplingFrequency the min sampling frequency
+   * @param requiredSamplingFrequency the required sampling frequency
+   */
+  @VisibleForTesting
+  static int getSamplingFrequency(int minSamplingFrequency, int requiredSamplingFrequency) {
+    int samplingFrequency = minSamplingFrequency;
+    while (samplingFrequency < requiredSamplingFrequency) {
+      samplingFrequency *= 2;
+    }
+    return samplingFrequency;
   }
 
   /**
@@ -580,6 +787,8 @@ public class TrackDataHub implements DataSourceListener {
     numLoadedPoints = 0;
     firstSeenLocationId = -1L;
     lastSeenLocationId = -1L;
+    minSamplingFrequency = 1;
+    sampledInTrackPoints.clear();
   }
 
   /**
@@ -65,6 +65,37 @@ public interface TrackDataListener {
    */
   public void onSegmentSplit(Location location);
 
+  /**
+   * Called when the sampled-in track points are thinned in memory instead of
+   * being reloaded at a lower sampling frequency. The indexes count the calls
+   * to {@link #onSampledInTrackPoint(Location)} since the last
+   * {@link #clearTrackPoints()}, are in increasing order, and are from before
+   * the removal. Called before the new track points of the same batch.
+   * 
+   * @param indexes the indexes of the sampled-in track points to remove
+   */
+  public void onSampledInTrackPointsRemoved(int[] indexes);
+
+  /**
+   * Called when sampled track points are read, in place of the per track point
+   * callbacks. Contains the sampled-in track points, the sampled-out track
+   * points and the segment splits, in order. Large reads are split into
+   * batches of at most {@link TrackDataHub#MAX_TRACK_POINT_BATCH_SIZE} track
+   * points. The batch is not modified afterwards and can be kept.
+   * 
+   * @param trackPointBatch the track point batch
+   */
+  public void onSampledTrackPoints(TrackPointBatch trackPointBatch);
+
+  /**
+   * Called with the last valid track point of the selected track when the
+   * track is loaded and when the track points table changes. Only called if
+   * registered for {@link TrackDataType#LAST_TRACK_POINT}.
+   * 
+   * @param location the last valid location, or null if none
+   */
+  public void onLastTrackPoint(Location location);
+
   /**
    * Called when finish sending new track points. This gets called after every
    * batch of calls to {@link #onSampledInTrackPoint(Location)},
@@ -73,6 +104,19 @@ public interface TrackDataListener {
    */
   public void onNewTrackPointsDone();
 
+  /**
+   * Called when new track points of the selected track are read. Called in the
+   * track data hub thread. The buffer is owned by the track data hub, must not
+   * be modified, and is only valid during the call. Copy what is needed, for
+   * example with {@link TrackPointBuffer#copy(int, int)}. Only called if
+   * registered for {@link TrackDataType#TRACK_POINT_BUFFER}.
+   * 
+   * @param trackPointBuffer the buffer with the track points read
+   * @param start the index of the first new track point
+   * @param count the number of new track points
+   */
+  public void onTrackPointsAppended(TrackPointBuffer trackPointBuffer, int start, int count);
+
   /**
    * Called to clear previously sent waypoints.
    */
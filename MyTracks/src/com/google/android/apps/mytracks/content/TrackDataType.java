@@ -26,5 +26,9 @@ public enum TrackDataType {
   WAYPOINTS_TABLE, // waypoints table changes
   SAMPLED_IN_TRACK_POINTS_TABLE, // sampled-in track points table changes
   SAMPLED_OUT_TRACK_POINTS_TABLE, // sampled-out track points table changes
+  TRACK_POINT_BUFFER, // new track points, in a track point buffer
+  TRACK_POINT_BUFFER_SENSOR_DATA, // the sensor data of the track point buffer
+  SAMPLED_TRACK_POINT_BATCHES, // sampled track points, in track point batches
+  LAST_TRACK_POINT, // last valid track point
   PREFERENCE // preference changes
 }
\ No newline at end of file
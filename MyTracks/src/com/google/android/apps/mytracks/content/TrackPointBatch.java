@@ -0,0 +1,171 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.location.Location;
+
+/**
+ * A batch of track points read by the {@link TrackDataHub}, sent to the
+ * {@link TrackDataType#SAMPLED_TRACK_POINT_BATCHES} listeners. Holds the
+ * sampled-in track points, the sampled-out track points and the segment
+ * splits, in order, in primitive columns. Filled by the {@link TrackDataHub}
+ * before being sent. Listeners copy what they need instead of keeping it.
+ */
+public final class TrackPointBatch {
+
+  private final TrackPointBuffer trackPoints;
+  private final int startIndex;
+  private int numberOfSampledIn;
+
+  // Bit set of the sampled-in track point indexes
+  private long[] sampledIn;
+
+  /**
+   * Constructor.
+   *
+   * @param startIndex the index of the first sampled-in track point of the
+   *          batch among the sampled-in track points sent since the last
+   *          {@link TrackDataListener#clearTrackPoints()}
+   * @param capacity the capacity
+   */
+  TrackPointBatch(int startIndex, int capacity) {
+    this.trackPoints = new TrackPointBuffer(capacity);
+    this.startIndex = startIndex;
+    this.sampledIn = new long[(capacity + 63) >> 6];
+  }
+
+  /**
+   * Appends a track point. Only called by the {@link TrackDataHub} before
+   * sending the batch.
+   *
+   * @param id the track point id
+   * @param location the location
+   * @param isSampledIn true if the track point is sampled in
+   */
+  void append(long id, Location location, boolean isSampledIn) {
+    int index = trackPoints.size();
+    trackPoints.append(id, location);
+    if (isSampledIn) {
+      if ((index >> 6) >= sampledIn.length) {
+        long[] newSampledIn = new long[Math.max(sampledIn.length * 2, (index >> 6) + 1)];
+        System.arraycopy(sampledIn, 0, newSampledIn, 0, sampledIn.length);
+        sampledIn = newSampledIn;
+      }
+      sampledIn[index >> 6] |= 1L << index;
+      numberOfSampledIn++;
+    }
+  }
+
+  /**
+   * Gets the number of track points, including the sampled-out track points
+   * and the segment splits.
+   */
+  public int size() {
+    return trackPoints.size();
+  }
+
+  /**
+   * Gets the index of the first sampled-in track point of the batch among the
+   * sampled-in track points sent since the last
+   * {@link TrackDataListener#clearTrackPoints()}. These are the indexes of
+   * {@link TrackDataListener#onSampledInTrackPointsRemoved(int[])}.
+   */
+  public int getStartIndex() {
+    return startIndex;
+  }
+
+  /**
+   * Gets the number of sampled-in track points.
+   */
+  public int getNumberOfSampledIn() {
+    return numberOfSampledIn;
+  }
+
+  /**
+   * Returns true if a track point is sampled in.
+   *
+   * @param index the track point index
+   */
+  public boolean isSampledIn(int index) {
+    return (index >> 6) < sampledIn.length && (sampledIn[index >> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Returns true if a track point is a segment split.
+   *
+   * @param index the track point index
+   */
+  public boolean isSegmentSplit(int index) {
+    return trackPoints.isSegmentSplit(index);
+  }
+
+  /**
+   * Fills a location with a track point.
+   *
+   * @param index the track point index
+   * @param location the location to fill
+   * @return the location
+   */
+  public Location getLocation(int index, Location location) {
+    return trackPoints.getLocation(index, location);
+  }
+
+  /**
+   * Creates a location from a track point.
+   *
+   * @param index the track point index
+   */
+  public Location getLocation(int index) {
+    return trackPoints.getLocation(index);
+  }
+
+  public long getId(int index) {
+    return trackPoints.getId(index);
+  }
+
+  public double getLatitude(int index) {
+    return trackPoints.getLatitude(index);
+  }
+
+  public double getLongitude(int index) {
+    return trackPoints.getLongitude(index);
+  }
+
+  public long getTime(int index) {
+    return trackPoints.getTime(index);
+  }
+
+  public float getAltitude(int index) {
+    return trackPoints.getAltitude(index);
+  }
+
+  public float getSpeed(int index) {
+    return trackPoints.getSpeed(index);
+  }
+
+  public float getHeartRate(int index) {
+    return trackPoints.getHeartRate(index);
+  }
+
+  public float getCadence(int index) {
+    return trackPoints.getCadence(index);
+  }
+
+  public float getPower(int index) {
+    return trackPoints.getPower(index);
+  }
+}
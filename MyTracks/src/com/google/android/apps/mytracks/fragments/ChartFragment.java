@@ -25,6 +25,8 @@ import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.TrackDataHub;
 import com.google.android.apps.mytracks.content.TrackDataListener;
 import com.google.android.apps.mytracks.content.TrackDataType;
+import com.google.android.apps.mytracks.content.TrackPointBatch;
+import com.google.android.apps.mytracks.content.TrackPointBuffer;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
@@ -36,6 +38,7 @@ import com.google.android.maps.mytracks.R;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.location.Location;
+import android.location.LocationManager;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
@@ -60,6 +63,9 @@ public class ChartFragment extends Fragment implements TrackDataListener {
 
   private final ArrayList<double[]> pendingPoints = new ArrayList<double[]>();
 
+  // Filled with each track point of a batch, copied by the trip statistics
+  private final Location trackPointLocation = new Location(LocationManager.GPS_PROVIDER);
+
   private TrackDataHub trackDataHub;
 
   // Stats gathered from the received data
@@ -187,36 +193,61 @@ public class ChartFragment extends Fragment implements TrackDataListener {
 
   @Override
   public void onSampledInTrackPoint(Location location) {
-    if (isResumed()) {
-      double[] data = new double[ChartView.NUM_SERIES + 1];
-      fillDataPoint(location, data);
-      pendingPoints.add(data);
-    }
+    // We don't care.
   }
 
   @Override
   public void onSampledOutTrackPoint(Location location) {
-    if (isResumed()) {
-      fillDataPoint(location, null);
-    }
+    // We don't care.
   }
 
   @Override
   public void onSegmentSplit(Location location) {
+    // We don't care.
+  }
+
+  @Override
+  public void onSampledInTrackPointsRemoved(int[] indexes) {
     if (isResumed()) {
-      fillDataPoint(location, null);
+      chartView.removeDataPoints(indexes);
+      runOnUiThread(updateChart);
     }
   }
 
   @Override
-  public void onNewTrackPointsDone() {
+  public void onSampledTrackPoints(TrackPointBatch trackPointBatch) {
     if (isResumed()) {
+      for (int i = 0; i < trackPointBatch.size(); i++) {
+        double[] data = trackPointBatch.isSampledIn(i) ? new double[ChartView.NUM_SERIES + 1]
+            : null;
+        fillDataPoint(trackPointBatch.getLocation(i, trackPointLocation),
+            trackPointBatch.getHeartRate(i), trackPointBatch.getCadence(i),
+            trackPointBatch.getPower(i), data);
+        if (data != null) {
+          pendingPoints.add(data);
+        }
+      }
       chartView.addDataPoints(pendingPoints);
       pendingPoints.clear();
       runOnUiThread(updateChart);
     }
   }
 
+  @Override
+  public void onLastTrackPoint(Location location) {
+    // We don't care.
+  }
+
+  @Override
+  public void onNewTrackPointsDone() {
+    // We don't care.
+  }
+
+  @Override
+  public void onTrackPointsAppended(TrackPointBuffer trackPointBuffer, int start, int count) {
+    // We don't care.
+  }
+
   @Override
   public void clearWaypoints() {
     if (isResumed()) {
@@ -373,8 +404,8 @@ public class ChartFragment extends Fragment implements TrackDataListener {
   private synchronized void resumeTrackDataHub() {
     trackDataHub = ((TrackDetailActivity) getActivity()).getTrackDataHub();
     trackDataHub.registerTrackDataListener(this, EnumSet.of(TrackDataType.TRACKS_TABLE,
-        TrackDataType.WAYPOINTS_TABLE, TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE,
-        TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE, TrackDataType.PREFERENCE));
+        TrackDataType.WAYPOINTS_TABLE, TrackDataType.SAMPLED_TRACK_POINT_BATCHES,
+        TrackDataType.PREFERENCE));
   }
 
   /**
@@ -449,13 +480,47 @@ public class ChartFragment extends Fragment implements TrackDataListener {
    */
   @VisibleForTesting
   void fillDataPoint(Location location, double data[]) {
+    double heartRate = Double.NaN;
+    double cadence = Double.NaN;
+    double power = Double.NaN;
+    if (location instanceof MyTracksLocation
+        && ((MyTracksLocation) location).getSensorDataSet() != null) {
+      SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
+      if (sensorDataSet.hasHeartRate()
+          && sensorDataSet.getHeartRate().getState() == Sensor.SensorState.SENDING
+          && sensorDataSet.getHeartRate().hasValue()) {
+        heartRate = sensorDataSet.getHeartRate().getValue();
+      }
+      if (sensorDataSet.hasCadence()
+          && sensorDataSet.getCadence().getState() == Sensor.SensorState.SENDING
+          && sensorDataSet.getCadence().hasValue()) {
+        cadence = sensorDataSet.getCadence().getValue();
+      }
+      if (sensorDataSet.hasPower()
+          && sensorDataSet.getPower().getState() == Sensor.SensorState.SENDING
+          && sensorDataSet.getPower().hasValue()) {
+        power = sensorDataSet.getPower().getValue();
+      }
+    }
+    fillDataPoint(location, heartRate, cadence, power, data);
+  }
+
+  /**
+   * Given a location and its sensor values, fill in a data point. See
+   * {@link #fillDataPoint(Location, double[])}.
+   * 
+   * @param location the location
+   * @param heartRate the heart rate or NaN
+   * @param cadence the cadence or NaN
+   * @param power the power or NaN
+   * @param data the data point to fill in, can be null
+   */
+  private void fillDataPoint(
+      Location location, double heartRate, double cadence, double power, double data[]) {
     double timeOrDistance = Double.NaN;
     double elevation = Double.NaN;
     double speed = Double.NaN;
     double pace = Double.NaN;
-    double heartRate = Double.NaN;
-    double cadence = Double.NaN;
-    double power = Double.NaN;
 
     if (tripStatisticsUpdater != null) {
       tripStatisticsUpdater.addLocation(
@@ -482,25 +547,6 @@ public class ChartFragment extends Fragment implements TrackDataListener {
       }
       pace = speed == 0 ? 0.0 : 60.0 / speed;
     }
-    if (location instanceof MyTracksLocation
-        && ((MyTracksLocation) location).getSensorDataSet() != null) {
-      SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
-      if (sensorDataSet.hasHeartRate()
-          && sensorDataSet.getHeartRate().getState() == Sensor.SensorState.SENDING
-          && sensorDataSet.getHeartRate().hasValue()) {
-        heartRate = sensorDataSet.getHeartRate().getValue();
-      }
-      if (sensorDataSet.hasCadence()
-          && sensorDataSet.getCadence().getState() == Sensor.SensorState.SENDING
-          && sensorDataSet.getCadence().hasValue()) {
-        cadence = sensorDataSet.getCadence().getValue();
-      }
-      if (sensorDataSet.hasPower()
-          && sensorDataSet.getPower().getState() == Sensor.SensorState.SENDING
-          && sensorDataSet.getPower().hasValue()) {
-        power = sensorDataSet.getPower().getValue();
-      }
-    }
 
     if (data != null) {
       data[0] = timeOrDistance;
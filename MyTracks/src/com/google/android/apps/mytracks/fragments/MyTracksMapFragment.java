@@ -17,6 +17,7 @@
 package com.google.android.apps.mytracks.fragments;
 
 import com.google.android.apps.mytracks.MapOverlay;
+import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
 import com.google.android.apps.mytracks.MarkerDetailActivity;
 import com.google.android.apps.mytracks.TrackDetailActivity;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
@@ -25,7 +26,10 @@ import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.TrackDataHub;
 import com.google.android.apps.mytracks.content.TrackDataListener;
 import com.google.android.apps.mytracks.content.TrackDataType;
+import com.google.android.apps.mytracks.content.TrackPointBatch;
+import com.google.android.apps.mytracks.content.TrackPointBuffer;
 import com.google.android.apps.mytracks.content.Waypoint;
+import com.google.android.apps.mytracks.maps.TrackSimplifier;
 import com.google.android.apps.mytracks.services.MyTracksLocationManager;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.ApiAdapterFactory;
@@ -128,6 +132,19 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
   private ArrayList<Polyline> paths = new ArrayList<Polyline>();
   boolean reloadPaths = true;
 
+  /*
+   * Simplified track points. Only their coordinates and speeds are kept, the
+   * track point buffers are not. Appended in the trackDataHub thread and
+   * selected for the map zoom level and visible region in the UI thread.
+   * Access is synchronized on the trackSimplifier.
+   */
+  private final TrackSimplifier trackSimplifier = new TrackSimplifier();
+  // True to select the simplified track points again
+  private volatile boolean simplifyPaths = true;
+  // The zoom level and bounds of the selected track points, UI thread only
+  private int simplifiedZoom = -1;
+  private LatLngBounds simplifiedBounds;
+
   // UI elements
   private GoogleMap googleMap;
   private MapOverlay mapOverlay;
@@ -278,6 +295,9 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
               && !isLocationVisible(currentLocation)) {
             keepCurrentLocationVisible = false;
           }
+          if (isResumed() && currentTrack != null && simplifyPaths()) {
+            mapOverlay.update(googleMap, paths, currentTrack.getTripStatistics(), true);
+          }
         }
       });
     }
@@ -373,6 +393,10 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
   @Override
   public void clearTrackPoints() {
     lastTrackPoint = null;
+    synchronized (trackSimplifier) {
+      trackSimplifier.clear();
+    }
+    simplifyPaths = true;
     if (isResumed()) {
       mapOverlay.clearPoints();
       reloadPaths = true;
@@ -380,33 +404,76 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
   }
 
   @Override
-  public void onSampledInTrackPoint(final Location location) {
-    lastTrackPoint = location;
-    if (isResumed()) {
-      mapOverlay.addLocation(location);
-    }
+  public void onSampledInTrackPoint(Location location) {
+    // We don't care.
   }
 
   @Override
   public void onSampledOutTrackPoint(Location location) {
-    lastTrackPoint = location;
+    // We don't care.
   }
 
   @Override
   public void onSegmentSplit(Location location) {
-    if (isResumed()) {
-      mapOverlay.addSegmentSplit();
-    }
+    // We don't care.
+  }
+
+  @Override
+  public void onSampledInTrackPointsRemoved(int[] indexes) {
+    // We don't care.
+  }
+
+  @Override
+  public void onSampledTrackPoints(TrackPointBatch trackPointBatch) {
+    // We don't care.
+  }
+
+  @Override
+  public void onLastTrackPoint(Location location) {
+    // We don't care.
   }
 
   @Override
   public void onNewTrackPointsDone() {
+    // We don't care.
+  }
+
+  @Override
+  public void onTrackPointsAppended(TrackPointBuffer trackPointBuffer, int start, int count) {
+    for (int i = start + count - 1; i >= start; i--) {
+      if (!trackPointBuffer.isSegmentSplit(i)) {
+        lastTrackPoint = trackPointBuffer.getLocation(i);
+        break;
+      }
+    }
+    synchronized (trackSimplifier) {
+      boolean reload = trackSimplifier.size() == 0;
+      trackSimplifier.append(trackPointBuffer, start, count);
+
+      /*
+       * A few new track points are added to the map as is. Select the
+       * simplified track points again after a reload or a large update.
+       */
+      if (reload || count > TrackSimplifier.CHUNK_SIZE) {
+        simplifyPaths = true;
+      } else if (isResumed()) {
+        for (int i = start; i < start + count; i++) {
+          if (trackPointBuffer.isSegmentSplit(i)) {
+            mapOverlay.addSegmentSplit();
+          } else {
+            mapOverlay.addLocation(trackPointBuffer.getLocation(i));
+          }
+        }
+      }
+    }
+
     if (isResumed()) {
       getActivity().runOnUiThread(new Runnable() {
         public void run() {
           if (isResumed() && googleMap != null && currentTrack != null) {
+            boolean reload = simplifyPaths() || reloadPaths;
             boolean hasStartMarker = mapOverlay.update(
-                googleMap, paths, currentTrack.getTripStatistics(), reloadPaths);
+                googleMap, paths, currentTrack.getTripStatistics(), reload);
 
             /*
              * If has the start marker, then don't need to reload the paths each
@@ -502,8 +569,41 @@ public class MyTracksMapFragment extends SupportMapFragment implements TrackData
   private synchronized void resumeTrackDataHub() {
     trackDataHub = ((TrackDetailActivity) getActivity()).getTrackDataHub();
     trackDataHub.registerTrackDataListener(this, EnumSet.of(TrackDataType.TRACKS_TABLE,
-        TrackDataType.WAYPOINTS_TABLE, TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE,
-        TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE, TrackDataType.PREFERENCE));
+        TrackDataType.WAYPOINTS_TABLE, TrackDataType.TRACK_POINT_BUFFER,
+        TrackDataType.PREFERENCE));
+  }
+
+  /**
+   * Selects the simplified track points for the map zoom level and visible
+   * region if needed. The selection covers the visible region extended by its
+   * size on each side, and is kept while the visible region stays inside it at
+   * the same integer zoom level. Returns true if the map overlay locations are
+   * replaced. Must be called in the UI thread.
+   */
+  private boolean simplifyPaths() {
+    if (googleMap == null) {
+      return false;
+    }
+    CameraPosition cameraPosition = googleMap.getCameraPosition();
+    LatLngBounds visibleBounds = googleMap.getProjection().getVisibleRegion().latLngBounds;
+    int zoom = (int) cameraPosition.zoom;
+    if (!simplifyPaths && zoom == simplifiedZoom && (simplifiedBounds == null
+        || (simplifiedBounds.contains(visibleBounds.southwest)
+            && simplifiedBounds.contains(visibleBounds.northeast)))) {
+      return false;
+    }
+    simplifyPaths = false;
+    simplifiedZoom = zoom;
+    simplifiedBounds = TrackSimplifier.extend(visibleBounds);
+
+    ArrayList<CachedLocation> locations = new ArrayList<CachedLocation>();
+    synchronized (trackSimplifier) {
+      trackSimplifier.select(
+          TrackSimplifier.getTolerance(zoom, cameraPosition.target.latitude), simplifiedBounds,
+          locations);
+      mapOverlay.setLocations(locations);
+    }
+    return true;
   }
 
   /**
@@ -21,6 +21,8 @@ import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.TrackDataHub;
 import com.google.android.apps.mytracks.content.TrackDataListener;
 import com.google.android.apps.mytracks.content.TrackDataType;
+import com.google.android.apps.mytracks.content.TrackPointBatch;
+import com.google.android.apps.mytracks.content.TrackPointBuffer;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.CalorieUtils;
@@ -153,12 +155,12 @@ public class StatsFragment extends Fragment implements TrackDataListener {
 
   @Override
   public void onSampledInTrackPoint(Location location) {
-    lastLocation = location;
+    // We don't care.
   }
 
   @Override
   public void onSampledOutTrackPoint(Location location) {
-    lastLocation = location;
+    // We don't care.
   }
 
   @Override
@@ -166,8 +168,37 @@ public class StatsFragment extends Fragment implements TrackDataListener {
     // We don't care.
   }
 
+  @Override
+  public void onSampledInTrackPointsRemoved(int[] indexes) {
+    // We don't care.
+  }
+
+  @Override
+  public void onSampledTrackPoints(TrackPointBatch trackPointBatch) {
+    // We don't care.
+  }
+
+  @Override
+  public void onLastTrackPoint(Location location) {
+    lastLocation = location;
+    updateLocation();
+  }
+
   @Override
   public void onNewTrackPointsDone() {
+    // We don't care.
+  }
+
+  @Override
+  public void onTrackPointsAppended(TrackPointBuffer trackPointBuffer, int start, int count) {
+    // We don't care.
+  }
+
+  /**
+   * Updates the location fields with the last location. Can be called from
+   * the {@link TrackDataHub} thread.
+   */
+  private void updateLocation() {
     if (isResumed()) {
       getActivity().runOnUiThread(new Runnable() {
           @Override
@@ -264,8 +295,7 @@ public class StatsFragment extends Fragment implements TrackDataListener {
   private synchronized void resumeTrackDataHub() {
     trackDataHub = ((TrackDetailActivity) getActivity()).getTrackDataHub();
     trackDataHub.registerTrackDataListener(this, EnumSet.of(TrackDataType.TRACKS_TABLE,
-        TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE, TrackDataType.SAMPLED_OUT_TRACK_POINTS_TABLE,
-        TrackDataType.PREFERENCE));
+        TrackDataType.LAST_TRACK_POINT, TrackDataType.PREFERENCE));
   }
 
   /**
@@ -22,7 +22,9 @@ import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
-import com.google.android.apps.mytracks.util.StringUtils;
+import com.google.android.apps.mytracks.util.FileUtils;
+import com.google.android.apps.mytracks.util.FixedPointFormatter;
+import com.google.android.apps.mytracks.util.Iso8601Formatter;
 import com.google.android.maps.mytracks.R;
 
 import android.content.Context;
@@ -30,8 +32,6 @@ import android.location.Location;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.text.NumberFormat;
-import java.util.Locale;
 
 /**
  * Write track as CSV to a file. See RFC 4180 for info on CSV. Output three
@@ -52,16 +52,15 @@ import java.util.Locale;
  */
 public class CsvTrackWriter implements TrackWriter {
 
-  private static final NumberFormat SHORT_FORMAT = NumberFormat.getInstance(Locale.US);
+  private final Context context;
 
-  static {
-    SHORT_FORMAT.setMaximumFractionDigits(4);
-  }
+  private final FixedPointFormatter groupedFormatter = new FixedPointFormatter(4, true);
+  private final Iso8601Formatter timeFormatter = new Iso8601Formatter();
 
-  private final Context context;
   private PrintWriter printWriter;
   private int segmentIndex;
   private int pointIndex;
+  private boolean isFirstValue = true;
 
   public CsvTrackWriter(Context context) {
     this.context = context;
@@ -74,9 +73,10 @@ public class CsvTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    printWriter = new PrintWriter(outputStream);
+    printWriter = FileUtils.newPrintWriter(outputStream);
     segmentIndex = 0;
     pointIndex = 0;
+    isFirstValue = true;
   }
 
   @Override
@@ -123,11 +123,11 @@ public class CsvTrackWriter implements TrackWriter {
 
   @Override
   public void writeWaypoint(Waypoint waypoint) {
-    Location location = waypoint.getLocation();
-    writeCommaSeparatedLine(waypoint.getName(), waypoint.getCategory(), waypoint.getDescription(),
-        Double.toString(location.getLatitude()), Double.toString(location.getLongitude()),
-        getAltitude(location), getBearing(location), getAccuracy(location), getSpeed(location),
-        StringUtils.formatDateTimeIso8601(location.getTime()));
+    writeValue(waypoint.getName());
+    writeValue(waypoint.getCategory());
+    writeValue(waypoint.getDescription());
+    writeLocationValues(waypoint.getLocation());
+    writeEndOfLine();
   }
 
   @Override
@@ -174,9 +174,9 @@ public class CsvTrackWriter implements TrackWriter {
 
   @Override
   public void writeLocation(Location location) {
-    String power = null;
-    String cadence = null;
-    String heartRate = null;
+    int power = -1;
+    int cadence = -1;
+    int heartRate = -1;
     if (location instanceof MyTracksLocation) {
       SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
 
@@ -184,44 +184,130 @@ public class CsvTrackWriter implements TrackWriter {
         if (sensorDataSet.hasPower()) {
           SensorData sensorData = sensorDataSet.getPower();
           if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            power = Double.toString(sensorData.getValue());
+            power = sensorData.getValue();
           }
         }
         if (sensorDataSet.hasCadence()) {
           SensorData sensorData = sensorDataSet.getCadence();
           if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            cadence = Double.toString(sensorData.getValue());
+            cadence = sensorData.getValue();
           }
         }
         if (sensorDataSet.hasHeartRate()) {
           SensorData sensorData = sensorDataSet.getHeartRate();
           if (sensorData.hasValue() && sensorData.getState() == Sensor.SensorState.SENDING) {
-            heartRate = Double.toString(sensorData.getValue());
+            heartRate = sensorData.getValue();
           }
         }
       }
     }
     pointIndex++;
-    writeCommaSeparatedLine(Integer.toString(segmentIndex), Integer.toString(pointIndex),
-        Double.toString(location.getLatitude()), Double.toString(location.getLongitude()),
-        getAltitude(location), getBearing(location), getAccuracy(location), getSpeed(location),
-        StringUtils.formatDateTimeIso8601(location.getTime()), power, cadence, heartRate);
+    writeValue(segmentIndex);
+    writeValue(pointIndex);
+    writeLocationValues(location);
+    writeSensorValue(power);
+    writeSensorValue(cadence);
+    writeSensorValue(heartRate);
+    writeEndOfLine();
+  }
+
+  /**
+   * Writes the latitude, longitude, altitude, bearing, accuracy, speed and time
+   * values of a location.
+   * 
+   * @param location the location
+   */
+  private void writeLocationValues(Location location) {
+    writeValue(location.getLatitude(), true);
+    writeValue(location.getLongitude(), true);
+    writeValue(location.getAltitude(), location.hasAltitude());
+    writeValue(location.getBearing(), location.hasBearing());
+    writeValue(location.getAccuracy(), groupedFormatter, location.hasAccuracy());
+    writeValue(location.getSpeed(), groupedFormatter, location.hasSpeed());
+    writeValueSeparator();
+    timeFormatter.format(location.getTime(), printWriter);
+    printWriter.write('"');
+  }
+
+  /**
+   * Writes a number value.
+   * 
+   * @param value the value
+   * @param formatter the formatter
+   * @param hasValue true if the value is present, false to write an empty value
+   */
+  private void writeValue(double value, FixedPointFormatter formatter, boolean hasValue) {
+    writeValueSeparator();
+    if (hasValue) {
+      formatter.format(value, printWriter);
+    }
+    printWriter.write('"');
+  }
+
+  /**
+   * Writes a number value with all its digits, as {@link Double#toString(double)}.
+   * 
+   * @param value the value
+   * @param hasValue true if the value is present, false to write an empty value
+   */
+  private void writeValue(double value, boolean hasValue) {
+    writeValueSeparator();
+    if (hasValue) {
+      printWriter.print(value);
+    }
+    printWriter.write('"');
   }
 
-  private String getAltitude(Location location) {
-    return location.hasAltitude() ? Double.toString(location.getAltitude()) : null;
+  /**
+   * Writes an integer value.
+   * 
+   * @param value the value
+   */
+  private void writeValue(int value) {
+    writeValueSeparator();
+    printWriter.print(value);
+    printWriter.write('"');
+  }
+
+  /**
+   * Writes a sensor value, as a double.
+   * 
+   * @param value the value, or -1 to write an empty value
+   */
+  private void writeSensorValue(int value) {
+    writeValue(value, value != -1);
   }
 
-  private String getBearing(Location location) {
-    return location.hasBearing() ? Double.toString(location.getBearing()) : null;
+  /**
+   * Writes a string value.
+   * 
+   * @param value the value, can be null
+   */
+  private void writeValue(String value) {
+    writeValueSeparator();
+    if (value != null) {
+      printWriter.write(value.indexOf('"') == -1 ? value : value.replace("\"", "\"\""));
+    }
+    printWriter.write('"');
   }
 
-  private String getAccuracy(Location location) {
-    return location.hasAccuracy() ? SHORT_FORMAT.format(location.getAccuracy()) : null;
+  /**
+   * Writes the separator before a value and the opening quote of the value.
+   */
+  private void writeValueSeparator() {
+    if (!isFirstValue) {
+      printWriter.write(',');
+    }
+    isFirstValue = false;
+    printWriter.write('"');
   }
 
-  private String getSpeed(Location location) {
-    return location.hasSpeed() ? SHORT_FORMAT.format(location.getSpeed()) : null;
+  /**
+   * Writes the end of a line.
+   */
+  private void writeEndOfLine() {
+    printWriter.println();
+    isFirstValue = true;
   }
 
   /**
@@ -230,20 +316,9 @@ public class CsvTrackWriter implements TrackWriter {
    * @param values the values to be written as CSV
    */
   private void writeCommaSeparatedLine(String... values) {
-    StringBuilder builder = new StringBuilder();
-    boolean isFirst = true;
     for (String value : values) {
-      if (!isFirst) {
-        builder.append(',');
-      }
-      isFirst = false;
-
-      builder.append('"');
-      if (value != null) {
-        builder.append(value.replaceAll("\"", "\"\""));
-      }
-      builder.append('"');
+      writeValue(value);
     }
-    printWriter.println(builder.toString());
+    writeEndOfLine();
   }
 }
@@ -19,6 +19,9 @@ package com.google.android.apps.mytracks.io.file.exporter;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
+import com.google.android.apps.mytracks.util.FileUtils;
+import com.google.android.apps.mytracks.util.FixedPointFormatter;
+import com.google.android.apps.mytracks.util.Iso8601Formatter;
 import com.google.android.apps.mytracks.util.StringUtils;
 import com.google.android.maps.mytracks.R;
 
@@ -27,8 +30,6 @@ import android.location.Location;
 
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.text.NumberFormat;
-import java.util.Locale;
 
 /**
  * Write track as GPX to a file.
@@ -37,22 +38,17 @@ import java.util.Locale;
  */
 public class GpxTrackWriter implements TrackWriter {
 
-  private static final NumberFormat ELEVATION_FORMAT = NumberFormat.getInstance(Locale.US);
-  private static final NumberFormat COORDINATE_FORMAT = NumberFormat.getInstance(Locale.US);
-  static {
-    /*
-     * GPX readers expect to see fractional numbers with US-style punctuation.
-     * That is, they want periods for decimal points, rather than commas.
-     */
-    ELEVATION_FORMAT.setMaximumFractionDigits(1);
-    ELEVATION_FORMAT.setGroupingUsed(false);
+  private final Context context;
 
-    COORDINATE_FORMAT.setMaximumFractionDigits(6);
-    COORDINATE_FORMAT.setMaximumIntegerDigits(3);
-    COORDINATE_FORMAT.setGroupingUsed(false);
-  }
+  /*
+   * GPX readers expect to see fractional numbers with US-style punctuation.
+   * That is, they want periods for decimal points, rather than commas. Not
+   * thread safe, so not shared between the writers exporting in parallel.
+   */
+  private final FixedPointFormatter elevationFormatter = new FixedPointFormatter(1, false);
+  private final FixedPointFormatter coordinateFormatter = new FixedPointFormatter(6, false);
+  private final Iso8601Formatter timeFormatter = new Iso8601Formatter();
 
-  private final Context context;
   private PrintWriter printWriter;
 
   public GpxTrackWriter(Context context) {
@@ -66,7 +62,7 @@ public class GpxTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.printWriter = FileUtils.newPrintWriter(outputStream);
   }
   
   @Override
@@ -123,12 +119,7 @@ public class GpxTrackWriter implements TrackWriter {
     if (printWriter != null) {
       Location location = waypoint.getLocation();
       if (location != null) {
-        printWriter.println("<wpt " + formatLocation(location) + ">");
-        if (location.hasAltitude()) {
-          printWriter.println("<ele>" + ELEVATION_FORMAT.format(location.getAltitude()) + "</ele>");
-        }
-        printWriter.println(
-            "<time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</time>");
+        writeLocationTag("wpt", location);
         printWriter.println("<name>" + StringUtils.formatCData(waypoint.getName()) + "</name>");
         printWriter.println("<cmt>" + StringUtils.formatCData(waypoint.getType().name()) + "</cmt>");
         printWriter.println(
@@ -180,23 +171,34 @@ public class GpxTrackWriter implements TrackWriter {
   @Override
   public void writeLocation(Location location) {
     if (printWriter != null) {
-      printWriter.println("<trkpt " + formatLocation(location) + ">");
-      if (location.hasAltitude()) {
-        printWriter.println("<ele>" + ELEVATION_FORMAT.format(location.getAltitude()) + "</ele>");
-      }
-      printWriter.println(
-          "<time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</time>");
+      writeLocationTag("trkpt", location);
       printWriter.println("</trkpt>");
     }
   }
 
   /**
-   * Formats a location with latitude and longitude coordinates.
+   * Writes the opening tag of a location with its latitude and longitude
+   * coordinates, followed by its elevation and time. Writes the formatted
+   * values directly, without building intermediate strings.
    * 
+   * @param tag the tag
    * @param location the location
    */
-  private String formatLocation(Location location) {
-    return "lat=\"" + COORDINATE_FORMAT.format(location.getLatitude()) + "\" lon=\""
-        + COORDINATE_FORMAT.format(location.getLongitude()) + "\"";
+  private void writeLocationTag(String tag, Location location) {
+    printWriter.write('<');
+    printWriter.write(tag);
+    printWriter.write(" lat=\"");
+    coordinateFormatter.format(location.getLatitude(), printWriter);
+    printWriter.write("\" lon=\"");
+    coordinateFormatter.format(location.getLongitude(), printWriter);
+    printWriter.println("\">");
+    if (location.hasAltitude()) {
+      printWriter.write("<ele>");
+      elevationFormatter.format(location.getAltitude(), printWriter);
+      printWriter.println("</ele>");
+    }
+    printWriter.write("<time>");
+    timeFormatter.format(location.getTime(), printWriter);
+    printWriter.println("</time>");
   }
 }
@@ -26,7 +26,10 @@ import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
+import com.google.android.apps.mytracks.util.FileUtils;
+import com.google.android.apps.mytracks.util.FixedPointFormatter;
 import com.google.android.apps.mytracks.util.GoogleEarthUtils;
+import com.google.android.apps.mytracks.util.Iso8601Formatter;
 import com.google.android.apps.mytracks.util.StringUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.common.annotations.VisibleForTesting;
@@ -75,6 +78,10 @@ public class KmlTrackWriter implements TrackWriter {
   private final DescriptionGenerator descriptionGenerator;  
   private final MyTracksProviderUtils myTracksProviderUtils;
 
+  private final FixedPointFormatter elevationFormatter = new FixedPointFormatter(1, false);
+  private final FixedPointFormatter coordinateFormatter = new FixedPointFormatter(6, false);
+  private final Iso8601Formatter timeFormatter = new Iso8601Formatter();
+
   private PrintWriter printWriter;
   private ArrayList<Integer> powerList = new ArrayList<Integer>();
   private ArrayList<Integer> cadenceList = new ArrayList<Integer>();
@@ -104,7 +111,7 @@ public class KmlTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.printWriter = FileUtils.newPrintWriter(outputStream);
   }
 
   @Override
@@ -270,9 +277,12 @@ public class KmlTrackWriter implements TrackWriter {
   @Override
   public void writeLocation(Location location) {
     if (printWriter != null) {
-      printWriter.println(
-          "<when>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when>");
-      printWriter.println("<gx:coord>" + getCoordinates(location, " ") + "</gx:coord>");
+      printWriter.write("<when>");
+      timeFormatter.format(location.getTime(), printWriter);
+      printWriter.println("</when>");
+      printWriter.write("<gx:coord>");
+      writeCoordinates(location, ' ');
+      printWriter.println("</gx:coord>");
       if (location instanceof MyTracksLocation) {
         SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
         int power = -1;
@@ -318,7 +328,9 @@ public class KmlTrackWriter implements TrackWriter {
   private void writeSensorData(ArrayList<Integer> list, String name) {
     printWriter.println("<gx:SimpleArrayData name=\"" + name + "\">");
     for (int i = 0; i < list.size(); i++) {
-      printWriter.println("<gx:value>" + list.get(i) + "</gx:value>");
+      printWriter.write("<gx:value>");
+      printWriter.print(list.get(i).intValue());
+      printWriter.println("</gx:value>");
     }
     printWriter.println("</gx:SimpleArrayData>");
   }
@@ -339,12 +351,13 @@ public class KmlTrackWriter implements TrackWriter {
       printWriter.println("<name>" + StringUtils.formatCData(name) + "</name>");
       printWriter.println(
           "<description>" + StringUtils.formatCData(description) + "</description>");
-      printWriter.println("<TimeStamp><when>"
-          + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when></TimeStamp>");
+      writeTimeStamp(location);
       printWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
       writeCategory(category);
       printWriter.println("<Point>");
-      printWriter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
+      printWriter.write("<coordinates>");
+      writeCoordinates(location, ',');
+      printWriter.println("</coordinates>");
       printWriter.println("</Point>");
       printWriter.println("</Placemark>");
     }
@@ -369,14 +382,17 @@ public class KmlTrackWriter implements TrackWriter {
       printWriter.println(
           "<description>" + StringUtils.formatCData(description) + "</description>");
       printWriter.print("<Camera>");
-      printWriter.print("<longitude>" + location.getLongitude() + "</longitude>");
-      printWriter.print("<latitude>" + location.getLatitude() + "</latitude>");
+      printWriter.print("<longitude>");
+      coordinateFormatter.format(location.getLongitude(), printWriter);
+      printWriter.print("</longitude>");
+      printWriter.print("<latitude>");
+      coordinateFormatter.format(location.getLatitude(), printWriter);
+      printWriter.print("</latitude>");
       printWriter.print("<altitude>20</altitude>");
       printWriter.print("<heading>" + heading + "</heading>");
       printWriter.print("<tilt>90</tilt>");
       printWriter.println("</Camera>");
-      printWriter.println("<TimeStamp><when>"
-          + StringUtils.formatDateTimeIso8601(location.getTime()) + "</when></TimeStamp>");
+      writeTimeStamp(location);
       printWriter.println("<styleUrl>#" + styleName + "</styleUrl>");
       writeCategory(category);
       if (playTrack) {
@@ -395,7 +411,9 @@ public class KmlTrackWriter implements TrackWriter {
       printWriter.print("<topFov>45</topFov>");
       printWriter.println("</ViewVolume>");
       printWriter.println("<Point>");
-      printWriter.println("<coordinates>" + getCoordinates(location, ",") + "</coordinates>");
+      printWriter.write("<coordinates>");
+      writeCoordinates(location, ',');
+      printWriter.println("</coordinates>");
       printWriter.println("</Point>");
       printWriter.println("</PhotoOverlay>");
     }
@@ -429,13 +447,31 @@ public class KmlTrackWriter implements TrackWriter {
     return viewLocation.bearingTo(location);
   }
   
-  private String getCoordinates(Location location, String separator) {
-    StringBuffer buffer = new StringBuffer();
-    buffer.append(location.getLongitude() + separator + location.getLatitude());
+  /**
+   * Writes the coordinates of a location, longitude, latitude and altitude.
+   * 
+   * @param location the location
+   * @param separator the separator
+   */
+  private void writeCoordinates(Location location, char separator) {
+    coordinateFormatter.format(location.getLongitude(), printWriter);
+    printWriter.write(separator);
+    coordinateFormatter.format(location.getLatitude(), printWriter);
     if (location.hasAltitude()) {
-      buffer.append(separator + location.getAltitude());
+      printWriter.write(separator);
+      elevationFormatter.format(location.getAltitude(), printWriter);
     }
-    return buffer.toString();    
+  }
+
+  /**
+   * Writes the time stamp of a location.
+   * 
+   * @param location the location
+   */
+  private void writeTimeStamp(Location location) {
+    printWriter.write("<TimeStamp><when>");
+    timeFormatter.format(location.getTime(), printWriter);
+    printWriter.println("</when></TimeStamp>");
   }
 
   /**
@@ -35,6 +35,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Async Task to save tracks to the external storage.
@@ -45,6 +52,9 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 
   private static final String TAG = SaveAsyncTask.class.getSimpleName();
 
+  // Maximum number of tracks exported in parallel when saving all the tracks
+  private static final int MAX_THREADS = 4;
+
   private SaveActivity saveActivity;
   private final long[] trackIds;
   private final TrackFileFormat trackFileFormat;
@@ -54,19 +64,21 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   private final MyTracksProviderUtils myTracksProviderUtils;
 
   private WakeLock wakeLock;
-  private TrackExporter trackExporter;
+
+  // Lock to pick a unique file name and create the file atomically
+  private final Object fileLock = new Object();
 
   // true if the AsyncTask has completed
   private boolean completed;
 
   // the number of tracks successfully saved
-  private int successCount;
+  private volatile int successCount;
 
   // the number of tracks to save
   private int totalCount;
 
   // the last successfully saved path
-  private String savedPath;
+  private volatile String savedPath;
 
   /**
    * Creates an AsyncTask.
@@ -193,6 +205,11 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 
             @Override
           public void onProgressUpdate(int number, int max) {
+            // Stop the exporter, which checks for interrupts, if cancelled
+            if (isCancelled()) {
+              Thread.currentThread().interrupt();
+              return;
+            }
             /*
              * If only saving one track, update the progress dialog once every
              * 500 points
@@ -203,15 +220,18 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
           }
         });
 
-    trackExporter = useKmz ? new KmzTrackExporter(
+    TrackExporter trackExporter = useKmz ? new KmzTrackExporter(
         myTracksProviderUtils, fileTrackExporter, tracks, context)
         : fileTrackExporter;
 
-    String fileName = FileUtils.buildUniqueFileName(directory, track.getName(), extension);
-    File file = new File(directory, fileName);
+    File file = null;
     FileOutputStream fileOutputStream = null;
     try {
-      fileOutputStream = new FileOutputStream(file);
+      synchronized (fileLock) {
+        String fileName = FileUtils.buildUniqueFileName(directory, track.getName(), extension);
+        file = new File(directory, fileName);
+        fileOutputStream = new FileOutputStream(file);
+      }
       if (trackExporter.writeTrack(fileOutputStream)) {
         savedPath = file.getAbsolutePath();
         return true;
@@ -237,9 +257,11 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   }
 
   /**
-   * Saves all the tracks.
+   * Saves all the tracks, one file per track. Exports several tracks in
+   * parallel, each with its own track point cursor.
    */
   private Boolean saveAllTracks() {
+    List<Track> tracks = new ArrayList<Track>();
     Cursor cursor = null;
     try {
       cursor = myTracksProviderUtils.getTrackCursor(null, null, TracksColumns._ID);
@@ -253,16 +275,58 @@ public class SaveAsyncTask extends AsyncTask<Void, Integer, Boolean> {
         }
         cursor.moveToPosition(i);
         Track track = myTracksProviderUtils.createTrack(cursor);
-        if (track != null && saveTracks(new Track[] { track })) {
-          successCount++;
+        if (track != null) {
+          tracks.add(track);
         }
-        publishProgress(i + 1, totalCount);
       }
-      return true;
     } finally {
       if (cursor != null) {
         cursor.close();
       }
     }
+
+    int numberOfThreads = Math.max(
+        1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+    final AtomicInteger doneCount = new AtomicInteger(totalCount - tracks.size());
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>(tracks.size());
+      for (final Track track : tracks) {
+        futures.add(executorService.submit(new Runnable() {
+          @Override
+          public void run() {
+            if (isCancelled()) {
+              return;
+            }
+            if (saveTracks(new Track[] { track })) {
+              incrementSuccessCount();
+            }
+            publishProgress(doneCount.incrementAndGet(), totalCount);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          Log.e(TAG, "Unable to save track", e.getCause());
+        }
+      }
+      return !isCancelled();
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Interrupted saving all tracks", e);
+      return false;
+    } finally {
+      // Interrupts the exports still running if cancelled
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Increments the number of tracks successfully saved. Called by the threads
+   * saving all the tracks.
+   */
+  private synchronized void incrementSuccessCount() {
+    successCount++;
   }
 }
@@ -21,6 +21,9 @@ import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.io.file.TrackFileFormat;
+import com.google.android.apps.mytracks.util.FileUtils;
+import com.google.android.apps.mytracks.util.FixedPointFormatter;
+import com.google.android.apps.mytracks.util.Iso8601Formatter;
 import com.google.android.apps.mytracks.util.StringUtils;
 import com.google.android.apps.mytracks.util.SystemUtils;
 import com.google.android.apps.mytracks.util.UnitConversions;
@@ -86,6 +89,11 @@ public class TcxTrackWriter implements TrackWriter {
       R.string.activity_type_walking };
 
   private final Context context;
+
+  private final FixedPointFormatter elevationFormatter = new FixedPointFormatter(1, false);
+  private final FixedPointFormatter coordinateFormatter = new FixedPointFormatter(6, false);
+  private final Iso8601Formatter timeFormatter = new Iso8601Formatter();
+
   private PrintWriter printWriter;
   private SportType sportType;
 
@@ -95,7 +103,7 @@ public class TcxTrackWriter implements TrackWriter {
 
   @Override
   public void prepare(OutputStream outputStream) {
-    this.printWriter = new PrintWriter(outputStream);
+    this.printWriter = FileUtils.newPrintWriter(outputStream);
   }
   
   @Override
@@ -227,13 +235,21 @@ public class TcxTrackWriter implements TrackWriter {
   public void writeLocation(Location location) {
     if (printWriter != null) {
       printWriter.println("<Trackpoint>");
-      printWriter.println("<Time>" + StringUtils.formatDateTimeIso8601(location.getTime()) + "</Time>");
+      printWriter.write("<Time>");
+      timeFormatter.format(location.getTime(), printWriter);
+      printWriter.println("</Time>");
       printWriter.println("<Position>");
-      printWriter.println("<LatitudeDegrees>" + location.getLatitude() + "</LatitudeDegrees>");
-      printWriter.println("<LongitudeDegrees>" + location.getLongitude() + "</LongitudeDegrees>");
+      printWriter.write("<LatitudeDegrees>");
+      coordinateFormatter.format(location.getLatitude(), printWriter);
+      printWriter.println("</LatitudeDegrees>");
+      printWriter.write("<LongitudeDegrees>");
+      coordinateFormatter.format(location.getLongitude(), printWriter);
+      printWriter.println("</LongitudeDegrees>");
       printWriter.println("</Position>");
       if (location.hasAltitude()) {
-        printWriter.println("<AltitudeMeters>" + location.getAltitude() + "</AltitudeMeters>");
+        printWriter.write("<AltitudeMeters>");
+        elevationFormatter.format(location.getAltitude(), printWriter);
+        printWriter.println("</AltitudeMeters>");
       }
 
       if (location instanceof MyTracksLocation) {
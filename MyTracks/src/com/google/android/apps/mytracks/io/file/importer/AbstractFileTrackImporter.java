@@ -17,11 +17,16 @@
 package com.google.android.apps.mytracks.io.file.importer;
 
 import com.google.android.apps.mytracks.content.DescriptionGeneratorImpl;
+import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Sensor;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointsColumns;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.io.file.importer.TrackImportWriter.TrackWrites;
 import com.google.android.apps.mytracks.services.TrackRecordingService;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
@@ -40,29 +45,32 @@ import android.location.Location;
 import android.location.LocationManager;
 import android.net.Uri;
 import android.util.Log;
+import android.util.Xml;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
-import org.xml.sax.Locator;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
- * Abstract class for various file track importers like {@link GpxFileTrackImporter} and
- * {@link KmlFileTrackImporter}.
+ * Abstract class for various file track importers like {@link GpxFileTrackImporter},
+ * {@link KmlFileTrackImporter} and {@link TcxFileTrackImporter}. Pulls the
+ * elements from an {@link XmlPullParser} and passes their tags to
+ * {@link #startElement(String)} and {@link #endElement(String)}. The element
+ * contents are accumulated in a reused {@link StringBuilder} and their numbers
+ * and times are parsed directly from it. The tracks are written by a
+ * {@link TrackImportWriter}, each batch of track points in one short
+ * transaction. If the import fails, the partly imported tracks are deleted.
  * 
  * @author Jimmy Shih
  */
-abstract class AbstractFileTrackImporter extends DefaultHandler implements TrackImporter {
+abstract class AbstractFileTrackImporter implements TrackImporter {
 
   /**
    * Data for the current track.
@@ -74,6 +82,9 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     // The current track
     Track track = new Track();
 
+    // The writes of the current track
+    TrackWrites trackWrites;
+
     // The number of segments processed for the current track
     int numberOfSegments = 0;
 
@@ -104,30 +115,52 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   // The maximum number of buffered locations for bulk-insertion
   private static final int MAX_BUFFERED_LOCATIONS = 512;
 
+  // The number of parsing events between checks for interrupts
+  private static final int INTERRUPT_CHECK_INTERVAL = 4096;
+
   private final Context context;
   private final long importTrackId;
   private final MyTracksProviderUtils myTracksProviderUtils;
+  private final TrackImportWriter trackImportWriter;
   private final int recordingDistanceInterval;
   private final double weight;
-  private final List<Long> trackIds;
   private final List<Waypoint> waypoints;
 
+  // The imported tracks and their writes
+  private final List<Track> tracks;
+  private final List<TrackWrites> tracksWrites;
+
+  // The writes inserting the waypoints. Null if not started
+  private TrackWrites waypointsWrites;
+
   // The current track data
   private TrackData trackData;
 
-  // The SAX locator to get the current line information
-  private Locator locator;
+  // The pull parser, to get the current element attributes and line
+  private XmlPullParser xmlPullParser;
+
+  // The current element content, reused for all the elements
+  private final StringBuilder content = new StringBuilder();
 
-  // The current element content
-  protected String content;
+  // The start and the length of the text returned by the pull parser
+  private final int[] textStartAndLength = new int[2];
+
+  // The category of the cached activity type
+  private String activityTypeCategory;
+  private ActivityType activityType;
 
   protected String name;
   protected String description;
   protected String category;
-  protected String latitude;
-  protected String longitude;
-  protected String altitude;
-  protected String time;
+
+  // Double.NaN if not available
+  protected double latitude = Double.NaN;
+  protected double longitude = Double.NaN;
+  protected double altitude = Double.NaN;
+
+  // -1L if not available
+  protected long time = -1L;
+
   protected String waypointType;
   protected String photoUrl;
 
@@ -140,190 +173,134 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    */
   AbstractFileTrackImporter(
       Context context, long importTrackId, MyTracksProviderUtils myTracksProviderUtils) {
+    this(context, importTrackId, new TrackImportWriter(myTracksProviderUtils));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param importTrackId the track id to import to. -1L to import to a new
+   *          track.
+   * @param trackImportWriter the track import writer
+   */
+  AbstractFileTrackImporter(
+      Context context, long importTrackId, TrackImportWriter trackImportWriter) {
     this.context = context;
     this.importTrackId = importTrackId;
-    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.myTracksProviderUtils = trackImportWriter.getMyTracksProviderUtils();
+    this.trackImportWriter = trackImportWriter;
     this.recordingDistanceInterval = PreferencesUtils.getInt(context,
         R.string.recording_distance_interval_key,
         PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT);
     this.weight = PreferencesUtils.getFloat(
         context, R.string.weight_key, PreferencesUtils.getDefaultWeight(context));
-    trackIds = new ArrayList<Long>();
     waypoints = new ArrayList<Waypoint>();
-  }
-
-  @Override
-  public void setDocumentLocator(Locator locator) {
-    this.locator = locator;
-  }
-
-  @Override
-  public void characters(char[] ch, int start, int length) throws SAXException {
-    String newContent = new String(ch, start, length);
-    if (content == null) {
-      content = newContent;
-    } else {
-      /*
-       * In 99% of the cases, a single call to this method will be made for each
-       * sequence of characters we're interested in, so we'll rarely be
-       * concatenating strings, thus not justifying the use of a StringBuilder.
-       */
-      content += newContent;
-    }
+    tracks = new ArrayList<Track>();
+    tracksWrites = new ArrayList<TrackWrites>();
   }
 
   @Override
   public long importFile(InputStream inputStream) {
     try {
-      SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+      xmlPullParser = Xml.newPullParser();
+      xmlPullParser.setInput(inputStream, null);
       long start = System.currentTimeMillis();
 
-      saxParser.parse(inputStream, this);
+      parse();
+      endCurrentTrack();
+      if (!awaitWrites()) {
+        Log.d(TAG, "Unable to write the imported tracks");
+        cleanImport();
+        return -1L;
+      }
       Log.d(TAG, "Total import time: " + (System.currentTimeMillis() - start) + "ms");
-      if (trackIds.size() != 1) {
-        Log.d(TAG, trackIds.size() + " tracks imported");
+      if (tracks.size() != 1) {
+        Log.d(TAG, tracks.size() + " tracks imported");
         cleanImport();
         return -1L;
       }
-      return trackIds.get(0);
+      return tracks.get(0).getId();
     } catch (IOException e) {
       Log.e(TAG, "Unable to import file", e);
       cleanImport();
       return -1L;
-    } catch (ParserConfigurationException e) {
-      Log.e(TAG, "Unable to import file", e);
-      cleanImport();
-      return -1L;
-    } catch (SAXException e) {
+    } catch (XmlPullParserException e) {
       Log.e(TAG, "Unable to import file", e);
       cleanImport();
       return -1L;
+    } finally {
+      // The writer waits for the end of the current track, even on errors
+      endCurrentTrack();
     }
   }
 
+  /**
+   * On element start.
+   * 
+   * @param tag the element tag, with its namespace prefix
+   */
+  protected abstract void startElement(String tag) throws XmlPullParserException;
+
+  /**
+   * On element end. The element content is available until the method
+   * returns.
+   * 
+   * @param tag the element tag, with its namespace prefix
+   */
+  protected abstract void endElement(String tag) throws XmlPullParserException;
+
   /**
    * On file end.
    */
   protected void onFileEnd() {
     // Add waypoints to the last imported track
-    int size = trackIds.size();
+    int size = tracks.size();
     if (size == 0) {
       return;
     }
-    long trackId = trackIds.get(size - 1);
-    Track track = myTracksProviderUtils.getTrack(trackId);
-    if (track == null) {
-      return;
-    }
-
-    int waypointPosition = -1;
-    Waypoint waypoint = null;
-    Location location = null;
-    TripStatisticsUpdater trackTripStatisticstrackUpdater = new TripStatisticsUpdater(
-        track.getTripStatistics().getStartTime());
-    TripStatisticsUpdater markerTripStatisticsUpdater = new TripStatisticsUpdater(
-        track.getTripStatistics().getStartTime());
-    LocationIterator locationIterator = null;
-    ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
-    
-    try {
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
-
-      while (true) {
-        if (waypoint == null) {
-          waypointPosition++;
-          waypoint = waypointPosition < waypoints.size() ? waypoints.get(waypointPosition) : null;
-          if (waypoint == null) {
-            // No more waypoints
-            return;
-          }
-        }
-        if (location == null) {
-          if (!locationIterator.hasNext()) {
-            // No more track points. Ignore the rest of the waypoints.
-            return;
-          }
-          location = locationIterator.next();
-          trackTripStatisticstrackUpdater.addLocation(
-              location, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
-          markerTripStatisticsUpdater.addLocation(
-              location, recordingDistanceInterval, true, activityType, weight);
-        }
-        if (waypoint.getLocation().getTime() > location.getTime()) {
-          location = null;
-        } else if (waypoint.getLocation().getTime() < location.getTime()) {
-          waypoint = null;
-        } else {
-          // The waypoint location time matches the track point time
-
-          if (!LocationUtils.isValidLocation(location)) {
-            // Invalid location, load the next location
-            location = null;
-            continue;
-          }
-
-          // Valid location
-          if (location.getLatitude() == waypoint.getLocation().getLatitude()
-              && location.getLongitude() == waypoint.getLocation().getLongitude()) {
-
-            // Get tripStatistics, description, and icon
-            TripStatistics tripStatistics;
-            String waypointDescription;
-            String icon;
-            if (waypoint.getType() == WaypointType.STATISTICS) {
-              tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
-              markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
-              waypointDescription = new DescriptionGeneratorImpl(context)
-                  .generateWaypointDescription(tripStatistics);
-              icon = context.getString(R.string.marker_statistics_icon_url);
-            } else {
-              tripStatistics = null;
-              waypointDescription = waypoint.getDescription();
-              icon = context.getString(R.string.marker_waypoint_icon_url);
-            }
-
-            // Get length and duration
-            double length = trackTripStatisticstrackUpdater.getTripStatistics().getTotalDistance();
-            long duration = trackTripStatisticstrackUpdater.getTripStatistics().getTotalTime();
-
-            // Insert waypoint
-            Waypoint newWaypoint = new Waypoint(waypoint.getName(), waypointDescription,
-                waypoint.getCategory(), icon, track.getId(), waypoint.getType(), length, duration,
-                -1L, -1L, location, tripStatistics, waypoint.getPhotoUrl());
-            myTracksProviderUtils.insertWaypoint(newWaypoint);
-          }
-
-          // Load the next waypoint
-          waypoint = null;
-        }
-      }
-    } finally {
-      if (locationIterator != null) {
-        locationIterator.close();
+    final Track lastTrack = tracks.get(size - 1);
+    waypointsWrites = trackImportWriter.startTrackWrites();
+    waypointsWrites.write(new Runnable() {
+      @Override
+      public void run() {
+        insertWaypoints(lastTrack.getId());
       }
-    }
+    });
+    waypointsWrites.end(true);
   }
 
   /**
    * On track start.
    */
-  protected void onTrackStart() throws SAXException {
+  protected void onTrackStart() throws XmlPullParserException {
+    if (importTrackId != -1L && tracks.size() > 0) {
+      throw new XmlPullParserException(createErrorMessage(
+          "Cannot import more than one track to an existing track " + importTrackId));
+    }
     trackData = new TrackData();
-    long trackId;
+    trackData.trackWrites = trackImportWriter.startTrackWrites();
+    tracks.add(trackData.track);
+    tracksWrites.add(trackData.trackWrites);
+
+    final Track track = trackData.track;
     if (importTrackId == -1L) {
-      Uri uri = myTracksProviderUtils.insertTrack(trackData.track);
-      trackId = Long.parseLong(uri.getLastPathSegment());
+      trackData.trackWrites.write(new Runnable() {
+        @Override
+        public void run() {
+          Uri uri = myTracksProviderUtils.insertTrack(new Track());
+          track.setId(Long.parseLong(uri.getLastPathSegment()));
+        }
+      });
     } else {
-      if (trackIds.size() > 0) {
-        throw new SAXException(createErrorMessage(
-            "Cannot import more than one track to an existing track " + importTrackId));
-      }
-      trackId = importTrackId;
-      myTracksProviderUtils.clearTrack(context, trackId);
+      track.setId(importTrackId);
+      trackData.trackWrites.write(new Runnable() {
+        @Override
+        public void run() {
+          myTracksProviderUtils.clearTrack(context, importTrackId);
+        }
+      });
     }
-    trackIds.add(trackId);
-    trackData.track.setId(trackId);
   }
 
   /**
@@ -347,8 +324,17 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     }
     trackData.track.setTripStatistics(trackData.tripStatisticsUpdater.getTripStatistics());
     trackData.track.setNumberOfPoints(trackData.numberOfLocations);
-    myTracksProviderUtils.updateTrack(trackData.track);
-    insertFirstWaypoint(trackData.track);
+
+    final Track track = trackData.track;
+    trackData.trackWrites.write(new Runnable() {
+      @Override
+      public void run() {
+        myTracksProviderUtils.updateTrack(track);
+        insertFirstWaypoint(track);
+      }
+    });
+    trackData.trackWrites.end(true);
+    trackData.trackWrites = null;
   }
 
   /**
@@ -373,9 +359,9 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * 
    * @param type the waypoint type
    */
-  protected void addWaypoint(WaypointType type) throws SAXException {
+  protected void addWaypoint(WaypointType type) throws XmlPullParserException {
     // Waypoint must have a time, else cannot match to the track points
-    if (time == null) {
+    if (time == -1L) {
       return;
     }
 
@@ -383,7 +369,8 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     Location location = createLocation();
 
     if (!LocationUtils.isValidLocation(location)) {
-      throw new SAXException(createErrorMessage("Invalid location detected: " + location));
+      throw new XmlPullParserException(
+          createErrorMessage("Invalid location detected: " + location));
     }
     waypoint.setLocation(location);
 
@@ -405,10 +392,13 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   }
 
   /**
-   * Gets a track point.
+   * Gets a track point. Null if the track point has no latitude or longitude.
    */
-  protected Location getTrackPoint() throws SAXException {
+  protected Location getTrackPoint() throws XmlPullParserException {
     Location location = createLocation();
+    if (location == null) {
+      return null;
+    }
 
     // Calculate derived attributes from the previous point
     if (trackData.lastLocationInCurrentSegment != null
@@ -434,7 +424,8 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     }
 
     if (!LocationUtils.isValidLocation(location)) {
-      throw new SAXException(createErrorMessage("Invalid location detected: " + location));
+      throw new XmlPullParserException(
+          createErrorMessage("Invalid location detected: " + location));
     }
 
     if (trackData.numberOfSegments > 1 && trackData.lastLocationInCurrentSegment == null) {
@@ -449,6 +440,36 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     return location;
   }
 
+  /**
+   * Adds sensor data to a track point.
+   * 
+   * @param location the track point
+   * @param heartRate the heart rate, -1 if not available
+   * @param cadence the cadence, -1 if not available
+   * @param power the power, -1 if not available
+   * @return the track point, with the sensor data if any is available
+   */
+  protected Location addSensorData(Location location, int heartRate, int cadence, int power) {
+    if (heartRate == -1 && cadence == -1 && power == -1) {
+      return location;
+    }
+    SensorDataSet.Builder builder = Sensor.SensorDataSet.newBuilder();
+    if (power != -1) {
+      builder.setPower(Sensor.SensorData.newBuilder()
+          .setValue(power).setState(Sensor.SensorState.SENDING));
+    }
+    if (cadence != -1) {
+      builder.setCadence(Sensor.SensorData.newBuilder()
+          .setValue(cadence).setState(Sensor.SensorState.SENDING));
+    }
+    if (heartRate != -1) {
+      builder.setHeartRate(Sensor.SensorData.newBuilder()
+          .setValue(heartRate).setState(Sensor.SensorState.SENDING));
+    }
+    SensorDataSet sensorDataSet = builder.setCreationTime(location.getTime()).build();
+    return new MyTracksLocation(location, sensorDataSet);
+  }
+
   /**
    * Inserts a track point.
    * 
@@ -457,7 +478,7 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   protected void insertTrackPoint(Location location) {
     insertLocation(location);
 
-    if (trackData.track.getStartId() == -1L) {
+    if (trackData.numberOfLocations == 1) {
       // Flush the location to set the track start id and the track end id
       flushLocations(trackData);
     }
@@ -470,7 +491,175 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    */
   protected String createErrorMessage(String message) {
     return String.format(Locale.US, "Parsing error at line: %d column: %d. %s",
-        locator.getLineNumber(), locator.getColumnNumber(), message);
+        xmlPullParser.getLineNumber(), xmlPullParser.getColumnNumber(), message);
+  }
+
+  /**
+   * Gets the local name of a tag, without its namespace prefix.
+   * 
+   * @param tag the tag
+   */
+  protected static String getLocalName(String tag) {
+    int index = tag.indexOf(':');
+    return index == -1 ? tag : tag.substring(index + 1);
+  }
+
+  /**
+   * Gets the value of an attribute of the current start element. Null if the
+   * element does not have the attribute.
+   * 
+   * @param attribute the attribute name, with its namespace prefix
+   */
+  protected String getAttributeValue(String attribute) {
+    return xmlPullParser.getAttributeValue(null, attribute);
+  }
+
+  /**
+   * Returns true if the current element has content other than whitespaces.
+   */
+  protected boolean hasContent() {
+    return getContentStart() != content.length();
+  }
+
+  /**
+   * Gets the current element content without its leading and trailing
+   * whitespaces, like {@link String#trim()}. Null if the current element has no
+   * content.
+   */
+  protected String getContent() {
+    int start = getContentStart();
+    if (start == content.length()) {
+      return null;
+    }
+    return content.substring(start, getContentEnd(start));
+  }
+
+  /**
+   * Gets the current element content as a double.
+   * 
+   * @param field the field name for the error message
+   */
+  protected double getContentDouble(String field) throws XmlPullParserException {
+    int start = getContentStart();
+    return parseDouble(content, start, getContentEnd(start), field);
+  }
+
+  /**
+   * Gets the current element content as an int.
+   * 
+   * @param field the field name for the error message
+   */
+  protected int getContentInt(String field) throws XmlPullParserException {
+    int start = getContentStart();
+    int end = getContentEnd(start);
+    try {
+      return StringUtils.parseInt(content, start, end);
+    } catch (NumberFormatException e) {
+      throw new XmlPullParserException(createErrorMessage(String.format(
+          Locale.US, "Unable to parse %s: %s", field, content.substring(start, end))), null, e);
+    }
+  }
+
+  /**
+   * Gets the current element content as separated doubles, e.g., the
+   * "longitude,latitude,altitude" coordinates of a KML placemark. Only parses
+   * the doubles if there are at most as many as the values array length.
+   * 
+   * @param separator the separator
+   * @param values the values array to fill
+   * @param field the field name for the error message
+   * @return the number of separated doubles in the content
+   */
+  protected int getContentDoubles(char separator, double[] values, String field)
+      throws XmlPullParserException {
+    int start = getContentStart();
+    int end = getContentEnd(start);
+    int count = 1;
+    for (int i = start; i < end; i++) {
+      if (content.charAt(i) == separator) {
+        count++;
+      }
+    }
+    if (count > values.length) {
+      return count;
+    }
+    int valueStart = start;
+    for (int i = 0; i < count; i++) {
+      int valueEnd = valueStart;
+      while (valueEnd < end && content.charAt(valueEnd) != separator) {
+        valueEnd++;
+      }
+      values[i] = parseDouble(content, valueStart, valueEnd, field);
+      valueStart = valueEnd + 1;
+    }
+    return count;
+  }
+
+  /**
+   * Gets the current element content as a time.
+   */
+  protected long getContentTime() throws XmlPullParserException {
+    int start = getContentStart();
+    int end = getContentEnd(start);
+    try {
+      return StringUtils.getTime(content, start, end);
+    } catch (IllegalArgumentException e) {
+      throw new XmlPullParserException(createErrorMessage(
+          String.format(Locale.US, "Unable to parse time: %s", content.substring(start, end))),
+          null, e);
+    }
+  }
+
+  /**
+   * Parses a double in a range of a char sequence.
+   * 
+   * @param chars the char sequence
+   * @param start the start of the double
+   * @param end the end of the double, exclusive
+   * @param field the field name for the error message
+   */
+  protected double parseDouble(CharSequence chars, int start, int end, String field)
+      throws XmlPullParserException {
+    try {
+      return StringUtils.parseDouble(chars, start, end);
+    } catch (NumberFormatException e) {
+      throw new XmlPullParserException(createErrorMessage(String.format(Locale.US,
+          "Unable to parse %s: %s", field, chars.subSequence(start, end))), null, e);
+    }
+  }
+
+  /**
+   * Resets the current element content.
+   */
+  protected void resetContent() {
+    content.setLength(0);
+  }
+
+  /**
+   * Gets the start of the current element content, after its leading
+   * whitespaces.
+   */
+  private int getContentStart() {
+    int start = 0;
+    int end = content.length();
+    while (start < end && content.charAt(start) <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  /**
+   * Gets the end of the current element content, before its trailing
+   * whitespaces.
+   * 
+   * @param start the start of the current element content
+   */
+  private int getContentEnd(int start) {
+    int end = content.length();
+    while (end > start && content.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return end;
   }
 
   /**
@@ -488,44 +677,147 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   }
 
   /**
-   * Creates a location.
+   * Pulls all the elements of the file.
    */
-  private Location createLocation() throws SAXException {
-    if (latitude == null || longitude == null) {
-      return null;
-    }
-    double latitudeValue;
-    double longitudeValue;
-    try {
-      latitudeValue = Double.parseDouble(latitude);
-      longitudeValue = Double.parseDouble(longitude);
-    } catch (NumberFormatException e) {
-      throw new SAXException(createErrorMessage(String.format(
-          Locale.US, "Unable to parse latitude longitude: %s %s", latitude, longitude)), e);
-    }
-    Double altitudeValue = null;
-    if (altitude != null) {
-      try {
-        altitudeValue = Double.parseDouble(altitude);
-      } catch (NumberFormatException e) {
-        throw new SAXException(
-            createErrorMessage(String.format(Locale.US, "Unable to parse altitude: %s", altitude)),
-            e);
+  private void parse() throws XmlPullParserException, IOException {
+    int eventType = xmlPullParser.getEventType();
+    int numberOfEvents = 0;
+    while (eventType != XmlPullParser.END_DOCUMENT) {
+      // Stop when the import is cancelled, checked once in a while
+      numberOfEvents++;
+      if (numberOfEvents % INTERRUPT_CHECK_INTERVAL == 0 && Thread.interrupted()) {
+        throw new InterruptedIOException("Thread interrupted");
       }
+      switch (eventType) {
+        case XmlPullParser.START_TAG:
+          resetContent();
+          startElement(xmlPullParser.getName());
+          break;
+        case XmlPullParser.TEXT:
+          char[] text = xmlPullParser.getTextCharacters(textStartAndLength);
+          content.append(text, textStartAndLength[0], textStartAndLength[1]);
+          break;
+        case XmlPullParser.END_TAG:
+          endElement(xmlPullParser.getName());
+          resetContent();
+          break;
+        default:
+          break;
+      }
+      eventType = xmlPullParser.next();
+    }
+  }
+
+  /**
+   * Inserts the waypoints matching the track points of a track.
+   * 
+   * @param trackId the track id
+   */
+  private void insertWaypoints(long trackId) {
+    Track track = myTracksProviderUtils.getTrack(trackId);
+    if (track == null) {
+      return;
     }
+
+    int waypointPosition = -1;
+    Waypoint waypoint = null;
+    Location location = null;
+    TripStatisticsUpdater trackTripStatisticstrackUpdater = new TripStatisticsUpdater(
+        track.getTripStatistics().getStartTime());
+    TripStatisticsUpdater markerTripStatisticsUpdater = new TripStatisticsUpdater(
+        track.getTripStatistics().getStartTime());
+    LocationIterator locationIterator = null;
+    ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
     
-    long timeValue;
-    if (time == null) {
-      timeValue = trackData.importTime;
-    } else {
-      try {
-        timeValue = StringUtils.getTime(time);
-      } catch (IllegalArgumentException e) {
-        throw new SAXException(
-            createErrorMessage(String.format(Locale.US, "Unable to parse time: %s", time)), e);
+    try {
+      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(track.getId(), -1L,
+          false, TrackPointsColumns.NO_SENSOR_COLUMNS,
+          MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+
+      while (true) {
+        if (waypoint == null) {
+          waypointPosition++;
+          waypoint = waypointPosition < waypoints.size() ? waypoints.get(waypointPosition) : null;
+          if (waypoint == null) {
+            // No more waypoints
+            return;
+          }
+        }
+        if (location == null) {
+          if (!locationIterator.hasNext()) {
+            // No more track points. Ignore the rest of the waypoints.
+            return;
+          }
+          location = locationIterator.next();
+          trackTripStatisticstrackUpdater.addLocation(
+              location, recordingDistanceInterval, false, ActivityType.INVALID, 0.0);
+          markerTripStatisticsUpdater.addLocation(
+              location, recordingDistanceInterval, true, activityType, weight);
+        }
+        if (waypoint.getLocation().getTime() > location.getTime()) {
+          location = null;
+        } else if (waypoint.getLocation().getTime() < location.getTime()) {
+          waypoint = null;
+        } else {
+          // The waypoint location time matches the track point time
+
+          if (!LocationUtils.isValidLocation(location)) {
+            // Invalid location, load the next location
+            location = null;
+            continue;
+          }
+
+          // Valid location
+          if (location.getLatitude() == waypoint.getLocation().getLatitude()
+              && location.getLongitude() == waypoint.getLocation().getLongitude()) {
+
+            // Get tripStatistics, description, and icon
+            TripStatistics tripStatistics;
+            String waypointDescription;
+            String icon;
+            if (waypoint.getType() == WaypointType.STATISTICS) {
+              tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
+              markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
+              waypointDescription = new DescriptionGeneratorImpl(context)
+                  .generateWaypointDescription(tripStatistics);
+              icon = context.getString(R.string.marker_statistics_icon_url);
+            } else {
+              tripStatistics = null;
+              waypointDescription = waypoint.getDescription();
+              icon = context.getString(R.string.marker_waypoint_icon_url);
+            }
+
+            // Get length and duration
+            double length = trackTripStatisticstrackUpdater.getTripStatistics().getTotalDistance();
+            long duration = trackTripStatisticstrackUpdater.getTripStatistics().getTotalTime();
+
+            // Insert waypoint
+            Waypoint newWaypoint = new Waypoint(waypoint.getName(), waypointDescription,
+                waypoint.getCategory(), icon, track.getId(), waypoint.getType(), length, duration,
+                -1L, -1L, location, tripStatistics, waypoint.getPhotoUrl());
+            myTracksProviderUtils.insertWaypoint(newWaypoint);
+          }
+
+          // Load the next waypoint
+          waypoint = null;
+        }
       }
+    } finally {
+      if (locationIterator != null) {
+        locationIterator.close();
+      }
+    }
+  }
+
+  /**
+   * Creates a location.
+   */
+  private Location createLocation() {
+    if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+      return null;
     }
-    return createLocation(latitudeValue, longitudeValue, altitudeValue, timeValue);
+    return createLocation(
+        latitude, longitude, altitude, time == -1L ? trackData.importTime : time);
   }
 
   /**
@@ -533,15 +825,15 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
    * 
    * @param latitudeValue the latitude value
    * @param longitudeValue the longitude value
-   * @param altitudeValue the altitude value
+   * @param altitudeValue the altitude value, Double.NaN if not available
    * @param timeValue the time value
    */
   private Location createLocation(
-      double latitudeValue, double longitudeValue, Double altitudeValue, long timeValue) {
+      double latitudeValue, double longitudeValue, double altitudeValue, long timeValue) {
     Location location = new Location(LocationManager.GPS_PROVIDER);
     location.setLatitude(latitudeValue);
     location.setLongitude(longitudeValue);
-    if (altitudeValue != null) {
+    if (!Double.isNaN(altitudeValue)) {
       location.setAltitude(altitudeValue);      
     } else {
       location.removeAltitude();
@@ -563,9 +855,8 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
       trackData.tripStatisticsUpdater = new TripStatisticsUpdater(
           location.getTime() != -1L ? location.getTime() : trackData.importTime);
     }
-    ActivityType activityType = CalorieUtils.getActivityType(context, category);
     trackData.tripStatisticsUpdater.addLocation(
-        location, recordingDistanceInterval, true, activityType, weight);
+        location, recordingDistanceInterval, true, getActivityType(), weight);
 
     trackData.bufferedLocations[trackData.numBufferedLocations] = location;
     trackData.numBufferedLocations++;
@@ -576,6 +867,19 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     }
   }
 
+  /**
+   * Gets the activity type of the category. Cached, since it is needed for
+   * each location and looking it up compares the category to all the localized
+   * activity types.
+   */
+  private ActivityType getActivityType() {
+    if (activityType == null || activityTypeCategory != category) {
+      activityType = CalorieUtils.getActivityType(context, category);
+      activityTypeCategory = category;
+    }
+    return activityType;
+  }
+
   /**
    * Flushes the locations to the database.
    * 
@@ -585,13 +889,70 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
     if (data.numBufferedLocations <= 0) {
       return;
     }
-    myTracksProviderUtils.bulkInsertTrackPoint(
-        data.bufferedLocations, data.numBufferedLocations, data.track.getId());
+    // Hands the buffered locations over to the writer
+    final Track track = data.track;
+    final TrackWrites trackWrites = data.trackWrites;
+    final Location[] locations = data.bufferedLocations;
+    final int length = data.numBufferedLocations;
+    data.bufferedLocations = new Location[MAX_BUFFERED_LOCATIONS];
     data.numBufferedLocations = 0;
-    if (data.track.getStartId() == -1L) {
-      data.track.setStartId(myTracksProviderUtils.getFirstTrackPointId(data.track.getId()));
+    trackWrites.write(new Runnable() {
+      @Override
+      public void run() {
+        insertLocations(track, locations, length, trackWrites.isInTransaction());
+      }
+    });
+  }
+
+  /**
+   * Inserts locations and updates the track start id and stop id.
+   * 
+   * @param track the track
+   * @param locations the locations
+   * @param length the number of locations
+   * @param inTransaction true if in a database transaction
+   */
+  private void insertLocations(
+      Track track, Location[] locations, int length, boolean inTransaction) {
+    long trackId = track.getId();
+    if (!inTransaction) {
+      // Other track points may be inserted in between, so query the ids
+      myTracksProviderUtils.bulkInsertTrackPoint(locations, length, trackId);
+      if (track.getStartId() == -1L) {
+        track.setStartId(myTracksProviderUtils.getFirstTrackPointId(trackId));
+      }
+      track.setStopId(myTracksProviderUtils.getLastTrackPointId(trackId));
+      return;
+    }
+
+    /*
+     * No other track points can be inserted during the transaction, so the ids
+     * of the track points are consecutive. Get the start id from the insert of
+     * the first track point and count the others.
+     */
+    long[] ids = myTracksProviderUtils.insertTrackPoints(locations, length, trackId);
+    if (ids != null) {
+      if (track.getStartId() == -1L) {
+        track.setStartId(ids[0]);
+      }
+      track.setStopId(ids[1]);
+      return;
+    }
+    int offset = 0;
+    if (track.getStartId() == -1L) {
+      Uri uri = myTracksProviderUtils.insertTrackPoint(locations[0], trackId);
+      long trackPointId = Long.parseLong(uri.getLastPathSegment());
+      track.setStartId(trackPointId);
+      track.setStopId(trackPointId);
+      offset = 1;
+    }
+    if (length > offset) {
+      if (offset != 0) {
+        System.arraycopy(locations, offset, locations, 0, length - offset);
+      }
+      int count = myTracksProviderUtils.bulkInsertTrackPoint(locations, length - offset, trackId);
+      track.setStopId(track.getStopId() + count);
     }
-    data.track.setStopId(myTracksProviderUtils.getLastTrackPointId(data.track.getId()));
   }
 
   /**
@@ -620,11 +981,46 @@ abstract class AbstractFileTrackImporter extends DefaultHandler implements Track
   }
 
   /**
-   * Cleans up import.
+   * Waits for the writes of the imported tracks and of the waypoints. Returns
+   * true if they all succeeded.
+   */
+  private boolean awaitWrites() {
+    boolean succeeded = true;
+    for (TrackWrites trackWrites : tracksWrites) {
+      if (!trackWrites.await()) {
+        succeeded = false;
+      }
+    }
+    if (waypointsWrites != null && !waypointsWrites.await()) {
+      succeeded = false;
+    }
+    return succeeded;
+  }
+
+  /**
+   * Cleans up import. Ends the current track and deletes the tracks already
+   * written, including a partly written one. Always deletes the track imported
+   * to, since it may have been cleared.
    */
   private void cleanImport() {
-    for (long trackId : trackIds) {
-      myTracksProviderUtils.deleteTrack(context, trackId);
+    endCurrentTrack();
+    awaitWrites();
+    for (Track track : tracks) {
+      long trackId = track.getId();
+      if (trackId != -1L) {
+        myTracksProviderUtils.deleteTrack(context, trackId);
+      }
+    }
+  }
+
+  /**
+   * Ends the current track if it is not ended, e.g., when the import stops in
+   * the middle of it. Its writes not run yet are skipped.
+   */
+  private void endCurrentTrack() {
+    if (trackData != null && trackData.trackWrites != null) {
+      trackData.trackWrites.end(false);
+      trackData.trackWrites = null;
     }
   }
 }
@@ -23,11 +23,12 @@ import com.google.common.annotations.VisibleForTesting;
 import android.content.Context;
 import android.location.Location;
 
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
- * Imports a GPX file.
+ * Imports a GPX file. Supports GPX 1.0 and GPX 1.1, and the heart rate, cadence
+ * and power in the track point extensions, e.g., gpxtpx:hr and gpxtpx:cad of
+ * the Garmin TrackPointExtension.
  * 
  * @author Jimmy Shih
  */
@@ -36,6 +37,7 @@ public class GpxFileTrackImporter extends AbstractFileTrackImporter {
   private static final String TAG_DESCRIPTION = "desc";
   private static final String TAG_COMMENT = "cmt";
   private static final String TAG_ELEVATION = "ele";
+  private static final String TAG_EXTENSIONS = "extensions";
   private static final String TAG_GPX = "gpx";
   private static final String TAG_NAME = "name";
   private static final String TAG_TIME = "time";
@@ -45,8 +47,24 @@ public class GpxFileTrackImporter extends AbstractFileTrackImporter {
   private static final String TAG_TYPE = "type";
   private static final String TAG_WAYPOINT = "wpt";
 
+  // The extension tags, without their namespace prefix
+  private static final String TAG_CADENCE = "cad";
+  private static final String TAG_HEART_RATE = "hr";
+  private static final String TAG_POWER = "power";
+  private static final String TAG_POWER_IN_WATTS = "PowerInWatts";
+
   private static final String ATTRIBUTE_LAT = "lat";
   private static final String ATTRIBUTE_LON = "lon";
+
+  // True inside a waypoint or a track point
+  private boolean pointStarted = false;
+
+  // True inside the extensions of a track point
+  private boolean extensionsStarted = false;
+
+  private int heartRate = -1;
+  private int cadence = -1;
+  private int power = -1;
   
   /**
    * Constructor.
@@ -62,62 +80,72 @@ public class GpxFileTrackImporter extends AbstractFileTrackImporter {
     super(context, -1L, myTracksProviderUtils);
   }
 
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param trackImportWriter the track import writer
+   */
+  GpxFileTrackImporter(Context context, TrackImportWriter trackImportWriter) {
+    super(context, -1L, trackImportWriter);
+  }
+
   @Override
-  public void startElement(String uri, String localName, String tag, Attributes attributes)
-      throws SAXException {
-    if (tag.equals(TAG_WAYPOINT)) {
-      onWaypointStart(attributes);
+  protected void startElement(String tag) throws XmlPullParserException {
+    if (tag.equals(TAG_TRACK_POINT)) {
+      onTrackPointStart();
+    } else if (tag.equals(TAG_WAYPOINT)) {
+      onWaypointStart();
     } else if (tag.equals(TAG_TRACK)) {
       onTrackStart();
     } else if (tag.equals(TAG_TRACK_SEGMENT)) {
       onTrackSegmentStart();
-    } else if (tag.equals(TAG_TRACK_POINT)) {
-      onTrackPointStart(attributes);
+    } else if (tag.equals(TAG_EXTENSIONS)) {
+      extensionsStarted = pointStarted;
     }
   }
 
   @Override
-  public void endElement(String uri, String localName, String tag) throws SAXException {
-    if (tag.equals(TAG_GPX)) {
+  protected void endElement(String tag) throws XmlPullParserException {
+    if (extensionsStarted) {
+      onExtensionEnd(tag);
+    } else if (tag.equals(TAG_TRACK_POINT)) {
+      onTrackPointEnd();
+    } else if (tag.equals(TAG_ELEVATION)) {
+      if (pointStarted && hasContent()) {
+        altitude = getContentDouble("altitude");
+      }
+    } else if (tag.equals(TAG_TIME)) {
+      if (pointStarted && hasContent()) {
+        time = getContentTime();
+      }
+    } else if (tag.equals(TAG_GPX)) {
       onFileEnd();
     } else if (tag.equals(TAG_WAYPOINT)) {
       onWaypointEnd();
     } else if (tag.equals(TAG_TRACK)) {
       onTrackEnd();
-    } else if (tag.equals(TAG_TRACK_POINT)) {
-      onTrackPointEnd();
     } else if (tag.equals(TAG_NAME)) {
-      if (content != null) {
-        name = content.trim();
+      if (hasContent()) {
+        name = getContent();
       }
     } else if (tag.equals(TAG_DESCRIPTION)) {
-      if (content != null) {
-        description = content.trim();
+      if (hasContent()) {
+        description = getContent();
       }
     } else if (tag.equals(TAG_TYPE)) {
-      if (content != null) {
-        category = content.trim();
-      }
-    } else if (tag.equals(TAG_TIME)) {
-      if (content != null) {
-        time = content.trim();
-      }
-    } else if (tag.equals(TAG_ELEVATION)) {
-      if (content != null) {
-        altitude = content.trim();
+      if (hasContent()) {
+        category = getContent();
       }
     } else if (tag.equals(TAG_COMMENT)) {
-      if (content != null) {
-        waypointType = content.trim();
+      if (hasContent()) {
+        waypointType = getContent();
       }
     }
-
-    // Reset element content
-    content = null;
   }
 
   @Override
-  protected void onTrackStart() throws SAXException {
+  protected void onTrackStart() throws XmlPullParserException {
     super.onTrackStart();
     name = null;
     description = null;
@@ -126,49 +154,96 @@ public class GpxFileTrackImporter extends AbstractFileTrackImporter {
 
   /**
    * On track point start.
-   * 
-   * @param attributes the attributes
    */
-  private void onTrackPointStart(Attributes attributes) {
-    latitude = attributes.getValue(ATTRIBUTE_LAT);
-    longitude = attributes.getValue(ATTRIBUTE_LON);
-    altitude = null;
-    time = null;
+  private void onTrackPointStart() throws XmlPullParserException {
+    pointStarted = true;
+    onLocationStart();
+    heartRate = -1;
+    cadence = -1;
+    power = -1;
   }
 
   /**
    * On track point end.
    */
-  private void onTrackPointEnd() throws SAXException {
+  private void onTrackPointEnd() throws XmlPullParserException {
+    pointStarted = false;
     Location location = getTrackPoint();
     if (location == null) {
       return;
     }
-    insertTrackPoint(location);
+    insertTrackPoint(addSensorData(location, heartRate, cadence, power));
   }
 
   /**
-   * On waypoint start.
+   * On an element end inside the extensions of a track point.
    * 
-   * @param attributes the attributes
+   * @param tag the element tag
+   */
+  private void onExtensionEnd(String tag) throws XmlPullParserException {
+    if (tag.equals(TAG_EXTENSIONS)) {
+      extensionsStarted = false;
+      return;
+    }
+    if (!hasContent()) {
+      return;
+    }
+    String localName = getLocalName(tag);
+    if (localName.equals(TAG_HEART_RATE)) {
+      heartRate = getContentInt("heart rate");
+    } else if (localName.equals(TAG_CADENCE)) {
+      cadence = getContentInt("cadence");
+    } else if (localName.equals(TAG_POWER) || localName.equals(TAG_POWER_IN_WATTS)) {
+      power = getContentInt("power");
+    }
+  }
+
+  /**
+   * On waypoint start.
    */
-  private void onWaypointStart(Attributes attributes) {
+  private void onWaypointStart() throws XmlPullParserException {
+    pointStarted = true;
     name = null;
     description = null;
     category = null;
     photoUrl = null;
-    latitude = attributes.getValue(ATTRIBUTE_LAT);
-    longitude = attributes.getValue(ATTRIBUTE_LON);
-    altitude = null;
-    time = null;
+    onLocationStart();
     waypointType = null;
   }
 
   /**
    * On waypoint end.
    */
-  private void onWaypointEnd() throws SAXException {
+  private void onWaypointEnd() throws XmlPullParserException {
+    pointStarted = false;
     addWaypoint(WaypointType.STATISTICS.name().equals(waypointType) ? WaypointType.STATISTICS
         : WaypointType.WAYPOINT);
   }
+
+  /**
+   * On a waypoint or track point start. Gets the latitude and the longitude
+   * from the attributes.
+   */
+  private void onLocationStart() throws XmlPullParserException {
+    latitude = getAttributeDouble(ATTRIBUTE_LAT, "latitude");
+    longitude = getAttributeDouble(ATTRIBUTE_LON, "longitude");
+    altitude = Double.NaN;
+    time = -1L;
+  }
+
+  /**
+   * Gets an attribute of the current start element as a double. Double.NaN if
+   * the element does not have the attribute.
+   * 
+   * @param attribute the attribute name
+   * @param field the field name for the error message
+   */
+  private double getAttributeDouble(String attribute, String field)
+      throws XmlPullParserException {
+    String value = getAttributeValue(attribute);
+    if (value == null) {
+      return Double.NaN;
+    }
+    return parseDouble(value, 0, value.length(), field);
+  }
 }
@@ -37,6 +37,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * AsyncTask to import files from the external storage.
@@ -47,6 +53,9 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
 
   private static final String TAG = ImportAsyncTask.class.getSimpleName();
 
+  // Maximum number of files parsed in parallel when importing all the files
+  private static final int MAX_THREADS = 4;
+
   private ImportActivity importActivity;
   private final boolean importAll;
   private final TrackFileFormat trackFileFormat;
@@ -58,13 +67,13 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
   private boolean completed;
 
   // the number of files successfully imported
-  private int successCount;
+  private volatile int successCount;
 
   // the number of files to import
   private int totalCount;
 
   // the last successfully imported track id
-  private long trackId;
+  private volatile long trackId;
 
   /**
    * Creates an AsyncTask.
@@ -127,12 +136,19 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
         return true;
       }
 
+      if (totalCount > 1) {
+        importFiles(files);
+        return true;
+      }
+
+      TrackImportWriter trackImportWriter = new TrackImportWriter(
+          MyTracksProviderUtils.Factory.get(context));
       for (int i = 0; i < totalCount; i++) {
         if (isCancelled()) {
           // If cancelled, return true to show the number of files imported
           return true;
         }
-        if (importFile(files.get(i))) {
+        if (importFile(files.get(i), trackImportWriter)) {
           successCount++;
         }
         publishProgress(i + 1, totalCount);
@@ -168,32 +184,107 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
     }
   }
   
+  /**
+   * Imports several files. Parses the files in parallel and writes their tracks
+   * on a single writer thread, each batch of track points in one short
+   * transaction.
+   * 
+   * @param files the files
+   */
+  private void importFiles(List<File> files) {
+    final TrackImportWriter trackImportWriter = TrackImportWriter.newSingleThreadWriter(
+        MyTracksProviderUtils.Factory.get(context));
+    int numberOfThreads = Math.max(
+        1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+    final AtomicInteger doneCount = new AtomicInteger();
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>(files.size());
+      for (final File file : files) {
+        futures.add(executorService.submit(new Runnable() {
+          @Override
+          public void run() {
+            // If cancelled, skip the file to show the number of files imported
+            if (isCancelled()) {
+              return;
+            }
+            if (importFile(file, trackImportWriter)) {
+              incrementSuccessCount();
+            }
+            publishProgress(doneCount.incrementAndGet(), totalCount);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          Log.e(TAG, "Unable to import file", e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Interrupted importing files", e);
+    } finally {
+      // Interrupts the imports still running if cancelled
+      executorService.shutdownNow();
+      boolean terminated = false;
+      try {
+        // The writer waits for the imports to end their tracks
+        terminated = executorService.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Log.d(TAG, "Interrupted waiting for the imports", e);
+        Thread.currentThread().interrupt();
+      }
+      if (terminated) {
+        trackImportWriter.close();
+      } else {
+        // Fails the writes of the imports still running instead of waiting
+        Log.w(TAG, "Timed out waiting for the imports");
+        trackImportWriter.abort();
+      }
+    }
+  }
+
+  /**
+   * Increments the number of files successfully imported. Called by the
+   * threads importing the files.
+   */
+  private synchronized void incrementSuccessCount() {
+    successCount++;
+  }
+
   /**
    * Imports a file.
    * 
    * @param file the file
+   * @param trackImportWriter the track import writer
    */
-  private boolean importFile(final File file) {
+  private boolean importFile(final File file, TrackImportWriter trackImportWriter) {
     FileInputStream fileInputStream = null;
     try {
       TrackImporter trackImporter;
+      String extension = FileUtils.getExtension(file.getName());
       if (trackFileFormat == TrackFileFormat.KML) {
-        String extension = FileUtils.getExtension(file.getName());
         if (TrackFileFormat.KML.getExtension().equals(extension)) {
-          trackImporter = new KmlFileTrackImporter(context, -1L);
+          trackImporter = new KmlFileTrackImporter(context, -1L, trackImportWriter);
         } else {         
           MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
           Uri uri = myTracksProviderUtils.insertTrack(new Track());
           long newId = Long.parseLong(uri.getLastPathSegment());
 
-          trackImporter = new KmzTrackImporter(context, newId);
+          // Reads the kmz entries with random access instead of as a stream
+          KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(
+              context, newId, trackImportWriter);
+          return onFileImported(kmzTrackImporter.importFile(file));
         }
+      } else if (trackFileFormat == TrackFileFormat.TCX
+          || TrackFileFormat.TCX.getExtension().equals(extension)) {
+        trackImporter = new TcxFileTrackImporter(context, trackImportWriter);
       } else {
-        trackImporter = new GpxFileTrackImporter(context);
+        trackImporter = new GpxFileTrackImporter(context, trackImportWriter);
       }
       fileInputStream = new FileInputStream(file);
-      trackId = trackImporter.importFile(fileInputStream);
-      return trackId != -1L;
+      return onFileImported(trackImporter.importFile(fileInputStream));
     } catch (FileNotFoundException e) {
       Log.e(TAG, "Unable to import file", e);
       return false;
@@ -208,6 +299,19 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
     }
   }
   
+  /**
+   * On a file imported. Returns true if successful.
+   * 
+   * @param importedTrackId the imported track id or -1L
+   */
+  private boolean onFileImported(long importedTrackId) {
+    if (importedTrackId == -1L) {
+      return false;
+    }
+    trackId = importedTrackId;
+    return true;
+  }
+
   /**
    * Gets a list of files. If importAll is true, returns a list of the files
    * under the path directory. If importAll is false, returns a list containing
@@ -229,6 +333,9 @@ public class ImportAsyncTask extends AsyncTask<Void, Integer, Boolean> {
             } else if (trackFileFormat == TrackFileFormat.GPX
                 && TrackFileFormat.GPX.getExtension().equals(extension)) {
               files.add(candidate);
+            } else if (trackFileFormat == TrackFileFormat.TCX
+                && TrackFileFormat.TCX.getExtension().equals(extension)) {
+              files.add(candidate);
             }
           }         
         }
@@ -16,10 +16,7 @@
 
 package com.google.android.apps.mytracks.io.file.importer;
 
-import com.google.android.apps.mytracks.content.MyTracksLocation;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
-import com.google.android.apps.mytracks.content.Sensor;
-import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.common.annotations.VisibleForTesting;
 
@@ -29,11 +26,11 @@ import android.net.Uri;
 
 import java.util.ArrayList;
 
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
+import org.xmlpull.v1.XmlPullParserException;
 
 /**
- * Imports a KML file.
+ * Imports a KML file. The times of a gx:Track can either be interleaved with
+ * its coordinates or precede them.
  * 
  * @author Jimmy Shih
  */
@@ -65,12 +62,23 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
   private static final String ATTRIBUTE_NAME = "name";
 
   private boolean trackStarted = false;
+  private boolean trackSegmentStarted = false;
   private String sensorName;
   private ArrayList<Location> locationList;
   private ArrayList<Integer> cadenceList;
   private ArrayList<Integer> heartRateList;
   private ArrayList<Integer> powerList;
 
+  // The times of the current track segment, -1L if not available
+  private long[] times = new long[64];
+  private int numberOfTimes;
+
+  // The number of coordinates of the current track segment
+  private int numberOfCoordinates;
+
+  // The parsed coordinates, longitude, latitude and altitude
+  private final double[] coordinates = new double[3];
+
   /**
    * Constructor.
    * 
@@ -87,9 +95,19 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
     super(context, importTrackId, myTracksProviderUtils);
   }
 
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param importTrackId track id to import to. -1L to import to a new track.
+   * @param trackImportWriter the track import writer
+   */
+  KmlFileTrackImporter(Context context, long importTrackId, TrackImportWriter trackImportWriter) {
+    super(context, importTrackId, trackImportWriter);
+  }
+
   @Override
-  public void startElement(String uri, String localName, String tag, Attributes attributes)
-      throws SAXException {
+  protected void startElement(String tag) throws XmlPullParserException {
     if (tag.equals(TAG_PLACEMARK) || tag.equals(TAG_PHOTO_OVERLAY)) {
       /*
        * Note that a track is contained in a Placemark, calling onWaypointStart
@@ -102,17 +120,23 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
       onTrackStart();
     } else if (tag.equals(TAG_GX_TRACK)) {
       if (!trackStarted) {
-        throw new SAXException("No " + TAG_GX_MULTI_TRACK);
+        throw new XmlPullParserException(createErrorMessage("No " + TAG_GX_MULTI_TRACK));
       }
       onTrackSegmentStart();
     } else if (tag.equals(TAG_GX_SIMPLE_ARRAY_DATA)) {
-      onSensorDataStart(attributes);
+      onSensorDataStart();
     }
   }
 
   @Override
-  public void endElement(String uri, String localName, String tag) throws SAXException {
-    if (tag.equals(TAG_KML)) {
+  protected void endElement(String tag) throws XmlPullParserException {
+    if (tag.equals(TAG_GX_COORD)) {
+      onTrackPointEnd();
+    } else if (tag.equals(TAG_WHEN)) {
+      onWhenEnd();
+    } else if (tag.equals(TAG_GX_VALUE)) {
+      onSensorValueEnd();
+    } else if (tag.equals(TAG_KML)) {
       onFileEnd();
     } else if (tag.equals(TAG_PLACEMARK) || tag.equals(TAG_PHOTO_OVERLAY)) {
       /*
@@ -120,44 +144,33 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
        * save since waypointType is not set for a track.
        */
       onWaypointEnd();
-    } else if (localName.equals(TAG_COORDINATES)) {
+    } else if (tag.equals(TAG_COORDINATES)) {
       onWaypointLocationEnd();
     } else if (tag.equals(TAG_GX_MULTI_TRACK)) {
       onTrackEnd();
     } else if (tag.equals(TAG_GX_TRACK)) {
       onTrackSegmentEnd();
-    } else if (tag.equals(TAG_GX_COORD)) {
-      onTrackPointEnd();
-    } else if (tag.equals(TAG_GX_VALUE)) {
-      onSensorValueEnd();
     } else if (tag.equals(TAG_NAME)) {
-      if (content != null) {
-        name = content.trim();
+      if (hasContent()) {
+        name = getContent();
       }
-    } else if (localName.equals(TAG_DESCRIPTION)) {
-      if (content != null) {
-        description = content.trim();
+    } else if (tag.equals(TAG_DESCRIPTION)) {
+      if (hasContent()) {
+        description = getContent();
       }
-    } else if (localName.equals(TAG_VALUE)) {
-      if (content != null) {
-        category = content.trim();
+    } else if (tag.equals(TAG_VALUE)) {
+      if (hasContent()) {
+        category = getContent();
       }
-    } else if (localName.equals(TAG_WHEN)) {
-      if (content != null) {
-        time = content.trim();
+    } else if (tag.equals(TAG_STYLE_URL)) {
+      if (hasContent()) {
+        waypointType = getContent();
       }
-    } else if (localName.equals(TAG_STYLE_URL)) {
-      if (content != null) {
-        waypointType = content.trim();
-      }
-    } else if (localName.equals(TAG_HREF)) {
-      if (content != null) {
-        photoUrl = content.trim();
+    } else if (tag.equals(TAG_HREF)) {
+      if (hasContent()) {
+        photoUrl = getContent();
       }
     }
-
-    // Reset element content
-    content = null;
   }
 
   /**
@@ -169,17 +182,17 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
     description = null;
     category = null;
     photoUrl = null;
-    latitude = null;
-    longitude = null;
-    altitude = null;
-    time = null;
+    latitude = Double.NaN;
+    longitude = Double.NaN;
+    altitude = Double.NaN;
+    time = -1L;
     waypointType = null;
   }
 
   /**
    * On waypoint end.
    */
-  private void onWaypointEnd() throws SAXException {
+  private void onWaypointEnd() throws XmlPullParserException {
     // Add a waypoint if the waypointType matches
     WaypointType type = null;
     if (WAYPOINT_STYLE.equals(waypointType)) {
@@ -200,21 +213,44 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
   /**
    * On waypoint location end.
    */
-  private void onWaypointLocationEnd() {
-    if (content != null) {
-      String parts[] = content.trim().split(",");
-      if (parts.length != 2 && parts.length != 3) {
+  private void onWaypointLocationEnd() throws XmlPullParserException {
+    if (hasContent()) {
+      int count = getContentDoubles(',', coordinates, "coordinates");
+      if (count != 2 && count != 3) {
         return;
       }
-      longitude = parts[0];
-      latitude = parts[1];
-      altitude = parts.length == 3 ? parts[2] : null;      
+      longitude = coordinates[0];
+      latitude = coordinates[1];
+      altitude = count == 3 ? coordinates[2] : Double.NaN;
     }
   }
 
+  /**
+   * On when end. Either the time of a waypoint or of a track point.
+   */
+  private void onWhenEnd() throws XmlPullParserException {
+    long value = hasContent() ? getContentTime() : -1L;
+    if (!trackSegmentStarted) {
+      if (value != -1L) {
+        time = value;
+      }
+      return;
+    }
+    if (numberOfTimes == times.length) {
+      long[] newTimes = new long[times.length * 2];
+      System.arraycopy(times, 0, newTimes, 0, numberOfTimes);
+      times = newTimes;
+    }
+    times[numberOfTimes] = value;
+    numberOfTimes++;
+  }
+
   @Override
   protected void onTrackSegmentStart() {
     super.onTrackSegmentStart();
+    trackSegmentStarted = true;
+    numberOfTimes = 0;
+    numberOfCoordinates = 0;
     locationList = new ArrayList<Location>();
     powerList = new ArrayList<Integer>();
     cadenceList = new ArrayList<Integer>();
@@ -225,87 +261,62 @@ public class KmlFileTrackImporter extends AbstractFileTrackImporter {
    * On track segment end.
    */
   private void onTrackSegmentEnd() {
+    trackSegmentStarted = false;
+
     // Close a track segment by inserting the segment locations
     boolean hasPower = powerList.size() == locationList.size();
     boolean hasCadence = cadenceList.size() == locationList.size();
     boolean hasHeartRate = heartRateList.size() == locationList.size();
 
     for (int i = 0; i < locationList.size(); i++) {
-      Location location = locationList.get(i);
-
-      if (!hasPower && !hasCadence && !hasHeartRate) {
-        insertTrackPoint(location);
-      } else {
-        SensorDataSet.Builder builder = Sensor.SensorDataSet.newBuilder();
-        if (hasPower) {
-          builder.setPower(Sensor.SensorData.newBuilder()
-              .setValue(powerList.get(i)).setState(Sensor.SensorState.SENDING));
-        }
-        if (hasCadence) {
-          builder.setCadence(Sensor.SensorData.newBuilder()
-              .setValue(cadenceList.get(i)).setState(Sensor.SensorState.SENDING));
-        }
-        if (hasHeartRate) {
-          builder.setHeartRate(Sensor.SensorData.newBuilder()
-              .setValue(heartRateList.get(i)).setState(Sensor.SensorState.SENDING));
-        }
-        SensorDataSet sensorDataSet = builder.setCreationTime(location.getTime()).build();
-        MyTracksLocation myTracksLocation = new MyTracksLocation(location, sensorDataSet);
-        insertTrackPoint(myTracksLocation);
-      }
+      insertTrackPoint(addSensorData(locationList.get(i), hasHeartRate ? heartRateList.get(i)
+          : -1, hasCadence ? cadenceList.get(i) : -1, hasPower ? powerList.get(i) : -1));
     }
   }
 
   /**
    * On track point end. gx:coord end tag.
    */
-  private void onTrackPointEnd() throws SAXException {
+  private void onTrackPointEnd() throws XmlPullParserException {
+    // The time of the coordinates, with the same index
+    time = numberOfCoordinates < numberOfTimes ? times[numberOfCoordinates] : -1L;
+    numberOfCoordinates++;
+
     // Add location to locationList
-    if (content == null) {
+    if (!hasContent()) {
       return;
     }
-    String parts[] = content.trim().split(" ");
-    if (parts.length != 2 && parts.length != 3) {
+    int count = getContentDoubles(' ', coordinates, "gx:coord");
+    if (count != 2 && count != 3) {
       return;
     }
-    longitude = parts[0];
-    latitude = parts[1];
-    altitude = parts.length == 3 ? parts[2] : null;
+    longitude = coordinates[0];
+    latitude = coordinates[1];
+    altitude = count == 3 ? coordinates[2] : Double.NaN;
 
     Location location = getTrackPoint();
     if (location == null) {
       return;
     }
     locationList.add(location);
-    time = null;
+    time = -1L;
   }
 
   /**
    * On sensor data start. gx:SimpleArrayData start tag.
-   * 
-   * @param attributes
    */
-  private void onSensorDataStart(Attributes attributes) {
-    sensorName = attributes.getValue(ATTRIBUTE_NAME);
+  private void onSensorDataStart() {
+    sensorName = getAttributeValue(ATTRIBUTE_NAME);
   }
 
   /**
    * On sensor value end. gx:value end tag.
    */
-  private void onSensorValueEnd() throws SAXException {
-    if (content == null) {
-      return;
-    }
-    content = content.trim();
-    if (content.equals("")) {
+  private void onSensorValueEnd() throws XmlPullParserException {
+    if (!hasContent()) {
       return;
     }
-    int value;
-    try {
-      value = Integer.parseInt(content);
-    } catch (NumberFormatException e) {
-      throw new SAXException(createErrorMessage("Unable to parse gx:value:" + content), e);
-    }
+    int value = getContentInt("gx:value");
     if (POWER.equals(sensorName)) {
       powerList.add(value);
     } else if (HEART_RATE.equals(sensorName)) {
@@ -24,17 +24,19 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Enumeration;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
- * Imports a KMZ file.
+ * Imports a KMZ file. The kml is streamed from the zip entry into the
+ * {@link KmlFileTrackImporter}, never buffered in memory, and the images are
+ * copied to the track photo directory.
  * 
  * @author Jimmy Shih
  */
@@ -45,6 +47,7 @@ public class KmzTrackImporter implements TrackImporter {
 
   private final Context context;
   private final long importTrackId;
+  private final TrackImportWriter trackImportWriter;
 
   /**
    * Constructor.
@@ -54,14 +57,98 @@ public class KmzTrackImporter implements TrackImporter {
    *          images in the kmz file can be imported.
    */
   public KmzTrackImporter(Context context, long importTrackId) {
+    this(context, importTrackId,
+        new TrackImportWriter(MyTracksProviderUtils.Factory.get(context)));
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param context the context
+   * @param importTrackId track id to import to. This should not be -1L so that
+   *          images in the kmz file can be imported.
+   * @param trackImportWriter the track import writer
+   */
+  KmzTrackImporter(Context context, long importTrackId, TrackImportWriter trackImportWriter) {
     this.context = context;
     this.importTrackId = importTrackId;
+    this.trackImportWriter = trackImportWriter;
+  }
+
+  /**
+   * Imports a KMZ file with random access to its entries. The kml is imported
+   * first, wherever it is in the file, and the images are only extracted if
+   * the kml is successfully imported.
+   * 
+   * @param file the file
+   * @return the imported track id or -1L
+   */
+  public long importFile(File file) {
+    ZipFile zipFile = null;
+    long trackId = importTrackId;
+    try {
+      zipFile = new ZipFile(file);
+      ZipEntry kmlEntry = zipFile.getEntry(KmzTrackExporter.KMZ_KML_FILE);
+      if (kmlEntry == null) {
+        Log.d(TAG, "No kml in kmz");
+        cleanImport(trackId);
+        return -1L;
+      }
+      trackId = parseKml(zipFile, kmlEntry);
+      if (trackId == -1L) {
+        Log.d(TAG, "Unable to parse kml in kmz");
+        cleanImport(trackId);
+        return -1L;
+      }
+
+      String prefix = KmzTrackExporter.KMZ_IMAGES_DIR + File.separatorChar;
+      Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+      while (zipEntries.hasMoreElements()) {
+        if (Thread.interrupted()) {
+          Log.d(TAG, "Thread interrupted");
+          cleanImport(trackId);
+          return -1L;
+        }
+        ZipEntry zipEntry = zipEntries.nextElement();
+        String fileName = zipEntry.getName();
+        if (fileName.startsWith(prefix)) {
+          InputStream inputStream = zipFile.getInputStream(zipEntry);
+          try {
+            readImageFile(inputStream, fileName.substring(prefix.length()));
+          } finally {
+            inputStream.close();
+          }
+        }
+      }
+      return trackId;
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to import file", e);
+      cleanImport(trackId);
+      return -1L;
+    } finally {
+      if (zipFile != null) {
+        try {
+          zipFile.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to close zip file", e);
+        }
+      }
+    }
   }
 
+  /**
+   * Imports a KMZ file sequentially from an input stream, e.g., a download.
+   * The entries are processed in their order in the stream. Fails if the
+   * stream has no kml.
+   * 
+   * @param inputStream the input stream
+   * @return the imported track id or -1L
+   */
   @Override
   public long importFile(InputStream inputStream) {
     ZipInputStream zipInputStream = null;
     long trackId = importTrackId;
+    boolean hasKml = false;
     try {
       ZipEntry zipEntry;
 
@@ -74,6 +161,7 @@ public class KmzTrackImporter implements TrackImporter {
         }
         String fileName = zipEntry.getName();
         if (fileName.equals(KmzTrackExporter.KMZ_KML_FILE)) {
+          hasKml = true;
           trackId = parseKml(zipInputStream);
           if (trackId == -1L) {
             Log.d(TAG, "Unable to parse kml in kmz");
@@ -88,6 +176,11 @@ public class KmzTrackImporter implements TrackImporter {
         }
         zipInputStream.closeEntry();
       }
+      if (!hasKml) {
+        Log.d(TAG, "No kml in kmz");
+        cleanImport(trackId);
+        return -1L;
+      }
       return trackId;
     } catch (IOException e) {
       Log.e(TAG, "Unable to import file", e);
@@ -128,53 +221,40 @@ public class KmzTrackImporter implements TrackImporter {
   }
 
   /**
-   * Parses kml
+   * Parses kml.
    * 
-   * @param zipInputStream the zip input stream
+   * @param zipFile the zip file
+   * @param kmlEntry the kml entry
    * @return the imported track id or -1L
    */
-  private long parseKml(ZipInputStream zipInputStream) throws IOException {
-    ByteArrayInputStream byteArrayInputStream = null;
+  private long parseKml(ZipFile zipFile, ZipEntry kmlEntry) throws IOException {
+    InputStream inputStream = zipFile.getInputStream(kmlEntry);
     try {
-      KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(context, importTrackId);
-      byteArrayInputStream = new ByteArrayInputStream(getKml(zipInputStream));
-      return kmlFileTrackImporter.importFile(byteArrayInputStream);
+      return parseKml(inputStream);
     } finally {
-      if (byteArrayInputStream != null) {
-        byteArrayInputStream.close();
-      }
+      inputStream.close();
     }
   }
 
   /**
-   * Gets the kml as byte array.
+   * Parses kml. Streams the kml from the input stream without buffering it.
    * 
-   * @param zipInputStream the zip input stream
+   * @param inputStream the input stream, positioned at the kml. Not closed
+   * @return the imported track id or -1L
    */
-  private byte[] getKml(ZipInputStream zipInputStream) throws IOException {
-    ByteArrayOutputStream byteArrayOutputStream = null;
-    try {
-      byteArrayOutputStream = new ByteArrayOutputStream();
-      byte[] buffer = new byte[BUFFER_SIZE];
-      int count;
-      while ((count = zipInputStream.read(buffer)) != -1) {
-        byteArrayOutputStream.write(buffer, 0, count);
-      }
-      return byteArrayOutputStream.toByteArray();
-    } finally {
-      if (byteArrayOutputStream != null) {
-        byteArrayOutputStream.close();
-      }
-    }
+  private long parseKml(InputStream inputStream) {
+    KmlFileTrackImporter kmlFileTrackImporter = new KmlFileTrackImporter(
+        context, importTrackId, trackImportWriter);
+    return kmlFileTrackImporter.importFile(inputStream);
   }
 
   /**
    * Reads an image file.
    * 
-   * @param zipInputStream the zip input stream
+   * @param inputStream the input stream, positioned at the image. Not closed
    * @param fileName the file name
    */
-  private void readImageFile(ZipInputStream zipInputStream, String fileName) throws IOException {
+  private void readImageFile(InputStream inputStream, String fileName) throws IOException {
     FileOutputStream fileOutputStream = null;
     try {
       if (importTrackId == -1L) {
@@ -190,7 +270,7 @@ public class KmzTrackImporter implements TrackImporter {
       fileOutputStream = new FileOutputStream(file);
       byte[] buffer = new byte[BUFFER_SIZE];
       int count;
-      while ((count = zipInputStream.read(buffer)) != -1) {
+      while ((count = inputStream.read(buffer)) != -1) {
         fileOutputStream.write(buffer, 0, count);
       }
       
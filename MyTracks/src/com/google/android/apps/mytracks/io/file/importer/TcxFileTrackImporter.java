@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.maps.mytracks.R;
+import com.google.common.annotations.VisibleForTesting;
+
+import android.content.Context;
+import android.location.Location;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Imports a TCX file. Each activity is imported as a track, each track of its
+ * laps as a track segment. The heart rate, the cadence, the run cadence and
+ * the power of the track points are imported as sensor data. See
+ * http://developer.garmin.com/schemas/tcx/v2/ for info on TCX.
+ */
+public class TcxFileTrackImporter extends AbstractFileTrackImporter {
+
+  private static final String SPORT_BIKING = "Biking";
+  private static final String SPORT_RUNNING = "Running";
+
+  // The tags, without their namespace prefix
+  private static final String TAG_ACTIVITY = "Activity";
+  private static final String TAG_ALTITUDE_METERS = "AltitudeMeters";
+  private static final String TAG_CADENCE = "Cadence";
+  private static final String TAG_HEART_RATE_BPM = "HeartRateBpm";
+  private static final String TAG_ID = "Id";
+  private static final String TAG_LATITUDE_DEGREES = "LatitudeDegrees";
+  private static final String TAG_LONGITUDE_DEGREES = "LongitudeDegrees";
+  private static final String TAG_NOTES = "Notes";
+  private static final String TAG_RUN_CADENCE = "RunCadence";
+  private static final String TAG_TIME = "Time";
+  private static final String TAG_TRACK = "Track";
+  private static final String TAG_TRACKPOINT = "Trackpoint";
+  private static final String TAG_TRAINING_CENTER_DATABASE = "TrainingCenterDatabase";
+  private static final String TAG_VALUE = "Value";
+  private static final String TAG_WATTS = "Watts";
+
+  private static final String ATTRIBUTE_SPORT = "Sport";
+
+  private final Context context;
+
+  // True inside an activity
+  private boolean activityStarted = false;
+
+  // True inside a track point
+  private boolean trackPointStarted = false;
+
+  // True inside the heart rate of a track point
+  private boolean heartRateStarted = false;
+
+  private int heartRate = -1;
+  private int cadence = -1;
+  private int power = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param context the context
+   */
+  public TcxFileTrackImporter(Context context) {
+    this(context, MyTracksProviderUtils.Factory.get(context));
+  }
+
+  @VisibleForTesting
+  TcxFileTrackImporter(Context context, MyTracksProviderUtils myTracksProviderUtils) {
+    super(context, -1L, myTracksProviderUtils);
+    this.context = context;
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param context the context
+   * @param trackImportWriter the track import writer
+   */
+  TcxFileTrackImporter(Context context, TrackImportWriter trackImportWriter) {
+    super(context, -1L, trackImportWriter);
+    this.context = context;
+  }
+
+  @Override
+  protected void startElement(String tag) throws XmlPullParserException {
+    String localName = getLocalName(tag);
+    if (localName.equals(TAG_TRACKPOINT)) {
+      onTrackPointStart();
+    } else if (localName.equals(TAG_HEART_RATE_BPM)) {
+      heartRateStarted = trackPointStarted;
+    } else if (localName.equals(TAG_TRACK)) {
+      if (!activityStarted) {
+        throw new XmlPullParserException(createErrorMessage("No " + TAG_ACTIVITY));
+      }
+      onTrackSegmentStart();
+    } else if (localName.equals(TAG_ACTIVITY)) {
+      onActivityStart();
+    }
+  }
+
+  @Override
+  protected void endElement(String tag) throws XmlPullParserException {
+    String localName = getLocalName(tag);
+    if (trackPointStarted) {
+      onTrackPointElementEnd(localName);
+    } else if (localName.equals(TAG_ID)) {
+      if (activityStarted && hasContent()) {
+        name = getContent();
+      }
+    } else if (localName.equals(TAG_NOTES)) {
+      if (activityStarted && hasContent()) {
+        description = getContent();
+      }
+    } else if (localName.equals(TAG_ACTIVITY)) {
+      activityStarted = false;
+      onTrackEnd();
+    } else if (localName.equals(TAG_TRAINING_CENTER_DATABASE)) {
+      onFileEnd();
+    }
+  }
+
+  /**
+   * On activity start.
+   */
+  private void onActivityStart() throws XmlPullParserException {
+    activityStarted = true;
+    onTrackStart();
+    name = null;
+    description = null;
+    String sport = getAttributeValue(ATTRIBUTE_SPORT);
+    if (SPORT_BIKING.equals(sport)) {
+      category = context.getString(R.string.activity_type_cycling);
+    } else if (SPORT_RUNNING.equals(sport)) {
+      category = context.getString(R.string.activity_type_running);
+    } else {
+      category = null;
+    }
+  }
+
+  /**
+   * On track point start.
+   */
+  private void onTrackPointStart() {
+    trackPointStarted = true;
+    latitude = Double.NaN;
+    longitude = Double.NaN;
+    altitude = Double.NaN;
+    time = -1L;
+    heartRate = -1;
+    cadence = -1;
+    power = -1;
+  }
+
+  /**
+   * On an element end inside a track point.
+   *
+   * @param localName the element local name
+   */
+  private void onTrackPointElementEnd(String localName) throws XmlPullParserException {
+    if (localName.equals(TAG_TRACKPOINT)) {
+      onTrackPointEnd();
+      return;
+    }
+    if (localName.equals(TAG_HEART_RATE_BPM)) {
+      heartRateStarted = false;
+      return;
+    }
+    if (!hasContent()) {
+      return;
+    }
+    if (localName.equals(TAG_TIME)) {
+      time = getContentTime();
+    } else if (localName.equals(TAG_LATITUDE_DEGREES)) {
+      latitude = getContentDouble("latitude");
+    } else if (localName.equals(TAG_LONGITUDE_DEGREES)) {
+      longitude = getContentDouble("longitude");
+    } else if (localName.equals(TAG_ALTITUDE_METERS)) {
+      altitude = getContentDouble("altitude");
+    } else if (localName.equals(TAG_VALUE)) {
+      if (heartRateStarted) {
+        heartRate = getContentInt("heart rate");
+      }
+    } else if (localName.equals(TAG_CADENCE) || localName.equals(TAG_RUN_CADENCE)) {
+      cadence = getContentInt("cadence");
+    } else if (localName.equals(TAG_WATTS)) {
+      power = getContentInt("power");
+    }
+  }
+
+  /**
+   * On track point end.
+   */
+  private void onTrackPointEnd() throws XmlPullParserException {
+    trackPointStarted = false;
+
+    // Track points without a position, e.g., when paused, are skipped
+    Location location = getTrackPoint();
+    if (location == null) {
+      return;
+    }
+    insertTrackPoint(addSensorData(location, heartRate, cadence, power));
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the imported tracks to the database. Each write, e.g., a batch of
+ * track points, runs in its own short database transaction, so the database
+ * is not locked while a track is parsed. The writes of a track are grouped in
+ * a {@link TrackWrites}. After a failed write, the following writes of the
+ * track are skipped, and the importer deletes the partly written track.
+ * <p>
+ * A writer created with {@link #TrackImportWriter(MyTracksProviderUtils)}
+ * writes on the importer thread. A writer created with
+ * {@link #newSingleThreadWriter(MyTracksProviderUtils)} can be shared by
+ * importers running on several threads. It writes on a single thread, in the
+ * order the writes are made, while the importers keep parsing. The writes of
+ * the tracks imported in parallel are interleaved.
+ */
+class TrackImportWriter {
+
+  /**
+   * The writes of a track.
+   */
+  class TrackWrites {
+
+    // True to queue the writes for the writer thread
+    private final boolean queued;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    // True if the running write is in a database transaction
+    private boolean inTransaction;
+
+    // True if a write failed
+    private volatile boolean failed;
+
+    // True if all the writes succeeded and the writes ended successfully, set
+    // before done
+    private boolean succeeded;
+
+    /**
+     * Constructor.
+     *
+     * @param queued true to queue the writes for the writer thread
+     */
+    private TrackWrites(boolean queued) {
+      this.queued = queued;
+    }
+
+    /**
+     * Writes, after the previous writes of the track. Blocks if too many writes
+     * are queued. If the thread is interrupted, drops the write and the
+     * following writes of the track.
+     *
+     * @param write the write
+     */
+    void write(final Runnable write) {
+      if (!queued) {
+        runWrite(write);
+        return;
+      }
+      try {
+        queuedWrites.acquire();
+      } catch (InterruptedException e) {
+        failed = true;
+        Thread.currentThread().interrupt();
+        return;
+      }
+      try {
+        executorService.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              runWrite(write);
+            } finally {
+              queuedWrites.release();
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        Log.e(TAG, "Writer closed", e);
+        queuedWrites.release();
+        failed = true;
+      }
+    }
+
+    /**
+     * Ends the writes. Must be called once, even if the import fails.
+     *
+     * @param successful true if the import succeeded, false to skip the
+     *          writes not run yet
+     */
+    void end(boolean successful) {
+      if (!successful) {
+        failed = true;
+      }
+      if (!queued) {
+        finish();
+        return;
+      }
+      try {
+        executorService.execute(new End(this));
+      } catch (RejectedExecutionException e) {
+        Log.e(TAG, "Writer closed", e);
+        failed = true;
+        finish();
+      }
+    }
+
+    /**
+     * Waits for the writes to end. Returns true if they all succeeded and
+     * ended successfully.
+     */
+    boolean await() {
+      boolean interrupted = false;
+      while (true) {
+        try {
+          done.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      return succeeded;
+    }
+
+    /**
+     * Returns true if the running write is in a database transaction, so no
+     * other thread can write in between. Call from a write.
+     */
+    boolean isInTransaction() {
+      return inTransaction;
+    }
+
+    /**
+     * Runs a write in a database transaction, if supported, unless a previous
+     * write failed. A failed write is rolled back.
+     *
+     * @param write the write
+     */
+    private void runWrite(Runnable write) {
+      if (failed) {
+        return;
+      }
+      try {
+        inTransaction = myTracksProviderUtils.beginTransaction();
+        try {
+          write.run();
+          if (inTransaction) {
+            myTracksProviderUtils.setTransactionSuccessful();
+          }
+        } finally {
+          if (inTransaction) {
+            inTransaction = false;
+            myTracksProviderUtils.endTransaction();
+          }
+        }
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Unable to write", e);
+        failed = true;
+      }
+    }
+
+    /**
+     * Marks the writes as ended.
+     */
+    private void finish() {
+      succeeded = !failed;
+      done.countDown();
+    }
+  }
+
+  /**
+   * Ends the writes of a track on the writer thread, after its queued writes.
+   */
+  private static class End implements Runnable {
+
+    private final TrackWrites trackWrites;
+
+    End(TrackWrites trackWrites) {
+      this.trackWrites = trackWrites;
+    }
+
+    @Override
+    public void run() {
+      trackWrites.finish();
+    }
+  }
+
+  private static final String TAG = TrackImportWriter.class.getSimpleName();
+
+  // The maximum number of queued writes before the importers block
+  private static final int MAX_QUEUED_WRITES = 16;
+
+  // The maximum time in seconds to wait for the queued writes when closing
+  private static final long CLOSE_TIMEOUT = 60L;
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+
+  // The writer thread. Null if writing directly on the importer thread
+  private final ExecutorService executorService;
+
+  // The permits to queue a write for the writer thread
+  private final Semaphore queuedWrites = new Semaphore(MAX_QUEUED_WRITES);
+
+  /**
+   * Creates a writer writing on the importer thread.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   */
+  TrackImportWriter(MyTracksProviderUtils myTracksProviderUtils) {
+    this(myTracksProviderUtils, null);
+  }
+
+  private TrackImportWriter(
+      MyTracksProviderUtils myTracksProviderUtils, ExecutorService executorService) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.executorService = executorService;
+  }
+
+  /**
+   * Creates a writer writing on its own thread. Call {@link #close()} when
+   * done.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   */
+  static TrackImportWriter newSingleThreadWriter(MyTracksProviderUtils myTracksProviderUtils) {
+    return new TrackImportWriter(myTracksProviderUtils, Executors.newSingleThreadExecutor());
+  }
+
+  /**
+   * Gets the my tracks provider utils.
+   */
+  MyTracksProviderUtils getMyTracksProviderUtils() {
+    return myTracksProviderUtils;
+  }
+
+  /**
+   * Starts the writes of a track.
+   */
+  TrackWrites startTrackWrites() {
+    return new TrackWrites(executorService != null);
+  }
+
+  /**
+   * Stops the writer thread once the queued writes are run. Aborts if they
+   * are not run within {@link #CLOSE_TIMEOUT} seconds.
+   */
+  void close() {
+    if (executorService == null) {
+      return;
+    }
+    executorService.shutdown();
+    try {
+      if (executorService.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+        return;
+      }
+      Log.w(TAG, "Timed out waiting for the writer thread");
+    } catch (InterruptedException e) {
+      Log.d(TAG, "Interrupted waiting for the writer thread", e);
+      Thread.currentThread().interrupt();
+    }
+    abort();
+  }
+
+  /**
+   * Stops the writer thread now. The writes not run yet are skipped, and the
+   * tracks whose writes are not ended yet fail. Later writes fail.
+   */
+  void abort() {
+    if (executorService == null) {
+      return;
+    }
+    for (Runnable runnable : executorService.shutdownNow()) {
+      if (runnable instanceof End) {
+        TrackWrites trackWrites = ((End) runnable).trackWrites;
+        trackWrites.failed = true;
+        trackWrites.finish();
+      } else {
+        // Unblocks the importers waiting to queue a write, which then fails
+        queuedWrites.release();
+      }
+    }
+  }
+}
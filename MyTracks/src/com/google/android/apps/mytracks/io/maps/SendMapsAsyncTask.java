@@ -21,6 +21,7 @@ import com.google.android.apps.mytracks.content.DescriptionGeneratorImpl;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointsColumns;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.io.gdata.GDataClientFactory;
 import com.google.android.apps.mytracks.io.gdata.maps.MapsClient;
@@ -254,8 +255,8 @@ public class SendMapsAsyncTask extends AbstractSendAsyncTask {
     LocationIterator locationIterator = null;
 
     try {
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(trackId, -1L, false,
+          TrackPointsColumns.NO_SENSOR_COLUMNS, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
 
       while (locationIterator.hasNext()) {
         Location location = locationIterator.next();
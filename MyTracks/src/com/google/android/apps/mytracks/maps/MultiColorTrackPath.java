@@ -16,6 +16,7 @@
 package com.google.android.apps.mytracks.maps;
 
 import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
+import com.google.android.apps.mytracks.maps.TrackPathUtils.LastPolyline;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
@@ -39,6 +40,7 @@ public class MultiColorTrackPath implements TrackPath {
   private final int slowColor;
   private final int normalColor;
   private final int fastColor;
+  private final LastPolyline lastPolyline = new LastPolyline();
   
   public MultiColorTrackPath(Context context, TrackPathDescriptor trackPathDescriptor) {
     this.trackPathDescriptor = trackPathDescriptor;
@@ -83,7 +85,8 @@ public class MultiColorTrackPath implements TrackPath {
       
       // Either update point or draw a line from the last point
       if (newSegment) {
-        TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
+        TrackPathUtils.addPath(
+            googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline, lastPolyline);
         useLastPolyline = false;
         lastSegmentColor = color;
         newSegment = false;
@@ -91,7 +94,8 @@ public class MultiColorTrackPath implements TrackPath {
       if (lastSegmentColor == color) {
         lastSegmentPoints.add(latLng);
       } else {
-        TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
+        TrackPathUtils.addPath(
+            googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline, lastPolyline);
         useLastPolyline = false;
         if (lastLatLng != null) {
           lastSegmentPoints.add(lastLatLng);
@@ -101,7 +105,8 @@ public class MultiColorTrackPath implements TrackPath {
       }
       lastLatLng = latLng;
     }
-    TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline);
+    TrackPathUtils.addPath(
+        googleMap, paths, lastSegmentPoints, lastSegmentColor, useLastPolyline, lastPolyline);
   }
 
   @VisibleForTesting
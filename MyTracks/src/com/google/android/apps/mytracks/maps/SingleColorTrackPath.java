@@ -16,6 +16,7 @@
 package com.google.android.apps.mytracks.maps;
 
 import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
+import com.google.android.apps.mytracks.maps.TrackPathUtils.LastPolyline;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
@@ -35,6 +36,7 @@ import java.util.List;
 public class SingleColorTrackPath implements TrackPath {
 
   final int color;
+  private final LastPolyline lastPolyline = new LastPolyline();
   
   public SingleColorTrackPath(Context context) {
     color = context.getResources().getColor(R.color.track_color_fast);
@@ -68,12 +70,14 @@ public class SingleColorTrackPath implements TrackPath {
       }
       LatLng latLng = cachedLocation.getLatLng();
       if (newSegment) {
-        TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, color, useLastPolyline);
+        TrackPathUtils.addPath(
+            googleMap, paths, lastSegmentPoints, color, useLastPolyline, lastPolyline);
         useLastPolyline = false;
         newSegment = false;
       }
       lastSegmentPoints.add(latLng);
     }
-    TrackPathUtils.addPath(googleMap, paths, lastSegmentPoints, color, useLastPolyline);
+    TrackPathUtils.addPath(
+        googleMap, paths, lastSegmentPoints, color, useLastPolyline, lastPolyline);
   }
 }
\ No newline at end of file
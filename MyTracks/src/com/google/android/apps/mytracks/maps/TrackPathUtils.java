@@ -20,6 +20,7 @@ import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
+import com.google.common.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
 
@@ -30,6 +31,22 @@ import java.util.ArrayList;
  */
 public class TrackPathUtils {
 
+  /**
+   * Maximum number of points in a polyline. Appending to a polyline sets all
+   * its points again, so a longer segment is drawn with chained polylines.
+   */
+  @VisibleForTesting
+  static final int MAX_POLYLINE_POINTS = 500;
+
+  /**
+   * The last polyline of a track path and its points. Keeps the points so
+   * appending does not read them back from the map.
+   */
+  public static class LastPolyline {
+    private Polyline polyline;
+    private ArrayList<LatLng> points = new ArrayList<LatLng>();
+  }
+
   private TrackPathUtils() {}
 
   /**
@@ -40,23 +57,48 @@ public class TrackPathUtils {
    * @param points the path points
    * @param color the path color
    * @param append true to append to the last path
+   * @param lastPolyline the last polyline of the paths
    */
   public static void addPath(GoogleMap googleMap, ArrayList<Polyline> paths,
-      ArrayList<LatLng> points, int color, boolean append) {
+      ArrayList<LatLng> points, int color, boolean append, LastPolyline lastPolyline) {
     if (points.size() == 0) {
       return;
     }
+    int start = 0;
+    LatLng chainLatLng = null;
     if (append && paths.size() != 0) {
-      Polyline lastPolyline = paths.get(paths.size() - 1);
-      ArrayList<LatLng> pathPoints = new ArrayList<LatLng>();
-      pathPoints.addAll(lastPolyline.getPoints());
-      pathPoints.addAll(points);
-      lastPolyline.setPoints(pathPoints);
-    } else {
-      PolylineOptions polylineOptions = new PolylineOptions().addAll(points).width(5).color(color);
+      Polyline polyline = paths.get(paths.size() - 1);
+      if (lastPolyline.polyline != polyline) {
+        lastPolyline.polyline = polyline;
+        lastPolyline.points = new ArrayList<LatLng>(polyline.getPoints());
+      }
+      int count = Math.min(points.size(), MAX_POLYLINE_POINTS - lastPolyline.points.size());
+      if (count > 0) {
+        lastPolyline.points.addAll(points.subList(0, count));
+        polyline.setPoints(new ArrayList<LatLng>(lastPolyline.points));
+        start = count;
+      }
+      if (lastPolyline.points.size() != 0) {
+        chainLatLng = lastPolyline.points.get(lastPolyline.points.size() - 1);
+      }
+    }
+    while (start < points.size()) {
+      ArrayList<LatLng> polylinePoints = new ArrayList<LatLng>();
+      if (chainLatLng != null) {
+        // Continue from the end of the previous polyline
+        polylinePoints.add(chainLatLng);
+      }
+      int end = Math.min(points.size(), start + MAX_POLYLINE_POINTS - polylinePoints.size());
+      polylinePoints.addAll(points.subList(start, end));
+      PolylineOptions polylineOptions = new PolylineOptions()
+          .addAll(polylinePoints).width(5).color(color);
       Polyline polyline = googleMap.addPolyline(polylineOptions);
       paths.add(polyline);
+      lastPolyline.polyline = polyline;
+      lastPolyline.points = polylinePoints;
+      chainLatLng = polylinePoints.get(polylinePoints.size() - 1);
+      start = end;
     }
     points.clear();
   }
-}
\ No newline at end of file
+}
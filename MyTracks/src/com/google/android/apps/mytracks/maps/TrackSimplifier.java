@@ -0,0 +1,287 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
+import com.google.android.apps.mytracks.content.TrackPointBuffer;
+import com.google.android.apps.mytracks.util.LocationUtils;
+import com.google.android.apps.mytracks.util.UnitConversions;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.List;
+
+/**
+ * A multi-resolution Douglas-Peucker simplification of a track for the map.
+ * <p>
+ * The valid track points are split into chunks of at most {@link #CHUNK_SIZE}
+ * points. A segment split always starts a new chunk. Once a chunk is complete,
+ * each of its points gets the tolerance, in meters, below which Douglas-Peucker
+ * keeps the point. The first and last points of a chunk are always kept, and so
+ * are all the points of the last, incomplete, chunk. A simplification at any
+ * tolerance is then a scan for the points with a larger tolerance, skipping the
+ * chunks outside the requested bounds.
+ * <p>
+ * Not thread safe.
+ */
+public class TrackSimplifier {
+
+  @VisibleForTesting
+  static final int CHUNK_SIZE = 256;
+
+  // Meters per pixel at zoom level 0 at the equator
+  private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 156543.03392;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // Valid track points
+  private int size;
+  private int[] latitudes = new int[INITIAL_CAPACITY];
+  private int[] longitudes = new int[INITIAL_CAPACITY];
+  private float[] speeds = new float[INITIAL_CAPACITY];
+  private float[] tolerances = new float[INITIAL_CAPACITY];
+
+  // Chunks. The last chunk is incomplete.
+  private int numberOfChunks;
+  private int[] chunkStarts = new int[16];
+  private boolean[] chunkNewSegments = new boolean[16];
+  private int[] chunkMinLatitudes = new int[16];
+  private int[] chunkMaxLatitudes = new int[16];
+  private int[] chunkMinLongitudes = new int[16];
+  private int[] chunkMaxLongitudes = new int[16];
+  private boolean newSegment = true;
+
+  // Douglas-Peucker input and output for the chunk being closed
+  private final double[] chunkLatitudes = new double[CHUNK_SIZE];
+  private final double[] chunkLongitudes = new double[CHUNK_SIZE];
+  private final double[] chunkSignificances = new double[CHUNK_SIZE];
+
+  /**
+   * Gets the tolerance in meters for a map zoom level. That is the size of a
+   * pixel at the zoom level.
+   *
+   * @param zoom the zoom level
+   * @param latitude the latitude
+   */
+  public static double getTolerance(int zoom, double latitude) {
+    return METERS_PER_PIXEL_AT_ZOOM_0 * Math.cos(Math.toRadians(latitude)) / (1L << zoom);
+  }
+
+  /**
+   * Gets the number of valid track points.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Clears the track points.
+   */
+  public void clear() {
+    size = 0;
+    numberOfChunks = 0;
+    newSegment = true;
+  }
+
+  /**
+   * Appends track points.
+   *
+   * @param trackPointBuffer the track point buffer
+   * @param start the index of the first track point to append
+   * @param count the number of track points to append
+   */
+  public void append(TrackPointBuffer trackPointBuffer, int start, int count) {
+    for (int i = start; i < start + count; i++) {
+      if (trackPointBuffer.isSegmentSplit(i)) {
+        closeChunk();
+        newSegment = true;
+        continue;
+      }
+      float speed = trackPointBuffer.getSpeed(i);
+      append(trackPointBuffer.getLatitudeE6(i), trackPointBuffer.getLongitudeE6(i),
+          Float.isNaN(speed) ? -1f : (float) (speed * UnitConversions.MS_TO_KMH));
+    }
+  }
+
+  /**
+   * Appends a valid track point.
+   *
+   * @param latitude the latitude in E6
+   * @param longitude the longitude in E6
+   * @param speed the speed in kilometers per hour, -1 if not available
+   */
+  @VisibleForTesting
+  void append(int latitude, int longitude, float speed) {
+    if (newSegment || size - chunkStarts[numberOfChunks - 1] == CHUNK_SIZE) {
+      closeChunk();
+      startChunk();
+    }
+    if (size == latitudes.length) {
+      int capacity = size * 2;
+      latitudes = copyOf(latitudes, capacity);
+      longitudes = copyOf(longitudes, capacity);
+      speeds = copyOf(speeds, capacity);
+      tolerances = copyOf(tolerances, capacity);
+    }
+    latitudes[size] = latitude;
+    longitudes[size] = longitude;
+    speeds[size] = speed;
+    tolerances[size] = Float.MAX_VALUE;
+    size++;
+
+    int chunk = numberOfChunks - 1;
+    chunkMinLatitudes[chunk] = Math.min(chunkMinLatitudes[chunk], latitude);
+    chunkMaxLatitudes[chunk] = Math.max(chunkMaxLatitudes[chunk], latitude);
+    chunkMinLongitudes[chunk] = Math.min(chunkMinLongitudes[chunk], longitude);
+    chunkMaxLongitudes[chunk] = Math.max(chunkMaxLongitudes[chunk], longitude);
+  }
+
+  /**
+   * Selects the track points kept at a tolerance. Skips the chunks outside
+   * bounds. Adds an invalid location wherever the selected track points are not
+   * connected.
+   *
+   * @param tolerance the tolerance in meters
+   * @param bounds the bounds, null for no bounds
+   * @param locations the list to add the selected locations to
+   */
+  public void select(double tolerance, LatLngBounds bounds, List<CachedLocation> locations) {
+    boolean connected = false;
+    for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+      if (bounds != null && !intersects(chunk, bounds)) {
+        connected = false;
+        continue;
+      }
+      if ((!connected || chunkNewSegments[chunk]) && !locations.isEmpty()) {
+        locations.add(new CachedLocation());
+      }
+      int end = chunk == numberOfChunks - 1 ? size : chunkStarts[chunk + 1];
+      for (int i = chunkStarts[chunk]; i < end; i++) {
+        if (tolerances[i] >= tolerance) {
+          locations.add(new CachedLocation(latitudes[i] / 1E6, longitudes[i] / 1E6, speeds[i]));
+        }
+      }
+      connected = true;
+    }
+  }
+
+  /**
+   * Returns true if a chunk intersects bounds.
+   *
+   * @param chunk the chunk
+   * @param bounds the bounds
+   */
+  private boolean intersects(int chunk, LatLngBounds bounds) {
+    int south = (int) (bounds.southwest.latitude * 1E6);
+    int north = (int) (bounds.northeast.latitude * 1E6);
+    if (chunkMaxLatitudes[chunk] < south || chunkMinLatitudes[chunk] > north) {
+      return false;
+    }
+    int west = (int) (bounds.southwest.longitude * 1E6);
+    int east = (int) (bounds.northeast.longitude * 1E6);
+    if (west <= east) {
+      return chunkMaxLongitudes[chunk] >= west && chunkMinLongitudes[chunk] <= east;
+    } else {
+      // Crossing the 180th meridian
+      return chunkMaxLongitudes[chunk] >= west || chunkMinLongitudes[chunk] <= east;
+    }
+  }
+
+  /**
+   * Starts a new chunk at the next track point.
+   */
+  private void startChunk() {
+    if (numberOfChunks == chunkStarts.length) {
+      int capacity = numberOfChunks * 2;
+      chunkStarts = copyOf(chunkStarts, capacity);
+      boolean[] newChunkNewSegments = new boolean[capacity];
+      System.arraycopy(chunkNewSegments, 0, newChunkNewSegments, 0, numberOfChunks);
+      chunkNewSegments = newChunkNewSegments;
+      chunkMinLatitudes = copyOf(chunkMinLatitudes, capacity);
+      chunkMaxLatitudes = copyOf(chunkMaxLatitudes, capacity);
+      chunkMinLongitudes = copyOf(chunkMinLongitudes, capacity);
+      chunkMaxLongitudes = copyOf(chunkMaxLongitudes, capacity);
+    }
+    chunkStarts[numberOfChunks] = size;
+    chunkNewSegments[numberOfChunks] = newSegment;
+    chunkMinLatitudes[numberOfChunks] = Integer.MAX_VALUE;
+    chunkMaxLatitudes[numberOfChunks] = Integer.MIN_VALUE;
+    chunkMinLongitudes[numberOfChunks] = Integer.MAX_VALUE;
+    chunkMaxLongitudes[numberOfChunks] = Integer.MIN_VALUE;
+    numberOfChunks++;
+    newSegment = false;
+  }
+
+  /**
+   * Closes the last chunk, computing the tolerances of its track points.
+   */
+  private void closeChunk() {
+    if (numberOfChunks == 0) {
+      return;
+    }
+    int first = chunkStarts[numberOfChunks - 1];
+    int last = size - 1;
+    if (last - first < 2) {
+      return;
+    }
+    int count = last - first + 1;
+    for (int i = 0; i < count; i++) {
+      chunkLatitudes[i] = latitudes[first + i] / 1E6;
+      chunkLongitudes[i] = longitudes[first + i] / 1E6;
+    }
+    LocationUtils.getSignificances(chunkLatitudes, chunkLongitudes, count, chunkSignificances);
+
+    // The first and last track points keep their Float.MAX_VALUE tolerance
+    for (int i = 1; i < count - 1; i++) {
+      tolerances[first + i] = (float) chunkSignificances[i];
+    }
+  }
+
+  private static int[] copyOf(int[] array, int capacity) {
+    int[] newArray = new int[capacity];
+    System.arraycopy(array, 0, newArray, 0, Math.min(array.length, capacity));
+    return newArray;
+  }
+
+  private static float[] copyOf(float[] array, int capacity) {
+    float[] newArray = new float[capacity];
+    System.arraycopy(array, 0, newArray, 0, Math.min(array.length, capacity));
+    return newArray;
+  }
+
+  /**
+   * Creates bounds extending the given bounds by their size on each side.
+   * Returns null if the extended bounds cover all longitudes.
+   *
+   * @param bounds the bounds
+   */
+  public static LatLngBounds extend(LatLngBounds bounds) {
+    double latitudeSpan = bounds.northeast.latitude - bounds.southwest.latitude;
+    double longitudeSpan = bounds.northeast.longitude - bounds.southwest.longitude;
+    if (longitudeSpan < 0) {
+      longitudeSpan += 360.0;
+    }
+    if (longitudeSpan * 3 >= 360.0) {
+      return null;
+    }
+    LatLng southwest = new LatLng(Math.max(-90.0, bounds.southwest.latitude - latitudeSpan),
+        bounds.southwest.longitude - longitudeSpan);
+    LatLng northeast = new LatLng(Math.min(90.0, bounds.northeast.latitude + latitudeSpan),
+        bounds.northeast.longitude + longitudeSpan);
+    return new LatLngBounds(southwest, northeast);
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.stats.TripStatistics;
+
+/**
+ * An in-memory snapshot of the trip statistics of the recording track,
+ * published by the {@link TrackRecordingService} each time it updates the
+ * track. Lets readers in the same process, e.g., the track widget, get the
+ * statistics of the recording track without reading the track from the
+ * database.
+ */
+public class RecordingTrackStatistics {
+
+  private static volatile RecordingTrackStatistics snapshot;
+
+  private final long trackId;
+  private final TripStatistics tripStatistics;
+
+  private RecordingTrackStatistics(long trackId, TripStatistics tripStatistics) {
+    this.trackId = trackId;
+    this.tripStatistics = tripStatistics;
+  }
+
+  /**
+   * Publishes the trip statistics of the recording track.
+   * 
+   * @param trackId the recording track id
+   * @param tripStatistics the trip statistics, not modified afterwards by the
+   *          caller
+   */
+  static void publish(long trackId, TripStatistics tripStatistics) {
+    snapshot = new RecordingTrackStatistics(trackId, tripStatistics);
+  }
+
+  /**
+   * Clears the published trip statistics.
+   */
+  static void clear() {
+    snapshot = null;
+  }
+
+  /**
+   * Gets the published trip statistics of a track. Returns null if not
+   * recording the track or if nothing is published yet. The returned trip
+   * statistics are shared and must not be modified.
+   * 
+   * @param trackId the track id
+   */
+  public static TripStatistics get(long trackId) {
+    RecordingTrackStatistics recordingTrackStatistics = snapshot;
+    return recordingTrackStatistics != null && recordingTrackStatistics.trackId == trackId
+        ? recordingTrackStatistics.tripStatistics : null;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.services;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.util.LocationUtils;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+/**
+ * A write-behind buffer of track points for the {@link TrackRecordingService}.
+ * Track points are kept in memory and written to the database with one
+ * {@link MyTracksProviderUtils#insertTrackPoints(Location[], int, long)} call,
+ * or one {@link MyTracksProviderUtils#bulkInsertTrackPoint(Location[], int, long)}
+ * call where not supported, when the buffer is flushed.
+ * <p>
+ * Not thread safe. Callers must synchronize on the buffer.
+ */
+class TrackPointWriteBuffer {
+
+  private final MyTracksProviderUtils myTracksProviderUtils;
+  private final int maxSize;
+  private final long maxTime;
+
+  private Location[] locations;
+  private int size;
+  private int numberOfValidPoints;
+
+  // The elapsed realtime when the first buffered location was added
+  private long firstAddTime;
+
+  /**
+   * Constructor.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param maxSize the number of buffered track points to trigger a flush
+   * @param maxTime the time in milliseconds since the first buffered track
+   *          point to trigger a flush
+   */
+  public TrackPointWriteBuffer(
+      MyTracksProviderUtils myTracksProviderUtils, int maxSize, long maxTime) {
+    this.myTracksProviderUtils = myTracksProviderUtils;
+    this.maxSize = maxSize;
+    this.maxTime = maxTime;
+    locations = new Location[maxSize];
+    size = 0;
+    numberOfValidPoints = 0;
+    firstAddTime = -1L;
+  }
+
+  /**
+   * Adds a location to the buffer.
+   *
+   * @param location the location
+   */
+  public void add(Location location) {
+    if (size == locations.length) {
+      // Only happens when a previous flush failed. Keep the points for a retry.
+      Location[] newLocations = new Location[locations.length * 2];
+      System.arraycopy(locations, 0, newLocations, 0, size);
+      locations = newLocations;
+    }
+    if (size == 0) {
+      firstAddTime = SystemClock.elapsedRealtime();
+    }
+    locations[size++] = location;
+    if (LocationUtils.isValidLocation(location)) {
+      numberOfValidPoints++;
+    }
+  }
+
+  /**
+   * Returns true if the buffer is empty.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns true if the buffer has reached its size or time threshold.
+   */
+  public boolean isFlushNeeded() {
+    return size >= maxSize
+        || (size > 0 && SystemClock.elapsedRealtime() - firstAddTime >= maxTime);
+  }
+
+  /**
+   * Gets the number of valid track points in the buffer.
+   */
+  public int getNumberOfValidPoints() {
+    return numberOfValidPoints;
+  }
+
+  /**
+   * Writes the buffered track points to the database in one transaction and
+   * clears the buffer. If the insert fails, the buffer is kept.
+   *
+   * @param trackId the track id
+   * @return the ids of the first and the last track points written, the first
+   *         one -1L if not known, or null if no track point is written
+   */
+  public long[] flush(long trackId) {
+    if (size == 0) {
+      return null;
+    }
+    long[] ids = myTracksProviderUtils.insertTrackPoints(locations, size, trackId);
+    if (ids == null
+        && myTracksProviderUtils.bulkInsertTrackPoint(locations, size, trackId) > 0) {
+      ids = new long[] { -1L, myTracksProviderUtils.getLastTrackPointId(trackId) };
+    }
+    clear();
+    return ids;
+  }
+
+  /**
+   * Clears the buffer without writing it.
+   */
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      locations[i] = null;
+    }
+    size = 0;
+    numberOfValidPoints = 0;
+    firstAddTime = -1L;
+  }
+}
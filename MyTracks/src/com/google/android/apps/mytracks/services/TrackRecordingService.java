@@ -27,6 +27,7 @@ import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIt
 import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointsColumns;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.content.WaypointCreationRequest;
@@ -35,6 +36,7 @@ import com.google.android.apps.mytracks.services.sensors.SensorManagerFactory;
 import com.google.android.apps.mytracks.services.tasks.AnnouncementPeriodicTaskFactory;
 import com.google.android.apps.mytracks.services.tasks.PeriodicTaskExecutor;
 import com.google.android.apps.mytracks.services.tasks.SplitPeriodicTaskFactory;
+import com.google.android.apps.mytracks.stats.CalorieSums;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
 import com.google.android.apps.mytracks.util.CalorieUtils;
@@ -61,6 +63,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
 import android.location.Location;
 import android.location.LocationManager;
@@ -75,6 +78,10 @@ import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -113,10 +120,19 @@ public class TrackRecordingService extends Service {
   @VisibleForTesting
   static final int MAX_AUTO_RESUME_TRACK_RETRY_ATTEMPTS = 3;
 
+  // The number of buffered track points to trigger a database write
+  @VisibleForTesting
+  static final int MAX_BUFFERED_TRACK_POINTS = 10;
+
+  // The time since the first buffered track point to trigger a database write
+  @VisibleForTesting
+  static final long MAX_BUFFERED_TRACK_POINTS_TIME = 5 * ONE_SECOND;
+
   // The following variables are set in onCreate:
   private ExecutorService executorService;
   private Context context;
   private MyTracksProviderUtils myTracksProviderUtils;
+  private TrackPointWriteBuffer trackPointWriteBuffer;
   private Handler handler;
   private MyTracksLocationManager myTracksLocationManager;
   private PendingIntent activityRecognitionPendingIntent;  
@@ -137,9 +153,16 @@ public class TrackRecordingService extends Service {
   // The following variables are set when recording:
   private TripStatisticsUpdater trackTripStatisticsUpdater;
   private TripStatisticsUpdater markerTripStatisticsUpdater;
+
+  // The calorie sums of the statistics markers, by waypoint id. Accessed from
+  // the binder, the main, and the executor threads
+  private final Map<Long, CalorieSums> markerCalorieSums =
+      new ConcurrentHashMap<Long, CalorieSums>();
   private WakeLock wakeLock;
   private SensorManager sensorManager;
+  private Track recordingTrack;
   private Location lastLocation;
+  private Location lastValidLocation; // last valid location in the segment
   private boolean currentSegmentHasLocation;
   private boolean isIdle; // true if idle
 
@@ -283,6 +306,13 @@ public class TrackRecordingService extends Service {
     }
   };
 
+  private final Runnable flushTrackPointsRunnable = new Runnable() {
+    @Override
+    public void run() {
+      submitFlushTrackPoints();
+    }
+  };
+
   /*
    * Note that this service, through the AndroidManifest.xml, is configured to
    * allow both MyTracks and third party apps to invoke it. For the onCreate
@@ -296,6 +326,8 @@ public class TrackRecordingService extends Service {
     executorService = Executors.newSingleThreadExecutor();
     context = this;
     myTracksProviderUtils = MyTracksProviderUtils.Factory.get(this);
+    trackPointWriteBuffer = new TrackPointWriteBuffer(
+        myTracksProviderUtils, MAX_BUFFERED_TRACK_POINTS, MAX_BUFFERED_TRACK_POINTS_TIME);
     handler = new Handler();
     myTracksLocationManager = new MyTracksLocationManager(this, handler.getLooper(), true);
     activityRecognitionPendingIntent = PendingIntent.getService(context, 0,
@@ -375,6 +407,12 @@ public class TrackRecordingService extends Service {
 
     handler.removeCallbacks(registerLocationRunnable);
     unregisterLocationListener();
+
+    // Write the buffered track points before losing them
+    handler.removeCallbacks(flushTrackPointsRunnable);
+    if (isRecording()) {
+      flushTrackPoints(recordingTrack, false);
+    }
     
     // unregister sharedPreferences before shutting down splitExecutor and voiceExecutor
     sharedPreferences.unregisterOnSharedPreferenceChangeListener(sharedPreferenceChangeListener);
@@ -415,6 +453,12 @@ public class TrackRecordingService extends Service {
     super.onDestroy();
   }
 
+  @Override
+  public void onLowMemory() {
+    super.onLowMemory();
+    submitFlushTrackPoints();
+  }
+
   /**
    * Returns true if the service is recording.
    */
@@ -450,6 +494,9 @@ public class TrackRecordingService extends Service {
       return -1L;
     }
 
+    // Write the buffered track points so that the waypoint follows them
+    flushTrackPoints(recordingTrack, false);
+
     WaypointType waypointType = waypointCreationRequest.getType();
     boolean isStatistics = waypointType == WaypointType.STATISTICS;
 
@@ -475,17 +522,20 @@ public class TrackRecordingService extends Service {
 
     // Get tripStatistics, description, and icon
     TripStatistics tripStatistics;
+    CalorieSums calorieSums;
     String description;
     String icon;
     if (isStatistics) {
       long now = System.currentTimeMillis();
       markerTripStatisticsUpdater.updateTime(now);
       tripStatistics = markerTripStatisticsUpdater.getTripStatistics();
+      calorieSums = markerTripStatisticsUpdater.getCalorieSums();
       markerTripStatisticsUpdater = new TripStatisticsUpdater(now);
       description = new DescriptionGeneratorImpl(this).generateWaypointDescription(tripStatistics);
       icon = getString(R.string.marker_statistics_icon_url);
     } else {
       tripStatistics = null;
+      calorieSums = null;
       description = waypointCreationRequest.getDescription() != null ? waypointCreationRequest
           .getDescription()
           : "";
@@ -520,7 +570,11 @@ public class TrackRecordingService extends Service {
     Waypoint waypoint = new Waypoint(name, description, category, icon, recordingTrackId,
         waypointType, length, duration, -1L, -1L, location, tripStatistics, photoUrl);
     Uri uri = myTracksProviderUtils.insertWaypoint(waypoint);
-    return Long.parseLong(uri.getLastPathSegment());
+    long waypointId = Long.parseLong(uri.getLastPathSegment());
+    if (calorieSums != null) {
+      markerCalorieSums.put(waypointId, calorieSums);
+    }
+    return waypointId;
   }
 
   /**
@@ -612,6 +666,7 @@ public class TrackRecordingService extends Service {
     long now = System.currentTimeMillis();
     trackTripStatisticsUpdater = new TripStatisticsUpdater(now);
     markerTripStatisticsUpdater = new TripStatisticsUpdater(now);
+    markerCalorieSums.clear();
 
     // Insert a track
     Track track = new Track();
@@ -634,6 +689,7 @@ public class TrackRecordingService extends Service {
     track.setIcon(TrackIconUtils.getIconValue(this, category));
     track.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
     myTracksProviderUtils.updateTrack(track);
+    recordingTrack = track;
     insertWaypoint(WaypointCreationRequest.DEFAULT_START_TRACK);
 
     startRecording(true);
@@ -647,35 +703,54 @@ public class TrackRecordingService extends Service {
    */
   private void restartTrack(Track track) {
     Log.d(TAG, "Restarting track: " + track.getId());
+    recordingTrack = track;
 
     TripStatistics tripStatistics = track.getTripStatistics();
     trackTripStatisticsUpdater = new TripStatisticsUpdater(tripStatistics.getStartTime());
 
-    long markerStartTime;
-    Waypoint waypoint = myTracksProviderUtils.getLastWaypoint(
-        recordingTrackId, WaypointType.STATISTICS);
-    if (waypoint != null && waypoint.getTripStatistics() != null) {
-      markerStartTime = waypoint.getTripStatistics().getStopTime();
-    } else {
-      markerStartTime = tripStatistics.getStartTime();
+    // The statistics markers, skipping the first waypoint holding the stats for the track
+    List<Waypoint> markers = new ArrayList<Waypoint>();
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getWaypointCursor(recordingTrackId, -1L, -1);
+      if (cursor != null && cursor.moveToFirst()) {
+        while (cursor.moveToNext()) {
+          Waypoint waypoint = myTracksProviderUtils.createWaypoint(cursor);
+          if (waypoint.getType() == WaypointType.STATISTICS
+              && waypoint.getTripStatistics() != null) {
+            markers.add(waypoint);
+          }
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
     }
-    markerTripStatisticsUpdater = new TripStatisticsUpdater(markerStartTime);
+    markerTripStatisticsUpdater = new TripStatisticsUpdater(tripStatistics.getStartTime());
+    markerCalorieSums.clear();
+    int markerIndex = 0;
 
     ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
 
     LocationIterator locationIterator = null;
     try {
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(track.getId(), -1L,
+          false, TrackPointsColumns.NO_SENSOR_COLUMNS,
+          MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
       
       while (locationIterator.hasNext()) {
         Location location = locationIterator.next();
         trackTripStatisticsUpdater.addLocation(
             location, recordingDistanceInterval, true, activityType, weight);
-        if (location.getTime() > markerStartTime) {
-          markerTripStatisticsUpdater.addLocation(
-              location, recordingDistanceInterval, true, activityType, weight);
+
+        // Replay the statistics markers to get their calorie sums
+        while (markerIndex < markers.size()
+            && location.getTime() > getStopTime(markers.get(markerIndex))) {
+          markerIndex = nextMarker(markers, markerIndex);
         }
+        markerTripStatisticsUpdater.addLocation(
+            location, recordingDistanceInterval, true, activityType, weight);
       }
     } catch (RuntimeException e) {
       Log.e(TAG, "RuntimeException", e);
@@ -684,9 +759,36 @@ public class TrackRecordingService extends Service {
         locationIterator.close();
       }
     }
+    while (markerIndex < markers.size()) {
+      markerIndex = nextMarker(markers, markerIndex);
+    }
     startRecording(true);
   }
 
+  /**
+   * Ends a statistics marker when restarting a track. Keeps its calorie sums
+   * and starts the next marker.
+   * 
+   * @param markers the statistics markers
+   * @param markerIndex the index of the marker to end
+   * @return the index of the next marker
+   */
+  private int nextMarker(List<Waypoint> markers, int markerIndex) {
+    Waypoint marker = markers.get(markerIndex);
+    markerCalorieSums.put(marker.getId(), markerTripStatisticsUpdater.getCalorieSums());
+    markerTripStatisticsUpdater = new TripStatisticsUpdater(getStopTime(marker));
+    return markerIndex + 1;
+  }
+
+  /**
+   * Gets the stop time of a statistics marker, when it was inserted.
+   * 
+   * @param marker the statistics marker
+   */
+  private long getStopTime(Waypoint marker) {
+    return marker.getTripStatistics().getStopTime();
+  }
+
   /**
    * Resumes current track.
    */
@@ -703,6 +805,7 @@ public class TrackRecordingService extends Service {
     // Update database
     Track track = myTracksProviderUtils.getTrack(recordingTrackId);
     if (track != null) {
+      recordingTrack = track;
       Location resume = new Location(LocationManager.GPS_PROVIDER);
       resume.setLongitude(0);
       resume.setLatitude(RESUME_LATITUDE);
@@ -724,6 +827,7 @@ public class TrackRecordingService extends Service {
     // Update instance variables
     sensorManager = SensorManagerFactory.getSystemSensorManager(this);
     lastLocation = null;
+    lastValidLocation = null;
     currentSegmentHasLocation = false;
     isIdle = false;
 
@@ -763,16 +867,16 @@ public class TrackRecordingService extends Service {
 
     // Update database
     Track track = myTracksProviderUtils.getTrack(trackId);
-    if (track != null) {
 
-      // If not paused, add the last location
-      if (!paused) {
-        insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(trackId));
-        
-        // Update the recording track time        
-        updateRecordingTrack(track, myTracksProviderUtils.getLastTrackPointId(trackId), false);
-      }
-      
+    // If not paused, add the last location
+    if (track != null && !paused) {
+      insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(trackId));
+
+      // Write the buffered track points and update the recording track time
+      flushTrackPoints(track, true);
+    }
+
+    if (track != null) {
       String trackName = TrackNameUtils.getTrackName(this, trackId,
           track.getTripStatistics().getStartTime(),
           myTracksProviderUtils.getFirstValidTrackPoint(trackId));
@@ -804,7 +908,7 @@ public class TrackRecordingService extends Service {
             track.setIcon(iconValue);
             track.setCategory(getString(TrackIconUtils.getIconActivityType(iconValue)));
             myTracksProviderUtils.updateTrack(track);
-            CalorieUtils.updateTrackCalorie(context, track);
+            updateTrackCalorie(track);
           }
         }
       }
@@ -835,6 +939,9 @@ public class TrackRecordingService extends Service {
       pause.setLatitude(PAUSE_LATITUDE);
       pause.setTime(System.currentTimeMillis());
       insertLocation(track, pause, null);
+
+      // Write the buffered track points and update the recording track time
+      flushTrackPoints(track, true);
     }
 
     endRecording(false, recordingTrackId);
@@ -857,7 +964,11 @@ public class TrackRecordingService extends Service {
       SensorManagerFactory.releaseSystemSensorManager();
       sensorManager = null;
     }
+    recordingTrack = null;
     lastLocation = null;
+    lastValidLocation = null;
+    currentSegmentHasLocation = false;
+    RecordingTrackStatistics.clear();
 
     sendTrackBroadcast(trackStopped ? R.string.track_stopped_broadcast_action
         : R.string.track_paused_broadcast_action, trackId);
@@ -888,7 +999,7 @@ public class TrackRecordingService extends Service {
     if (!currentSegmentHasLocation) {
       return null;
     }
-    return myTracksProviderUtils.getLastValidTrackPoint(trackId);
+    return lastValidLocation;
   }
 
   /**
@@ -916,7 +1027,7 @@ public class TrackRecordingService extends Service {
         return;
       }
 
-      Track track = myTracksProviderUtils.getTrack(recordingTrackId);
+      Track track = recordingTrack;
       if (track == null) {
         Log.w(TAG, "Ignore onLocationChangedAsync. No track.");
         return;
@@ -1026,51 +1137,117 @@ public class TrackRecordingService extends Service {
       return;
     }
 
-    try {
-      Uri uri = myTracksProviderUtils.insertTrackPoint(location, track.getId());
-      long trackPointId = Long.parseLong(uri.getLastPathSegment());
-      ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
-      trackTripStatisticsUpdater.addLocation(
-          location, recordingDistanceInterval, true, activityType, weight);
-      markerTripStatisticsUpdater.addLocation(
-          location, recordingDistanceInterval, true, activityType, weight);
-      updateRecordingTrack(track, trackPointId, LocationUtils.isValidLocation(location));
-    } catch (SQLiteException e) {
-      /*
-       * Insert failed, most likely because of SqlLite error code 5
-       * (SQLite_BUSY). This is expected to happen extremely rarely (if our
-       * listener gets invoked twice at about the same time).
-       */
-      Log.w(TAG, "SQLiteException", e);
+    ActivityType activityType = CalorieUtils.getActivityType(context, track.getCategory());
+    trackTripStatisticsUpdater.addLocation(
+        location, recordingDistanceInterval, true, activityType, weight);
+    markerTripStatisticsUpdater.addLocation(
+        location, recordingDistanceInterval, true, activityType, weight);
+    if (LocationUtils.isValidLocation(location)) {
+      lastValidLocation = location;
+    }
+
+    boolean wasEmpty;
+    boolean flushNeeded;
+    synchronized (trackPointWriteBuffer) {
+      wasEmpty = trackPointWriteBuffer.isEmpty();
+      trackPointWriteBuffer.add(location);
+      flushNeeded = trackPointWriteBuffer.isFlushNeeded();
+    }
+    if (flushNeeded) {
+      flushTrackPoints(track, false);
+    } else if (wasEmpty) {
+      // Bound the number of track points lost if the process dies
+      handler.postDelayed(flushTrackPointsRunnable, MAX_BUFFERED_TRACK_POINTS_TIME);
     }
     voiceExecutor.update();
     splitExecutor.update();
+  }
+
+  /**
+   * Submits a task to write the buffered track points of the recording track.
+   */
+  private void submitFlushTrackPoints() {
+    if (executorService == null || executorService.isShutdown()
+        || executorService.isTerminated()) {
+      return;
+    }
+    executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+        if (isRecording()) {
+          flushTrackPoints(recordingTrack, false);
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes the buffered track points to the database and updates the recording
+   * track. Only the track point ids, the number of points, and the trip
+   * statistics are written, so that changes made while recording, e.g.,
+   * editing the name or the activity type, are not overwritten.
+   * 
+   * @param track the recording track, updated in place. Becomes the
+   *          {@link #recordingTrack} while recording.
+   * @param updateTrack true to update the track even if no track point is
+   *          buffered
+   * @return true if the track is updated.
+   */
+  private boolean flushTrackPoints(Track track, boolean updateTrack) {
+    synchronized (trackPointWriteBuffer) {
+      if (trackPointWriteBuffer.isEmpty() && !updateTrack) {
+        return false;
+      }
+      if (track == null) {
+        Log.w(TAG, "Ignore flushTrackPoints. No track.");
+        trackPointWriteBuffer.clear();
+        return false;
+      }
+      int numberOfValidPoints = trackPointWriteBuffer.getNumberOfValidPoints();
+      try {
+        long[] ids = trackPointWriteBuffer.flush(track.getId());
+        updateRecordingTrack(track, ids, ids != null ? numberOfValidPoints : 0);
+      } catch (SQLiteException e) {
+        /*
+         * Insert failed, most likely because of SqlLite error code 5
+         * (SQLite_BUSY). This is expected to happen extremely rarely. The
+         * track points are kept in the buffer for the next write.
+         */
+        Log.w(TAG, "SQLiteException", e);
+        return false;
+      }
+      if (track.getId() == recordingTrackId) {
+        recordingTrack = track;
+      }
+    }
     sendTrackBroadcast(R.string.track_update_broadcast_action, track.getId());
+    return true;
   }
 
   /**
    * Updates the recording track time. Also updates the startId and the stopId.
-   * Increase the number of points if it is a new and valid track point.
+   * Increases the number of points by the number of new and valid track points.
    * 
    * @param track the track
-   * @param lastTrackPointId the last track point id
-   * @param increaseNumberOfPoints true to increase the number of points
+   * @param ids the ids of the first and the last new track points, the first
+   *          one -1L if not known, or null if no new track point
+   * @param numberOfNewPoints the number of new and valid track points
    */
-  private void updateRecordingTrack(
-      Track track, long lastTrackPointId, boolean increaseNumberOfPoints) {
-    if (lastTrackPointId >= 0) {
+  private void updateRecordingTrack(Track track, long[] ids, int numberOfNewPoints) {
+    if (ids != null) {
       if (track.getStartId() < 0) {
-        track.setStartId(lastTrackPointId);
+        track.setStartId(
+            ids[0] >= 0 ? ids[0] : myTracksProviderUtils.getFirstTrackPointId(track.getId()));
       }
-      track.setStopId(lastTrackPointId);
-    }
-    if (increaseNumberOfPoints) {
-      track.setNumberOfPoints(track.getNumberOfPoints() + 1);
+      track.setStopId(ids[1]);
     }
+    track.setNumberOfPoints(track.getNumberOfPoints() + numberOfNewPoints);
 
     trackTripStatisticsUpdater.updateTime(System.currentTimeMillis());
     track.setTripStatistics(trackTripStatisticsUpdater.getTripStatistics());
-    myTracksProviderUtils.updateTrack(track);
+    myTracksProviderUtils.updateTrackStatistics(track);
+    RecordingTrackStatistics.publish(
+        track.getId(), trackTripStatisticsUpdater.getTripStatistics());
   }
 
   private SensorDataSet getSensorDataSet() {
@@ -1397,16 +1574,21 @@ public class TrackRecordingService extends Service {
           Log.w(TAG, "Ignore updateCalorie. Not recording.");
           return;
         }
-        
+
         Track track = myTracksProviderUtils.getTrack(recordingTrackId);
         if (track == null) {
           Log.w(TAG, "Ignore updateCalorie. No track.");
           return;
         }
 
-        
-        double[] calories = CalorieUtils.updateTrackCalorie(context, track);
-        
+        // The recording track is not read again on flush, update its activity type
+        Track currentTrack = recordingTrack;
+        if (currentTrack != null) {
+          currentTrack.setCategory(track.getCategory());
+        }
+
+        double[] calories = updateTrackCalorie(track);
+
         // Update track statistics
         trackTripStatisticsUpdater.updateCalorie(calories[0]);
 
@@ -1415,4 +1597,24 @@ public class TrackRecordingService extends Service {
       }
     });
   }
+
+  /**
+   * Updates the calorie of the recording track and its statistics markers
+   * from their calorie sums, without reading the track points. Without the
+   * calorie sums of a marker, computes the calorie from the track points.
+   * 
+   * @param track the recording track
+   * @return an array of two doubles, first is the track calorie, second is the
+   *         last statistics marker calorie
+   */
+  private double[] updateTrackCalorie(Track track) {
+    double[] calories = CalorieUtils.updateTrackCalorie(context, track,
+        trackTripStatisticsUpdater.getCalorieSums(), markerCalorieSums,
+        markerTripStatisticsUpdater.getCalorieSums());
+    if (calories == null) {
+      flushTrackPoints(track, false);
+      calories = CalorieUtils.updateTrackCalorie(context, track);
+    }
+    return calories;
+  }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.stats;
+
+import com.google.android.apps.mytracks.util.CalorieUtils;
+
+/**
+ * The sums over the moving intervals of a track, or of a statistics marker,
+ * from which {@link CalorieUtils#getCalorie(CalorieSums, double,
+ * com.google.android.apps.mytracks.util.CalorieUtils.ActivityType)} computes
+ * its calorie. The calorie of an interval is a polynomial of its speed, grade,
+ * and duration, affine in the weight, so the calorie for another activity type
+ * or weight is computed from these four sums without reading the track points
+ * again.
+ */
+public class CalorieSums {
+
+  // The sum of the durations (min)
+  private double duration;
+
+  // The sum of the speeds (m/s) times the durations
+  private double speedDuration;
+
+  // The sum of the speeds times the non negative grades times the durations
+  private double speedGradeDuration;
+
+  // The sum of the cubed speeds times the durations
+  private double cubedSpeedDuration;
+
+  public CalorieSums() {}
+
+  /**
+   * Copy constructor.
+   *
+   * @param other another calorie sums
+   */
+  public CalorieSums(CalorieSums other) {
+    duration = other.duration;
+    speedDuration = other.speedDuration;
+    speedGradeDuration = other.speedGradeDuration;
+    cubedSpeedDuration = other.cubedSpeedDuration;
+  }
+
+  /**
+   * Adds a moving interval.
+   *
+   * @param speed the average speed in m/s
+   * @param grade the grade. A negative grade counts as flat
+   * @param duration the duration in minutes
+   */
+  public void add(double speed, double grade, double duration) {
+    if (grade < 0) {
+      grade = 0.0;
+    }
+    double speedDuration = speed * duration;
+    this.duration += duration;
+    this.speedDuration += speedDuration;
+    speedGradeDuration += speedDuration * grade;
+    cubedSpeedDuration += speedDuration * speed * speed;
+  }
+
+  /**
+   * Gets the sum of the durations in minutes.
+   */
+  public double getDuration() {
+    return duration;
+  }
+
+  /**
+   * Gets the sum of the speeds in m/s times the durations.
+   */
+  public double getSpeedDuration() {
+    return speedDuration;
+  }
+
+  /**
+   * Gets the sum of the speeds times the non negative grades times the
+   * durations.
+   */
+  public double getSpeedGradeDuration() {
+    return speedGradeDuration;
+  }
+
+  /**
+   * Gets the sum of the cubed speeds times the durations.
+   */
+  public double getCubedSpeedDuration() {
+    return cubedSpeedDuration;
+  }
+}
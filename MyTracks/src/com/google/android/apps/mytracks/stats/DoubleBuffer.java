@@ -20,11 +20,19 @@ package com.google.android.apps.mytracks.stats;
  * This class maintains a buffer of doubles. This buffer is a convenient class
  * for storing a series of doubles and calculating information about them. This
  * is a FIFO buffer.
+ * <p>
+ * The sum and the sum of squared deviations (Welford) are updated on each
+ * write, so the average and the variance take constant time. They are
+ * recomputed from the buffer every {@link #RECOMPUTE_INTERVAL} writes to
+ * discard the accumulated rounding errors.
  * 
  * @author Sandor Dornbush
  */
 public class DoubleBuffer {
 
+  // The number of writes between two recomputations of the sums
+  static final int RECOMPUTE_INTERVAL = 1024;
+
   // The location that the next write will occur at.
   private int index;
 
@@ -34,6 +42,15 @@ public class DoubleBuffer {
   // True if the buffer is full
   private boolean isFull;
 
+  // The sum of the values
+  private double sum;
+
+  // The sum of the squared deviations from the average
+  private double sumSquaredDeviations;
+
+  // The number of writes since the sums were recomputed
+  private int numberOfWrites;
+
   /**
    * Creates a buffer with a certain size.
    * 
@@ -53,6 +70,9 @@ public class DoubleBuffer {
   public void reset() {
     index = 0;
     isFull = false;
+    sum = 0;
+    sumSquaredDeviations = 0;
+    numberOfWrites = 0;
   }
 
   /**
@@ -66,14 +86,10 @@ public class DoubleBuffer {
    * Gets the average of the buffer.
    */
   public double getAverage() {
-    int numberOfEntries = isFull ? buffer.length : index;
+    int numberOfEntries = getNumberOfEntries();
     if (numberOfEntries == 0) {
       return 0;
     }
-    double sum = 0;
-    for (int i = 0; i < numberOfEntries; i++) {
-      sum += buffer[i];
-    }
     return sum / numberOfEntries;
   }
 
@@ -84,21 +100,12 @@ public class DoubleBuffer {
    *         the variance
    */
   public double[] getAverageAndVariance() {
-    int numberOfEntries = isFull ? buffer.length : index;
+    int numberOfEntries = getNumberOfEntries();
     if (numberOfEntries == 0) {
       return new double[] { 0, 0 };
     }
-
-    double sum = 0;
-    double sumSquares = 0;
-    for (int i = 0; i < numberOfEntries; i++) {
-      sum += buffer[i];
-      sumSquares += Math.pow(buffer[i], 2);
-    }
-
-    double average = sum / numberOfEntries;
-    double variance = sumSquares / numberOfEntries - Math.pow(average, 2);
-    return new double[] { average, variance };
+    double variance = Math.max(sumSquaredDeviations / numberOfEntries, 0);
+    return new double[] { sum / numberOfEntries, variance };
   }
 
   /**
@@ -111,11 +118,32 @@ public class DoubleBuffer {
     if (index == buffer.length) {
       index = 0;
     }
+    int numberOfEntries = getNumberOfEntries();
+    boolean finite = !Double.isNaN(value) && !Double.isInfinite(value);
+    if (isFull) {
+      double oldValue = buffer[index];
+      finite &= !Double.isNaN(oldValue) && !Double.isInfinite(oldValue);
+      double oldAverage = sum / numberOfEntries;
+      sum += value - oldValue;
+      double newAverage = sum / numberOfEntries;
+      sumSquaredDeviations += (value - oldValue) * (value - newAverage + oldValue - oldAverage);
+    } else {
+      double oldAverage = numberOfEntries == 0 ? 0 : sum / numberOfEntries;
+      sum += value;
+      double newAverage = sum / (numberOfEntries + 1);
+      sumSquaredDeviations += (value - oldAverage) * (value - newAverage);
+    }
     buffer[index] = value;
     index++;
     if (index == buffer.length) {
       isFull = true;
     }
+
+    // The sums of a NaN or an infinity can't be updated, recompute them
+    numberOfWrites++;
+    if (!finite || numberOfWrites >= RECOMPUTE_INTERVAL) {
+      recompute();
+    }
   }
 
   @Override
@@ -130,4 +158,29 @@ public class DoubleBuffer {
     }
     return stringBuffer.toString();
   }
+
+  /**
+   * Gets the number of entries in the buffer.
+   */
+  private int getNumberOfEntries() {
+    return isFull ? buffer.length : index;
+  }
+
+  /**
+   * Recomputes the sums from the buffer.
+   */
+  private void recompute() {
+    int numberOfEntries = getNumberOfEntries();
+    sum = 0;
+    for (int i = 0; i < numberOfEntries; i++) {
+      sum += buffer[i];
+    }
+    double average = sum / numberOfEntries;
+    sumSquaredDeviations = 0;
+    for (int i = 0; i < numberOfEntries; i++) {
+      double deviation = buffer[i] - average;
+      sumSquaredDeviations += deviation * deviation;
+    }
+    numberOfWrites = 0;
+  }
 }
@@ -22,9 +22,11 @@ import static com.google.android.apps.mytracks.services.TrackRecordingService.PA
 import com.google.android.apps.mytracks.util.CalorieUtils;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.LocationUtils;
+import com.google.android.apps.mytracks.util.UnitConversions;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.location.Location;
+import android.location.LocationManager;
 import android.util.Log;
 
 /**
@@ -76,11 +78,17 @@ public class TripStatisticsUpdater {
   // The current segment's trip statistics
   private TripStatistics currentSegment;
 
-  // Current segment's last location.
-  private Location lastLocation;
+  // Current segment's last location. A copy, so callers can reuse locations.
+  private final Location lastLocation = new Location(LocationManager.GPS_PROVIDER);
 
-  // Current segment's last moving location
-  private Location lastMovingLocation;
+  // Current segment's last moving location. A copy of the last location.
+  private final Location lastMovingLocation = new Location(LocationManager.GPS_PROVIDER);
+
+  // True if the current segment has a last location
+  private boolean hasLastLocation = false;
+
+  // True if the last location is the last moving location
+  private boolean isLastLocationMoving = false;
 
   // A buffer of the recent elevation readings (m)
   private final DoubleBuffer elevationBuffer = new DoubleBuffer(ELEVATION_SMOOTHING_FACTOR);
@@ -93,6 +101,9 @@ public class TripStatisticsUpdater {
 
   // A buffer of the recent speed readings (m/s) for calculating max speed
   private final DoubleBuffer speedBuffer = new DoubleBuffer(SPEED_SMOOTHING_FACTOR);
+
+  // The calorie sums of the moving intervals, for any activity type and weight
+  private final CalorieSums calorieSums = new CalorieSums();
   
   /**
    * Creates a new trip statistics updater.
@@ -120,7 +131,16 @@ public class TripStatisticsUpdater {
   }
   
   /**
-   * Adds a location. TODO: This assume location has a valid time.
+   * Gets the calorie sums of the moving intervals, to recompute the calorie
+   * for another activity type or weight.
+   */
+  public CalorieSums getCalorieSums() {
+    return new CalorieSums(calorieSums);
+  }
+
+  /**
+   * Adds a location. The location is copied and can be reused by the caller.
+   * TODO: This assume location has a valid time.
    * 
    * @param location the location
    * @param minRecordingDistance the min recording distance
@@ -137,15 +157,13 @@ public class TripStatisticsUpdater {
     if (!LocationUtils.isValidLocation(location)) {
       // Either pause or resume marker
       if (location.getLatitude() == PAUSE_LATITUDE) {
-        if (lastLocation != null && lastMovingLocation != null
-            && lastLocation != lastMovingLocation) {
+        if (hasLastLocation && !isLastLocationMoving) {
           currentSegment.addTotalDistance(lastMovingLocation.distanceTo(lastLocation));
         }
         tripStatistics.merge(currentSegment);
       }
       currentSegment = init(location.getTime());
-      lastLocation = null;
-      lastMovingLocation = null;
+      hasLastLocation = false;
       elevationBuffer.reset();
       runBuffer.reset();
       gradeBuffer.reset();
@@ -158,9 +176,9 @@ public class TripStatisticsUpdater {
     double elevationDifference = location.hasAltitude() ? updateElevation(location.getAltitude())
         : 0.0;
 
-    if (lastLocation == null || lastMovingLocation == null) {
-      lastLocation = location;
-      lastMovingLocation = location;
+    if (!hasLastLocation) {
+      setLastMovingLocation(location);
+      hasLastLocation = true;
       return;
     }
 
@@ -168,12 +186,12 @@ public class TripStatisticsUpdater {
     if (movingDistance < minRecordingDistance
         && (!location.hasSpeed() || location.getSpeed() < MAX_NO_MOVEMENT_SPEED)) {
       speedBuffer.reset();
-      lastLocation = location;
+      setLastLocation(location);
       return;
     }
     long movingTime = location.getTime() - lastLocation.getTime();
     if (movingTime < 0) {
-      lastLocation = location;
+      setLastLocation(location);
       return;
     }
 
@@ -193,14 +211,40 @@ public class TripStatisticsUpdater {
           location.getTime(), location.getSpeed(), lastLocation.getTime(), lastLocation.getSpeed());
     }
     
+    // Update calorie sums, speed in m/s and duration in min
+    double grade = gradeBuffer.getAverage();
+    calorieSums.add((lastMovingLocation.getSpeed() + location.getSpeed()) / 2.0, grade,
+        (location.getTime() - lastMovingLocation.getTime()) * UnitConversions.MS_TO_S
+            * UnitConversions.S_TO_MIN);
+
     if (calculateCalorie) {
       // Update calorie
-      double calorie = CalorieUtils.getCalorie(lastMovingLocation, location,
-          gradeBuffer.getAverage(), weight, activityType);
+      double calorie = CalorieUtils.getCalorie(
+          lastMovingLocation, location, grade, weight, activityType);
       currentSegment.addCalorie(calorie);
     }
-    lastLocation = location;
-    lastMovingLocation = location;
+    setLastMovingLocation(location);
+  }
+
+  /**
+   * Sets the last location, not moving from the last moving location.
+   * 
+   * @param location the location
+   */
+  private void setLastLocation(Location location) {
+    lastLocation.set(location);
+    isLastLocationMoving = false;
+  }
+
+  /**
+   * Sets the last location and the last moving location.
+   * 
+   * @param location the location
+   */
+  private void setLastMovingLocation(Location location) {
+    lastLocation.set(location);
+    lastMovingLocation.set(location);
+    isLastLocationMoving = true;
   }
   
   /**
@@ -18,14 +18,21 @@ package com.google.android.apps.mytracks.util;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointsColumns;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.stats.CalorieSums;
 import com.google.android.apps.mytracks.stats.TripStatisticsUpdater;
 import com.google.android.maps.mytracks.R;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.location.Location;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Utilities to calculate calories.
@@ -41,6 +48,8 @@ public class CalorieUtils {
     CYCLING, RUNNING, WALKING, INVALID
   }
 
+  private static final String TAG = CalorieUtils.class.getSimpleName();
+
   private CalorieUtils() {}
 
   /**
@@ -85,7 +94,8 @@ public class CalorieUtils {
   }
 
   /**
-   * Updates calories for a track and its waypoints.
+   * Updates calories for a track and its waypoints by reading the track points.
+   * The track and the waypoints are written in one batch.
    * 
    * @param context the context
    * @param track the track
@@ -108,16 +118,17 @@ public class CalorieUtils {
     int recordingDistanceInterval = PreferencesUtils.getInt(context,
         R.string.recording_distance_interval_key,
         PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT);
-    double weight = PreferencesUtils.getFloat(
-        context, R.string.weight_key, PreferencesUtils.getDefaultWeight(context));
+    double weight = getWeight(context);
+    List<Waypoint> waypoints = new ArrayList<Waypoint>();
     LocationIterator locationIterator = null;
     Cursor cursor = null;
 
     try {
       Waypoint waypoint = null;
 
-      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(
-          track.getId(), -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(track.getId(), -1L,
+          false, TrackPointsColumns.NO_SENSOR_COLUMNS,
+          MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
       cursor = myTracksProviderUtils.getWaypointCursor(track.getId(), -1L, -1);
 
       if (cursor != null && cursor.moveToFirst()) {
@@ -140,7 +151,7 @@ public class CalorieUtils {
             && waypoint.getLocation().getLongitude() == location.getLongitude()) {
           waypoint.getTripStatistics()
               .setCalorie(markerTripStatisticsUpdater.getTripStatistics().getCalorie());
-          myTracksProviderUtils.updateWaypoint(waypoint);
+          waypoints.add(waypoint);
           markerTripStatisticsUpdater = new TripStatisticsUpdater(location.getTime());
           waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
         }
@@ -155,11 +166,65 @@ public class CalorieUtils {
     }
     double trackCalorie = trackTripStatisticsUpdater.getTripStatistics().getCalorie();
     track.getTripStatistics().setCalorie(trackCalorie);
-    myTracksProviderUtils.updateTrack(track);
+    updateTrackAndWaypoints(myTracksProviderUtils, track, waypoints);
     return new double[] {
         trackCalorie, markerTripStatisticsUpdater.getTripStatistics().getCalorie() };
   }
 
+  /**
+   * Updates calories for a track and its waypoints from the calorie sums kept
+   * while recording, without reading the track points. The track and the
+   * waypoints are written in one batch. Returns null, without updating, if a
+   * statistics waypoint has no calorie sums. Then call
+   * {@link #updateTrackCalorie(Context, Track)} once the track points are
+   * written.
+   * 
+   * @param context the context
+   * @param track the track
+   * @param trackCalorieSums the calorie sums of the track
+   * @param markerCalorieSums the calorie sums of the statistics waypoints, by
+   *          waypoint id
+   * @param lastMarkerCalorieSums the calorie sums since the last statistics
+   *          waypoint
+   * @return an array of two doubles, first is the track calorie, second is the
+   *         last statistics waypoint calorie, or null
+   */
+  public static double[] updateTrackCalorie(Context context, Track track,
+      CalorieSums trackCalorieSums, Map<Long, CalorieSums> markerCalorieSums,
+      CalorieSums lastMarkerCalorieSums) {
+    MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    ActivityType activityType = getActivityType(context, track.getCategory());
+    double weight = getWeight(context);
+    List<Waypoint> waypoints = new ArrayList<Waypoint>();
+    Cursor cursor = null;
+    try {
+      cursor = myTracksProviderUtils.getWaypointCursor(track.getId(), -1L, -1);
+      if (cursor != null && cursor.moveToFirst()) {
+        // Skip the first waypoint, it holds the stats for the track
+        Waypoint waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+        while (waypoint != null) {
+          CalorieSums calorieSums = markerCalorieSums.get(waypoint.getId());
+          if (calorieSums == null) {
+            Log.w(TAG, "No calorie sums for waypoint " + waypoint.getId());
+            return null;
+          }
+          waypoint.getTripStatistics().setCalorie(getCalorie(calorieSums, weight, activityType));
+          waypoints.add(waypoint);
+          waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    double trackCalorie = getCalorie(trackCalorieSums, weight, activityType);
+    track.getTripStatistics().setCalorie(trackCalorie);
+    updateTrackAndWaypoints(myTracksProviderUtils, track, waypoints);
+    return new double[] {
+        trackCalorie, getCalorie(lastMarkerCalorieSums, weight, activityType) };
+  }
+
   /**
    * Gets the calorie in kcal between two locations.
    * 
@@ -185,34 +250,76 @@ public class CalorieUtils {
     // Duration in min
     double duration = (double) (stop.getTime() - start.getTime()) * UnitConversions.MS_TO_S
         * UnitConversions.S_TO_MIN;
+    double speedDuration = speed * duration;
+    return getCalorie(duration, speedDuration, speedDuration * grade,
+        speedDuration * speed * speed, weight, activityType);
+  }
+
+  /**
+   * Gets the calorie in kcal of the moving intervals of calorie sums.
+   * 
+   * @param calorieSums the calorie sums
+   * @param weight the weight in kilogram. For cycling, weight of the rider plus
+   *          bike. For foot, weight of the user
+   * @param activityType the activity type
+   */
+  public static double getCalorie(
+      CalorieSums calorieSums, double weight, ActivityType activityType) {
+    return getCalorie(calorieSums.getDuration(), calorieSums.getSpeedDuration(),
+        calorieSums.getSpeedGradeDuration(), calorieSums.getCubedSpeedDuration(), weight,
+        activityType);
+  }
+
+  /**
+   * Gets the calorie in kcal of moving intervals. Each interval calorie is
+   * linear in its duration, speed times duration, speed times grade times
+   * duration, and cubed speed times duration, so the calorie of several
+   * intervals is computed from the sums of these.
+   * 
+   * @param duration the duration in min
+   * @param speedDuration the speed in m/s times the duration
+   * @param speedGradeDuration the speed times the non negative grade times the
+   *          duration
+   * @param cubedSpeedDuration the cubed speed times the duration
+   * @param weight the weight in kilogram
+   * @param activityType the activity type
+   */
+  private static double getCalorie(double duration, double speedDuration,
+      double speedGradeDuration, double cubedSpeedDuration, double weight,
+      ActivityType activityType) {
+    if (activityType == ActivityType.INVALID) {
+      return 0.0;
+    }
 
     if (activityType == ActivityType.CYCLING) {
       /*
-       * Power in watt (Joule/second). See
+       * Power in watt (Joule/second) times duration. See
        * http://en.wikipedia.org/wiki/Bicycle_performance.
        */
-      double power = EARTH_GRAVITY * weight * speed * (K1 + grade) + K2 * (speed * speed * speed);
+      double powerDuration = EARTH_GRAVITY * weight * (K1 * speedDuration + speedGradeDuration)
+          + K2 * cubedSpeedDuration;
 
-      // WorkRate in kgm/min
-      double workRate = power * UnitConversions.W_TO_KGM;
+      // WorkRate in kgm/min times duration
+      double workRateDuration = powerDuration * UnitConversions.W_TO_KGM;
 
       /*
        * VO2 in kgm/min/kg 1.8 = oxygen cost of producing 1 kgm/min of power
        * output. 7 = oxygen cost of unloaded cycling plus resting oxygen
        * consumption
        */
-      double vo2 = (1.8 * workRate / weight) + 7;
+      double vo2Duration = (1.8 * workRateDuration / weight) + 7 * duration;
 
       // Calorie in kcal
-      return vo2 * duration * weight * UnitConversions.KGM_TO_KCAL;
+      return vo2Duration * weight * UnitConversions.KGM_TO_KCAL;
     } else {
-      double vo2 = activityType == ActivityType.RUNNING ? getRunningVo2(speed, grade)
-          : getWalkingVo2(speed, grade);
+      double vo2Duration = activityType == ActivityType.RUNNING ? getRunningVo2Duration(
+          duration, speedDuration, speedGradeDuration)
+          : getWalkingVo2Duration(duration, speedDuration, speedGradeDuration);
 
       /*
        * Calorie in kcal (mL/kg/min * min * kg * L/mL * kcal/L)
        */
-      return vo2 * duration * weight * UnitConversions.ML_TO_L * UnitConversions.L_TO_KCAL;
+      return vo2Duration * weight * UnitConversions.ML_TO_L * UnitConversions.L_TO_KCAL;
     }
   }
 
@@ -224,7 +331,7 @@ public class CalorieUtils {
    */
   private static void clearCalorie(MyTracksProviderUtils myTracksProviderUtils, Track track) {
     track.getTripStatistics().setCalorie(0);
-    myTracksProviderUtils.updateTrack(track);
+    List<Waypoint> waypoints = new ArrayList<Waypoint>();
     Cursor cursor = null;
     try {
       cursor = myTracksProviderUtils.getWaypointCursor(track.getId(), -1L, -1);
@@ -236,7 +343,7 @@ public class CalorieUtils {
         Waypoint waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
         while (waypoint != null) {
           waypoint.getTripStatistics().setCalorie(0);
-          myTracksProviderUtils.updateWaypoint(waypoint);
+          waypoints.add(waypoint);
           waypoint = getNextStatisticsWaypoint(myTracksProviderUtils, cursor);
         }
       }
@@ -245,6 +352,32 @@ public class CalorieUtils {
         cursor.close();
       }
     }
+    updateTrackAndWaypoints(myTracksProviderUtils, track, waypoints);
+  }
+
+  /**
+   * Updates a track and its waypoints in one batch, so that they are written
+   * at once.
+   * 
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param track the track
+   * @param waypoints the waypoints
+   */
+  private static void updateTrackAndWaypoints(
+      MyTracksProviderUtils myTracksProviderUtils, Track track, List<Waypoint> waypoints) {
+    if (!myTracksProviderUtils.updateTrackAndWaypoints(track, waypoints)) {
+      Log.e(TAG, "Unable to update the calorie of track " + track.getId());
+    }
+  }
+
+  /**
+   * Gets the weight in kilogram.
+   * 
+   * @param context the context
+   */
+  private static double getWeight(Context context) {
+    return PreferencesUtils.getFloat(
+        context, R.string.weight_key, PreferencesUtils.getDefaultWeight(context));
   }
 
   /**
@@ -268,41 +401,47 @@ public class CalorieUtils {
   }
 
   /**
-   * Gets the running VO2 in ml/kg/min. This equation is appropriate for speeds
-   * greater than 5 mi/hr (or 3 mi/hr or greater if the subject is truly
-   * jogging).
+   * Gets the running VO2 in ml/kg/min times the duration. This equation is
+   * appropriate for speeds greater than 5 mi/hr (or 3 mi/hr or greater if the
+   * subject is truly jogging).
    * 
-   * @param speed the speed in m/s
-   * @param grade the grade
+   * @param duration the duration in min
+   * @param speedDuration the speed in m/s times the duration
+   * @param speedGradeDuration the speed times the grade times the duration
    */
-  private static double getRunningVo2(double speed, double grade) {
+  private static double getRunningVo2Duration(
+      double duration, double speedDuration, double speedGradeDuration) {
     // Change from m/s to m/min
-    speed = speed / UnitConversions.S_TO_MIN;
+    speedDuration = speedDuration / UnitConversions.S_TO_MIN;
+    speedGradeDuration = speedGradeDuration / UnitConversions.S_TO_MIN;
 
     /*
      * 0.2 = oxygen cost per meter of moving each kg of body weight while
      * running (horizontally). 0.9 = oxygen cost per meter of moving total body
      * mass against gravity (vertically).
      */
-    return 0.2 * speed + 0.9 * speed * grade + RESTING_VO2;
+    return 0.2 * speedDuration + 0.9 * speedGradeDuration + RESTING_VO2 * duration;
   }
 
   /**
-   * Gets the walking VO2 in ml/kg/min. This equation is appropriate for speed
-   * from 1.9 to 4 mi/hr.
+   * Gets the walking VO2 in ml/kg/min times the duration. This equation is
+   * appropriate for speed from 1.9 to 4 mi/hr.
    * 
-   * @param speed the speed in m/s
-   * @param grade the grade
+   * @param duration the duration in min
+   * @param speedDuration the speed in m/s times the duration
+   * @param speedGradeDuration the speed times the grade times the duration
    */
-  private static double getWalkingVo2(double speed, double grade) {
+  private static double getWalkingVo2Duration(
+      double duration, double speedDuration, double speedGradeDuration) {
     // Change from m/s to m/min
-    speed = speed / UnitConversions.S_TO_MIN;
+    speedDuration = speedDuration / UnitConversions.S_TO_MIN;
+    speedGradeDuration = speedGradeDuration / UnitConversions.S_TO_MIN;
 
     /*
      * 0.1 = oxygen cost per meter of moving each kilogram (kg) of body weight
      * while walking (horizontally). 1.8 = oxygen cost per meter of moving total
      * body mass against gravity (vertically).
      */
-    return 0.1 * speed + 1.8 * speed * grade + RESTING_VO2;
+    return 0.1 * speedDuration + 1.8 * speedGradeDuration + RESTING_VO2 * duration;
   }
 }
\ No newline at end of file
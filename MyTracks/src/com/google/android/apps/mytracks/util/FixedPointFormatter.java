@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+import java.io.PrintWriter;
+import java.nio.CharBuffer;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Formats numbers with a maximum number of fraction digits, without trailing
+ * zeros, like a {@link NumberFormat} for {@link Locale#US}. Appends directly
+ * into a char array, a {@link CharBuffer} or a {@link PrintWriter} without
+ * allocating. Falls back to a {@link NumberFormat} for the values too large
+ * for a long, for the non finite values and for the values too close to a
+ * rounding tie, so the output is always the one of the {@link NumberFormat}.
+ * Not thread safe.
+ */
+public class FixedPointFormatter {
+
+  // The maximum length of a formatted value, sign and grouping included
+  private static final int MAX_LENGTH = 32;
+
+  // The maximum scaled value formatted without the number format
+  private static final double MAX_SCALED_VALUE = 1E12;
+
+  // The distance to a rounding tie below which the number format is used
+  private static final double TIE_TOLERANCE = 1E-3;
+
+  private static final long[] POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L,
+      10000000L, 100000000L, 1000000000L };
+
+  private final int maximumFractionDigits;
+  private final boolean groupingUsed;
+  private final char[] chars = new char[MAX_LENGTH];
+  private NumberFormat numberFormat;
+
+  /**
+   * Constructor.
+   *
+   * @param maximumFractionDigits the maximum number of fraction digits, from 0
+   *          to 9
+   * @param groupingUsed true to group the integer digits by thousands
+   */
+  public FixedPointFormatter(int maximumFractionDigits, boolean groupingUsed) {
+    if (maximumFractionDigits < 0 || maximumFractionDigits >= POWERS_OF_TEN.length) {
+      throw new IllegalArgumentException(
+          "Invalid maximum fraction digits: " + maximumFractionDigits);
+    }
+    this.maximumFractionDigits = maximumFractionDigits;
+    this.groupingUsed = groupingUsed;
+  }
+
+  /**
+   * Formats a value into a char array.
+   *
+   * @param value the value
+   * @param buffer the char array, with room for the formatted value
+   * @param offset the offset in the char array
+   * @return the offset after the formatted value
+   */
+  public int format(double value, char[] buffer, int offset) {
+    String formatted = formatWithNumberFormat(value);
+    if (formatted != null) {
+      formatted.getChars(0, formatted.length(), buffer, offset);
+      return offset + formatted.length();
+    }
+    return formatFixedPoint(value, buffer, offset);
+  }
+
+  /**
+   * Formats a value into a char buffer.
+   *
+   * @param value the value
+   * @param charBuffer the char buffer
+   */
+  public void format(double value, CharBuffer charBuffer) {
+    String formatted = formatWithNumberFormat(value);
+    if (formatted != null) {
+      charBuffer.put(formatted);
+      return;
+    }
+    charBuffer.put(chars, 0, formatFixedPoint(value, chars, 0));
+  }
+
+  /**
+   * Formats a value into a print writer.
+   *
+   * @param value the value
+   * @param printWriter the print writer
+   */
+  public void format(double value, PrintWriter printWriter) {
+    String formatted = formatWithNumberFormat(value);
+    if (formatted != null) {
+      printWriter.write(formatted);
+      return;
+    }
+    printWriter.write(chars, 0, formatFixedPoint(value, chars, 0));
+  }
+
+  /**
+   * Formats a value into a new string.
+   *
+   * @param value the value
+   */
+  public String format(double value) {
+    String formatted = formatWithNumberFormat(value);
+    if (formatted != null) {
+      return formatted;
+    }
+    return new String(chars, 0, formatFixedPoint(value, chars, 0));
+  }
+
+  /**
+   * Formats a value handled directly, with at most {@link #MAX_LENGTH} chars.
+   *
+   * @param value the value
+   * @param buffer the char array
+   * @param offset the offset in the char array
+   * @return the offset after the formatted value
+   */
+  private int formatFixedPoint(double value, char[] buffer, int offset) {
+    long scale = POWERS_OF_TEN[maximumFractionDigits];
+    double scaled = Math.abs(value) * scale;
+    long rounded = (long) scaled;
+    if (scaled - rounded > 0.5) {
+      rounded++;
+    }
+
+    int index = offset;
+    // The number format keeps the sign of the negative values rounded to zero
+    if (value < 0.0 || (value == 0.0 && 1.0 / value < 0.0)) {
+      buffer[index++] = '-';
+    }
+    index = formatInteger(rounded / scale, buffer, index);
+    long fractionDigits = rounded % scale;
+    if (fractionDigits != 0) {
+      int numberOfDigits = maximumFractionDigits;
+      while (fractionDigits % 10 == 0) {
+        fractionDigits /= 10;
+        numberOfDigits--;
+      }
+      buffer[index++] = '.';
+      for (int i = index + numberOfDigits - 1; i >= index; i--) {
+        buffer[i] = (char) ('0' + fractionDigits % 10);
+        fractionDigits /= 10;
+      }
+      index += numberOfDigits;
+    }
+    return index;
+  }
+
+  /**
+   * Formats a non negative integer value, grouping its digits if needed.
+   *
+   * @param value the value
+   * @param buffer the char array
+   * @param offset the offset in the char array
+   * @return the offset after the formatted value
+   */
+  private int formatInteger(long value, char[] buffer, int offset) {
+    int numberOfDigits = 1;
+    for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+      numberOfDigits++;
+    }
+    int length = numberOfDigits;
+    if (groupingUsed) {
+      length += (numberOfDigits - 1) / 3;
+    }
+    int index = offset + length - 1;
+    for (int i = 0; i < numberOfDigits; i++) {
+      if (groupingUsed && i != 0 && i % 3 == 0) {
+        buffer[index--] = ',';
+      }
+      buffer[index--] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return offset + length;
+  }
+
+  /**
+   * Formats a value with the number format if it is not handled directly, i.e.,
+   * if it is too large, not finite or too close to a rounding tie. Returns
+   * null otherwise.
+   *
+   * @param value the value
+   */
+  private String formatWithNumberFormat(double value) {
+    double scaled = Math.abs(value) * POWERS_OF_TEN[maximumFractionDigits];
+    // False for NaN
+    if (scaled < MAX_SCALED_VALUE && Math.abs(scaled - (long) scaled - 0.5) >= TIE_TOLERANCE) {
+      return null;
+    }
+    if (numberFormat == null) {
+      numberFormat = NumberFormat.getInstance(Locale.US);
+      numberFormat.setMaximumFractionDigits(maximumFractionDigits);
+      numberFormat.setGroupingUsed(groupingUsed);
+    }
+    return numberFormat.format(value);
+  }
+}
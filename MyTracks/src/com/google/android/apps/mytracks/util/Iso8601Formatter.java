@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.util;
+
+import java.io.PrintWriter;
+import java.nio.CharBuffer;
+
+/**
+ * Formats times as ISO 8601 UTC date times, e.g., "2013-08-01T09:30:15.250Z",
+ * like {@link StringUtils#formatDateTimeIso8601(long)}. Appends directly into a
+ * char array, a {@link CharBuffer} or a {@link PrintWriter} without
+ * allocating. Caches the date, hour and minute of the last formatted time, so
+ * consecutive track point times only render their seconds and milliseconds.
+ * Falls back to {@link StringUtils#formatDateTimeIso8601(long)} for the years
+ * before 1583, where the Gregorian calendar does not apply, and after 9999.
+ * Not thread safe.
+ */
+public class Iso8601Formatter {
+
+  // The maximum length of a time formatted into a char array
+  public static final int MAX_LENGTH = 32;
+
+  // The length of the cached "yyyy-MM-ddTHH:mm:" prefix
+  private static final int PREFIX_LENGTH = 17;
+
+  private static final long ONE_MINUTE = 60000L;
+  private static final long MINUTES_PER_DAY = 1440L;
+
+  // The days from 0000-03-01 to 1970-01-01
+  private static final long EPOCH_DAY_OFFSET = 719468L;
+
+  // The days of a 400 years cycle
+  private static final long DAYS_PER_ERA = 146097L;
+
+  private static final int MIN_YEAR = 1583;
+  private static final int MAX_YEAR = 9999;
+
+  private final char[] prefix = new char[PREFIX_LENGTH];
+  private final char[] chars = new char[MAX_LENGTH];
+  private long cachedMinute = Long.MIN_VALUE;
+
+  /**
+   * Formats a time into a char array.
+   *
+   * @param time the time in milliseconds since the epoch
+   * @param buffer the char array, with room for {@link #MAX_LENGTH} chars
+   * @param offset the offset in the char array
+   * @return the offset after the formatted time
+   */
+  public int format(long time, char[] buffer, int offset) {
+    if (!updatePrefix(time)) {
+      String formatted = StringUtils.formatDateTimeIso8601(time);
+      formatted.getChars(0, formatted.length(), buffer, offset);
+      return offset + formatted.length();
+    }
+    return formatWithPrefix(time, buffer, offset);
+  }
+
+  /**
+   * Formats a time into a char buffer.
+   *
+   * @param time the time in milliseconds since the epoch
+   * @param charBuffer the char buffer
+   */
+  public void format(long time, CharBuffer charBuffer) {
+    if (!updatePrefix(time)) {
+      charBuffer.put(StringUtils.formatDateTimeIso8601(time));
+      return;
+    }
+    charBuffer.put(chars, 0, formatWithPrefix(time, chars, 0));
+  }
+
+  /**
+   * Formats a time into a print writer.
+   *
+   * @param time the time in milliseconds since the epoch
+   * @param printWriter the print writer
+   */
+  public void format(long time, PrintWriter printWriter) {
+    if (!updatePrefix(time)) {
+      printWriter.write(StringUtils.formatDateTimeIso8601(time));
+      return;
+    }
+    printWriter.write(chars, 0, formatWithPrefix(time, chars, 0));
+  }
+
+  /**
+   * Formats a time into a new string.
+   *
+   * @param time the time in milliseconds since the epoch
+   */
+  public String format(long time) {
+    if (!updatePrefix(time)) {
+      return StringUtils.formatDateTimeIso8601(time);
+    }
+    return new String(chars, 0, formatWithPrefix(time, chars, 0));
+  }
+
+  /**
+   * Formats a time whose minute is the cached minute.
+   *
+   * @param time the time in milliseconds since the epoch
+   * @param buffer the char array
+   * @param offset the offset in the char array
+   * @return the offset after the formatted time
+   */
+  private int formatWithPrefix(long time, char[] buffer, int offset) {
+    System.arraycopy(prefix, 0, buffer, offset, PREFIX_LENGTH);
+    int millisOfMinute = (int) (time - cachedMinute * ONE_MINUTE);
+    int index = formatDigits(millisOfMinute / 1000, 2, buffer, offset + PREFIX_LENGTH);
+    buffer[index++] = '.';
+    index = formatDigits(millisOfMinute % 1000, 3, buffer, index);
+    buffer[index++] = 'Z';
+    return index;
+  }
+
+  /**
+   * Updates the cached "yyyy-MM-ddTHH:mm:" prefix to the minute of a time.
+   * Returns false if the year of the time is not supported.
+   *
+   * @param time the time in milliseconds since the epoch
+   */
+  private boolean updatePrefix(long time) {
+    long minute = floorDiv(time, ONE_MINUTE);
+    if (minute == cachedMinute) {
+      return true;
+    }
+    long days = floorDiv(minute, MINUTES_PER_DAY);
+    int minuteOfDay = (int) (minute - days * MINUTES_PER_DAY);
+
+    // Converts the days since the epoch to a proleptic Gregorian date, with
+    // the years starting on March 1st
+    long dayOfEra = days + EPOCH_DAY_OFFSET;
+    long era = floorDiv(dayOfEra, DAYS_PER_ERA);
+    dayOfEra -= era * DAYS_PER_ERA;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+    int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    if (year < MIN_YEAR || year > MAX_YEAR) {
+      return false;
+    }
+
+    int index = formatDigits((int) year, 4, prefix, 0);
+    prefix[index++] = '-';
+    index = formatDigits(month, 2, prefix, index);
+    prefix[index++] = '-';
+    index = formatDigits(day, 2, prefix, index);
+    prefix[index++] = 'T';
+    index = formatDigits(minuteOfDay / 60, 2, prefix, index);
+    prefix[index++] = ':';
+    index = formatDigits(minuteOfDay % 60, 2, prefix, index);
+    prefix[index++] = ':';
+    cachedMinute = minute;
+    return true;
+  }
+
+  /**
+   * Formats a non negative value with a fixed number of digits, padded with
+   * zeros.
+   *
+   * @param value the value
+   * @param numberOfDigits the number of digits
+   * @param buffer the char array
+   * @param offset the offset in the char array
+   * @return the offset after the formatted value
+   */
+  private static int formatDigits(int value, int numberOfDigits, char[] buffer, int offset) {
+    for (int i = offset + numberOfDigits - 1; i >= offset; i--) {
+      buffer[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return offset + numberOfDigits;
+  }
+
+  /**
+   * Divides rounding toward negative infinity.
+   */
+  private static long floorDiv(long dividend, long divisor) {
+    long quotient = dividend / divisor;
+    return dividend % divisor < 0 ? quotient - 1 : quotient;
+  }
+}
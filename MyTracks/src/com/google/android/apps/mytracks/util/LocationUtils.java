@@ -21,7 +21,7 @@ import android.location.Location;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
 
 /**
  * Utility class for decimating tracks at a given level of precision.
@@ -36,107 +36,200 @@ public class LocationUtils {
   private static final long MAX_LOCATION_AGE_MS = (long) (UnitConversions.MIN_TO_S
       * UnitConversions.S_TO_MS);
 
+  // Mean earth radius in meters times the radians in a degree
+  private static final double METERS_PER_DEGREE = 6371009.0 * UnitConversions.DEG_TO_RAD;
+
   private LocationUtils() {}
 
   /**
-   * Computes the distance on the two sphere between the point c0 and the line
-   * segment c1 to c2.
+   * Decimates the given locations for a given tolerance. This uses a
+   * Douglas-Peucker decimation algorithm over a local equirectangular
+   * projection. The first and last locations are always kept.
+   * 
+   * @param latitudes the latitudes in degrees
+   * @param longitudes the longitudes in degrees
+   * @param size the number of locations
+   * @param tolerance the tolerance in meters
+   * @param keep output, set to true for the locations to keep
+   * @return the number of locations to keep.
+   */
+  public static int decimate(double[] latitudes, double[] longitudes, int size, double tolerance,
+      boolean[] keep) {
+    if (size < 1) {
+      return 0;
+    }
+    Arrays.fill(keep, 0, size, false);
+    keep[0] = true;
+    keep[size - 1] = true;
+    douglasPeucker(latitudes, longitudes, size, tolerance, keep, null);
+    return count(keep, size);
+  }
+
+  /**
+   * Decimates the given locations to a target number of locations. This keeps
+   * the locations that a Douglas-Peucker decimation algorithm keeps at the
+   * smallest tolerance giving at most the target number of locations. The
+   * first and last locations are always kept.
    * 
-   * @param c0 the first coordinate
-   * @param c1 the beginning of the line segment
-   * @param c2 the end of the lone segment
-   * @return the distance in m (assuming spherical earth)
+   * @param latitudes the latitudes in degrees
+   * @param longitudes the longitudes in degrees
+   * @param size the number of locations
+   * @param targetSize the target number of locations
+   * @param keep output, set to true for the locations to keep
+   * @return the number of locations to keep.
    */
-  private static double distance(final Location c0, final Location c1, final Location c2) {
-    if (c1.equals(c2)) {
-      return c2.distanceTo(c0);
+  public static int decimateToSize(double[] latitudes, double[] longitudes, int size,
+      int targetSize, boolean[] keep) {
+    // Always keep the first and last locations
+    targetSize = Math.max(targetSize, 2);
+    if (size <= targetSize) {
+      Arrays.fill(keep, 0, size, true);
+      return size;
     }
+    double[] significances = new double[size];
+    getSignificances(latitudes, longitudes, size, significances);
+
+    // Find the significance of the targetSize-th most significant location
+    double[] sortedSignificances = significances.clone();
+    Arrays.sort(sortedSignificances);
+    double threshold = sortedSignificances[size - targetSize];
 
-    final double s0lat = c0.getLatitude() * UnitConversions.DEG_TO_RAD;
-    final double s0lng = c0.getLongitude() * UnitConversions.DEG_TO_RAD;
-    final double s1lat = c1.getLatitude() * UnitConversions.DEG_TO_RAD;
-    final double s1lng = c1.getLongitude() * UnitConversions.DEG_TO_RAD;
-    final double s2lat = c2.getLatitude() * UnitConversions.DEG_TO_RAD;
-    final double s2lng = c2.getLongitude() * UnitConversions.DEG_TO_RAD;
-
-    double s2s1lat = s2lat - s1lat;
-    double s2s1lng = s2lng - s1lng;
-    final double u = ((s0lat - s1lat) * s2s1lat + (s0lng - s1lng) * s2s1lng)
-        / (s2s1lat * s2s1lat + s2s1lng * s2s1lng);
-    if (u <= 0) {
-      return c0.distanceTo(c1);
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      keep[i] = significances[i] > threshold;
+      if (keep[i]) {
+        count++;
+      }
+    }
+    // Break ties in index order
+    if (threshold > 0.0) {
+      for (int i = 0; i < size && count < targetSize; i++) {
+        if (significances[i] == threshold) {
+          keep[i] = true;
+          count++;
+        }
+      }
     }
-    if (u >= 1) {
-      return c0.distanceTo(c2);
+    return count;
+  }
+
+  /**
+   * Gets the significance of each location, the largest tolerance at which a
+   * Douglas-Peucker decimation algorithm keeps it. The first and last locations
+   * have an infinite significance.
+   * 
+   * @param latitudes the latitudes in degrees
+   * @param longitudes the longitudes in degrees
+   * @param size the number of locations
+   * @param significances output, the significances in meters
+   */
+  public static void getSignificances(
+      double[] latitudes, double[] longitudes, int size, double[] significances) {
+    if (size < 1) {
+      return;
     }
-    Location sa = new Location("");
-    sa.setLatitude(c0.getLatitude() - c1.getLatitude());
-    sa.setLongitude(c0.getLongitude() - c1.getLongitude());
-    Location sb = new Location("");
-    sb.setLatitude(u * (c2.getLatitude() - c1.getLatitude()));
-    sb.setLongitude(u * (c2.getLongitude() - c1.getLongitude()));
-    return sa.distanceTo(sb);
+    Arrays.fill(significances, 0, size, 0.0);
+    significances[0] = Double.POSITIVE_INFINITY;
+    significances[size - 1] = Double.POSITIVE_INFINITY;
+    douglasPeucker(latitudes, longitudes, size, 0.0, null, significances);
   }
 
   /**
-   * Decimates the given locations for a given zoom level. This uses a
-   * Douglas-Peucker decimation algorithm.
+   * Runs the Douglas-Peucker decimation algorithm with an int array stack.
+   * If keep is not null, marks the kept locations in it. If significances is
+   * not null, sets the significance of each kept location, capped by the
+   * significance of its parent so that a location is kept at any tolerance
+   * below its significance.
    * 
-   * @param tolerance in meters
-   * @param locations input
-   * @param decimated output
+   * @param latitudes the latitudes in degrees
+   * @param longitudes the longitudes in degrees
+   * @param size the number of locations
+   * @param tolerance the tolerance in meters
+   * @param keep output, set to true for the locations to keep, can be null
+   * @param significances output, the significances in meters, can be null
    */
-  private static void decimate(
-      double tolerance, ArrayList<Location> locations, ArrayList<Location> decimated) {
-    final int n = locations.size();
-    if (n < 1) {
+  private static void douglasPeucker(double[] latitudes, double[] longitudes, int size,
+      double tolerance, boolean[] keep, double[] significances) {
+    if (size < 3) {
       return;
     }
-    int idx;
-    int maxIdx = 0;
-    Stack<int[]> stack = new Stack<int[]>();
-    double[] dists = new double[n];
-    dists[0] = 1;
-    dists[n - 1] = 1;
-    double maxDist;
-    double dist = 0.0;
-    int[] current;
-
-    if (n > 2) {
-      int[] stackVal = new int[] { 0, (n - 1) };
-      stack.push(stackVal);
-      while (stack.size() > 0) {
-        current = stack.pop();
-        maxDist = 0;
-        for (idx = current[0] + 1; idx < current[1]; ++idx) {
-          dist = LocationUtils.distance(
-              locations.get(idx), locations.get(current[0]), locations.get(current[1]));
-          if (dist > maxDist) {
-            maxDist = dist;
-            maxIdx = idx;
+    // Local equirectangular projection, in degrees of latitude
+    double cosLatitude = Math.cos(latitudes[0] * UnitConversions.DEG_TO_RAD);
+    int[] stack = new int[64];
+    stack[0] = 0;
+    stack[1] = size - 1;
+    int top = 2;
+    while (top > 0) {
+      int end = stack[--top];
+      int start = stack[--top];
+      double x1 = longitudes[start] * cosLatitude;
+      double y1 = latitudes[start];
+      double dx = longitudes[end] * cosLatitude - x1;
+      double dy = latitudes[end] - y1;
+      double lengthSquared = dx * dx + dy * dy;
+      double maxDistanceSquared = 0.0;
+      int maxIndex = start;
+      for (int i = start + 1; i < end; i++) {
+        double px = longitudes[i] * cosLatitude - x1;
+        double py = latitudes[i] - y1;
+        if (lengthSquared != 0.0) {
+          double u = (px * dx + py * dy) / lengthSquared;
+          if (u >= 1.0) {
+            px -= dx;
+            py -= dy;
+          } else if (u > 0.0) {
+            px -= u * dx;
+            py -= u * dy;
           }
         }
-        if (maxDist > tolerance) {
-          dists[maxIdx] = maxDist;
-          int[] stackValCurMax = { current[0], maxIdx };
-          stack.push(stackValCurMax);
-          int[] stackValMaxCur = { maxIdx, current[1] };
-          stack.push(stackValMaxCur);
+        double distanceSquared = px * px + py * py;
+        if (distanceSquared > maxDistanceSquared) {
+          maxDistanceSquared = distanceSquared;
+          maxIndex = i;
         }
       }
+      double maxDistance = Math.sqrt(maxDistanceSquared) * METERS_PER_DEGREE;
+      if (maxIndex == start || maxDistance <= tolerance) {
+        continue;
+      }
+      if (keep != null) {
+        keep[maxIndex] = true;
+      }
+      if (significances != null) {
+        // The parent is the most recently split end, the less significant one
+        significances[maxIndex] = Math.min(
+            maxDistance, Math.min(significances[start], significances[end]));
+      }
+      if (top + 4 > stack.length) {
+        int[] newStack = new int[stack.length * 2];
+        System.arraycopy(stack, 0, newStack, 0, top);
+        stack = newStack;
+      }
+      if (maxIndex - start > 1) {
+        stack[top++] = start;
+        stack[top++] = maxIndex;
+      }
+      if (end - maxIndex > 1) {
+        stack[top++] = maxIndex;
+        stack[top++] = end;
+      }
     }
+  }
 
-    int i = 0;
-    idx = 0;
-    decimated.clear();
-    for (Location l : locations) {
-      if (dists[idx] != 0) {
-        decimated.add(l);
-        i++;
+  /**
+   * Counts the true values.
+   * 
+   * @param values the values
+   * @param size the number of values
+   */
+  private static int count(boolean[] values, int size) {
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (values[i]) {
+        count++;
       }
-      idx++;
     }
-    Log.d(TAG, "Decimating " + n + " points to " + i + " w/ tolerance = " + tolerance);
+    return count;
   }
 
   /**
@@ -146,8 +239,25 @@ public class LocationUtils {
    * @param precision desired precision in meters
    */
   public static void decimate(Track track, double precision) {
-    ArrayList<Location> decimated = new ArrayList<Location>();
-    decimate(precision, track.getLocations(), decimated);
+    ArrayList<Location> locations = track.getLocations();
+    int size = locations.size();
+    double[] latitudes = new double[size];
+    double[] longitudes = new double[size];
+    for (int i = 0; i < size; i++) {
+      Location location = locations.get(i);
+      latitudes[i] = location.getLatitude();
+      longitudes[i] = location.getLongitude();
+    }
+    boolean[] keep = new boolean[size];
+    int count = decimate(latitudes, longitudes, size, precision, keep);
+
+    ArrayList<Location> decimated = new ArrayList<Location>(count);
+    for (int i = 0; i < size; i++) {
+      if (keep[i]) {
+        decimated.add(locations.get(i));
+      }
+    }
+    Log.d(TAG, "Decimating " + size + " points to " + count + " w/ tolerance = " + precision);
     track.setLocations(decimated);
   }
 
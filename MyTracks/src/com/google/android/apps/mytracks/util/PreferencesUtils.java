@@ -122,6 +122,8 @@ public class PreferencesUtils {
   public static final int TRACK_WIDGET_ITEM2_DEFAULT = 0; // distance
   public static final int TRACK_WIDGET_ITEM3_DEFAULT = 1; // total time
   public static final int TRACK_WIDGET_ITEM4_DEFAULT = 2; // average speed
+  // Minimum time between two track widget updates while recording, in ms
+  public static final int TRACK_WIDGET_UPDATE_INTERVAL_DEFAULT = 5000;
   public static final int VOICE_FREQUENCY_DEFAULT = 0;
   
   private static final String TAG = PreferencesUtils.class.getSimpleName();
@@ -41,16 +41,37 @@ import java.util.regex.Pattern;
 public class StringUtils {
 
   private static final String COORDINATE_DEGREE = "\u00B0";
-  private static final SimpleDateFormat ISO_8601_DATE_TIME_FORMAT = new SimpleDateFormat(
-      "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
-  private static final SimpleDateFormat ISO_8601_BASE = new SimpleDateFormat(
-      "yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+  // SimpleDateFormat is not thread safe and tracks are exported and imported in
+  // parallel
+  private static final ThreadLocal<SimpleDateFormat> ISO_8601_DATE_TIME_FORMAT =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          SimpleDateFormat simpleDateFormat = new SimpleDateFormat(
+              "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+          simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+          return simpleDateFormat;
+        }
+      };
+  private static final ThreadLocal<SimpleDateFormat> ISO_8601_BASE =
+      new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+          SimpleDateFormat simpleDateFormat = new SimpleDateFormat(
+              "yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+          simpleDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+          return simpleDateFormat;
+        }
+      };
   private static final Pattern ISO_8601_EXTRAS = Pattern.compile(
       "^(\\.\\d+)?(?:Z|([+-])(\\d{2}):(\\d{2}))?$");
-  static {
-    ISO_8601_DATE_TIME_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
-    ISO_8601_BASE.setTimeZone(TimeZone.getTimeZone("UTC"));
-  }
+
+  // The maximum number of significant digits of a double parsed directly
+  private static final int MAX_FAST_DIGITS = 15;
+
+  // The powers of ten exactly representable as doubles
+  private static final double[] POWERS_OF_TEN = { 1E0, 1E1, 1E2, 1E3, 1E4, 1E5, 1E6, 1E7, 1E8,
+      1E9, 1E10, 1E11, 1E12, 1E13, 1E14, 1E15, 1E16, 1E17, 1E18, 1E19, 1E20, 1E21, 1E22 };
 
   private StringUtils() {}
 
@@ -73,7 +94,7 @@ public class StringUtils {
    * @param time the time in milliseconds
    */
   public static String formatDateTimeIso8601(long time) {
-    return ISO_8601_DATE_TIME_FORMAT.format(time);
+    return ISO_8601_DATE_TIME_FORMAT.get().format(time);
   }
 
   /**
@@ -302,9 +323,154 @@ public class StringUtils {
    * @param xmlDateTime the XML date time string
    */
   public static long getTime(String xmlDateTime) {
+    return getTime(xmlDateTime, 0, xmlDateTime.length());
+  }
+
+  /**
+   * Gets the time, in milliseconds, from an XML date time in a range of a char
+   * sequence. Parses the common "yyyy-MM-ddTHH:mm:ss[.SSS][Z|+hh:mm|-hh:mm]"
+   * date times directly, without allocating, and the other date times with
+   * {@link #getTime(String)}.
+   * 
+   * @param xmlDateTime the char sequence
+   * @param start the start of the XML date time
+   * @param end the end of the XML date time, exclusive
+   */
+  public static long getTime(CharSequence xmlDateTime, int start, int end) {
+    long time = parseTime(xmlDateTime, start, end);
+    if (time != Long.MIN_VALUE) {
+      return time;
+    }
+    return parseTimeWithDateFormat(xmlDateTime.subSequence(start, end).toString());
+  }
+
+  /**
+   * Parses a "yyyy-MM-ddTHH:mm:ss[.SSS][Z|+hh:mm|-hh:mm]" XML date time.
+   * Returns {@link Long#MIN_VALUE} for any other date time, including the date
+   * times with more than 3 fraction digits, out of range fields or years
+   * before the Gregorian calendar, left to
+   * {@link #parseTimeWithDateFormat(String)}.
+   * 
+   * @param xmlDateTime the char sequence
+   * @param start the start of the XML date time
+   * @param end the end of the XML date time, exclusive
+   */
+  private static long parseTime(CharSequence xmlDateTime, int start, int end) {
+    if (end - start < 19 || xmlDateTime.charAt(start + 4) != '-'
+        || xmlDateTime.charAt(start + 7) != '-' || xmlDateTime.charAt(start + 10) != 'T'
+        || xmlDateTime.charAt(start + 13) != ':' || xmlDateTime.charAt(start + 16) != ':') {
+      return Long.MIN_VALUE;
+    }
+    int year = parseDigits(xmlDateTime, start, 4);
+    int month = parseDigits(xmlDateTime, start + 5, 2);
+    int day = parseDigits(xmlDateTime, start + 8, 2);
+    int hour = parseDigits(xmlDateTime, start + 11, 2);
+    int minute = parseDigits(xmlDateTime, start + 14, 2);
+    int second = parseDigits(xmlDateTime, start + 17, 2);
+    if (year < 1583 || month < 1 || month > 12 || day < 1 || day > getDaysInMonth(year, month)
+        || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return Long.MIN_VALUE;
+    }
+
+    // Days since the epoch, with the years starting on March 1st
+    int shiftedYear = month <= 2 ? year - 1 : year;
+    int era = shiftedYear / 400;
+    int yearOfEra = shiftedYear - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    long days = era * 146097L + dayOfEra - 719468L;
+    long time = (((days * 24 + hour) * 60 + minute) * 60 + second) * 1000L;
+
+    int index = start + 19;
+    if (index < end && xmlDateTime.charAt(index) == '.') {
+      index++;
+      int fractionStart = index;
+      int millis = 0;
+      while (index < end && index - fractionStart < 4) {
+        int digit = xmlDateTime.charAt(index) - '0';
+        if (digit < 0 || digit > 9) {
+          break;
+        }
+        millis = millis * 10 + digit;
+        index++;
+      }
+      int numberOfDigits = index - fractionStart;
+      if (numberOfDigits == 0 || numberOfDigits > 3) {
+        return Long.MIN_VALUE;
+      }
+      for (int i = numberOfDigits; i < 3; i++) {
+        millis *= 10;
+      }
+      time += millis;
+    }
+
+    if (index == end) {
+      return time;
+    }
+    char zone = xmlDateTime.charAt(index);
+    if (zone == 'Z') {
+      return index + 1 == end ? time : Long.MIN_VALUE;
+    }
+    if ((zone != '+' && zone != '-') || end - index != 6 || xmlDateTime.charAt(index + 3) != ':') {
+      return Long.MIN_VALUE;
+    }
+    int offsetHours = parseDigits(xmlDateTime, index + 1, 2);
+    int offsetMinutes = parseDigits(xmlDateTime, index + 4, 2);
+    if (offsetHours < 0 || offsetHours > 14 || offsetMinutes < 0 || offsetMinutes > 59) {
+      return Long.MIN_VALUE;
+    }
+    long offset = (offsetMinutes + offsetHours * 60L) * 60000L;
+
+    // Convert to UTC
+    return zone == '+' ? time - offset : time + offset;
+  }
+
+  /**
+   * Parses a fixed number of decimal digits. Returns -1 if a char is not a
+   * digit.
+   * 
+   * @param chars the char sequence
+   * @param start the start of the digits
+   * @param numberOfDigits the number of digits
+   */
+  private static int parseDigits(CharSequence chars, int start, int numberOfDigits) {
+    int value = 0;
+    for (int i = start; i < start + numberOfDigits; i++) {
+      int digit = chars.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  /**
+   * Gets the number of days in a month of the Gregorian calendar.
+   * 
+   * @param year the year
+   * @param month the month, from 1 to 12
+   */
+  private static int getDaysInMonth(int year, int month) {
+    if (month == 2) {
+      boolean isLeapYear = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+      return isLeapYear ? 29 : 28;
+    }
+    return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+  }
+
+  /**
+   * Gets the time, in milliseconds, from an XML date time string with a
+   * {@link SimpleDateFormat}. Slower than
+   * {@link #parseTime(CharSequence, int, int)}, but handles all the XML date
+   * times.
+   * 
+   * @param xmlDateTime the XML date time string
+   */
+  private static long parseTimeWithDateFormat(String xmlDateTime) {
     // Parse the date time base
     ParsePosition position = new ParsePosition(0);
-    Date date = ISO_8601_BASE.parse(xmlDateTime, position);
+    Date date = ISO_8601_BASE.get().parse(xmlDateTime, position);
     if (date == null) {
       throw new IllegalArgumentException("Invalid XML dateTime value: " + xmlDateTime
           + " (at position " + position.getErrorIndex() + ")");
@@ -356,6 +522,140 @@ public class StringUtils {
     return time;
   }
 
+  /**
+   * Parses a double in a range of a char sequence, like
+   * {@link Double#parseDouble(String)}. Parses the decimal numbers with at most
+   * 15 significant digits and a small exponent directly, without allocating,
+   * and the other numbers with {@link Double#parseDouble(String)}.
+   *
+   * @param chars the char sequence
+   * @param start the start of the number
+   * @param end the end of the number, exclusive
+   * @throws NumberFormatException if the range is not a number
+   */
+  public static double parseDouble(CharSequence chars, int start, int end) {
+    int index = start;
+    boolean negative = false;
+    if (index < end && (chars.charAt(index) == '-' || chars.charAt(index) == '+')) {
+      negative = chars.charAt(index) == '-';
+      index++;
+    }
+
+    /*
+     * Accumulates the significant digits in a long and counts the power of ten
+     * to apply. Leading zeros are not significant.
+     */
+    long mantissa = 0L;
+    int numberOfDigits = 0;
+    int exponent = 0;
+    boolean hasDigits = false;
+    boolean hasPoint = false;
+    for (; index < end; index++) {
+      char c = chars.charAt(index);
+      if (c == '.' && !hasPoint) {
+        hasPoint = true;
+        continue;
+      }
+      int digit = c - '0';
+      if (digit < 0 || digit > 9) {
+        break;
+      }
+      hasDigits = true;
+      if (mantissa != 0L || digit != 0) {
+        if (numberOfDigits == MAX_FAST_DIGITS) {
+          return parseDoubleWithString(chars, start, end);
+        }
+        mantissa = mantissa * 10 + digit;
+        numberOfDigits++;
+      }
+      if (hasPoint) {
+        exponent--;
+      }
+    }
+    if (!hasDigits) {
+      return parseDoubleWithString(chars, start, end);
+    }
+    if (index < end && (chars.charAt(index) == 'e' || chars.charAt(index) == 'E')) {
+      index++;
+      boolean negativeExponent = false;
+      if (index < end && (chars.charAt(index) == '-' || chars.charAt(index) == '+')) {
+        negativeExponent = chars.charAt(index) == '-';
+        index++;
+      }
+      int exponentStart = index;
+      int explicitExponent = 0;
+      while (index < end && index - exponentStart < 4) {
+        int digit = chars.charAt(index) - '0';
+        if (digit < 0 || digit > 9) {
+          break;
+        }
+        explicitExponent = explicitExponent * 10 + digit;
+        index++;
+      }
+      if (index == exponentStart) {
+        return parseDoubleWithString(chars, start, end);
+      }
+      exponent += negativeExponent ? -explicitExponent : explicitExponent;
+    }
+    if (index != end) {
+      return parseDoubleWithString(chars, start, end);
+    }
+
+    /*
+     * A mantissa of at most 15 digits and a power of ten of at most 22 are both
+     * exact doubles, so a single multiplication or division is correctly
+     * rounded.
+     */
+    double value;
+    if (mantissa == 0L) {
+      value = 0.0;
+    } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+      value = mantissa * POWERS_OF_TEN[exponent];
+    } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+      value = mantissa / POWERS_OF_TEN[-exponent];
+    } else {
+      return parseDoubleWithString(chars, start, end);
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parses an int in a range of a char sequence, like
+   * {@link Integer#parseInt(String)}, without allocating for the common values.
+   *
+   * @param chars the char sequence
+   * @param start the start of the number
+   * @param end the end of the number, exclusive
+   * @throws NumberFormatException if the range is not an int
+   */
+  public static int parseInt(CharSequence chars, int start, int end) {
+    // At most 9 digits cannot overflow
+    if (end <= start || end - start > 9) {
+      return Integer.parseInt(chars.subSequence(start, end).toString());
+    }
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      int digit = chars.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        return Integer.parseInt(chars.subSequence(start, end).toString());
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  /**
+   * Parses a double in a range of a char sequence with
+   * {@link Double#parseDouble(String)}.
+   *
+   * @param chars the char sequence
+   * @param start the start of the number
+   * @param end the end of the number, exclusive
+   */
+  private static double parseDoubleWithString(CharSequence chars, int start, int end) {
+    return Double.parseDouble(chars.subSequence(start, end).toString());
+  }
+
   /**
    * Gets the time as an array of three integers. Index 0 contains the number of
    * seconds, index 1 contains the number of minutes, and index 2 contains the
@@ -21,6 +21,7 @@ import com.google.android.apps.mytracks.TrackListActivity;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.services.ControlRecordingService;
+import com.google.android.apps.mytracks.services.RecordingTrackStatistics;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.ApiAdapterFactory;
 import com.google.android.apps.mytracks.util.IntentUtils;
@@ -29,6 +30,7 @@ import com.google.android.apps.mytracks.util.StringUtils;
 import com.google.android.maps.mytracks.R;
 
 import android.annotation.TargetApi;
+import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
@@ -39,6 +41,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.os.SystemClock;
 import android.support.v4.app.TaskStackBuilder;
+import android.util.SparseArray;
 import android.view.View;
 import android.widget.RemoteViews;
 
@@ -72,17 +75,32 @@ public class TrackWidgetProvider extends AppWidgetProvider {
       R.id.track_widget_item4_value, R.id.track_widget_item4_unit,
       R.id.track_widget_item4_chronometer };
 
+  // The action of the delayed update, sent by the alarm manager
+  private static final String DELAYED_UPDATE_ACTION =
+      "com.google.android.apps.mytracks.widgets.DELAYED_UPDATE";
+
+  /*
+   * The states of the app widgets, the displayed values of their last update,
+   * and the time of the last update, for throttling the track update
+   * broadcasts. Only accessed in the main thread.
+   */
+  private static final SparseArray<String> appWidgetStates = new SparseArray<String>();
+  private static long lastUpdateTime = -1L;
+
   @Override
   public void onReceive(Context context, Intent intent) {
     super.onReceive(context, intent);
     String action = intent.getAction();
+    long trackId = intent.getLongExtra(context.getString(R.string.track_id_broadcast_extra), -1L);
     if (context.getString(R.string.track_paused_broadcast_action).equals(action)
         || context.getString(R.string.track_resumed_broadcast_action).equals(action)
         || context.getString(R.string.track_started_broadcast_action).equals(action)
-        || context.getString(R.string.track_stopped_broadcast_action).equals(action)
-        || context.getString(R.string.track_update_broadcast_action).equals(action)) {
-      long trackId = intent.getLongExtra(context.getString(R.string.track_id_broadcast_extra), -1L);
-      updateAllAppWidgets(context, trackId);
+        || context.getString(R.string.track_stopped_broadcast_action).equals(action)) {
+      updateAllAppWidgets(context, trackId, false);
+    } else if (context.getString(R.string.track_update_broadcast_action).equals(action)) {
+      throttleUpdateAllAppWidgets(context, trackId);
+    } else if (DELAYED_UPDATE_ACTION.equals(action)) {
+      updateAllAppWidgets(context, trackId, false);
     }
   }
 
@@ -90,14 +108,22 @@ public class TrackWidgetProvider extends AppWidgetProvider {
   public void onEnabled(Context context) {
     super.onEnabled(context);
     // Need to update all app widgets after phone reboot
-    updateAllAppWidgets(context, -1L);
+    updateAllAppWidgets(context, -1L, true);
   }
 
   @Override
   public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
     super.onUpdate(context, appWidgetManager, appWidgetIds);
     // Need to update all app widgets after software update
-    updateAllAppWidgets(context, -1L);
+    updateAllAppWidgets(context, -1L, true);
+  }
+
+  @Override
+  public void onDeleted(Context context, int[] appWidgetIds) {
+    super.onDeleted(context, appWidgetIds);
+    for (int appWidgetId : appWidgetIds) {
+      appWidgetStates.remove(appWidgetId);
+    }
   }
 
   @TargetApi(16)
@@ -142,34 +168,99 @@ public class TrackWidgetProvider extends AppWidgetProvider {
    */
   public static void updateAppWidget(
       Context context, AppWidgetManager appWidgetManager, int appWidgetId, long trackId) {
+    updateAppWidget(context, appWidgetManager, appWidgetId, trackId, true);
+  }
+
+  /**
+   * Updates an app widget if its displayed values changed.
+   * 
+   * @param context the context
+   * @param appWidgetManager the app widget manager
+   * @param appWidgetId the app widget id
+   * @param trackId the track id. -1L to not specify one
+   * @param force true to update even if the displayed values did not change
+   */
+  private static void updateAppWidget(Context context, AppWidgetManager appWidgetManager,
+      int appWidgetId, long trackId, boolean force) {
     int size = ApiAdapterFactory.getApiAdapter().getAppWidgetSize(appWidgetManager, appWidgetId);
-    RemoteViews remoteViews = getRemoteViews(context, trackId, size);
+    StringBuilder state = new StringBuilder();
+    RemoteViews remoteViews = getRemoteViews(context, trackId, size, state);
+    String newState = state.toString();
+    if (!force && newState.equals(appWidgetStates.get(appWidgetId))) {
+      return;
+    }
+    appWidgetStates.put(appWidgetId, newState);
     appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
   }
-  
+
   /**
-   * Updates all app widgets.
+   * Updates all app widgets whose displayed values changed.
    * 
    * @param context the context
    * @param trackId track id
+   * @param force true to update even if the displayed values did not change
    */
-  private static void updateAllAppWidgets(Context context, long trackId) {
+  private static void updateAllAppWidgets(Context context, long trackId, boolean force) {
+    lastUpdateTime = SystemClock.elapsedRealtime();
+    getAlarmManager(context).cancel(getDelayedUpdateIntent(context, -1L));
     AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
     int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
         new ComponentName(context, TrackWidgetProvider.class));
     for (int appWidgetId : appWidgetIds) {
-      updateAppWidget(context, appWidgetManager, appWidgetId, trackId);
+      updateAppWidget(context, appWidgetManager, appWidgetId, trackId, force);
     }
   }
 
+  /**
+   * Updates all app widgets at most once per update interval. An update
+   * received within the interval is delayed to the end of the interval,
+   * replacing any update already delayed. The delayed update is an alarm, so
+   * that it is not lost if the process is killed in the meantime.
+   * 
+   * @param context the context
+   * @param trackId the track id
+   */
+  private static void throttleUpdateAllAppWidgets(Context context, long trackId) {
+    long interval = PreferencesUtils.getInt(context, R.string.track_widget_update_interval_key,
+        PreferencesUtils.TRACK_WIDGET_UPDATE_INTERVAL_DEFAULT);
+    long now = SystemClock.elapsedRealtime();
+    if (lastUpdateTime == -1L || lastUpdateTime + interval <= now) {
+      updateAllAppWidgets(context, trackId, false);
+      return;
+    }
+    // Not a wakeup alarm, the widgets can wait for the device to wake up
+    getAlarmManager(context).set(AlarmManager.ELAPSED_REALTIME, lastUpdateTime + interval,
+        getDelayedUpdateIntent(context, trackId));
+  }
+
+  private static AlarmManager getAlarmManager(Context context) {
+    return (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+  }
+
+  /**
+   * Gets the pending intent of the delayed update. There is only one, setting
+   * it replaces the delayed update.
+   * 
+   * @param context the context
+   * @param trackId the track id
+   */
+  private static PendingIntent getDelayedUpdateIntent(Context context, long trackId) {
+    Intent intent = new Intent(context, TrackWidgetProvider.class).setAction(
+        DELAYED_UPDATE_ACTION).putExtra(context.getString(R.string.track_id_broadcast_extra),
+        trackId);
+    return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+  }
+
   /**
    * Gets the remote views.
    * 
    * @param context the context
    * @param trackId the track id
    * @param heightSize the layout height size
+   * @param state the state to append the displayed values to
    */
-  private static RemoteViews getRemoteViews(Context context, long trackId, int heightSize) {
+  private static RemoteViews getRemoteViews(
+      Context context, long trackId, int heightSize, StringBuilder state) {
     int layout;
     switch (heightSize) {
       case 4:
@@ -202,20 +293,26 @@ public class TrackWidgetProvider extends AppWidgetProvider {
     int item2 = PreferencesUtils.getInt(
         context, R.string.track_widget_item2, PreferencesUtils.TRACK_WIDGET_ITEM2_DEFAULT);
 
-    // Get track and trip statistics
-    MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+    // Get trip statistics, from memory for the recording track
     if (trackId == -1L) {
       trackId = recordingTrackId;
     }
-    Track track = trackId != -1L ? myTracksProviderUtils.getTrack(trackId)
-        : myTracksProviderUtils.getLastTrack();
-    TripStatistics tripStatistics = track == null ? null : track.getTripStatistics();
+    TripStatistics tripStatistics = trackId != -1L ? RecordingTrackStatistics.get(trackId) : null;
+    if (tripStatistics == null) {
+      MyTracksProviderUtils myTracksProviderUtils = MyTracksProviderUtils.Factory.get(context);
+      Track track = trackId != -1L ? myTracksProviderUtils.getTrack(trackId)
+          : myTracksProviderUtils.getLastTrack();
+      trackId = track == null ? -1L : track.getId();
+      tripStatistics = track == null ? null : track.getTripStatistics();
+    }
 
-    updateStatisticsContainer(context, remoteViews, track);
+    state.append(heightSize).append(' ').append(trackId).append(' ').append(isRecording)
+        .append(' ').append(isPaused).append('\n');
+    updateStatisticsContainer(context, remoteViews, trackId);
     setItem(context, remoteViews, ITEM1_IDS, item1, tripStatistics, isRecording, isPaused,
-        metricUnits, reportSpeed);
+        metricUnits, reportSpeed, state);
     setItem(context, remoteViews, ITEM2_IDS, item2, tripStatistics, isRecording, isPaused,
-        metricUnits, reportSpeed);
+        metricUnits, reportSpeed, state);
 
     updateRecordButton(context, remoteViews, isRecording, isPaused);
     updateStopButton(context, remoteViews, isRecording);
@@ -225,9 +322,9 @@ public class TrackWidgetProvider extends AppWidgetProvider {
       int item4 = PreferencesUtils.getInt(
           context, R.string.track_widget_item4, PreferencesUtils.TRACK_WIDGET_ITEM4_DEFAULT);
       setItem(context, remoteViews, ITEM3_IDS, item3, tripStatistics, isRecording, isPaused,
-          metricUnits, reportSpeed);
+          metricUnits, reportSpeed, state);
       setItem(context, remoteViews, ITEM4_IDS, item4, tripStatistics, isRecording, isPaused,
-          metricUnits, reportSpeed);
+          metricUnits, reportSpeed, state);
       updateRecordStatus(context, remoteViews, isRecording, isPaused);
     }
     return remoteViews;
@@ -243,29 +340,31 @@ public class TrackWidgetProvider extends AppWidgetProvider {
    * @param tripStatistics the trip statistics
    * @param metricUnits true to use metric units
    * @param reportSpeed try to report speed
+   * @param state the state to append the displayed values to
    */
   private static void setItem(Context context, RemoteViews remoteViews, int[] ids, int value,
       TripStatistics tripStatistics, boolean isRecording, boolean isPaused, boolean metricUnits,
-      boolean reportSpeed) {
+      boolean reportSpeed, StringBuilder state) {
     switch (value) {
       case 0:
-        updateDistance(context, remoteViews, ids, tripStatistics, metricUnits);
+        updateDistance(context, remoteViews, ids, tripStatistics, metricUnits, state);
         break;
       case 1:
-        updateTotalTime(context, remoteViews, ids, tripStatistics, isRecording, isPaused);
+        updateTotalTime(context, remoteViews, ids, tripStatistics, isRecording, isPaused, state);
         break;
       case 2:
-        updateAverageSpeed(context, remoteViews, ids, tripStatistics, metricUnits, reportSpeed);
+        updateAverageSpeed(
+            context, remoteViews, ids, tripStatistics, metricUnits, reportSpeed, state);
         break;
       case 3:
-        updateMovingTime(context, remoteViews, ids, tripStatistics);
+        updateMovingTime(context, remoteViews, ids, tripStatistics, state);
         break;
       case 4:
         updateAverageMovingSpeed(
-            context, remoteViews, ids, tripStatistics, metricUnits, reportSpeed);
+            context, remoteViews, ids, tripStatistics, metricUnits, reportSpeed, state);
         break;
       default:
-        updateDistance(context, remoteViews, ids, tripStatistics, metricUnits);
+        updateDistance(context, remoteViews, ids, tripStatistics, metricUnits, state);
         break;
 
     }
@@ -282,14 +381,14 @@ public class TrackWidgetProvider extends AppWidgetProvider {
    * 
    * @param context the context
    * @param remoteViews the remote views
-   * @param track the track
+   * @param trackId the track id, -1L if no track
    */
   private static void updateStatisticsContainer(
-      Context context, RemoteViews remoteViews, Track track) {
+      Context context, RemoteViews remoteViews, long trackId) {
     PendingIntent pendingIntent;
-    if (track != null) {
+    if (trackId != -1L) {
       Intent intent = IntentUtils.newIntent(context, TrackDetailActivity.class)
-          .putExtra(TrackDetailActivity.EXTRA_TRACK_ID, track.getId());
+          .putExtra(TrackDetailActivity.EXTRA_TRACK_ID, trackId);
       pendingIntent = TaskStackBuilder.create(context)
           .addParentStack(TrackDetailActivity.class).addNextIntent(intent).getPendingIntent(0, 0);
     } else {
@@ -307,17 +406,18 @@ public class TrackWidgetProvider extends AppWidgetProvider {
    * @param ids the item's ids
    * @param tripStatistics the trip statistics
    * @param metricUnits true to use metric units
+   * @param state the state to append the displayed values to
    */
   private static void updateDistance(Context context, RemoteViews remoteViews, int[] ids,
-      TripStatistics tripStatistics, boolean metricUnits) {
+      TripStatistics tripStatistics, boolean metricUnits, StringBuilder state) {
     double totalDistance = tripStatistics == null ? Double.NaN : tripStatistics.getTotalDistance();
     String[] totalDistanceParts = StringUtils.getDistanceParts(context, totalDistance, metricUnits);
     if (totalDistanceParts[0] == null) {
       totalDistanceParts[0] = context.getString(R.string.value_unknown);
     }    
-    remoteViews.setTextViewText(ids[0], context.getString(R.string.stats_distance));
-    remoteViews.setTextViewText(ids[1], totalDistanceParts[0]);
-    remoteViews.setTextViewText(ids[2], totalDistanceParts[1]);
+    setTextViewText(remoteViews, ids[0], context.getString(R.string.stats_distance), state);
+    setTextViewText(remoteViews, ids[1], totalDistanceParts[0], state);
+    setTextViewText(remoteViews, ids[2], totalDistanceParts[1], state);
   }
 
   /**
@@ -327,13 +427,17 @@ public class TrackWidgetProvider extends AppWidgetProvider {
    * @param remoteViews the remote views
    * @param ids the item's ids
    * @param tripStatistics the trip statistics
+   * @param state the state to append the displayed values to
    */
   private static void updateTotalTime(Context context, RemoteViews remoteViews, int[] ids,
-      TripStatistics tripStatistics, boolean isRecording, boolean isPaused) {
+      TripStatistics tripStatistics, boolean isRecording, boolean isPaused, StringBuilder state) {
     if (isRecording && !isPaused && tripStatistics != null) {
       long time = tripStatistics.getTotalTime() + System.currentTimeMillis()
           - tripStatistics.getStopTime();
-      remoteViews.setChronometer(ids[3], SystemClock.elapsedRealtime() - time, null, true);
+      long base = SystemClock.elapsedRealtime() - time;
+      // The base only moves when the elapsed time is corrected
+      state.append(base / 1000L).append('\n');
+      remoteViews.setChronometer(ids[3], base, null, true);
       remoteViews.setViewVisibility(ids[1], View.GONE);
       remoteViews.setViewVisibility(ids[2], View.GONE);
       remoteViews.setViewVisibility(ids[3], View.VISIBLE);
@@ -345,8 +449,8 @@ public class TrackWidgetProvider extends AppWidgetProvider {
 
       String totalTime = tripStatistics == null ? context.getString(R.string.value_unknown)
           : StringUtils.formatElapsedTime(tripStatistics.getTotalTime());
-      remoteViews.setTextViewText(ids[0], context.getString(R.string.stats_total_time));
-      remoteViews.setTextViewText(ids[1], totalTime);
+      setTextViewText(remoteViews, ids[0], context.getString(R.string.stats_total_time), state);
+      setTextViewText(remoteViews, ids[1], totalTime, state);
     }
   }
 
@@ -359,12 +463,14 @@ public class TrackWidgetProvider extends AppWidgetProvider {
    * @param tripStatistics the trip statistics
    * @param metricUnits true to use metric units
    * @param reportSpeed true to report speed
+   * @param state the state to append the displayed values to
    */
   private static void updateAverageSpeed(Context context, RemoteViews remoteViews, int[] ids,
-      TripStatistics tripStatistics, boolean metricUnits, boolean reportSpeed) {
+      TripStatistics tripStatistics, boolean metricUnits, boolean reportSpeed,
+      StringBuilder state) {
     String averageSpeedLabel = context.getString(
         reportSpeed ? R.string.stats_average_speed : R.string.stats_average_pace);
-    remoteViews.setTextViewText(ids[0], averageSpeedLabel);
+    setTextViewText(remoteViews, ids[0], averageSpeedLabel, state);
 
     Double speed = tripStatistics == null ? Double.NaN : tripStatistics.getAverageSpeed();
     String[] speedParts = StringUtils.getSpeedParts(context, speed, metricUnits, reportSpeed);
@@ -373,8 +479,8 @@ public class TrackWidgetProvider extends AppWidgetProvider {
       speedParts[0] = context.getString(R.string.value_unknown);
     }
     
-    remoteViews.setTextViewText(ids[1], speedParts[0]);
-    remoteViews.setTextViewText(ids[2], speedParts[1]);
+    setTextViewText(remoteViews, ids[1], speedParts[0], state);
+    setTextViewText(remoteViews, ids[2], speedParts[1], state);
   }
 
   /**
@@ -384,13 +490,14 @@ public class TrackWidgetProvider extends AppWidgetProvider {
    * @param remoteViews the remote views
    * @param ids the item's ids
    * @param tripStatistics the trip statistics
+   * @param state the state to append the displayed values to
    */
-  private static void updateMovingTime(
-      Context context, RemoteViews remoteViews, int[] ids, TripStatistics tripStatistics) {
+  private static void updateMovingTime(Context context, RemoteViews remoteViews, int[] ids,
+      TripStatistics tripStatistics, StringBuilder state) {
     String movingTime = tripStatistics == null ? context.getString(R.string.value_unknown)
         : StringUtils.formatElapsedTime(tripStatistics.getMovingTime());
-    remoteViews.setTextViewText(ids[0], context.getString(R.string.stats_moving_time));
-    remoteViews.setTextViewText(ids[1], movingTime);
+    setTextViewText(remoteViews, ids[0], context.getString(R.string.stats_moving_time), state);
+    setTextViewText(remoteViews, ids[1], movingTime, state);
     remoteViews.setViewVisibility(ids[2], View.GONE);
   }
 
@@ -403,12 +510,14 @@ public class TrackWidgetProvider extends AppWidgetProvider {
    * @param tripStatistics the trip statistics
    * @param metricUnits true to use metric units
    * @param reportSpeed true to report speed
+   * @param state the state to append the displayed values to
    */
   private static void updateAverageMovingSpeed(Context context, RemoteViews remoteViews, int[] ids,
-      TripStatistics tripStatistics, boolean metricUnits, boolean reportSpeed) {
+      TripStatistics tripStatistics, boolean metricUnits, boolean reportSpeed,
+      StringBuilder state) {
     String averageMovingSpeedLabel = context.getString(
         reportSpeed ? R.string.stats_average_moving_speed : R.string.stats_average_moving_pace);
-    remoteViews.setTextViewText(ids[0], averageMovingSpeedLabel);
+    setTextViewText(remoteViews, ids[0], averageMovingSpeedLabel, state);
 
     Double speed = tripStatistics == null ? Double.NaN : tripStatistics.getAverageMovingSpeed();
     String[] speedParts = StringUtils.getSpeedParts(context, speed, metricUnits, reportSpeed);
@@ -417,8 +526,22 @@ public class TrackWidgetProvider extends AppWidgetProvider {
       speedParts[0] = context.getString(R.string.value_unknown);
     }
     
-    remoteViews.setTextViewText(ids[1], speedParts[0]);
-    remoteViews.setTextViewText(ids[2], speedParts[1]);
+    setTextViewText(remoteViews, ids[1], speedParts[0], state);
+    setTextViewText(remoteViews, ids[2], speedParts[1], state);
+  }
+
+  /**
+   * Sets the text of a text view and appends it to the state.
+   * 
+   * @param remoteViews the remote views
+   * @param viewId the text view id
+   * @param text the text
+   * @param state the state to append the text to
+   */
+  private static void setTextViewText(
+      RemoteViews remoteViews, int viewId, String text, StringBuilder state) {
+    remoteViews.setTextViewText(viewId, text);
+    state.append(viewId).append('=').append(text).append('\n');
   }
 
   /**
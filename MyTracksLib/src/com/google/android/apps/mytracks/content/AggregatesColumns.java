@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the aggregates table. Each row holds the aggregated statistics
+ * of the tracks started in a period, a day, a week, a month, or a year, with
+ * an activity type. The table is read only, it is maintained by the provider
+ * whenever a track is inserted, updated, or deleted.
+ */
+public interface AggregatesColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "aggregates";
+
+  /**
+   * Aggregates provider uri.
+   */
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/aggregates");
+
+  /**
+   * Aggregates content type.
+   */
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.aggregate";
+
+  /**
+   * Aggregates table default sort order.
+   */
+  public static final String DEFAULT_SORT_ORDER = "periodstart";
+
+  // Periods. A week starts on Monday
+  public static final String PERIOD_DAY = "day";
+  public static final String PERIOD_WEEK = "week";
+  public static final String PERIOD_MONTH = "month";
+  public static final String PERIOD_YEAR = "year";
+
+  // Columns
+  public static final String PERIOD = "period"; // period
+  public static final String PERIODSTART = "periodstart"; // local period start time
+
+  // track activity type, empty if none
+  public static final String CATEGORY = "category";
+  public static final String NUMTRACKS = "numtracks"; // number of tracks
+  public static final String TOTALDISTANCE = "totaldistance"; // total distance
+  public static final String TOTALTIME = "totaltime"; // total time
+  public static final String MOVINGTIME = "movingtime"; // moving time
+  public static final String ELEVATIONGAIN = "elevationgain"; // elevation gain
+  public static final String CALORIE = "calorie"; // calorie
+  public static final String MAXSPEED = "maxspeed"; // maximum speed
+  public static final String MINELEVATION = "minelevation"; // minimum elevation
+  public static final String MAXELEVATION = "maxelevation"; // maximum elevation
+  public static final String MINGRADE = "mingrade"; // minimum grade
+  public static final String MAXGRADE = "maxgrade"; // maximum grade
+
+  public static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " // id
+      + PERIOD + " STRING, " // period
+      + PERIODSTART + " INTEGER, " // period start
+      + CATEGORY + " STRING, " // category
+      + NUMTRACKS + " INTEGER DEFAULT 0, " // num tracks
+      + TOTALDISTANCE + " FLOAT DEFAULT 0, " // total distance
+      + TOTALTIME + " INTEGER DEFAULT 0, " // total time
+      + MOVINGTIME + " INTEGER DEFAULT 0, " // moving time
+      + ELEVATIONGAIN + " FLOAT DEFAULT 0, " // elevation gain
+      + CALORIE + " FLOAT DEFAULT 0, " // calorie
+      + MAXSPEED + " FLOAT, " // max speed
+      + MINELEVATION + " FLOAT, " // min elevation
+      + MAXELEVATION + " FLOAT, " // max elevation
+      + MINGRADE + " FLOAT, " // min grade
+      + MAXGRADE + " FLOAT);"; // max grade
+
+  // Indexes
+  public static final String PERIOD_PERIODSTART_CATEGORY_INDEX =
+      "aggregates_period_periodstart_category_index";
+
+  public static final String CREATE_PERIOD_PERIODSTART_CATEGORY_INDEX =
+      "CREATE UNIQUE INDEX IF NOT EXISTS " + PERIOD_PERIODSTART_CATEGORY_INDEX + " ON "
+      + TABLE_NAME + " (" + PERIOD + ", " + PERIODSTART + ", " + CATEGORY + ");";
+}
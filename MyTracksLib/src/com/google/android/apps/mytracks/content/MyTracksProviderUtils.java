@@ -17,6 +17,7 @@
 package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
+import com.google.android.apps.mytracks.stats.TripStatistics;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -40,6 +41,66 @@ public interface MyTracksProviderUtils {
    */
   public static final String AUTHORITY = "com.google.android.maps.mytracks";
 
+  /**
+   * The content provider call methods to begin, mark as successful, and end a
+   * transaction. See {@link #beginTransaction()}.
+   */
+  public static final String METHOD_BEGIN_TRANSACTION = "beginTransaction";
+  public static final String METHOD_SET_TRANSACTION_SUCCESSFUL = "setTransactionSuccessful";
+  public static final String METHOD_END_TRANSACTION = "endTransaction";
+
+  /**
+   * The content provider call method to insert track points. See
+   * {@link #insertTrackPoints(Location[], int, long)}. The extras hold the
+   * track id and one primitive array per column, the result holds the ids of
+   * the first and the last inserted track points.
+   */
+  public static final String METHOD_INSERT_TRACK_POINTS = "insertTrackPoints";
+
+  // The insert track points extras. Missing altitudes, accuracies, speeds, and
+  // bearings are NaN
+  public static final String EXTRA_TRACK_ID = "trackId"; // long
+  public static final String EXTRA_LONGITUDES = "longitudes"; // int[], E6
+  public static final String EXTRA_LATITUDES = "latitudes"; // int[], E6
+  public static final String EXTRA_TIMES = "times"; // long[]
+  public static final String EXTRA_ALTITUDES = "altitudes"; // double[]
+  public static final String EXTRA_ACCURACIES = "accuracies"; // float[]
+  public static final String EXTRA_SPEEDS = "speeds"; // float[]
+  public static final String EXTRA_BEARINGS = "bearings"; // float[]
+  public static final String EXTRA_SENSORS = "sensors"; // byte[][]
+
+  // The insert track points result
+  public static final String EXTRA_START_ID = "startId"; // long
+  public static final String EXTRA_STOP_ID = "stopId"; // long
+
+  /**
+   * The content provider call method to recompute the aggregates. See
+   * {@link #rebuildAggregates()}.
+   */
+  public static final String METHOD_REBUILD_AGGREGATES = "rebuildAggregates";
+
+  /**
+   * Begins a transaction on the calling thread. The track points, tracks, and
+   * waypoints inserted, updated, or deleted by the thread until
+   * {@link #endTransaction()} are committed or rolled back together, and no
+   * other thread can write in between. Only supported in the My Tracks process
+   * and on API level 11 and above.
+   * 
+   * @return true if a transaction is started
+   */
+  public boolean beginTransaction();
+
+  /**
+   * Marks the current transaction of the calling thread as successful.
+   */
+  public void setTransactionSuccessful();
+
+  /**
+   * Ends the current transaction of the calling thread. Commits it if it is
+   * marked as successful, else rolls it back.
+   */
+  public void endTransaction();
+
   /**
    * Clears a track. Removes waypoints and trackpoints. Only keeps the track id.
    * 
@@ -97,6 +158,48 @@ public interface MyTracksProviderUtils {
    */
   public Cursor getTrackCursor(String selection, String[] selectionArgs, String sortOrder);
 
+  /**
+   * Gets a cursor of the tracks whose bounding box intersects an area, sorted
+   * by id. Reads the spatial index instead of all the tracks. The caller owns
+   * the returned cursor and is responsible for closing it.
+   * 
+   * @param minLatitude the minimum latitude in degrees
+   * @param minLongitude the minimum longitude in degrees
+   * @param maxLatitude the maximum latitude in degrees
+   * @param maxLongitude the maximum longitude in degrees. An area crossing the
+   *          180th meridian must be queried as two areas
+   */
+  public Cursor getTrackCursor(
+      double minLatitude, double minLongitude, double maxLatitude, double maxLongitude);
+
+  /**
+   * Gets a cursor of the tracks whose name, description, or category match a
+   * full text query, in no particular order. Reads the search index instead of
+   * all the tracks. The caller owns the returned cursor and is responsible for
+   * closing it.
+   * 
+   * @param projection the projection, columns of the tracks table or
+   *          {@link SearchIndexColumns#TRACKS_MATCHINFO}. The name, description,
+   *          and category columns are also search index columns, and must be
+   *          qualified with the tracks table name
+   * @param match the full text query, see {@link SearchIndexColumns}
+   */
+  public Cursor getTrackSearchCursor(String[] projection, String match);
+
+  /**
+   * Gets the tracks nearest to a location, sorted by the distance from the
+   * location to their bounding box. The distance is approximated on an
+   * equirectangular projection at the location latitude. Tracks without track
+   * points are not returned.
+   * <p>
+   * Note that the returned tracks do not have any track points attached.
+   * 
+   * @param latitude the latitude in degrees
+   * @param longitude the longitude in degrees
+   * @param maxTracks the maximum number of tracks to return
+   */
+  public List<Track> getNearestTracks(double latitude, double longitude, int maxTracks);
+
   /**
    * Inserts a track.
    * <p>
@@ -116,6 +219,53 @@ public interface MyTracksProviderUtils {
    */
   public void updateTrack(Track track);
 
+  /**
+   * Updates the start id, the stop id, the number of points, and the trip
+   * statistics of a track. Leaves the other columns, e.g., the name edited
+   * while the track is recording.
+   * 
+   * @param track the track
+   */
+  public void updateTrackStatistics(Track track);
+
+  /**
+   * Gets an aggregates cursor, one row per activity type and per period
+   * starting in a time range, sorted by period start. The caller owns the
+   * returned cursor and is responsible for closing it.
+   * 
+   * @param period the period, one of the {@link AggregatesColumns} periods
+   * @param startTime the minimum period start time, inclusive
+   * @param endTime the maximum period start time, exclusive
+   * @param category the activity type. Empty for the tracks without one, null
+   *          for all
+   */
+  public Cursor getAggregateCursor(String period, long startTime, long endTime, String category);
+
+  /**
+   * Gets the trip statistics of the tracks started in the periods starting in
+   * a time range. Returns null if there is no track. Reads the aggregates
+   * instead of the tracks.
+   * 
+   * @param period the period, one of the {@link AggregatesColumns} periods
+   * @param startTime the minimum period start time, inclusive
+   * @param endTime the maximum period start time, exclusive
+   * @param category the activity type. Empty for the tracks without one, null
+   *          for all
+   */
+  public TripStatistics getAggregateTripStatistics(
+      String period, long startTime, long endTime, String category);
+
+  /**
+   * Recomputes the aggregates from the tracks. The aggregates are maintained
+   * whenever a track changes, with the periods of the time zone when its start
+   * time was written. Call to move all the tracks to the periods of the
+   * current time zone, e.g., after a time zone change. Only supported in the
+   * My Tracks process and on API level 11 and above.
+   * 
+   * @return true if the aggregates are recomputed
+   */
+  public boolean rebuildAggregates();
+
   /**
    * Creates a waypoint from a cursor.
    * 
@@ -190,6 +340,45 @@ public interface MyTracksProviderUtils {
    */
   public Cursor getWaypointCursor(long trackId, long minWaypointId, int maxWaypoints);
 
+  /**
+   * Gets a cursor of the waypoints located in an area, sorted by id. Reads the
+   * spatial index instead of all the waypoints. The caller owns the returned
+   * cursor and is responsible for closing it.
+   * 
+   * @param minLatitude the minimum latitude in degrees
+   * @param minLongitude the minimum longitude in degrees
+   * @param maxLatitude the maximum latitude in degrees
+   * @param maxLongitude the maximum longitude in degrees. An area crossing the
+   *          180th meridian must be queried as two areas
+   */
+  public Cursor getWaypointCursor(
+      double minLatitude, double minLongitude, double maxLatitude, double maxLongitude);
+
+  /**
+   * Gets a cursor of the waypoints whose name, description, or category match
+   * a full text query, in no particular order. Reads the search index instead
+   * of all the waypoints. The caller owns the returned cursor and is
+   * responsible for closing it.
+   * 
+   * @param projection the projection, columns of the waypoints table or
+   *          {@link SearchIndexColumns#WAYPOINTS_MATCHINFO}. The name, description,
+   *          and category columns are also search index columns, and must be
+   *          qualified with the waypoints table name
+   * @param match the full text query, see {@link SearchIndexColumns}
+   */
+  public Cursor getWaypointSearchCursor(String[] projection, String match);
+
+  /**
+   * Gets the waypoints nearest to a location, sorted by distance. The distance
+   * is approximated on an equirectangular projection at the location
+   * latitude. Waypoints without a location are not returned.
+   * 
+   * @param latitude the latitude in degrees
+   * @param longitude the longitude in degrees
+   * @param maxWaypoints the maximum number of waypoints to return
+   */
+  public List<Waypoint> getNearestWaypoints(double latitude, double longitude, int maxWaypoints);
+
   /**
    * Gets the number of waypoints for a track.
    * 
@@ -212,6 +401,17 @@ public interface MyTracksProviderUtils {
    */
   public boolean updateWaypoint(Waypoint waypoint);
 
+  /**
+   * Updates a track and waypoints in one batch, applied by the content
+   * provider in one transaction. Returns true if successful.
+   * <p>
+   * Note: This doesn't update any track points.
+   * 
+   * @param track the track
+   * @param waypoints the waypoints
+   */
+  public boolean updateTrackAndWaypoints(Track track, List<Waypoint> waypoints);
+
   /**
    * Inserts multiple track points.
    * 
@@ -223,6 +423,21 @@ public interface MyTracksProviderUtils {
    */
   public int bulkInsertTrackPoint(Location[] locations, int length, long trackId);
 
+  /**
+   * Inserts multiple track points in one transaction, without creating a
+   * {@link android.content.ContentValues} per track point. Only supported in
+   * the My Tracks process and on API level 11 and above.
+   * 
+   * @param locations an array of locations
+   * @param length the number of locations (from the beginning of the array) to
+   *          insert, or -1 for all of them
+   * @param trackId the track id
+   * @return the ids of the first and the last inserted track points, all the
+   *         ids in between belonging to the inserted track points, or null if
+   *         not supported, then nothing is inserted
+   */
+  public long[] insertTrackPoints(Location[] locations, int length, long trackId);
+
   /**
    * Creates a location object from a cursor.
    * 
@@ -307,6 +522,26 @@ public interface MyTracksProviderUtils {
   public LocationIterator getTrackPointLocationIterator(
       long trackId, long startTrackPointId, boolean descending, LocationFactory locationFactory);
 
+  /**
+   * Creates a new read-only iterator over a given track's points, reading only
+   * the columns in the projection. Fields without a column in the projection
+   * are left unset. The sensor data is only parsed if the projection contains
+   * {@link TrackPointsColumns#SENSOR}. See
+   * {@link #getTrackPointLocationIterator(long, long, boolean, LocationFactory)}
+   * .
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param descending true to sort the result in descending order (latest
+   *          location first)
+   * @param projection the track points columns to read, e.g.,
+   *          {@link TrackPointsColumns#NO_SENSOR_COLUMNS}. Null for all the
+   *          columns
+   * @param locationFactory the location factory
+   */
+  public LocationIterator getTrackPointLocationIterator(long trackId, long startTrackPointId,
+      boolean descending, String[] projection, LocationFactory locationFactory);
+
   /**
    * Inserts a track point.
    * 
@@ -355,6 +590,33 @@ public interface MyTracksProviderUtils {
     }
   };
 
+  /**
+   * A {@link LocationFactory} which always returns the same location. Only use
+   * it if the caller doesn't keep any reference to the iterated locations.
+   */
+  public static class ReusableLocationFactory implements LocationFactory {
+
+    private final Location location;
+
+    public ReusableLocationFactory() {
+      this(new MyTracksLocation(LocationManager.GPS_PROVIDER));
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param location the location to reuse
+     */
+    public ReusableLocationFactory(Location location) {
+      this.location = location;
+    }
+
+    @Override
+    public Location createLocation() {
+      return location;
+    }
+  }
+
   /**
    * A factory which can produce instances of {@link MyTracksProviderUtils}, and
    * can be overridden for testing.
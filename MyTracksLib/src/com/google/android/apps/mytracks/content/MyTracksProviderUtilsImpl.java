@@ -22,12 +22,19 @@ import com.google.android.apps.mytracks.stats.TripStatistics;
 import com.google.android.apps.mytracks.util.FileUtils;
 import com.google.protobuf.InvalidProtocolBufferException;
 
+import android.annotation.TargetApi;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.location.Location;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.provider.BaseColumns;
 import android.util.Log;
 
 import java.io.File;
@@ -46,13 +53,81 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
 
   private static final int MAX_LATITUDE = 90000000;
 
+  // The initial half size in degrees of the area searched for the nearest
+  // tracks or waypoints, about a kilometer
+  private static final double NEAREST_INITIAL_RADIUS = 0.01;
+
+  // The column of the squared distance in microdegrees to a location
+  private static final String DISTANCE = "distance";
+
+  /*
+   * The selections of the indexed queries. Package private for the query plan
+   * tests.
+   */
+  static final String FIRST_TRACK_POINT_ID_SELECTION = TrackPointsColumns._ID + "=(select min("
+      + TrackPointsColumns._ID + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE "
+      + TrackPointsColumns.TRACKID + "=?)";
+  static final String LAST_TRACK_POINT_ID_SELECTION = TrackPointsColumns._ID + "=(select max("
+      + TrackPointsColumns._ID + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE "
+      + TrackPointsColumns.TRACKID + "=?)";
+  static final String TRACK_POINT_ID_BY_TIME_SELECTION = TrackPointsColumns._ID
+      + "=(select max(" + TrackPointsColumns._ID + ") from " + TrackPointsColumns.TABLE_NAME
+      + " WHERE " + TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns.TIME + "=?)";
+  static final String FIRST_VALID_TRACK_POINT_SELECTION = TrackPointsColumns._ID
+      + "=(select min(" + TrackPointsColumns._ID + ") from " + TrackPointsColumns.TABLE_NAME
+      + " WHERE " + TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns.LATITUDE + "<="
+      + MAX_LATITUDE + ")";
+  static final String LAST_VALID_TRACK_POINT_SELECTION = TrackPointsColumns._ID
+      + "=(select max(" + TrackPointsColumns._ID + ") from " + TrackPointsColumns.TABLE_NAME
+      + " WHERE " + TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns.LATITUDE + "<="
+      + MAX_LATITUDE + ")";
+  static final String TRACK_POINTS_SELECTION = TrackPointsColumns.TRACKID + "=?";
+  static final String TRACK_POINTS_AFTER_SELECTION = TrackPointsColumns.TRACKID + "=? AND "
+      + TrackPointsColumns._ID + ">=?";
+  static final String TRACK_POINTS_BEFORE_SELECTION = TrackPointsColumns.TRACKID + "=? AND "
+      + TrackPointsColumns._ID + "<=?";
+  static final String WAYPOINTS_BY_TYPE_SELECTION = WaypointsColumns.TRACKID + "=? AND "
+      + WaypointsColumns.TYPE + "=?";
+  static final String AGGREGATES_SELECTION = AggregatesColumns.PERIOD + "=? AND "
+      + AggregatesColumns.PERIODSTART + ">=? AND " + AggregatesColumns.PERIODSTART + "<?";
+  static final String TRACKS_SEARCH_SELECTION = SearchIndexColumns.TRACKS_TABLE_NAME
+      + " MATCH ?";
+  static final String WAYPOINTS_SEARCH_SELECTION = SearchIndexColumns.WAYPOINTS_TABLE_NAME
+      + " MATCH ?";
+
   private final ContentResolver contentResolver;
   private int defaultCursorBatchSize = 2000;
 
+  // True once the provider refused to insert track points directly
+  private volatile boolean insertTrackPointsUnsupported = false;
+
   public MyTracksProviderUtilsImpl(ContentResolver contentResolver) {
     this.contentResolver = contentResolver;
   }
 
+  @TargetApi(11)
+  @Override
+  public boolean beginTransaction() {
+    // ContentResolver.call is only available on API level 11 and above
+    if (Build.VERSION.SDK_INT < 11) {
+      return false;
+    }
+    return contentResolver.call(TracksColumns.CONTENT_URI, METHOD_BEGIN_TRANSACTION, null, null)
+        != null;
+  }
+
+  @TargetApi(11)
+  @Override
+  public void setTransactionSuccessful() {
+    contentResolver.call(TracksColumns.CONTENT_URI, METHOD_SET_TRANSACTION_SUCCESSFUL, null, null);
+  }
+
+  @TargetApi(11)
+  @Override
+  public void endTransaction() {
+    contentResolver.call(TracksColumns.CONTENT_URI, METHOD_END_TRANSACTION, null, null);
+  }
+
   @Override
   public void clearTrack(Context context, long trackId) {
     deleteTrackPointsAndWaypoints(context, trackId);
@@ -297,6 +372,39 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return getTrackCursor(null, selection, selectionArgs, sortOrder);
   }
 
+  @Override
+  public Cursor getTrackCursor(
+      double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+    return getTrackCursor(null, getTrackAreaSelection(
+        minLatitude, minLongitude, maxLatitude, maxLongitude), null, TracksColumns._ID);
+  }
+
+  @Override
+  public Cursor getTrackSearchCursor(String[] projection, String match) {
+    return contentResolver.query(SearchIndexColumns.TRACKS_CONTENT_URI, projection,
+        TRACKS_SEARCH_SELECTION, new String[] { match }, null);
+  }
+
+  @Override
+  public List<Track> getNearestTracks(double latitude, double longitude, int maxTracks) {
+    ArrayList<Track> tracks = new ArrayList<Track>();
+    Cursor cursor = null;
+    try {
+      cursor = getNearestCursor(true, latitude, longitude, maxTracks);
+      if (cursor != null && cursor.moveToFirst()) {
+        tracks.ensureCapacity(cursor.getCount());
+        do {
+          tracks.add(createTrack(cursor));
+        } while (cursor.moveToNext());
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return tracks;
+  }
+
   @Override
   public Uri insertTrack(Track track) {
     return contentResolver.insert(TracksColumns.CONTENT_URI, createContentValues(track));
@@ -308,9 +416,14 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         TracksColumns._ID + "=?", new String[] { Long.toString(track.getId()) });
   }
 
+  @Override
+  public void updateTrackStatistics(Track track) {
+    contentResolver.update(TracksColumns.CONTENT_URI, createStatisticsContentValues(track),
+        TracksColumns._ID + "=?", new String[] { Long.toString(track.getId()) });
+  }
+
   private ContentValues createContentValues(Track track) {
-    ContentValues values = new ContentValues();
-    TripStatistics tripStatistics = track.getTripStatistics();
+    ContentValues values = createStatisticsContentValues(track);
 
     // Value < 0 indicates no id is available
     if (track.getId() >= 0) {
@@ -319,6 +432,23 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     values.put(TracksColumns.NAME, track.getName());
     values.put(TracksColumns.DESCRIPTION, track.getDescription());
     values.put(TracksColumns.CATEGORY, track.getCategory());
+    values.put(TracksColumns.ICON, track.getIcon());
+    values.put(TracksColumns.DRIVEID, track.getDriveId());
+    values.put(TracksColumns.MODIFIEDTIME, track.getModifiedTime());
+    values.put(TracksColumns.SHAREDWITHME, track.isSharedWithMe());
+    values.put(TracksColumns.SHAREDOWNER, track.getSharedOwner());
+    return values;
+  }
+
+  /**
+   * Creates the content values of the track point ids, the number of points,
+   * and the trip statistics of a track.
+   * 
+   * @param track the track
+   */
+  private ContentValues createStatisticsContentValues(Track track) {
+    ContentValues values = new ContentValues();
+    TripStatistics tripStatistics = track.getTripStatistics();
     values.put(TracksColumns.STARTID, track.getStartId());
     values.put(TracksColumns.STOPID, track.getStopId());
     values.put(TracksColumns.STARTTIME, tripStatistics.getStartTime());
@@ -339,13 +469,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     values.put(TracksColumns.ELEVATIONGAIN, tripStatistics.getTotalElevationGain());
     values.put(TracksColumns.MINGRADE, tripStatistics.getMinGrade());
     values.put(TracksColumns.MAXGRADE, tripStatistics.getMaxGrade());
-    values.put(TracksColumns.ICON, track.getIcon());
-    values.put(TracksColumns.DRIVEID, track.getDriveId());
-    values.put(TracksColumns.MODIFIEDTIME, track.getModifiedTime());
-    values.put(TracksColumns.SHAREDWITHME, track.isSharedWithMe());
-    values.put(TracksColumns.SHAREDOWNER, track.getSharedOwner());
     values.put(TracksColumns.CALORIE, tripStatistics.getCalorie());
-    
     return values;
   }
 
@@ -363,6 +487,97 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         TracksColumns.CONTENT_URI, projection, selection, selectionArgs, sortOrder);
   }
 
+  @Override
+  public Cursor getAggregateCursor(String period, long startTime, long endTime, String category) {
+    String selection = AGGREGATES_SELECTION;
+    String[] selectionArgs;
+    if (category == null) {
+      selectionArgs = new String[] {
+          period, Long.toString(startTime), Long.toString(endTime) };
+    } else {
+      selection += " AND " + AggregatesColumns.CATEGORY + "=?";
+      selectionArgs = new String[] {
+          period, Long.toString(startTime), Long.toString(endTime), category };
+    }
+    return contentResolver.query(AggregatesColumns.CONTENT_URI, null, selection, selectionArgs,
+        AggregatesColumns.DEFAULT_SORT_ORDER);
+  }
+
+  @Override
+  public TripStatistics getAggregateTripStatistics(
+      String period, long startTime, long endTime, String category) {
+    TripStatistics tripStatistics = null;
+    Cursor cursor = null;
+    try {
+      cursor = getAggregateCursor(period, startTime, endTime, category);
+      if (cursor != null && cursor.moveToFirst()) {
+        tripStatistics = createAggregateTripStatistics(cursor);
+        while (cursor.moveToNext()) {
+          tripStatistics.merge(createAggregateTripStatistics(cursor));
+        }
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return tripStatistics;
+  }
+
+  /**
+   * Creates the trip statistics of an aggregate from a cursor.
+   * 
+   * @param cursor the cursor pointing to the aggregate
+   */
+  private TripStatistics createAggregateTripStatistics(Cursor cursor) {
+    int periodStartIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.PERIODSTART);
+    int totalDistanceIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.TOTALDISTANCE);
+    int totalTimeIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.TOTALTIME);
+    int movingTimeIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.MOVINGTIME);
+    int elevationGainIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.ELEVATIONGAIN);
+    int calorieIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.CALORIE);
+    int maxSpeedIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.MAXSPEED);
+    int minElevationIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.MINELEVATION);
+    int maxElevationIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.MAXELEVATION);
+    int minGradeIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.MINGRADE);
+    int maxGradeIndex = cursor.getColumnIndexOrThrow(AggregatesColumns.MAXGRADE);
+
+    TripStatistics tripStatistics = new TripStatistics();
+    tripStatistics.setStartTime(cursor.getLong(periodStartIndex));
+    tripStatistics.setTotalDistance(cursor.getDouble(totalDistanceIndex));
+    tripStatistics.setTotalTime(cursor.getLong(totalTimeIndex));
+    tripStatistics.setMovingTime(cursor.getLong(movingTimeIndex));
+    tripStatistics.setTotalElevationGain(cursor.getDouble(elevationGainIndex));
+    tripStatistics.setCalorie(cursor.getDouble(calorieIndex));
+    if (!cursor.isNull(maxSpeedIndex)) {
+      tripStatistics.setMaxSpeed(cursor.getDouble(maxSpeedIndex));
+    }
+    if (!cursor.isNull(minElevationIndex)) {
+      tripStatistics.setMinElevation(cursor.getDouble(minElevationIndex));
+    }
+    if (!cursor.isNull(maxElevationIndex)) {
+      tripStatistics.setMaxElevation(cursor.getDouble(maxElevationIndex));
+    }
+    if (!cursor.isNull(minGradeIndex)) {
+      tripStatistics.setMinGrade(cursor.getDouble(minGradeIndex));
+    }
+    if (!cursor.isNull(maxGradeIndex)) {
+      tripStatistics.setMaxGrade(cursor.getDouble(maxGradeIndex));
+    }
+    return tripStatistics;
+  }
+
+  @TargetApi(11)
+  @Override
+  public boolean rebuildAggregates() {
+    // ContentResolver.call is only available on API level 11 and above
+    if (Build.VERSION.SDK_INT < 11) {
+      return false;
+    }
+    return contentResolver.call(
+        AggregatesColumns.CONTENT_URI, METHOD_REBUILD_AGGREGATES, null, null) != null;
+  }
+
   @Override
   public Waypoint createWaypoint(Cursor cursor) {
     int idIndex = cursor.getColumnIndexOrThrow(WaypointsColumns._ID);
@@ -574,10 +789,10 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
     Cursor cursor = null;
     try {
-      String selection = WaypointsColumns.TRACKID + "=? AND " + WaypointsColumns.TYPE + "=?";
       String[] selectionArgs = new String[] {
           Long.toString(trackId), Integer.toString(waypointType.ordinal()) };
-      cursor = getWaypointCursor(null, selection, selectionArgs, WaypointsColumns._ID + " DESC", 1);
+      cursor = getWaypointCursor(
+          null, WAYPOINTS_BY_TYPE_SELECTION, selectionArgs, WaypointsColumns._ID + " DESC", 1);
       if (cursor != null && cursor.moveToFirst()) {
         return createWaypoint(cursor);
       }
@@ -597,10 +812,10 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     Cursor cursor = null;
     try {
       String[] projection = { WaypointsColumns._ID };
-      String selection = WaypointsColumns.TRACKID + "=?  AND " + WaypointsColumns.TYPE + "=?";
       String[] selectionArgs = new String[] {
           Long.toString(trackId), Integer.toString(waypointType.ordinal()) };
-      cursor = getWaypointCursor(projection, selection, selectionArgs, WaypointsColumns._ID, -1);
+      cursor = getWaypointCursor(
+          projection, WAYPOINTS_BY_TYPE_SELECTION, selectionArgs, WaypointsColumns._ID, -1);
       if (cursor != null) {
         int count = cursor.getCount();
         /*
@@ -661,6 +876,193 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return getWaypointCursor(null, selection, selectionArgs, WaypointsColumns._ID, maxWaypoints);
   }
 
+  @Override
+  public Cursor getWaypointCursor(
+      double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+    return getWaypointCursor(null, getWaypointAreaSelection(
+        minLatitude, minLongitude, maxLatitude, maxLongitude), null, WaypointsColumns._ID, -1);
+  }
+
+  @Override
+  public Cursor getWaypointSearchCursor(String[] projection, String match) {
+    return contentResolver.query(SearchIndexColumns.WAYPOINTS_CONTENT_URI, projection,
+        WAYPOINTS_SEARCH_SELECTION, new String[] { match }, null);
+  }
+
+  @Override
+  public List<Waypoint> getNearestWaypoints(double latitude, double longitude, int maxWaypoints) {
+    ArrayList<Waypoint> waypoints = new ArrayList<Waypoint>();
+    Cursor cursor = null;
+    try {
+      cursor = getNearestCursor(false, latitude, longitude, maxWaypoints);
+      if (cursor != null && cursor.moveToFirst()) {
+        waypoints.ensureCapacity(cursor.getCount());
+        do {
+          waypoints.add(createWaypoint(cursor));
+        } while (cursor.moveToNext());
+      }
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return waypoints;
+  }
+
+  /**
+   * Gets a cursor of the tracks or waypoints nearest to a location, sorted by
+   * distance. Searches areas around the location, four times larger each time,
+   * until the farthest result is inside the area, hence nearer than anything
+   * outside, or the area is the world. Returns null if maxResults is not
+   * positive.
+   * 
+   * @param track true for tracks, false for waypoints
+   * @param latitude the latitude in degrees
+   * @param longitude the longitude in degrees
+   * @param maxResults the maximum number of results
+   */
+  private Cursor getNearestCursor(
+      boolean track, double latitude, double longitude, int maxResults) {
+    if (maxResults <= 0) {
+      return null;
+    }
+    // In parentheses, a negative value must not follow a minus sign
+    String y = "(" + (int) (latitude * 1E6) + ")";
+    String x = "(" + (int) (longitude * 1E6) + ")";
+    double cos = Math.cos(Math.toRadians(latitude));
+
+    // Squared distance on an equirectangular projection
+    String dy;
+    String dx;
+    if (track) {
+      dy = "MAX(" + TracksColumns.MINLAT + "-" + y + "," + y + "-" + TracksColumns.MAXLAT + ",0)";
+      dx = "MAX(" + TracksColumns.MINLON + "-" + x + "," + x + "-" + TracksColumns.MAXLON + ",0)";
+    } else {
+      dy = "(" + WaypointsColumns.LATITUDE + "-" + y + ")";
+      dx = "(" + WaypointsColumns.LONGITUDE + "-" + x + ")";
+    }
+    String distance = dy + "*" + dy + "+" + dx + "*" + dx + "*" + (cos * cos);
+    String[] columns = track ? TracksColumns.COLUMNS : WaypointsColumns.COLUMNS;
+    String[] projection = new String[columns.length + 1];
+    System.arraycopy(columns, 0, projection, 0, columns.length);
+    projection[columns.length] = distance + " AS " + DISTANCE;
+    String sortOrder = DISTANCE + "," + BaseColumns._ID;
+
+    for (double radius = NEAREST_INITIAL_RADIUS;; radius *= 4) {
+      double longitudeRadius = cos > 0 ? radius / cos : Double.POSITIVE_INFINITY;
+      double minLatitude = latitude - radius;
+      double minLongitude = longitude - longitudeRadius;
+      double maxLatitude = latitude + radius;
+      double maxLongitude = longitude + longitudeRadius;
+      Cursor cursor;
+      if (track) {
+        cursor = getTrackCursor(projection, getTrackAreaSelection(minLatitude, minLongitude,
+            maxLatitude, maxLongitude), null, sortOrder + " LIMIT " + maxResults);
+      } else {
+        cursor = getWaypointCursor(projection, getWaypointAreaSelection(minLatitude,
+            minLongitude, maxLatitude, maxLongitude), null, sortOrder, maxResults);
+      }
+      if (cursor == null) {
+        return null;
+      }
+      boolean world = minLatitude <= -90 && maxLatitude >= 90 && minLongitude <= -180
+          && maxLongitude >= 180;
+      double radiusE6 = radius * 1E6;
+      if (world || (cursor.getCount() == maxResults && cursor.moveToLast()
+          && cursor.getDouble(cursor.getColumnIndexOrThrow(DISTANCE)) <= radiusE6 * radiusE6)) {
+        return cursor;
+      }
+      cursor.close();
+    }
+  }
+
+  /**
+   * Gets the selection of the tracks whose bounding box intersects an area.
+   * 
+   * @param minLatitude the minimum latitude in degrees
+   * @param minLongitude the minimum longitude in degrees
+   * @param maxLatitude the maximum latitude in degrees
+   * @param maxLongitude the maximum longitude in degrees
+   */
+  static String getTrackAreaSelection(
+      double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+    int[] area = getArea(minLatitude, minLongitude, maxLatitude, maxLongitude);
+    if (area == null) {
+      return "0";
+    }
+    return getCellsSelection(SpatialIndexColumns.TRACKS_TABLE_NAME, area) + " AND "
+        + TracksColumns.MINLAT + "<=" + area[2] + " AND " + TracksColumns.MAXLAT + ">=" + area[0]
+        + " AND " + TracksColumns.MINLON + "<=" + area[3] + " AND " + TracksColumns.MAXLON + ">="
+        + area[1];
+  }
+
+  /**
+   * Gets the selection of the waypoints located in an area.
+   * 
+   * @param minLatitude the minimum latitude in degrees
+   * @param minLongitude the minimum longitude in degrees
+   * @param maxLatitude the maximum latitude in degrees
+   * @param maxLongitude the maximum longitude in degrees
+   */
+  static String getWaypointAreaSelection(
+      double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+    int[] area = getArea(minLatitude, minLongitude, maxLatitude, maxLongitude);
+    if (area == null) {
+      return "0";
+    }
+    return getCellsSelection(SpatialIndexColumns.WAYPOINTS_TABLE_NAME, area) + " AND "
+        + WaypointsColumns.LATITUDE + " BETWEEN " + area[0] + " AND " + area[2] + " AND "
+        + WaypointsColumns.LONGITUDE + " BETWEEN " + area[1] + " AND " + area[3];
+  }
+
+  /**
+   * Gets an area in microdegrees, clipped to the world. Returns null if the
+   * area is empty.
+   * 
+   * @param minLatitude the minimum latitude in degrees
+   * @param minLongitude the minimum longitude in degrees
+   * @param maxLatitude the maximum latitude in degrees
+   * @param maxLongitude the maximum longitude in degrees
+   * @return the minimum latitude, minimum longitude, maximum latitude, and
+   *         maximum longitude in microdegrees
+   */
+  private static int[] getArea(
+      double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+    int[] area = { (int) Math.max(Math.floor(minLatitude * 1E6), -MAX_LATITUDE),
+        (int) Math.max(Math.floor(minLongitude * 1E6), -SpatialIndexColumns.LONGITUDE_OFFSET),
+        (int) Math.min(Math.ceil(maxLatitude * 1E6), MAX_LATITUDE),
+        (int) Math.min(Math.ceil(maxLongitude * 1E6), SpatialIndexColumns.LONGITUDE_OFFSET) };
+    return area[0] <= area[2] && area[1] <= area[3] ? area : null;
+  }
+
+  /**
+   * Gets the selection of the ids of a spatial index table in the cells
+   * overlapping an area, for each level.
+   * 
+   * @param table the spatial index table
+   * @param area the area in microdegrees, see {@link #getArea}
+   */
+  private static String getCellsSelection(String table, int[] area) {
+    int minY = area[0] + SpatialIndexColumns.LATITUDE_OFFSET;
+    int minX = area[1] + SpatialIndexColumns.LONGITUDE_OFFSET;
+    int maxY = area[2] + SpatialIndexColumns.LATITUDE_OFFSET;
+    int maxX = area[3] + SpatialIndexColumns.LONGITUDE_OFFSET;
+    StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (SELECT ")
+        .append(SpatialIndexColumns._ID).append(" FROM ").append(table).append(" WHERE ");
+    for (int level = SpatialIndexColumns.MIN_LEVEL; level <= SpatialIndexColumns.MAX_LEVEL;
+        level++) {
+      if (level != SpatialIndexColumns.MIN_LEVEL) {
+        selection.append(" OR ");
+      }
+      selection.append("(").append(SpatialIndexColumns.LEVEL).append("=").append(level)
+          .append(" AND ").append(SpatialIndexColumns.CELLX).append(" BETWEEN ")
+          .append(minX >> level).append(" AND ").append(maxX >> level).append(" AND ")
+          .append(SpatialIndexColumns.CELLY).append(" BETWEEN ").append(minY >> level)
+          .append(" AND ").append(maxY >> level).append(")");
+    }
+    return selection.append(")").toString();
+  }
+
   @Override
   public int getWaypointCount(long trackId) {
     if (trackId < 0) {
@@ -692,6 +1094,32 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return rows == 1;
   }
 
+  @Override
+  public boolean updateTrackAndWaypoints(Track track, List<Waypoint> waypoints) {
+    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(
+        waypoints.size() + 1);
+    operations.add(ContentProviderOperation.newUpdate(TracksColumns.CONTENT_URI)
+        .withValues(createContentValues(track))
+        .withSelection(TracksColumns._ID + "=?", new String[] { Long.toString(track.getId()) })
+        .build());
+    for (Waypoint waypoint : waypoints) {
+      operations.add(ContentProviderOperation.newUpdate(WaypointsColumns.CONTENT_URI)
+          .withValues(createContentValues(waypoint))
+          .withSelection(
+              WaypointsColumns._ID + "=?", new String[] { Long.toString(waypoint.getId()) })
+          .build());
+    }
+    try {
+      contentResolver.applyBatch(AUTHORITY, operations);
+      return true;
+    } catch (RemoteException e) {
+      Log.e(TAG, "Unable to update the track and its waypoints.", e);
+    } catch (OperationApplicationException e) {
+      Log.e(TAG, "Unable to update the track and its waypoints.", e);
+    }
+    return false;
+  }
+
   ContentValues createContentValues(Waypoint waypoint) {
     ContentValues values = new ContentValues();
 
@@ -795,6 +1223,9 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (length == -1) {
       length = locations.length;
     }
+    if (insertTrackPoints(locations, length, trackId) != null) {
+      return length;
+    }
     ContentValues[] values = new ContentValues[length];
     for (int i = 0; i < length; i++) {
       values[i] = createContentValues(locations[i], trackId);
@@ -802,6 +1233,70 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     return contentResolver.bulkInsert(TrackPointsColumns.CONTENT_URI, values);
   }
 
+  @TargetApi(11)
+  @Override
+  public long[] insertTrackPoints(Location[] locations, int length, long trackId) {
+    // ContentResolver.call is only available on API level 11 and above
+    if (Build.VERSION.SDK_INT < 11 || insertTrackPointsUnsupported) {
+      return null;
+    }
+    if (length == -1) {
+      length = locations.length;
+    }
+    int[] longitudes = new int[length];
+    int[] latitudes = new int[length];
+    long[] times = new long[length];
+    double[] altitudes = new double[length];
+    float[] accuracies = new float[length];
+    float[] speeds = new float[length];
+    float[] bearings = new float[length];
+    byte[][] sensors = null;
+    for (int i = 0; i < length; i++) {
+      Location location = locations[i];
+      longitudes[i] = (int) (location.getLongitude() * 1E6);
+      latitudes[i] = (int) (location.getLatitude() * 1E6);
+
+      // Hack for Samsung phones that don't properly populate the time field
+      long time = location.getTime();
+      times[i] = time != 0 ? time : System.currentTimeMillis();
+      altitudes[i] = location.hasAltitude() ? location.getAltitude() : Double.NaN;
+      accuracies[i] = location.hasAccuracy() ? location.getAccuracy() : Float.NaN;
+      speeds[i] = location.hasSpeed() ? location.getSpeed() : Float.NaN;
+      bearings[i] = location.hasBearing() ? location.getBearing() : Float.NaN;
+
+      if (location instanceof MyTracksLocation) {
+        MyTracksLocation myTracksLocation = (MyTracksLocation) location;
+        if (myTracksLocation.getSensorDataSet() != null) {
+          if (sensors == null) {
+            sensors = new byte[length][];
+          }
+          sensors[i] = myTracksLocation.getSensorDataSet().toByteArray();
+        }
+      }
+    }
+
+    // Within the process, the extras are passed as is, without being copied
+    Bundle extras = new Bundle();
+    extras.putLong(EXTRA_TRACK_ID, trackId);
+    extras.putIntArray(EXTRA_LONGITUDES, longitudes);
+    extras.putIntArray(EXTRA_LATITUDES, latitudes);
+    extras.putLongArray(EXTRA_TIMES, times);
+    extras.putDoubleArray(EXTRA_ALTITUDES, altitudes);
+    extras.putFloatArray(EXTRA_ACCURACIES, accuracies);
+    extras.putFloatArray(EXTRA_SPEEDS, speeds);
+    extras.putFloatArray(EXTRA_BEARINGS, bearings);
+    if (sensors != null) {
+      extras.putSerializable(EXTRA_SENSORS, sensors);
+    }
+    Bundle result = contentResolver.call(
+        TrackPointsColumns.CONTENT_URI, METHOD_INSERT_TRACK_POINTS, null, extras);
+    if (result == null) {
+      insertTrackPointsUnsupported = true;
+      return null;
+    }
+    return new long[] { result.getLong(EXTRA_START_ID), result.getLong(EXTRA_STOP_ID) };
+  }
+
   @Override
   public Location createTrackPoint(Cursor cursor) {
     Location location = new MyTracksLocation("");
@@ -816,12 +1311,9 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
     Cursor cursor = null;
     try {
-      String selection = TrackPointsColumns._ID + "=(select min(" + TrackPointsColumns._ID
-          + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID
-          + "=?)";
       String[] selectionArgs = new String[] { Long.toString(trackId) };
-      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
-          selectionArgs, TrackPointsColumns._ID);
+      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID },
+          FIRST_TRACK_POINT_ID_SELECTION, selectionArgs, TrackPointsColumns._ID);
       if (cursor != null && cursor.moveToFirst()) {
         return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
       }
@@ -840,12 +1332,9 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
     Cursor cursor = null;
     try {
-      String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID
-          + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID
-          + "=?)";
       String[] selectionArgs = new String[] { Long.toString(trackId) };
-      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
-          selectionArgs, TrackPointsColumns._ID);
+      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID },
+          LAST_TRACK_POINT_ID_SELECTION, selectionArgs, TrackPointsColumns._ID);
       if (cursor != null && cursor.moveToFirst()) {
         return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
       }
@@ -864,13 +1353,10 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
     Cursor cursor = null;
     try {
-      String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID
-          + ") from " + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID
-          + "=? AND " + TrackPointsColumns.TIME + "=?)";
       String[] selectionArgs = new String[] {
           Long.toString(trackId), Long.toString(location.getTime()) };
-      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID }, selection,
-          selectionArgs, TrackPointsColumns._ID);
+      cursor = getTrackPointCursor(new String[] { TrackPointsColumns._ID },
+          TRACK_POINT_ID_BY_TIME_SELECTION, selectionArgs, TrackPointsColumns._ID);
       if (cursor != null && cursor.moveToFirst()) {
         return cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
       }
@@ -887,11 +1373,8 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return null;
     }
-    String selection = TrackPointsColumns._ID + "=(select min(" + TrackPointsColumns._ID + ") from "
-        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
-        + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
     String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    return findTrackPointBy(FIRST_VALID_TRACK_POINT_SELECTION, selectionArgs);
   }
 
   @Override
@@ -899,11 +1382,8 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return null;
     }
-    String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID + ") from "
-        + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
-        + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
     String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    return findTrackPointBy(LAST_VALID_TRACK_POINT_SELECTION, selectionArgs);
   }
 
   @Override
@@ -917,6 +1397,20 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
   @Override
   public Cursor getTrackPointCursor(
       long trackId, long startTrackPointId, int maxLocations, boolean descending) {
+    return getTrackPointCursor(null, trackId, startTrackPointId, maxLocations, descending);
+  }
+
+  /**
+   * Gets a track point cursor for a track.
+   * 
+   * @param projection the projection. Null for all the columns
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id. -1L to ignore
+   * @param maxLocations maximum number of locations to return. -1 for no limit
+   * @param descending true to sort the result in descending order
+   */
+  private Cursor getTrackPointCursor(String[] projection, long trackId, long startTrackPointId,
+      int maxLocations, boolean descending) {
     if (trackId < 0) {
       return null;
     }
@@ -924,12 +1418,10 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     String selection;
     String[] selectionArgs;
     if (startTrackPointId >= 0) {
-      String comparison = descending ? "<=" : ">=";
-      selection = TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns._ID + comparison
-          + "?";
+      selection = descending ? TRACK_POINTS_BEFORE_SELECTION : TRACK_POINTS_AFTER_SELECTION;
       selectionArgs = new String[] { Long.toString(trackId), Long.toString(startTrackPointId) };
     } else {
-      selection = TrackPointsColumns.TRACKID + "=?";
+      selection = TRACK_POINTS_SELECTION;
       selectionArgs = new String[] { Long.toString(trackId) };
     }
 
@@ -940,16 +1432,24 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (maxLocations >= 0) {
       sortOrder += " LIMIT " + maxLocations;
     }
-    return getTrackPointCursor(null, selection, selectionArgs, sortOrder);
+    return getTrackPointCursor(projection, selection, selectionArgs, sortOrder);
+  }
+
+  @Override
+  public LocationIterator getTrackPointLocationIterator(long trackId, long startTrackPointId,
+      boolean descending, LocationFactory locationFactory) {
+    return getTrackPointLocationIterator(
+        trackId, startTrackPointId, descending, null, locationFactory);
   }
 
   @Override
   public LocationIterator getTrackPointLocationIterator(final long trackId,
-      final long startTrackPointId, final boolean descending,
+      final long startTrackPointId, final boolean descending, String[] projection,
       final LocationFactory locationFactory) {
     if (locationFactory == null) {
       throw new IllegalArgumentException("locationFactory is null");
     }
+    final String[] cursorProjection = getIteratorProjection(projection);
     return new LocationIterator() {
       private long lastTrackPointId = -1L;
       private Cursor cursor = getCursor(startTrackPointId);
@@ -963,7 +1463,8 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
        * @param trackPointId the starting track point id
        */
       private Cursor getCursor(long trackPointId) {
-        return getTrackPointCursor(trackId, trackPointId, defaultCursorBatchSize, descending);
+        return getTrackPointCursor(
+            cursorProjection, trackId, trackPointId, defaultCursorBatchSize, descending);
       }
 
       /**
@@ -1031,6 +1532,27 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     };
   }
 
+  /**
+   * Gets the projection for a location iterator. Adds the id column, which is
+   * needed to advance to the next batch, if missing.
+   * 
+   * @param projection the projection. Null for all the columns
+   */
+  private String[] getIteratorProjection(String[] projection) {
+    if (projection == null) {
+      return null;
+    }
+    for (String column : projection) {
+      if (TrackPointsColumns._ID.equals(column)) {
+        return projection;
+      }
+    }
+    String[] result = new String[projection.length + 1];
+    result[0] = TrackPointsColumns._ID;
+    System.arraycopy(projection, 0, result, 1, projection.length);
+    return result;
+  }
+
   @Override
   public Uri insertTrackPoint(Location location, long trackId) {
     return contentResolver.insert(
@@ -1078,7 +1600,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
   }
 
   /**
-   * Fills a track point from a cursor.
+   * Fills a track point from a cursor. Columns not in the cursor are skipped.
    * 
    * @param cursor the cursor pointing to a location.
    * @param indexes the cached track points indexes
@@ -1087,28 +1609,29 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
   private void fillTrackPoint(Cursor cursor, CachedTrackPointsIndexes indexes, Location location) {
     location.reset();
 
-    if (!cursor.isNull(indexes.longitudeIndex)) {
+    if (indexes.longitudeIndex != -1 && !cursor.isNull(indexes.longitudeIndex)) {
       location.setLongitude(((double) cursor.getInt(indexes.longitudeIndex)) / 1E6);
     }
-    if (!cursor.isNull(indexes.latitudeIndex)) {
+    if (indexes.latitudeIndex != -1 && !cursor.isNull(indexes.latitudeIndex)) {
       location.setLatitude(((double) cursor.getInt(indexes.latitudeIndex)) / 1E6);
     }
-    if (!cursor.isNull(indexes.timeIndex)) {
+    if (indexes.timeIndex != -1 && !cursor.isNull(indexes.timeIndex)) {
       location.setTime(cursor.getLong(indexes.timeIndex));
     }
-    if (!cursor.isNull(indexes.altitudeIndex)) {
+    if (indexes.altitudeIndex != -1 && !cursor.isNull(indexes.altitudeIndex)) {
       location.setAltitude(cursor.getFloat(indexes.altitudeIndex));
     }
-    if (!cursor.isNull(indexes.accuracyIndex)) {
+    if (indexes.accuracyIndex != -1 && !cursor.isNull(indexes.accuracyIndex)) {
       location.setAccuracy(cursor.getFloat(indexes.accuracyIndex));
     }
-    if (!cursor.isNull(indexes.speedIndex)) {
+    if (indexes.speedIndex != -1 && !cursor.isNull(indexes.speedIndex)) {
       location.setSpeed(cursor.getFloat(indexes.speedIndex));
     }
-    if (!cursor.isNull(indexes.bearingIndex)) {
+    if (indexes.bearingIndex != -1 && !cursor.isNull(indexes.bearingIndex)) {
       location.setBearing(cursor.getFloat(indexes.bearingIndex));
     }
-    if (location instanceof MyTracksLocation && !cursor.isNull(indexes.sensorIndex)) {
+    if (location instanceof MyTracksLocation && indexes.sensorIndex != -1
+        && !cursor.isNull(indexes.sensorIndex)) {
       MyTracksLocation myTracksLocation = (MyTracksLocation) location;
       try {
         myTracksLocation.setSensorDataSet(
@@ -1149,7 +1672,8 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
   }
 
   /**
-   * A cache of track points indexes.
+   * A cache of track points indexes. An index is -1 if the column is not in the
+   * cursor.
    */
   private static class CachedTrackPointsIndexes {
     public final int idIndex;
@@ -1164,14 +1688,14 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
 
     public CachedTrackPointsIndexes(Cursor cursor) {
       idIndex = cursor.getColumnIndex(TrackPointsColumns._ID);
-      longitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LONGITUDE);
-      latitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LATITUDE);
-      timeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.TIME);
-      altitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.ALTITUDE);
-      accuracyIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.ACCURACY);
-      speedIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SPEED);
-      bearingIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.BEARING);
-      sensorIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SENSOR);
+      longitudeIndex = cursor.getColumnIndex(TrackPointsColumns.LONGITUDE);
+      latitudeIndex = cursor.getColumnIndex(TrackPointsColumns.LATITUDE);
+      timeIndex = cursor.getColumnIndex(TrackPointsColumns.TIME);
+      altitudeIndex = cursor.getColumnIndex(TrackPointsColumns.ALTITUDE);
+      accuracyIndex = cursor.getColumnIndex(TrackPointsColumns.ACCURACY);
+      speedIndex = cursor.getColumnIndex(TrackPointsColumns.SPEED);
+      bearingIndex = cursor.getColumnIndex(TrackPointsColumns.BEARING);
+      sensorIndex = cursor.getColumnIndex(TrackPointsColumns.SENSOR);
     }
   }
 
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.net.Uri;
+
+/**
+ * Constants for the full text search index tables of the tracks and the
+ * waypoints. Each row holds the name, the description, and the category of a
+ * track or a waypoint, and has its id as docid. The tables are maintained by
+ * the provider whenever a track or a waypoint is inserted, updated, or
+ * deleted.
+ * <p>
+ * The tables are FTS3 tables with the simple tokenizer, FTS4 requiring API
+ * level 11. A query is a list of terms, e.g., "mount* ride*", matching the
+ * rows with all the terms. The matchinfo of a row holds, in native byte order,
+ * the number of terms, the number of columns, then for each term and column,
+ * the number of hits in the row, the number of hits in all the rows, and the
+ * number of rows with hits.
+ */
+public interface SearchIndexColumns {
+
+  public static final String TRACKS_TABLE_NAME = "trackssearchindex";
+  public static final String WAYPOINTS_TABLE_NAME = "waypointssearchindex";
+
+  /**
+   * Tracks search index provider uri. A query joins the tracks table, and must
+   * have a {@link #TRACKS_TABLE_NAME} MATCH selection.
+   */
+  public static final Uri TRACKS_CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/trackssearchindex");
+
+  /**
+   * Waypoints search index provider uri. A query joins the waypoints table, and
+   * must have a {@link #WAYPOINTS_TABLE_NAME} MATCH selection.
+   */
+  public static final Uri WAYPOINTS_CONTENT_URI = Uri.parse(
+      "content://com.google.android.maps.mytracks/waypointssearchindex");
+
+  // Columns. The docid is the id of the track or the waypoint
+  public static final String DOCID = "docid";
+  public static final String NAME = "name"; // name
+  public static final String DESCRIPTION = "description"; // description
+  public static final String CATEGORY = "category"; // category
+
+  // The number of columns, and the column numbers in the matchinfo
+  public static final int NUM_COLUMNS = 3;
+  public static final int NAME_COLUMN = 0;
+  public static final int DESCRIPTION_COLUMN = 1;
+  public static final int CATEGORY_COLUMN = 2;
+
+  // Matchinfo of a matching row
+  public static final String TRACKS_MATCHINFO = "matchinfo(" + TRACKS_TABLE_NAME + ")";
+  public static final String WAYPOINTS_MATCHINFO = "matchinfo(" + WAYPOINTS_TABLE_NAME + ")";
+
+  public static final String CREATE_TRACKS_TABLE = "CREATE VIRTUAL TABLE " + TRACKS_TABLE_NAME
+      + " USING fts3(" + NAME + ", " + DESCRIPTION + ", " + CATEGORY + ");";
+
+  public static final String CREATE_WAYPOINTS_TABLE = "CREATE VIRTUAL TABLE "
+      + WAYPOINTS_TABLE_NAME + " USING fts3(" + NAME + ", " + DESCRIPTION + ", " + CATEGORY
+      + ");";
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the spatial index tables of the tracks and the waypoints. The
+ * world is divided in a grid of cells for each level, the cell size of a level
+ * being 2^level microdegrees. Each row holds the smallest cell containing the
+ * bounding box of a track, or the location of a waypoint, and has the id of
+ * the track or waypoint. The tables are maintained by the provider whenever a
+ * track or a waypoint is inserted, updated, or deleted.
+ * <p>
+ * A bounding box query selects, for each level, the cells overlapping the box,
+ * then checks the bounding boxes of the tracks or the locations of the
+ * waypoints in these cells.
+ */
+public interface SpatialIndexColumns extends BaseColumns {
+
+  public static final String TRACKS_TABLE_NAME = "tracksspatialindex";
+  public static final String WAYPOINTS_TABLE_NAME = "waypointsspatialindex";
+
+  // The smallest level, cells of about 900 meters
+  public static final int MIN_LEVEL = 13;
+
+  // The largest level, one cell for the world
+  public static final int MAX_LEVEL = 29;
+
+  // Offsets from the latitude and the longitude in microdegrees to the cell
+  // coordinates in microdegrees
+  public static final int LATITUDE_OFFSET = 90000000;
+  public static final int LONGITUDE_OFFSET = 180000000;
+
+  // Columns. The _id is the id of the track or the waypoint
+  public static final String LEVEL = "level"; // cell level
+  public static final String CELLX = "cellx"; // cell longitude coordinate
+  public static final String CELLY = "celly"; // cell latitude coordinate
+
+  public static final String CREATE_TRACKS_TABLE = "CREATE TABLE IF NOT EXISTS "
+      + TRACKS_TABLE_NAME + " (" + _ID + " INTEGER PRIMARY KEY, " // id
+      + LEVEL + " INTEGER, " // level
+      + CELLX + " INTEGER, " // cell x
+      + CELLY + " INTEGER);"; // cell y
+
+  public static final String CREATE_WAYPOINTS_TABLE = "CREATE TABLE IF NOT EXISTS "
+      + WAYPOINTS_TABLE_NAME + " (" + _ID + " INTEGER PRIMARY KEY, " // id
+      + LEVEL + " INTEGER, " // level
+      + CELLX + " INTEGER, " // cell x
+      + CELLY + " INTEGER);"; // cell y
+
+  // Indexes
+  public static final String TRACKS_LEVEL_CELLX_CELLY_INDEX =
+      "tracksspatialindex_level_cellx_celly_index";
+  public static final String WAYPOINTS_LEVEL_CELLX_CELLY_INDEX =
+      "waypointsspatialindex_level_cellx_celly_index";
+
+  public static final String CREATE_TRACKS_LEVEL_CELLX_CELLY_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKS_LEVEL_CELLX_CELLY_INDEX + " ON " + TRACKS_TABLE_NAME + " (" + LEVEL + ", " + CELLX
+      + ", " + CELLY + ");";
+
+  public static final String CREATE_WAYPOINTS_LEVEL_CELLX_CELLY_INDEX =
+      "CREATE INDEX IF NOT EXISTS " + WAYPOINTS_LEVEL_CELLX_CELLY_INDEX + " ON "
+      + WAYPOINTS_TABLE_NAME + " (" + LEVEL + ", " + CELLX + ", " + CELLY + ");";
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils.ReusableLocationFactory;
+import com.google.android.apps.mytracks.content.Sensor.SensorData;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+
+import android.location.Location;
+import android.location.LocationManager;
+
+/**
+ * An in-memory, column oriented copy of the track points of a track. Each
+ * track point attribute is kept in its own primitive array, so a track with
+ * hundreds of thousands of points can be held and scanned without creating a
+ * {@link Location} per point. The buffer is filled once per track and appended
+ * incrementally while the track is recording.
+ * <p>
+ * Latitude and longitude are stored as E6 integers, like in the track points
+ * table. Missing float values are stored as {@link Float#NaN}. An invalid
+ * track point, e.g., a pause or resume point, is kept in the buffer and marked
+ * as a segment split. Sensor columns are only allocated once a track point
+ * with sensor data is appended.
+ * <p>
+ * Not thread safe.
+ */
+public class TrackPointBuffer {
+
+  private static final int DEFAULT_CAPACITY = 256;
+
+  private int size;
+  private long[] ids;
+  private int[] latitudes;
+  private int[] longitudes;
+  private long[] times;
+  private float[] altitudes;
+  private float[] accuracies;
+  private float[] speeds;
+  private float[] bearings;
+
+  // Bit set of the segment split indexes
+  private long[] segmentSplits;
+
+  // Sensor columns, null until a track point with sensor data is appended
+  private float[] heartRates;
+  private float[] cadences;
+  private float[] powers;
+
+  public TrackPointBuffer() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity the initial capacity
+   */
+  public TrackPointBuffer(int capacity) {
+    capacity = Math.max(capacity, 1);
+    size = 0;
+    ids = new long[capacity];
+    latitudes = new int[capacity];
+    longitudes = new int[capacity];
+    times = new long[capacity];
+    altitudes = new float[capacity];
+    accuracies = new float[capacity];
+    speeds = new float[capacity];
+    bearings = new float[capacity];
+    segmentSplits = new long[(capacity + 63) >> 6];
+  }
+
+  /**
+   * Gets the number of track points.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the id of the last track point or -1L if the buffer is empty.
+   */
+  public long getLastId() {
+    return size == 0 ? -1L : ids[size - 1];
+  }
+
+  /**
+   * Clears the buffer. Keeps the allocated capacity.
+   */
+  public void clear() {
+    for (int i = 0; i < ((size + 63) >> 6); i++) {
+      segmentSplits[i] = 0L;
+    }
+    size = 0;
+    heartRates = null;
+    cadences = null;
+    powers = null;
+  }
+
+  /**
+   * Appends the track points of a track starting from a track point id.
+   *
+   * @param myTracksProviderUtils the my tracks provider utils
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id
+   * @param includeSensorData true to read the sensor data
+   * @return the number of track points appended
+   */
+  public int fill(MyTracksProviderUtils myTracksProviderUtils, long trackId,
+      long startTrackPointId, boolean includeSensorData) {
+    int oldSize = size;
+    LocationIterator locationIterator = null;
+    try {
+      locationIterator = myTracksProviderUtils.getTrackPointLocationIterator(trackId,
+          startTrackPointId, false,
+          includeSensorData ? null : TrackPointsColumns.NO_SENSOR_COLUMNS,
+          new ReusableLocationFactory());
+      while (locationIterator.hasNext()) {
+        Location location = locationIterator.next();
+        append(locationIterator.getLocationId(), location);
+      }
+    } finally {
+      if (locationIterator != null) {
+        locationIterator.close();
+      }
+    }
+    return size - oldSize;
+  }
+
+  /**
+   * Appends a track point. The location is copied, not kept.
+   *
+   * @param id the track point id
+   * @param location the location
+   */
+  public void append(long id, Location location) {
+    ensureCapacity(size + 1);
+    ids[size] = id;
+    latitudes[size] = (int) (location.getLatitude() * 1E6);
+    longitudes[size] = (int) (location.getLongitude() * 1E6);
+    times[size] = location.getTime();
+    altitudes[size] = location.hasAltitude() ? (float) location.getAltitude() : Float.NaN;
+    accuracies[size] = location.hasAccuracy() ? location.getAccuracy() : Float.NaN;
+    speeds[size] = location.hasSpeed() ? location.getSpeed() : Float.NaN;
+    bearings[size] = location.hasBearing() ? location.getBearing() : Float.NaN;
+    if (Math.abs(location.getLatitude()) > 90 || Math.abs(location.getLongitude()) > 180) {
+      segmentSplits[size >> 6] |= 1L << size;
+    }
+
+    SensorDataSet sensorDataSet = location instanceof MyTracksLocation
+        ? ((MyTracksLocation) location).getSensorDataSet() : null;
+    if (sensorDataSet != null && heartRates == null) {
+      heartRates = newSensorColumn(ids.length);
+      cadences = newSensorColumn(ids.length);
+      powers = newSensorColumn(ids.length);
+    }
+    if (heartRates != null) {
+      boolean hasData = sensorDataSet != null;
+      heartRates[size] = hasData && sensorDataSet.hasHeartRate()
+          ? getSensorValue(sensorDataSet.getHeartRate()) : Float.NaN;
+      cadences[size] = hasData && sensorDataSet.hasCadence()
+          ? getSensorValue(sensorDataSet.getCadence()) : Float.NaN;
+      powers[size] = hasData && sensorDataSet.hasPower()
+          ? getSensorValue(sensorDataSet.getPower()) : Float.NaN;
+    }
+    size++;
+  }
+
+  /**
+   * Creates a copy of a range of track points.
+   *
+   * @param start the index of the first track point
+   * @param count the number of track points
+   */
+  public TrackPointBuffer copy(int start, int count) {
+    checkRange(start, count);
+    TrackPointBuffer copy = new TrackPointBuffer(count);
+    System.arraycopy(ids, start, copy.ids, 0, count);
+    System.arraycopy(latitudes, start, copy.latitudes, 0, count);
+    System.arraycopy(longitudes, start, copy.longitudes, 0, count);
+    System.arraycopy(times, start, copy.times, 0, count);
+    System.arraycopy(altitudes, start, copy.altitudes, 0, count);
+    System.arraycopy(accuracies, start, copy.accuracies, 0, count);
+    System.arraycopy(speeds, start, copy.speeds, 0, count);
+    System.arraycopy(bearings, start, copy.bearings, 0, count);
+    for (int i = 0; i < count; i++) {
+      if (isSegmentSplit(start + i)) {
+        copy.segmentSplits[i >> 6] |= 1L << i;
+      }
+    }
+    if (heartRates != null) {
+      copy.heartRates = new float[copy.ids.length];
+      copy.cadences = new float[copy.ids.length];
+      copy.powers = new float[copy.ids.length];
+      System.arraycopy(heartRates, start, copy.heartRates, 0, count);
+      System.arraycopy(cadences, start, copy.cadences, 0, count);
+      System.arraycopy(powers, start, copy.powers, 0, count);
+    }
+    copy.size = count;
+    return copy;
+  }
+
+  /**
+   * Fills a location with a track point.
+   *
+   * @param index the track point index
+   * @param location the location to fill
+   * @return the location
+   */
+  public Location getLocation(int index, Location location) {
+    location.reset();
+    location.setLatitude(latitudes[index] / 1E6);
+    location.setLongitude(longitudes[index] / 1E6);
+    location.setTime(times[index]);
+    if (!Float.isNaN(altitudes[index])) {
+      location.setAltitude(altitudes[index]);
+    }
+    if (!Float.isNaN(accuracies[index])) {
+      location.setAccuracy(accuracies[index]);
+    }
+    if (!Float.isNaN(speeds[index])) {
+      location.setSpeed(speeds[index]);
+    }
+    if (!Float.isNaN(bearings[index])) {
+      location.setBearing(bearings[index]);
+    }
+    return location;
+  }
+
+  /**
+   * Creates a location from a track point.
+   *
+   * @param index the track point index
+   */
+  public Location getLocation(int index) {
+    return getLocation(index, new Location(LocationManager.GPS_PROVIDER));
+  }
+
+  public long getId(int index) {
+    return ids[index];
+  }
+
+  public int getLatitudeE6(int index) {
+    return latitudes[index];
+  }
+
+  public int getLongitudeE6(int index) {
+    return longitudes[index];
+  }
+
+  public double getLatitude(int index) {
+    return latitudes[index] / 1E6;
+  }
+
+  public double getLongitude(int index) {
+    return longitudes[index] / 1E6;
+  }
+
+  public long getTime(int index) {
+    return times[index];
+  }
+
+  public float getAltitude(int index) {
+    return altitudes[index];
+  }
+
+  public float getAccuracy(int index) {
+    return accuracies[index];
+  }
+
+  public float getSpeed(int index) {
+    return speeds[index];
+  }
+
+  public float getBearing(int index) {
+    return bearings[index];
+  }
+
+  /**
+   * Returns true if the track point is an invalid point representing a segment
+   * split.
+   *
+   * @param index the track point index
+   */
+  public boolean isSegmentSplit(int index) {
+    return (segmentSplits[index >> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Returns true if any track point has sensor data.
+   */
+  public boolean hasSensorData() {
+    return heartRates != null;
+  }
+
+  /**
+   * Gets the heart rate or {@link Float#NaN} if not available.
+   *
+   * @param index the track point index
+   */
+  public float getHeartRate(int index) {
+    return heartRates == null ? Float.NaN : heartRates[index];
+  }
+
+  /**
+   * Gets the cadence or {@link Float#NaN} if not available.
+   *
+   * @param index the track point index
+   */
+  public float getCadence(int index) {
+    return cadences == null ? Float.NaN : cadences[index];
+  }
+
+  /**
+   * Gets the power or {@link Float#NaN} if not available.
+   *
+   * @param index the track point index
+   */
+  public float getPower(int index) {
+    return powers == null ? Float.NaN : powers[index];
+  }
+
+  private void checkRange(int start, int count) {
+    if (start < 0 || count < 0 || start + count > size) {
+      throw new IndexOutOfBoundsException(
+          "start: " + start + ", count: " + count + ", size: " + size);
+    }
+  }
+
+  /**
+   * Ensures the columns can hold a number of track points. Grows them by half
+   * of their current capacity or more.
+   *
+   * @param minCapacity the minimum capacity
+   */
+  private void ensureCapacity(int minCapacity) {
+    if (minCapacity <= ids.length) {
+      return;
+    }
+    int capacity = Math.max(minCapacity, ids.length + (ids.length >> 1));
+
+    long[] newIds = new long[capacity];
+    System.arraycopy(ids, 0, newIds, 0, size);
+    ids = newIds;
+    int[] newLatitudes = new int[capacity];
+    System.arraycopy(latitudes, 0, newLatitudes, 0, size);
+    latitudes = newLatitudes;
+    int[] newLongitudes = new int[capacity];
+    System.arraycopy(longitudes, 0, newLongitudes, 0, size);
+    longitudes = newLongitudes;
+    long[] newTimes = new long[capacity];
+    System.arraycopy(times, 0, newTimes, 0, size);
+    times = newTimes;
+    altitudes = growColumn(altitudes, capacity);
+    accuracies = growColumn(accuracies, capacity);
+    speeds = growColumn(speeds, capacity);
+    bearings = growColumn(bearings, capacity);
+    long[] newSegmentSplits = new long[(capacity + 63) >> 6];
+    System.arraycopy(segmentSplits, 0, newSegmentSplits, 0, segmentSplits.length);
+    segmentSplits = newSegmentSplits;
+    if (heartRates != null) {
+      heartRates = growColumn(heartRates, capacity);
+      cadences = growColumn(cadences, capacity);
+      powers = growColumn(powers, capacity);
+    }
+  }
+
+  private float[] growColumn(float[] column, int capacity) {
+    float[] newColumn = new float[capacity];
+    System.arraycopy(column, 0, newColumn, 0, size);
+    return newColumn;
+  }
+
+  /**
+   * Creates a sensor column for the current capacity. The track points already
+   * in the buffer have no sensor data.
+   *
+   * @param capacity the capacity
+   */
+  private float[] newSensorColumn(int capacity) {
+    float[] column = new float[capacity];
+    for (int i = 0; i < size; i++) {
+      column[i] = Float.NaN;
+    }
+    return column;
+  }
+
+  /**
+   * Gets the value of a sensor or {@link Float#NaN} if the sensor is not
+   * sending.
+   *
+   * @param sensorData the sensor data
+   */
+  private float getSensorValue(SensorData sensorData) {
+    return sensorData.getState() == Sensor.SensorState.SENDING && sensorData.hasValue()
+        ? sensorData.getValue() : Float.NaN;
+  }
+}
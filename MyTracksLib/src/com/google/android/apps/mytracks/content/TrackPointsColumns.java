@@ -62,6 +62,16 @@ public interface TrackPointsColumns extends BaseColumns {
       + SENSOR + " BLOB" 
       + ");";
 
+  // Indexes
+  public static final String TRACKID_ID_INDEX = "trackpoints_trackid_id_index";
+  public static final String TRACKID_TIME_INDEX = "trackpoints_trackid_time_index";
+
+  public static final String CREATE_TRACKID_ID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_ID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + _ID + ");";
+
+  public static final String CREATE_TRACKID_TIME_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_TIME_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + TIME + ");";
+
   public static final String[] COLUMNS = {
       _ID,
       TRACKID,
@@ -75,6 +85,19 @@ public interface TrackPointsColumns extends BaseColumns {
       SENSOR
    };
 
+  // All the columns except the sensor column
+  public static final String[] NO_SENSOR_COLUMNS = {
+      _ID,
+      TRACKID,
+      LONGITUDE,
+      LATITUDE,
+      TIME,
+      ALTITUDE,
+      ACCURACY,
+      SPEED,
+      BEARING
+  };
+
    public static final byte[] COLUMN_TYPES = {
        LONG_TYPE_ID, // id
        LONG_TYPE_ID, // track id
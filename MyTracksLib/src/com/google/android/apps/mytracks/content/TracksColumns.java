@@ -92,6 +92,16 @@ public interface TracksColumns extends BaseColumns {
   // Calorie burned of the track
   public static final String CALORIE = "calorie";
 
+  /*
+   * The local start times of the day, the week, the month, and the year of the
+   * track start time, in the time zone when the start time was written. Set by
+   * the provider for the aggregates, not in COLUMNS.
+   */
+  public static final String DAYSTART = "daystart";
+  public static final String WEEKSTART = "weekstart";
+  public static final String MONTHSTART = "monthstart";
+  public static final String YEARSTART = "yearstart";
+
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" // table
       + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " // id
       + NAME + " STRING, " // name
@@ -124,7 +134,11 @@ public interface TracksColumns extends BaseColumns {
       + MODIFIEDTIME + " INTEGER, " // modified time
       + SHAREDWITHME + " INTEGER, " // shared with me
       + SHAREDOWNER + " STRING, " // shared owner
-      + CALORIE + " FLOAT);"; // calorie
+      + CALORIE + " FLOAT, " // calorie
+      + DAYSTART + " INTEGER, " // day start
+      + WEEKSTART + " INTEGER, " // week start
+      + MONTHSTART + " INTEGER, " // month start
+      + YEARSTART + " INTEGER);"; // year start
 
   public static final String[] COLUMNS = { _ID, // id
       NAME, // name
@@ -192,4 +206,22 @@ public interface TracksColumns extends BaseColumns {
       ContentTypeIds.STRING_TYPE_ID, // shared owner
       ContentTypeIds.FLOAT_TYPE_ID // calorie
   };
+
+  // Indexes of the period start columns, to recompute an aggregate extremity
+  public static final String DAYSTART_INDEX = "tracks_daystart_index";
+  public static final String WEEKSTART_INDEX = "tracks_weekstart_index";
+  public static final String MONTHSTART_INDEX = "tracks_monthstart_index";
+  public static final String YEARSTART_INDEX = "tracks_yearstart_index";
+
+  public static final String CREATE_DAYSTART_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + DAYSTART_INDEX + " ON " + TABLE_NAME + " (" + DAYSTART + ");";
+
+  public static final String CREATE_WEEKSTART_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + WEEKSTART_INDEX + " ON " + TABLE_NAME + " (" + WEEKSTART + ");";
+
+  public static final String CREATE_MONTHSTART_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + MONTHSTART_INDEX + " ON " + TABLE_NAME + " (" + MONTHSTART + ");";
+
+  public static final String CREATE_YEARSTART_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + YEARSTART_INDEX + " ON " + TABLE_NAME + " (" + YEARSTART + ");";
 }
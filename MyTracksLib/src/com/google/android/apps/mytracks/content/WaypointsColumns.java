@@ -108,6 +108,13 @@ public interface WaypointsColumns extends BaseColumns {
       + CALORIE + " FLOAT, "  
       + PHOTOURL + " STRING"
       + ");";
+
+  // Indexes
+  public static final String TRACKID_TYPE_ID_INDEX = "waypoints_trackid_type_id_index";
+
+  public static final String CREATE_TRACKID_TYPE_ID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_TYPE_ID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + TYPE + ", " + _ID
+      + ");";
   
   public static final String[] COLUMNS = {
       _ID,
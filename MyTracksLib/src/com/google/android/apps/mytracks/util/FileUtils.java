@@ -20,7 +20,12 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Environment;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
 
 /**
  * Utilities for dealing with files.
@@ -29,6 +34,11 @@ import java.io.File;
  */
 public class FileUtils {
 
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // The size of the char buffer of the print writers, in chars
+  private static final int WRITER_BUFFER_SIZE = 16 * 1024;
+
   private FileUtils() {}
 
   /**
@@ -151,6 +161,18 @@ public class FileUtils {
     return buildUniqueFileName(directory, fileBaseName, extension, 0);
   }
 
+  /**
+   * Creates a print writer writing UTF-8 to an output stream through one char
+   * buffer reused for all the writes. The print writer must be flushed or
+   * closed.
+   * 
+   * @param outputStream the output stream
+   */
+  public static PrintWriter newPrintWriter(OutputStream outputStream) {
+    return new PrintWriter(new BufferedWriter(
+        new OutputStreamWriter(outputStream, UTF_8), WRITER_BUFFER_SIZE));
+  }
+
   /**
    * Gets the name from a file name, without the extension.
    * 
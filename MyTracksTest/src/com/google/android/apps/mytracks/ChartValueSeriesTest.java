@@ -29,6 +29,10 @@ public class ChartValueSeriesTest extends AndroidTestCase {
 
   @Override
   protected void setUp() throws Exception {
+    setUpSeries();
+  }
+
+  private void setUpSeries() {
     series = new ChartValueSeries(getContext(),
         Integer.MIN_VALUE,
         Integer.MAX_VALUE,
@@ -77,4 +81,83 @@ public class ChartValueSeriesTest extends AndroidTestCase {
     assertEquals(200, series.getMinMarkerValue());
     assertEquals(700, series.getMaxMarkerValue());
   }
+
+  public void testUpdateLines() {
+    addPoints(0, 10);
+    series.updateDimension();
+    assertEquals(10, series.updateLines(0f, 1f, 0f, 100f, 100f));
+
+    // Only the new points are mapped
+    assertEquals(0, series.updateLines(0f, 1f, 0f, 100f, 100f));
+    addPoints(10, 5);
+    assertEquals(5, series.updateLines(0f, 1f, 0f, 100f, 100f));
+
+    // All the points are mapped when the mapping changes
+    assertEquals(15, series.updateLines(0f, 2f, 0f, 100f, 100f));
+  }
+
+  public void testUpdateLines_intervalChanged() {
+    addPoints(0, 10);
+    series.updateDimension();
+    assertEquals(10, series.updateLines(0f, 1f, 0f, 100f, 100f));
+
+    // Same interval
+    series.update(450);
+    series.updateDimension();
+    assertEquals(0, series.updateLines(0f, 1f, 0f, 100f, 100f));
+
+    // Different interval
+    series.update(700);
+    series.updateDimension();
+    assertEquals(10, series.updateLines(0f, 1f, 0f, 100f, 100f));
+  }
+
+  public void testClearPoints() {
+    addPoints(0, 10);
+    series.updateLines(0f, 1f, 0f, 100f, 100f);
+    series.clearPoints();
+    assertEquals(0, series.getNumberOfPoints());
+    assertEquals(0, series.updateLines(0f, 1f, 0f, 100f, 100f));
+  }
+
+  public void testUpdateLines_decimation() {
+    addPoints(0, 100000);
+    series.update(1000);
+    series.addPoint(100000, 1000);
+    addPoints(100001, 10000);
+    series.updateDimension();
+    assertEquals(1000, series.getInterval());
+    series.updateLines(0f, 0.001f, 0f, 100f, 100f);
+
+    // At most 4 vertices per pixel column
+    assertTrue(series.getNumberOfLines() < 4 * 111);
+    // The peak is kept
+    assertEquals(80f, series.getMinLinesY(), 0.01f);
+  }
+
+  public void testUpdateLines_decimationAppend() {
+    series.update(0);
+    series.update(1000);
+    series.updateDimension();
+    for (int i = 0; i < 100; i++) {
+      addPoints(i * 997, 997);
+      series.updateLines(0f, 0.01f, 0f, 100f, 100f);
+    }
+    int numberOfLines = series.getNumberOfLines();
+    float minLinesY = series.getMinLinesY();
+
+    // Same as mapping all the points at once
+    series.updateLines(1f, 0.01f, 0f, 100f, 100f);
+    assertEquals(99700, series.updateLines(0f, 0.01f, 0f, 100f, 100f));
+    assertEquals(numberOfLines, series.getNumberOfLines());
+    assertEquals(minLinesY, series.getMinLinesY());
+  }
+
+  private void addPoints(int start, int count) {
+    for (int i = start; i < start + count; i++) {
+      double value = 100 + 10 * Math.sin(i / 100.0);
+      series.update(value);
+      series.addPoint(i, value);
+    }
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.view.View.MeasureSpec;
+
+import java.util.ArrayList;
+
+/**
+ * Tests {@link ChartView}.
+ */
+public class ChartViewTest extends AndroidTestCase {
+
+  private static final int BATCH_SIZE = 100;
+
+  private ChartView chartView;
+  private int numberOfPoints;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    chartView = new ChartView(getContext());
+    chartView.measure(MeasureSpec.makeMeasureSpec(800, MeasureSpec.EXACTLY),
+        MeasureSpec.makeMeasureSpec(400, MeasureSpec.EXACTLY));
+    numberOfPoints = 0;
+  }
+
+  /**
+   * Benchmarks appending batches of points to a chart whose max x grows with
+   * every batch. The time of an append should not depend on the number of
+   * points already in the chart. Both timed ranges double the number of
+   * points, so they include as many changes of the x mapping. Only logs the
+   * times, since they depend on the device.
+   */
+  @LargeTest
+  public void testAddDataPoints_benchmark() {
+    appendBatches(50000);
+    long earlyTime = appendBatches(100000);
+    appendBatches(200000);
+    long lateTime = appendBatches(400000);
+    Log.i(ChartViewTest.class.getSimpleName(), BATCH_SIZE + " points append, 50k to 100k points: "
+        + earlyTime / 1000 + " us, 200k to 400k points: " + lateTime / 1000 + " us");
+    assertEquals(400000, numberOfPoints);
+  }
+
+  /**
+   * Appends batches of points until the chart has a number of points.
+   *
+   * @param size the number of points
+   * @return the average time of an append in nanoseconds
+   */
+  private long appendBatches(int size) {
+    int numberOfBatches = 0;
+    long start = System.nanoTime();
+    while (numberOfPoints < size) {
+      ArrayList<double[]> dataPoints = new ArrayList<double[]>();
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        double[] dataPoint = new double[ChartView.NUM_SERIES + 1];
+        for (int j = 0; j < dataPoint.length; j++) {
+          dataPoint[j] = Double.NaN;
+        }
+        dataPoint[0] = numberOfPoints * 0.01;
+        dataPoint[ChartView.ELEVATION_SERIES + 1] = 100 + 10 * Math.sin(numberOfPoints / 100.0);
+        dataPoint[ChartView.SPEED_SERIES + 1] = 20 + 5 * Math.cos(numberOfPoints / 50.0);
+        dataPoints.add(dataPoint);
+        numberOfPoints++;
+      }
+      chartView.addDataPoints(dataPoints);
+      numberOfBatches++;
+    }
+    return (System.nanoTime() - start) / numberOfBatches;
+  }
+}
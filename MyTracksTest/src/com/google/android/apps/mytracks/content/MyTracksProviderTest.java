@@ -18,10 +18,16 @@ package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.MyTracksProvider.DatabaseHelper;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.test.AndroidTestCase;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Tests {@link MyTracksProvider}.
  * 
@@ -49,6 +55,19 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasTable(TracksColumns.TABLE_NAME));
     assertTrue(hasTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(hasTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertTrue(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+    assertTrue(hasTable(AggregatesColumns.TABLE_NAME));
+    assertTrue(hasIndex(AggregatesColumns.PERIOD_PERIODSTART_CATEGORY_INDEX));
+    assertTrue(hasIndex(TracksColumns.DAYSTART_INDEX));
+    assertTrue(hasIndex(TracksColumns.YEARSTART_INDEX));
+    assertTrue(hasTable(SpatialIndexColumns.TRACKS_TABLE_NAME));
+    assertTrue(hasTable(SpatialIndexColumns.WAYPOINTS_TABLE_NAME));
+    assertTrue(hasIndex(SpatialIndexColumns.TRACKS_LEVEL_CELLX_CELLY_INDEX));
+    assertTrue(hasIndex(SpatialIndexColumns.WAYPOINTS_LEVEL_CELLX_CELLY_INDEX));
+    assertTrue(hasTable(SearchIndexColumns.TRACKS_TABLE_NAME));
+    assertTrue(hasTable(SearchIndexColumns.WAYPOINTS_TABLE_NAME));
   }
 
   /**
@@ -67,6 +86,11 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(hasTable(TracksColumns.TABLE_NAME));
     assertTrue(hasTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(hasTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(hasTable(AggregatesColumns.TABLE_NAME));
+    assertTrue(hasTable(SpatialIndexColumns.TRACKS_TABLE_NAME));
+    assertTrue(hasTable(SpatialIndexColumns.WAYPOINTS_TABLE_NAME));
+    assertTrue(hasTable(SearchIndexColumns.TRACKS_TABLE_NAME));
+    assertTrue(hasTable(SearchIndexColumns.WAYPOINTS_TABLE_NAME));
   }
 
   /**
@@ -174,7 +198,153 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDWITHME));
     assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.SHAREDOWNER));
     assertFalse(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.PHOTOURL));
-    assertFalse(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.CALORIE));
+    assertFalse(hasColumn(WaypointsColumns.TABLE_NAME, WaypointsColumns.CALORIE));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertTrue(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertTrue(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 23.
+   */
+  public void testDatabaseHelper_onUpgrade_Version23() {
+    setupUpgrade(23);
+
+    assertFalse(hasIndex(TrackPointsColumns.TRACKID_ID_INDEX));
+    assertFalse(hasIndex(TrackPointsColumns.TRACKID_TIME_INDEX));
+    assertFalse(hasIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX));
+    assertTrue(hasTable(AggregatesColumns.TABLE_NAME));
+    assertTrue(hasIndex(AggregatesColumns.PERIOD_PERIODSTART_CATEGORY_INDEX));
+    assertTrue(hasIndex(TracksColumns.DAYSTART_INDEX));
+
+    // The triggers are created after the track period start columns
+    db.execSQL("INSERT INTO " + TracksColumns.TABLE_NAME + " (" + TracksColumns.STARTTIME
+        + ", " + TracksColumns.DAYSTART + ") VALUES (1000, 0)");
+    db.execSQL("DELETE FROM " + TracksColumns.TABLE_NAME);
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 24.
+   */
+  public void testDatabaseHelper_onUpgrade_Version24() {
+    setupUpgrade(24);
+
+    assertTrue(hasTable(SpatialIndexColumns.TRACKS_TABLE_NAME));
+    assertTrue(hasTable(SpatialIndexColumns.WAYPOINTS_TABLE_NAME));
+    assertTrue(hasIndex(SpatialIndexColumns.TRACKS_LEVEL_CELLX_CELLY_INDEX));
+    assertTrue(hasIndex(SpatialIndexColumns.WAYPOINTS_LEVEL_CELLX_CELLY_INDEX));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 25.
+   */
+  public void testDatabaseHelper_onUpgrade_Version25() {
+    setupUpgrade(25);
+
+    assertTrue(hasTable(SearchIndexColumns.TRACKS_TABLE_NAME));
+    assertTrue(hasTable(SearchIndexColumns.WAYPOINTS_TABLE_NAME));
+  }
+
+  /**
+   * Tests {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int,
+   * int)} when version is 26.
+   */
+  public void testDatabaseHelper_onUpgrade_Version26() {
+    setupUpgrade(26);
+
+    assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.DAYSTART));
+    assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.WEEKSTART));
+    assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.MONTHSTART));
+    assertTrue(hasColumn(TracksColumns.TABLE_NAME, TracksColumns.YEARSTART));
+    assertTrue(hasTable(AggregatesColumns.TABLE_NAME));
+  }
+
+  /**
+   * Tests that the track point queries by track id use the track id indexes.
+   */
+  public void testTrackPointsQueryPlan() {
+    String table = TrackPointsColumns.TABLE_NAME;
+    String sortOrder = TrackPointsColumns._ID;
+
+    // getFirstTrackPointId and getLastTrackPointId
+    assertUsesIndex(TrackPointsColumns.TRACKID_ID_INDEX, buildQuery(
+        table, MyTracksProviderUtilsImpl.FIRST_TRACK_POINT_ID_SELECTION, sortOrder, null));
+    assertUsesIndex(TrackPointsColumns.TRACKID_ID_INDEX, buildQuery(
+        table, MyTracksProviderUtilsImpl.LAST_TRACK_POINT_ID_SELECTION, sortOrder, null));
+
+    // getFirstValidTrackPoint and getLastValidTrackPoint
+    assertUsesIndex(TrackPointsColumns.TRACKID_ID_INDEX, buildQuery(
+        table, MyTracksProviderUtilsImpl.FIRST_VALID_TRACK_POINT_SELECTION, null, null));
+    assertUsesIndex(TrackPointsColumns.TRACKID_ID_INDEX, buildQuery(
+        table, MyTracksProviderUtilsImpl.LAST_VALID_TRACK_POINT_SELECTION, null, null));
+
+    // getTrackPointId
+    assertUsesIndex(TrackPointsColumns.TRACKID_TIME_INDEX, buildQuery(
+        table, MyTracksProviderUtilsImpl.TRACK_POINT_ID_BY_TIME_SELECTION, sortOrder, null));
+
+    // getTrackPointLocationIterator
+    assertUsesIndex(TrackPointsColumns.TRACKID_ID_INDEX, buildQuery(
+        table, MyTracksProviderUtilsImpl.TRACK_POINTS_AFTER_SELECTION, sortOrder, "2000"));
+    assertUsesIndex(TrackPointsColumns.TRACKID_ID_INDEX, buildQuery(table,
+        MyTracksProviderUtilsImpl.TRACK_POINTS_BEFORE_SELECTION, sortOrder + " DESC", "2000"));
+    assertUsesIndex(TrackPointsColumns.TRACKID_ID_INDEX, buildQuery(
+        table, MyTracksProviderUtilsImpl.TRACK_POINTS_SELECTION, sortOrder, "2000"));
+  }
+
+  /**
+   * Tests that the waypoint queries by track id and type use the waypoints
+   * index.
+   */
+  public void testWaypointsQueryPlan() {
+    // getLastWaypoint
+    assertUsesIndex(WaypointsColumns.TRACKID_TYPE_ID_INDEX, buildQuery(WaypointsColumns.TABLE_NAME,
+        MyTracksProviderUtilsImpl.WAYPOINTS_BY_TYPE_SELECTION, WaypointsColumns._ID + " DESC",
+        "1"));
+  }
+
+  /**
+   * Tests that the aggregates queries by period and period start use the
+   * aggregates index.
+   */
+  public void testAggregatesQueryPlan() {
+    // getAggregateCursor
+    assertUsesIndex(AggregatesColumns.PERIOD_PERIODSTART_CATEGORY_INDEX,
+        buildQuery(AggregatesColumns.TABLE_NAME, MyTracksProviderUtilsImpl.AGGREGATES_SELECTION,
+            AggregatesColumns.DEFAULT_SORT_ORDER, null));
+  }
+
+  /**
+   * Tests that the area queries use the spatial index.
+   */
+  public void testSpatialIndexQueryPlan() {
+    // getTrackCursor
+    assertUsesIndex(SpatialIndexColumns.TRACKS_LEVEL_CELLX_CELLY_INDEX,
+        buildQuery(TracksColumns.TABLE_NAME,
+            MyTracksProviderUtilsImpl.getTrackAreaSelection(45.0, 10.0, 45.1, 10.1),
+            TracksColumns._ID, null));
+
+    // getWaypointCursor
+    assertUsesIndex(SpatialIndexColumns.WAYPOINTS_LEVEL_CELLX_CELLY_INDEX,
+        buildQuery(WaypointsColumns.TABLE_NAME,
+            MyTracksProviderUtilsImpl.getWaypointAreaSelection(45.0, 10.0, 45.1, 10.1),
+            WaypointsColumns._ID, null));
+  }
+
+  /**
+   * Tests that the search queries read the matching rows of the search index,
+   * then their tracks or waypoints by id.
+   */
+  public void testSearchIndexQueryPlan() {
+    // getTrackSearchCursor
+    assertUsesIndex("PRIMARY KEY", buildQuery(MyTracksProvider.TRACKS_SEARCH_TABLES,
+        MyTracksProviderUtilsImpl.TRACKS_SEARCH_SELECTION, null, null));
+
+    // getWaypointSearchCursor
+    assertUsesIndex("PRIMARY KEY", buildQuery(MyTracksProvider.WAYPOINTS_SEARCH_TABLES,
+        MyTracksProviderUtilsImpl.WAYPOINTS_SEARCH_SELECTION, null, null));
   }
 
   /**
@@ -193,15 +363,22 @@ public class MyTracksProviderTest extends AndroidTestCase {
         TrackPointsColumns.CONTENT_TYPE, myTracksProvider.getType(TrackPointsColumns.CONTENT_URI));
     assertEquals(
         WaypointsColumns.CONTENT_TYPE, myTracksProvider.getType(WaypointsColumns.CONTENT_URI));
+    assertEquals(
+        AggregatesColumns.CONTENT_TYPE, myTracksProvider.getType(AggregatesColumns.CONTENT_URI));
   }
 
   /**
-   * Creates a table, containing one column.
+   * Creates a table, containing one test column and some integer columns.
    * 
    * @param table the table name
+   * @param columns the integer columns
    */
-  private void createTable(String table) {
-    db.execSQL("CREATE TABLE " + table + " (test INTEGER)");
+  private void createTable(String table, String... columns) {
+    StringBuilder builder = new StringBuilder("CREATE TABLE " + table + " (test INTEGER");
+    for (String column : columns) {
+      builder.append(", ").append(column).append(" INTEGER");
+    }
+    db.execSQL(builder.append(")").toString());
   }
 
   /**
@@ -227,6 +404,58 @@ public class MyTracksProviderTest extends AndroidTestCase {
     }
   }
 
+  /**
+   * Returns true if the index exists.
+   * 
+   * @param index the index name
+   */
+  private boolean hasIndex(String index) {
+    Cursor cursor = db.rawQuery(
+        "SELECT name FROM sqlite_master WHERE type='index' AND name=?", new String[] { index });
+    try {
+      return cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Builds a query the way {@link MyTracksProvider#query} does.
+   * 
+   * @param tables the tables
+   * @param selection the selection
+   * @param sortOrder the sort order, can be null
+   * @param limit the limit, can be null
+   */
+  private String buildQuery(String tables, String selection, String sortOrder, String limit) {
+    return SQLiteQueryBuilder.buildQueryString(
+        false, tables, null, selection, null, null, sortOrder, limit);
+  }
+
+  /**
+   * Asserts that the query plan of a query uses an index.
+   * 
+   * @param index the index name
+   * @param sql the query
+   */
+  private void assertUsesIndex(String index, String sql) {
+    String[] selectionArgs = new String[sql.length() - sql.replace("?", "").length()];
+    for (int i = 0; i < selectionArgs.length; i++) {
+      selectionArgs[i] = "1";
+    }
+    Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+    StringBuilder plan = new StringBuilder();
+    try {
+      int detailIndex = cursor.getColumnIndexOrThrow("detail");
+      while (cursor.moveToNext()) {
+        plan.append(cursor.getString(detailIndex)).append('\n');
+      }
+    } finally {
+      cursor.close();
+    }
+    assertTrue(plan.toString(), plan.indexOf(index) != -1);
+  }
+
   /**
    * Returns true if the column in the table exists.
    * 
@@ -253,9 +482,30 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TracksColumns.TABLE_NAME);
     dropTable(TrackPointsColumns.TABLE_NAME);
     dropTable(WaypointsColumns.TABLE_NAME);
-    createTable(TracksColumns.TABLE_NAME);
-    createTable(TrackPointsColumns.TABLE_NAME);
-    createTable(WaypointsColumns.TABLE_NAME);
+    dropTable(AggregatesColumns.TABLE_NAME);
+    dropTable(SpatialIndexColumns.TRACKS_TABLE_NAME);
+    dropTable(SpatialIndexColumns.WAYPOINTS_TABLE_NAME);
+    dropTable(SearchIndexColumns.TRACKS_TABLE_NAME);
+    dropTable(SearchIndexColumns.WAYPOINTS_TABLE_NAME);
+
+    // The track columns read by the aggregates, the spatial index, and the
+    // search index. The calorie column is added in version 22.
+    List<String> trackColumns = new ArrayList<String>(Arrays.asList(TracksColumns._ID,
+        TracksColumns.MINLAT, TracksColumns.MAXLAT, TracksColumns.MINLON, TracksColumns.MAXLON,
+        TracksColumns.NAME, TracksColumns.DESCRIPTION, TracksColumns.CATEGORY,
+        TracksColumns.STARTTIME, TracksColumns.TOTALDISTANCE, TracksColumns.TOTALTIME,
+        TracksColumns.MOVINGTIME, TracksColumns.MAXSPEED, TracksColumns.MINELEVATION,
+        TracksColumns.MAXELEVATION, TracksColumns.ELEVATIONGAIN, TracksColumns.MINGRADE,
+        TracksColumns.MAXGRADE));
+    if (oldVersion > 21) {
+      trackColumns.add(TracksColumns.CALORIE);
+    }
+    createTable(TracksColumns.TABLE_NAME, trackColumns.toArray(new String[trackColumns.size()]));
+    createTable(TrackPointsColumns.TABLE_NAME, TrackPointsColumns._ID, TrackPointsColumns.TRACKID,
+        TrackPointsColumns.TIME);
+    createTable(WaypointsColumns.TABLE_NAME, WaypointsColumns._ID, WaypointsColumns.TRACKID,
+        WaypointsColumns.TYPE, WaypointsColumns.LATITUDE, WaypointsColumns.LONGITUDE,
+        WaypointsColumns.NAME, WaypointsColumns.DESCRIPTION, WaypointsColumns.CATEGORY);
 
     DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
     databaseHelper.onUpgrade(db, oldVersion, MyTracksProvider.DATABASE_VERSION);
@@ -17,6 +17,9 @@ package com.google.android.apps.mytracks.content;
 
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationFactory;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
+import com.google.android.apps.mytracks.content.Sensor.SensorData;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.content.Sensor.SensorState;
 import com.google.android.apps.mytracks.content.Waypoint.WaypointType;
 import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
 import com.google.android.apps.mytracks.stats.TripStatistics;
@@ -28,12 +31,17 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.location.Location;
+import android.provider.BaseColumns;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
+import java.util.TimeZone;
 import java.util.Vector;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -338,6 +346,189 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     providerUtils.updateTrack(track);
     assertEquals(nameNew, providerUtils.getTrack(trackId).getName()); 
   }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#updateTrackStatistics(Track)}.
+   */
+  public void testUpdateTrackStatistics() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 0);
+    track.setName("name1");
+    providerUtils.insertTrack(track);
+    track.setName("name2");
+    track.setNumberOfPoints(10);
+    track.setStopId(20L);
+    providerUtils.updateTrackStatistics(track);
+    Track updatedTrack = providerUtils.getTrack(trackId);
+    assertEquals("name1", updatedTrack.getName());
+    assertEquals(10, updatedTrack.getNumberOfPoints());
+    assertEquals(20L, updatedTrack.getStopId());
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#getAggregateTripStatistics(String, long, long, String)}
+   * as tracks are inserted, updated, and deleted.
+   */
+  public void testGetAggregateTripStatistics() {
+    long march = getTime(2013, Calendar.MARCH, 1, 0);
+    long april = getTime(2013, Calendar.APRIL, 1, 0);
+    long monday = getTime(2013, Calendar.MARCH, 4, 0);
+    long wednesday = getTime(2013, Calendar.MARCH, 6, 0);
+    long thursday = getTime(2013, Calendar.MARCH, 7, 0);
+
+    Track track1 = getAggregateTrack(1L, wednesday + 10 * 3600000L, "run", 1000.0, 5.0, 10.0);
+    Track track2 = getAggregateTrack(2L, thursday + 8 * 3600000L, "bike", 2000.0, 8.0, 5.0);
+    Track track3 = getAggregateTrack(3L, april + 3600000L, "run", 500.0, 3.0, 0.0);
+    providerUtils.insertTrack(track1);
+    providerUtils.insertTrack(track2);
+    providerUtils.insertTrack(track3);
+
+    TripStatistics tripStatistics = providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_MONTH, march, april, null);
+    assertEquals(3000.0, tripStatistics.getTotalDistance());
+    assertEquals(8.0, tripStatistics.getMaxSpeed());
+    assertEquals(5.0, tripStatistics.getMinElevation());
+    tripStatistics = providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_MONTH, march, april, "run");
+    assertEquals(1000.0, tripStatistics.getTotalDistance());
+    assertEquals(5.0, tripStatistics.getMaxSpeed());
+    tripStatistics = providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_DAY, wednesday, thursday, null);
+    assertEquals(1000.0, tripStatistics.getTotalDistance());
+    assertEquals(3500.0, providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_YEAR, Long.MIN_VALUE, Long.MAX_VALUE, null).getTotalDistance());
+
+    // A week starts on Monday
+    Cursor cursor = providerUtils.getAggregateCursor(
+        AggregatesColumns.PERIOD_WEEK, monday, monday + 1L, null);
+    try {
+      assertEquals(2, cursor.getCount());
+    } finally {
+      cursor.close();
+    }
+
+    // Move the second track to the first activity type
+    track2.setCategory("run");
+    track2.getTripStatistics().setMaxSpeed(4.0);
+    providerUtils.updateTrack(track2);
+    assertNull(providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_MONTH, march, april, "bike"));
+    tripStatistics = providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_MONTH, march, april, "run");
+    assertEquals(3000.0, tripStatistics.getTotalDistance());
+    assertEquals(5.0, tripStatistics.getMaxSpeed());
+
+    // Deleting the first track recomputes the extremities
+    providerUtils.deleteTrack(context, track1.getId());
+    tripStatistics = providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_MONTH, march, april, "run");
+    assertEquals(2000.0, tripStatistics.getTotalDistance());
+    assertEquals(4.0, tripStatistics.getMaxSpeed());
+    assertEquals(5.0, tripStatistics.getMinElevation());
+    assertEquals(15.0, tripStatistics.getMaxElevation());
+    assertNull(providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_DAY, wednesday, thursday, null));
+  }
+
+  /**
+   * Tests that a track updated after a time zone change is subtracted from the
+   * periods it was added to.
+   */
+  public void testGetAggregateTripStatistics_timeZoneChange() {
+    TimeZone defaultTimeZone = TimeZone.getDefault();
+    try {
+      TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+      long march1 = getTime(2013, Calendar.MARCH, 1, 0);
+      Track track = getAggregateTrack(1L, march1 + 23 * 3600000L, "run", 1000.0, 5.0, 10.0);
+      providerUtils.insertTrack(track);
+
+      // The start time is on March 2 in Tokyo
+      TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+      long march2 = getTime(2013, Calendar.MARCH, 2, 0);
+      track.getTripStatistics().setTotalDistance(1500.0);
+      providerUtils.updateTrack(track);
+      assertNull(providerUtils.getAggregateTripStatistics(
+          AggregatesColumns.PERIOD_DAY, march1, march1 + 1L, null));
+      assertEquals(1500.0, providerUtils.getAggregateTripStatistics(
+          AggregatesColumns.PERIOD_DAY, march2, march2 + 1L, null).getTotalDistance());
+      Cursor cursor = providerUtils.getAggregateCursor(
+          AggregatesColumns.PERIOD_DAY, Long.MIN_VALUE, Long.MAX_VALUE, null);
+      try {
+        assertEquals(1, cursor.getCount());
+      } finally {
+        cursor.close();
+      }
+
+      // Rebuilding moves the track to the periods of the current time zone
+      TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+      assertTrue(providerUtils.rebuildAggregates());
+      assertEquals(1500.0, providerUtils.getAggregateTripStatistics(
+          AggregatesColumns.PERIOD_DAY, march1, march1 + 1L, null).getTotalDistance());
+
+      // Deleting the track after another time zone change empties its periods
+      TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+      providerUtils.deleteTrack(context, track.getId());
+      assertNull(providerUtils.getAggregateTripStatistics(
+          AggregatesColumns.PERIOD_YEAR, Long.MIN_VALUE, Long.MAX_VALUE, null));
+    } finally {
+      TimeZone.setDefault(defaultTimeZone);
+    }
+  }
+
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#rebuildAggregates()}.
+   */
+  public void testRebuildAggregates() {
+    long march = getTime(2013, Calendar.MARCH, 1, 0);
+    providerUtils.insertTrack(getAggregateTrack(1L, march + 3600000L, "run", 1000.0, 5.0, 10.0));
+    providerUtils.insertTrack(getAggregateTrack(2L, march + 7200000L, null, 2000.0, 8.0, 5.0));
+    TripStatistics expected = providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_DAY, march, march + 1L, null);
+
+    assertTrue(providerUtils.rebuildAggregates());
+    TripStatistics tripStatistics = providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_DAY, march, march + 1L, null);
+    assertEquals(expected.getTotalDistance(), tripStatistics.getTotalDistance());
+    assertEquals(expected.getMaxSpeed(), tripStatistics.getMaxSpeed());
+    assertEquals(expected.getMinElevation(), tripStatistics.getMinElevation());
+    assertEquals(2000.0, providerUtils.getAggregateTripStatistics(
+        AggregatesColumns.PERIOD_DAY, march, march + 1L, "").getTotalDistance());
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#getTrackCursor(double, double, double, double)}
+   * and {@link MyTracksProviderUtilsImpl#getNearestTracks(double, double, int)}.
+   */
+  public void testGetTracksInArea() {
+    // Tracks in Paris, London, and New York, and a track without track points
+    providerUtils.insertTrack(getAreaTrack(1L, 48.8, 2.3, 48.9, 2.4));
+    providerUtils.insertTrack(getAreaTrack(2L, 51.4, -0.2, 51.6, 0.1));
+    Track track3 = getAreaTrack(3L, 40.6, -74.1, 40.9, -73.8);
+    providerUtils.insertTrack(track3);
+    providerUtils.insertTrack(getTrack(4L, 0));
+
+    assertIds(providerUtils.getTrackCursor(48.0, -1.0, 52.0, 3.0), 1L, 2L);
+    assertIds(providerUtils.getTrackCursor(48.85, 2.35, 48.86, 2.36), 1L);
+    assertIds(providerUtils.getTrackCursor(-90.0, -180.0, 90.0, 180.0), 1L, 2L, 3L);
+    assertIds(providerUtils.getTrackCursor(0.0, 10.0, 10.0, 20.0));
+
+    List<Track> tracks = providerUtils.getNearestTracks(50.0, 1.0, 5);
+    assertEquals(3, tracks.size());
+    assertEquals(1L, tracks.get(0).getId());
+    assertEquals(2L, tracks.get(1).getId());
+    assertEquals(3L, tracks.get(2).getId());
+    assertEquals(0, providerUtils.getNearestTracks(50.0, 1.0, 0).size());
+
+    // Move the third track to Amiens, then delete the first
+    track3.getTripStatistics().setBounds(2250000, 49950000, 2350000, 49850000);
+    providerUtils.updateTrack(track3);
+    assertEquals(3L, providerUtils.getNearestTracks(50.0, 1.0, 1).get(0).getId());
+    assertIds(providerUtils.getTrackCursor(48.0, -1.0, 52.0, 3.0), 1L, 2L, 3L);
+    providerUtils.deleteTrack(context, 1L);
+    assertIds(providerUtils.getTrackCursor(48.0, -1.0, 52.0, 3.0), 2L, 3L);
+  }
   
   /**
    * Tests the method {@link MyTracksProviderUtilsImpl#createContentValues(Waypoint)}.
@@ -635,6 +826,63 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertEquals(TEST_DESC_NEW, providerUtils.getWaypoint(1).getDescription());
   }
 
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#updateTrackAndWaypoints(Track, List)}.
+   */
+  public void testUpdateTrackAndWaypoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    providerUtils.insertTrack(track);
+    Waypoint waypoint = new Waypoint();
+    waypoint.setDescription(TEST_DESC);
+    waypoint.setTrackId(trackId);
+    providerUtils.insertWaypoint(waypoint);
+
+    track.setName("name2");
+    waypoint = providerUtils.getWaypoint(1);
+    waypoint.setDescription(TEST_DESC_NEW);
+    List<Waypoint> waypoints = new ArrayList<Waypoint>();
+    waypoints.add(waypoint);
+    assertTrue(providerUtils.updateTrackAndWaypoints(track, waypoints));
+
+    assertEquals("name2", providerUtils.getTrack(trackId).getName());
+    assertEquals(TEST_DESC_NEW, providerUtils.getWaypoint(1).getDescription());
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#getWaypointCursor(double, double, double, double)}
+   * and {@link MyTracksProviderUtilsImpl#getNearestWaypoints(double, double, int)}.
+   */
+  public void testGetWaypointsInArea() {
+    long trackId = System.currentTimeMillis();
+    providerUtils.insertTrack(getTrack(trackId, 0));
+    long paris = insertAreaWaypoint(trackId, 48.85, 2.35);
+    long london = insertAreaWaypoint(trackId, 51.5, -0.1);
+    long newYork = insertAreaWaypoint(trackId, 40.7, -74.0);
+    Waypoint waypoint = new Waypoint();
+    waypoint.setTrackId(trackId);
+    providerUtils.insertWaypoint(waypoint);
+
+    assertIds(providerUtils.getWaypointCursor(48.0, -1.0, 52.0, 3.0), paris, london);
+    assertIds(providerUtils.getWaypointCursor(-90.0, -180.0, 90.0, 180.0), paris, london,
+        newYork);
+
+    List<Waypoint> waypoints = providerUtils.getNearestWaypoints(48.0, 2.0, 2);
+    assertEquals(2, waypoints.size());
+    assertEquals(paris, waypoints.get(0).getId());
+    assertEquals(london, waypoints.get(1).getId());
+    assertEquals(3, providerUtils.getNearestWaypoints(48.0, 2.0, 10).size());
+
+    // Move the Paris waypoint to New York
+    waypoint = providerUtils.getWaypoint(paris);
+    waypoint.getLocation().setLatitude(40.71);
+    waypoint.getLocation().setLongitude(-74.01);
+    providerUtils.updateWaypoint(waypoint);
+    assertIds(providerUtils.getWaypointCursor(40.0, -75.0, 41.0, -73.0), paris, newYork);
+  }
+
   /**
    * Tests the method {@link MyTracksProviderUtilsImpl#bulkInsertTrackPoint(Location[],
    * int, long)}.
@@ -651,6 +899,94 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertEquals(28, providerUtils.getTrackPointCursor(trackId, -1L, 1000, false).getCount());
   }
 
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#insertTrackPoints(Location[],
+   * int, long)}.
+   */
+  public void testInsertTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+
+    Location[] locations = new Location[4];
+    for (int i = 0; i < locations.length; i++) {
+      locations[i] = createLocation(i);
+    }
+    locations[1].removeAltitude();
+    locations[2] = new MyTracksLocation(locations[2], SensorDataSet.newBuilder()
+        .setHeartRate(SensorData.newBuilder().setState(SensorState.SENDING).setValue(120))
+        .build());
+    long[] ids = providerUtils.insertTrackPoints(locations, 3, trackId);
+    assertNotNull(ids);
+    assertEquals(2, ids[1] - ids[0]);
+    assertEquals(ids[1], providerUtils.getLastTrackPointId(trackId));
+    assertEquals(13, providerUtils.getTrackPointCursor(trackId, -1L, 1000, false).getCount());
+
+    LocationIterator iterator = providerUtils.getTrackPointLocationIterator(
+        trackId, ids[0], false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      for (int i = 0; i < 3; i++) {
+        Location location = iterator.next();
+        assertEquals(ids[0] + i, iterator.getLocationId());
+        assertEquals(INITIAL_LATITUDE + (double) i / 10000.0, location.getLatitude(), 1E-6);
+        assertEquals(INITIAL_LONGITUDE - (double) i / 10000.0, location.getLongitude(), 1E-6);
+        assertEquals((float) i / 100.0f, location.getAccuracy());
+        assertEquals(i != 1, location.hasAltitude());
+        assertFalse(location.hasSpeed());
+        SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
+        if (i == 2) {
+          assertEquals(120, sensorDataSet.getHeartRate().getValue());
+        } else {
+          assertNull(sensorDataSet);
+        }
+      }
+      assertFalse(iterator.hasNext());
+    } finally {
+      iterator.close();
+    }
+  }
+
+  /**
+   * Benchmarks inserting 100k track points with content values and directly
+   * with {@link MyTracksProviderUtilsImpl#insertTrackPoints(Location[], int,
+   * long)}.
+   */
+  @LargeTest
+  public void testInsertTrackPoints_benchmark() {
+    int numPoints = 100000;
+    int batchSize = 100;
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 0);
+    providerUtils.insertTrack(track);
+    Location[] locations = new Location[batchSize];
+    for (int i = 0; i < batchSize; i++) {
+      locations[i] = createLocation(i);
+    }
+    ContentResolver contentResolver = context.getContentResolver();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < numPoints; i += batchSize) {
+      ContentValues[] values = new ContentValues[batchSize];
+      for (int j = 0; j < batchSize; j++) {
+        values[j] = createContentValues(locations[j], trackId);
+      }
+      contentResolver.bulkInsert(TrackPointsColumns.CONTENT_URI, values);
+    }
+    long contentValuesTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < numPoints; i += batchSize) {
+      assertNotNull(providerUtils.insertTrackPoints(locations, batchSize, trackId));
+    }
+    long directTime = System.nanoTime() - start;
+
+    assertEquals(2 * numPoints,
+        providerUtils.getTrackPointCursor(trackId, -1L, 2 * numPoints, false).getCount());
+    Log.i(getClass().getSimpleName(), numPoints + " track points, content values: "
+        + numPoints * 1000000000L / contentValuesTime + " inserts/s, direct: "
+        + numPoints * 1000000000L / directTime + " inserts/s");
+  }
+
   /**
    * Tests the method {@link MyTracksProviderUtilsImpl#createTrackPoint(Cursor)}.
    */
@@ -848,6 +1184,35 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertFalse(locationIterator.hasNext());
   }
 
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#getTrackPointLocationIterator(long, long,
+   * boolean, String[], LocationFactory)}
+   * with a projection and a reusable location.
+   */
+  public void testGetTrackPointLocationIterator_projection() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+
+    Location reusedLocation = new MyTracksLocation("");
+    LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(trackId, -1L,
+        false, new String[] { TrackPointsColumns.LATITUDE, TrackPointsColumns.LONGITUDE },
+        new MyTracksProviderUtils.ReusableLocationFactory(reusedLocation));
+    for (int i = 0; i < 10; i++) {
+      assertTrue(locationIterator.hasNext());
+      Location location = locationIterator.next();
+      assertSame(reusedLocation, location);
+      assertEquals(1 + i, locationIterator.getLocationId());
+      assertEquals(INITIAL_LATITUDE + (double) i / 10000.0, location.getLatitude());
+      assertEquals(INITIAL_LONGITUDE - (double) i / 10000.0, location.getLongitude());
+      assertFalse(location.hasAccuracy());
+      assertFalse(location.hasAltitude());
+    }
+    assertFalse(locationIterator.hasNext());
+    locationIterator.close();
+  }
+
   /**
    * Simulates a track which is used for testing.
    * 
@@ -866,6 +1231,98 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     return track;
   }
   
+  /**
+   * Gets a local time.
+   * 
+   * @param year the year
+   * @param month the month
+   * @param day the day of the month
+   * @param hour the hour of the day
+   */
+  private long getTime(int year, int month, int day, int hour) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(year, month, day, hour, 0);
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * Gets a track with the statistics read by the aggregates.
+   * 
+   * @param id the track id
+   * @param startTime the start time
+   * @param category the activity type
+   * @param distance the total distance
+   * @param maxSpeed the max speed
+   * @param minElevation the min elevation, the max elevation is 10 more
+   */
+  private Track getAggregateTrack(long id, long startTime, String category, double distance,
+      double maxSpeed, double minElevation) {
+    Track track = getTrack(id, 0);
+    track.setCategory(category);
+    TripStatistics tripStatistics = track.getTripStatistics();
+    tripStatistics.setStartTime(startTime);
+    tripStatistics.setTotalDistance(distance);
+    tripStatistics.setMaxSpeed(maxSpeed);
+    tripStatistics.setMinElevation(minElevation);
+    tripStatistics.setMaxElevation(minElevation + 10.0);
+    return track;
+  }
+
+  /**
+   * Gets a track without track points with a bounding box.
+   * 
+   * @param id the track id
+   * @param minLatitude the minimum latitude in degrees
+   * @param minLongitude the minimum longitude in degrees
+   * @param maxLatitude the maximum latitude in degrees
+   * @param maxLongitude the maximum longitude in degrees
+   */
+  private Track getAreaTrack(long id, double minLatitude, double minLongitude, double maxLatitude,
+      double maxLongitude) {
+    Track track = getTrack(id, 0);
+    track.getTripStatistics().setBounds((int) (minLongitude * 1E6), (int) (maxLatitude * 1E6),
+        (int) (maxLongitude * 1E6), (int) (minLatitude * 1E6));
+    return track;
+  }
+
+  /**
+   * Inserts a waypoint at a location.
+   * 
+   * @param trackId the track id
+   * @param latitude the latitude in degrees
+   * @param longitude the longitude in degrees
+   * @return the waypoint id
+   */
+  private long insertAreaWaypoint(long trackId, double latitude, double longitude) {
+    Location location = new Location("test");
+    location.setLatitude(latitude);
+    location.setLongitude(longitude);
+    Waypoint waypoint = new Waypoint();
+    waypoint.setTrackId(trackId);
+    waypoint.setLocation(location);
+    return Long.parseLong(providerUtils.insertWaypoint(waypoint).getLastPathSegment());
+  }
+
+  /**
+   * Asserts the ids of a cursor, in order, and closes it.
+   * 
+   * @param cursor the cursor
+   * @param ids the expected ids
+   */
+  private void assertIds(Cursor cursor, long... ids) {
+    try {
+      assertEquals(ids.length, cursor.getCount());
+      int idIndex = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+      for (long id : ids) {
+        assertTrue(cursor.moveToNext());
+        assertEquals(id, cursor.getLong(idIndex));
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
   /**
    * Creates a location.
    * @param i the index to set the value of location.
@@ -895,6 +1352,24 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertEquals(i * ALTITUDE_INTERVAL, location.getAltitude());
   }
   
+  /**
+   * Creates the content values of a location, like before
+   * {@link MyTracksProviderUtilsImpl#insertTrackPoints(Location[], int, long)}.
+   * 
+   * @param location the location
+   * @param trackId the track id
+   */
+  private ContentValues createContentValues(Location location, long trackId) {
+    ContentValues values = new ContentValues();
+    values.put(TrackPointsColumns.TRACKID, trackId);
+    values.put(TrackPointsColumns.LONGITUDE, (int) (location.getLongitude() * 1E6));
+    values.put(TrackPointsColumns.LATITUDE, (int) (location.getLatitude() * 1E6));
+    values.put(TrackPointsColumns.TIME, location.getTime());
+    values.put(TrackPointsColumns.ALTITUDE, location.getAltitude());
+    values.put(TrackPointsColumns.ACCURACY, location.getAccuracy());
+    return values;
+  }
+
   /**
    * Inserts a track with locations into the database.
    * 
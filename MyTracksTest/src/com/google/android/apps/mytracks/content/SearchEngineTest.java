@@ -27,10 +27,13 @@ import android.net.Uri;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.SortedSet;
 
 /**
  * Tests for {@link SearchEngine}.
@@ -152,9 +155,9 @@ public class SearchEngineTest extends AndroidTestCase {
     long descriptionMatchId = insertTrack("bb", "aa", "cc");
     long categoryMatchId = insertTrack("bb", "cc", "aa");
     long titleMatchId = insertTrack("aa", "bb", "cc");
-    long titleCategoryMatchId = insertTrack("aa", "bb", "ca");
-    long titleDescriptionMatchId = insertTrack("aa", "ba", "cc");
-    long allMatchId = insertTrack("aa", "ba", "ca");
+    long titleCategoryMatchId = insertTrack("aa", "bb", "ac");
+    long titleDescriptionMatchId = insertTrack("aa", "ab", "cc");
+    long allMatchId = insertTrack("aa", "ab", "ac");
 
     SearchQuery query = new SearchQuery("a", null, -1, NOW);
     ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
@@ -178,9 +181,9 @@ public class SearchEngineTest extends AndroidTestCase {
     long descriptionMatchId = insertWaypoint("bb", "aa", "cc");
     long categoryMatchId = insertWaypoint("bb", "cc", "aa");
     long titleMatchId = insertWaypoint("aa", "bb", "cc");
-    long titleCategoryMatchId = insertWaypoint("aa", "bb", "ca");
-    long titleDescriptionMatchId = insertWaypoint("aa", "ba", "cc");
-    long allMatchId = insertWaypoint("aa", "ba", "ca");
+    long titleCategoryMatchId = insertWaypoint("aa", "bb", "ac");
+    long titleDescriptionMatchId = insertWaypoint("aa", "ab", "cc");
+    long allMatchId = insertWaypoint("aa", "ab", "ac");
 
     SearchQuery query = new SearchQuery("a", null, -1, NOW);
     ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
@@ -290,6 +293,93 @@ public class SearchEngineTest extends AndroidTestCase {
     assertWaypointResults(results, currentId, otherId);
   }
 
+  public void testGetMatch() {
+    assertEquals("mountain* ride*", SearchEngine.getMatch("mountain ride"));
+    assertEquals("b* 2* lake*", SearchEngine.getMatch(" b-2, \"lake\"!"));
+    assertNull(SearchEngine.getMatch(" -*\" "));
+    assertNull(SearchEngine.getMatch(""));
+  }
+
+  public void testSearchPrefix() {
+    // Words match by prefix, not in the middle.
+    long mountainRideId = insertTrack("mountain ride", "", "");
+    insertTrack("fountain", "", "");
+    insertTrack("mountain", "", "");
+
+    SearchQuery query = new SearchQuery("Moun ri", null, -1, NOW);
+    assertTrackResults(new ArrayList<ScoredResult>(engine.search(query)), mountainRideId);
+
+    query = new SearchQuery("ountain", null, -1, NOW);
+    assertTrue(engine.search(query).isEmpty());
+  }
+
+  public void testSearchTermFrequency() {
+    // Both results match in the title, one of them twice.
+    long twiceId = insertTrack("run run", "", "");
+    long onceId = insertTrack("run", "", "");
+
+    SearchQuery query = new SearchQuery("run", null, -1, NOW);
+    ArrayList<ScoredResult> results = new ArrayList<ScoredResult>(engine.search(query));
+
+    // More hits first.
+    assertTrackResults(results, twiceId, onceId);
+  }
+
+  public void testSearchUpdatedTrack() {
+    // The search index follows the updates and the deletions.
+    long trackId = insertTrack("aa", "bb", "cc");
+    Track track = providerUtils.getTrack(trackId);
+    track.setName("dd");
+    providerUtils.updateTrack(track);
+
+    assertTrue(engine.search(new SearchQuery("a", null, -1, NOW)).isEmpty());
+    assertTrackResults(new ArrayList<ScoredResult>(
+        engine.search(new SearchQuery("d", null, -1, NOW))), trackId);
+
+    providerUtils.deleteTrack(getContext(), trackId);
+    assertTrue(engine.search(new SearchQuery("d", null, -1, NOW)).isEmpty());
+  }
+
+  /**
+   * Benchmarks searching 10k tracks and 100k waypoints, with queries matching
+   * a few tracks, all the tracks, and all the waypoints.
+   */
+  @LargeTest
+  public void testSearch_benchmark() {
+    int numTracks = 10000;
+    int numWaypointsPerTrack = 10;
+    boolean transaction = providerUtils.beginTransaction();
+    try {
+      for (int i = 0; i < numTracks; i++) {
+        long trackId = insertTrack("track " + i, "morning ride", "cycling", i * 1E-4, i % 1000);
+        for (int j = 0; j < numWaypointsPerTrack; j++) {
+          insertWaypoint("marker " + j, "lap", "", j * 1E-4, j, trackId);
+        }
+      }
+      if (transaction) {
+        providerUtils.setTransactionSuccessful();
+      }
+    } finally {
+      if (transaction) {
+        providerUtils.endTransaction();
+      }
+    }
+
+    benchmarkSearch("track 123", 11);
+    benchmarkSearch("ride", 100);
+    benchmarkSearch("marker", 100);
+  }
+
+  private void benchmarkSearch(String textQuery, int numResults) {
+    SearchQuery query = new SearchQuery(textQuery, HERE, -1, NOW);
+    long start = System.nanoTime();
+    SortedSet<ScoredResult> results = engine.search(query);
+    long time = System.nanoTime() - start;
+    Log.i(getClass().getSimpleName(), "\"" + textQuery + "\": " + results.size()
+        + " results in " + time / 1000000L + " ms");
+    assertEquals(numResults, results.size());
+  }
+
   private void assertTrackResult(long trackId, ScoredResult result) {
     assertNotNull("Not a track", result.track);
     assertNull("Ambiguous result", result.waypoint);
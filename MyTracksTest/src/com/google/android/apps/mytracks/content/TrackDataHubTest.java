@@ -19,6 +19,7 @@ import static com.google.android.testing.mocking.AndroidMock.capture;
 import static com.google.android.testing.mocking.AndroidMock.eq;
 import static com.google.android.testing.mocking.AndroidMock.expect;
 import static com.google.android.testing.mocking.AndroidMock.isA;
+import static com.google.android.testing.mocking.AndroidMock.isNull;
 
 import com.google.android.apps.mytracks.Constants;
 import com.google.android.apps.mytracks.TrackStubUtils;
@@ -37,14 +38,19 @@ import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.provider.BaseColumns;
 import android.test.AndroidTestCase;
 import android.test.RenamingDelegatingContext;
 import android.test.mock.MockContentResolver;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.easymock.Capture;
 import org.easymock.IAnswer;
@@ -80,19 +86,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     myTracksProviderUtils = AndroidMock.createMock(MyTracksProviderUtils.class);
     dataSource = AndroidMock.createMock(DataSource.class, context);
     trackDataManager = new TrackDataManager();
-    trackDataHub = new TrackDataHub(
-        context, trackDataManager, myTracksProviderUtils, TARGET_POINTS) {
-        @Override
-      protected DataSource newDataSource() {
-        return dataSource;
-      }
-
-        @Override
-      protected void runInHanderThread(Runnable runnable) {
-        // Run everything in the same thread
-        runnable.run();
-      }
-    };
+    trackDataHub = newTrackDataHub(0L);
 
     trackDataListener1 = AndroidMock.createStrictMock(
         "trackDataListener1", TrackDataListener.class);
@@ -506,18 +500,276 @@ public class TrackDataHubTest extends AndroidTestCase {
     observer.onChange(false);
     verifyAndReset();
 
-    // Now another 30 (triggers resampling)
-    locationIterator = new FixedSizeLocationIterator(1, 90);
+    // Now another 32 (incrementally sampled)
+    locationIterator = new FixedSizeLocationIterator(61, 32);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID), eq(61L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(92L);
+    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    observer.onChange(false);
+    verifyAndReset();
+
+    /*
+     * Now another 20 (triggers resampling). The 60 sent track points are
+     * thinned in memory to every 4th loaded track point, the track point after
+     * the split, and the last track point.
+     */
+    ArrayList<Integer> numbers = new ArrayList<Integer>();
+    for (int i = 0; i < 30; i++) {
+      if (i != 5) {
+        numbers.add(i);
+      }
+    }
+    for (int i = 30; i < 92; i += 2) {
+      numbers.add(i);
+    }
+    ArrayList<Integer> removed = new ArrayList<Integer>();
+    for (int i = 0; i < numbers.size() - 1; i++) {
+      int number = numbers.get(i);
+      if (number % 4 != 0 && number != 6) {
+        removed.add(i);
+      }
+    }
+    int[] removedIndexes = new int[removed.size()];
+    for (int i = 0; i < removedIndexes.length; i++) {
+      removedIndexes[i] = removed.get(i);
+    }
+
+    locationIterator = new FixedSizeLocationIterator(93, 20);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID), eq(93L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(112L);
+    trackDataListener1.onSampledInTrackPointsRemoved(AndroidMock.aryEq(removedIndexes));
+    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 4, false);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    observer.onChange(false);
+    verifyAndReset();
+  }
+
+  /**
+   * Tests that thinning the sent track points keeps the track points sampled
+   * in at the new sampling frequency, after the sampling frequency of the new
+   * track points grew.
+   */
+  public void testTrackPointsTableUpdate_thinningSubset() {
+    Capture<ContentObserver> observerCapture = new Capture<ContentObserver>();
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
+
+    // Deliver 150 points, sampled every 4
+    ArrayList<Integer> numbers = new ArrayList<Integer>();
+    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 150);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
         eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
-    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(90L);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(150L);
     trackDataListener1.clearTrackPoints();
-    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
+    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 4, 0, numbers);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_IN_TRACK_POINTS_TABLE));
+    verifyAndReset();
+
+    // Now another 10, sampled every 4
+    ContentObserver observer = observerCapture.getValue();
+    locationIterator = new FixedSizeLocationIterator(151, 10);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID), eq(151L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(160L);
+    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 4, 150, numbers);
     trackDataListener1.onNewTrackPointsDone();
     replay();
 
     observer.onChange(false);
     verifyAndReset();
+
+    // Now another 100, sampled every 8, a multiple of 4
+    locationIterator = new FixedSizeLocationIterator(161, 100);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID), eq(161L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(260L);
+    locationIterator.expectSampledLocationsDelivered(trackDataListener1, 8, 160, numbers);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    observer.onChange(false);
+    verifyAndReset();
+
+    /*
+     * Now another 100 (triggers resampling). The sent track points are thinned
+     * to every 16th loaded track point. The track points kept are a subset of
+     * the sent ones.
+     */
+    int samplingFrequency = 16;
+    for (int number = 0; number < 260; number += samplingFrequency) {
+      assertTrue(numbers.contains(number));
+    }
+    ArrayList<Integer> keptNumbers = new ArrayList<Integer>();
+    ArrayList<Integer> removed = new ArrayList<Integer>();
+    for (int i = 0; i < numbers.size(); i++) {
+      int number = numbers.get(i);
+      if (number % samplingFrequency == 0 || i == numbers.size() - 1) {
+        keptNumbers.add(number);
+      } else {
+        removed.add(i);
+      }
+    }
+    assertEquals(260 / samplingFrequency + 1, keptNumbers.size());
+    int[] removedIndexes = new int[removed.size()];
+    for (int i = 0; i < removedIndexes.length; i++) {
+      removedIndexes[i] = removed.get(i);
+    }
+
+    locationIterator = new FixedSizeLocationIterator(261, 100);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID), eq(261L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(360L);
+    trackDataListener1.onSampledInTrackPointsRemoved(AndroidMock.aryEq(removedIndexes));
+    locationIterator.expectSampledLocationsDelivered(
+        trackDataListener1, samplingFrequency, 260, keptNumbers);
+    trackDataListener1.onNewTrackPointsDone();
+    replay();
+
+    observer.onChange(false);
+    verifyAndReset();
+  }
+
+  /**
+   * Tests track points table update with track point batches.
+   */
+  public void testTrackPointsTableUpdate_batches() {
+    Capture<ContentObserver> observerCapture = new Capture<ContentObserver>();
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
+
+    // Deliver 30 points in one batch, including a split
+    FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 30, 5);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(30L);
+    Capture<TrackPointBatch> batchCapture = new Capture<TrackPointBatch>();
+    trackDataListener1.clearTrackPoints();
+    trackDataListener1.onSampledTrackPoints(capture(batchCapture));
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.SAMPLED_TRACK_POINT_BATCHES));
+    verifyAndReset();
+
+    TrackPointBatch trackPointBatch = batchCapture.getValue();
+    assertEquals(30, trackPointBatch.size());
+    assertEquals(0, trackPointBatch.getStartIndex());
+    assertEquals(29, trackPointBatch.getNumberOfSampledIn());
+    assertTrue(trackPointBatch.isSegmentSplit(5));
+    assertFalse(trackPointBatch.isSampledIn(5));
+    assertTrue(trackPointBatch.isSampledIn(6));
+    assertEquals(1L, trackPointBatch.getId(0));
+    assertEquals(29.0, trackPointBatch.getAltitude(29), 0.0);
+
+    // Now deliver 30 more, sampled in every 2, with the sampled-out points
+    ContentObserver observer = observerCapture.getValue();
+    locationIterator = new FixedSizeLocationIterator(31, 30);
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(
+        eq(TRACK_ID), eq(31L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(60L);
+    batchCapture = new Capture<TrackPointBatch>();
+    trackDataListener1.onSampledTrackPoints(capture(batchCapture));
+    replay();
+
+    observer.onChange(false);
+    verifyAndReset();
+
+    trackPointBatch = batchCapture.getValue();
+    assertEquals(30, trackPointBatch.size());
+    assertEquals(29, trackPointBatch.getStartIndex());
+    assertEquals(15, trackPointBatch.getNumberOfSampledIn());
+    assertTrue(trackPointBatch.isSampledIn(0));
+    assertFalse(trackPointBatch.isSampledIn(1));
+  }
+
+  /**
+   * Tests that the track point buffer is read with the sensor data only once a
+   * listener is registered for it, and that only the new track points are read
+   * afterwards.
+   */
+  public void testTrackPointBufferUpdate_sensorData() {
+    Capture<ContentObserver> observerCapture = new Capture<ContentObserver>();
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(eq(TRACK_ID), eq(0L), eq(false),
+        eq(TrackPointsColumns.NO_SENSOR_COLUMNS), isA(LocationFactory.class))).andReturn(
+        new FixedSizeLocationIterator(1, 10));
+    trackDataListener1.clearTrackPoints();
+    trackDataListener1.onTrackPointsAppended(isA(TrackPointBuffer.class), eq(0), eq(10));
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.TRACK_POINT_BUFFER));
+    verifyAndReset();
+
+    // The track points are read again with their sensor data for the new
+    // listener. The first listener gets no new track points.
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(eq(TRACK_ID), eq(0L), eq(false),
+        (String[]) isNull(), isA(LocationFactory.class))).andReturn(
+        new FixedSizeLocationIterator(1, 10));
+    trackDataListener2.clearTrackPoints();
+    trackDataListener2.onTrackPointsAppended(isA(TrackPointBuffer.class), eq(0), eq(10));
+    replay();
+
+    trackDataHub.registerTrackDataListener(trackDataListener2, EnumSet.of(
+        TrackDataType.TRACK_POINT_BUFFER, TrackDataType.TRACK_POINT_BUFFER_SENSOR_DATA));
+    verifyAndReset();
+
+    // Only the track points after the last one sent are read
+    expect(myTracksProviderUtils.getTrackPointLocationIterator(eq(TRACK_ID), eq(11L), eq(false),
+        (String[]) isNull(), isA(LocationFactory.class))).andReturn(
+        new FixedSizeLocationIterator(11, 5));
+    trackDataListener1.onTrackPointsAppended(isA(TrackPointBuffer.class), eq(0), eq(5));
+    trackDataListener2.onTrackPointsAppended(isA(TrackPointBuffer.class), eq(0), eq(5));
+    replay();
+
+    observerCapture.getValue().onChange(false);
+    verifyAndReset();
+  }
+
+  /**
+   * Tests track points table update with the last track point.
+   */
+  public void testTrackPointsTableUpdate_lastTrackPoint() {
+    Capture<ContentObserver> observerCapture = new Capture<ContentObserver>();
+    dataSource.registerContentObserver(
+        eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
+    Location location = new Location("gps");
+    expect(myTracksProviderUtils.getLastValidTrackPoint(TRACK_ID)).andReturn(location);
+    trackDataListener1.onLastTrackPoint(location);
+    replay();
+
+    trackDataHub.start();
+    trackDataHub.loadTrack(TRACK_ID);
+    trackDataHub.registerTrackDataListener(
+        trackDataListener1, EnumSet.of(TrackDataType.LAST_TRACK_POINT));
+    verifyAndReset();
+
+    // Only the last track point is read, not the track points
+    Location newLocation = new Location("gps");
+    expect(myTracksProviderUtils.getLastValidTrackPoint(TRACK_ID)).andReturn(newLocation);
+    trackDataListener1.onLastTrackPoint(newLocation);
+    replay();
+
+    observerCapture.getValue().onChange(false);
+    verifyAndReset();
   }
 
   /**
@@ -586,6 +838,129 @@ public class TrackDataHubTest extends AndroidTestCase {
     verifyAndReset();
   }
 
+  /**
+   * Tests that the table changes in the coalescing window are notified once
+   * per table at the end of the window.
+   */
+  public void testTableUpdate_coalescing() throws Exception {
+    HandlerThread handlerThread = new HandlerThread("TrackDataHubTest");
+    handlerThread.start();
+    Handler handler = new Handler(handlerThread.getLooper());
+    long coalescingWindow = 100L;
+    trackDataHub = newTrackDataHub(coalescingWindow);
+
+    // Register a listener, in a thread with a looper for the coalescing
+    Capture<ContentObserver> tracksObserverCapture = new Capture<ContentObserver>();
+    Capture<ContentObserver> waypointsObserverCapture = new Capture<ContentObserver>();
+    Track track = new Track();
+    expect(myTracksProviderUtils.getTrack(TRACK_ID)).andStubReturn(track);
+    expect(myTracksProviderUtils.getWaypointCursor(
+        eq(TRACK_ID), AndroidMock.leq(-1L), eq(TrackDataHub.MAX_DISPLAYED_WAYPOINTS)))
+        .andStubReturn(null);
+    dataSource.registerContentObserver(
+        eq(TracksColumns.CONTENT_URI), capture(tracksObserverCapture));
+    dataSource.registerContentObserver(
+        eq(WaypointsColumns.CONTENT_URI), capture(waypointsObserverCapture));
+    trackDataListener1.onTrackUpdated(track);
+    trackDataListener1.clearWaypoints();
+    trackDataListener1.onNewWaypointsDone();
+    replay();
+
+    runAndWait(handler, 0L, new Runnable() {
+      @Override
+      public void run() {
+        trackDataHub.start();
+        trackDataHub.loadTrack(TRACK_ID);
+        trackDataHub.registerTrackDataListener(trackDataListener1,
+            EnumSet.of(TrackDataType.TRACKS_TABLE, TrackDataType.WAYPOINTS_TABLE));
+      }
+    });
+    verifyAndReset();
+
+    // Change the tracks table 3 times and the waypoints table 2 times
+    final ContentObserver tracksObserver = tracksObserverCapture.getValue();
+    final ContentObserver waypointsObserver = waypointsObserverCapture.getValue();
+    expect(myTracksProviderUtils.getTrack(TRACK_ID)).andStubReturn(track);
+    expect(myTracksProviderUtils.getWaypointCursor(
+        eq(TRACK_ID), AndroidMock.leq(-1L), eq(TrackDataHub.MAX_DISPLAYED_WAYPOINTS)))
+        .andStubReturn(null);
+    trackDataListener1.onTrackUpdated(track);
+    trackDataListener1.clearWaypoints();
+    trackDataListener1.onNewWaypointsDone();
+    replay();
+
+    runAndWait(handler, 0L, new Runnable() {
+      @Override
+      public void run() {
+        tracksObserver.onChange(false);
+        waypointsObserver.onChange(false);
+        tracksObserver.onChange(false);
+        tracksObserver.onChange(false);
+        waypointsObserver.onChange(false);
+      }
+    });
+    DataSourceManager dataSourceManager = trackDataHub.getDataSourceManager();
+    assertEquals(5, dataSourceManager.getNumberOfTableChanges());
+    assertEquals(4, dataSourceManager.getNumberOfCoalescedTableChanges());
+
+    // Notified once per table at the end of the window
+    runAndWait(handler, 2 * coalescingWindow, new Runnable() {
+      @Override
+      public void run() {
+        // Do nothing
+      }
+    });
+    verifyAndReset();
+    assertEquals(5, dataSourceManager.getNumberOfTableChanges());
+    assertEquals(4, dataSourceManager.getNumberOfCoalescedTableChanges());
+
+    handlerThread.quit();
+  }
+
+  /**
+   * Creates a track data hub running everything in the calling thread.
+   * 
+   * @param coalescingWindow the coalescing window
+   */
+  private TrackDataHub newTrackDataHub(long coalescingWindow) {
+    return new TrackDataHub(
+        context, trackDataManager, myTracksProviderUtils, TARGET_POINTS, coalescingWindow) {
+      @Override
+      protected DataSource newDataSource() {
+        return dataSource;
+      }
+
+      @Override
+      protected void runInHanderThread(Runnable runnable) {
+        // Run everything in the same thread
+        runnable.run();
+      }
+    };
+  }
+
+  /**
+   * Runs a runnable in a handler thread after a delay and waits for it.
+   * 
+   * @param handler the handler
+   * @param delay the delay in milliseconds
+   * @param runnable the runnable
+   */
+  private void runAndWait(Handler handler, long delay, final Runnable runnable)
+      throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    handler.postDelayed(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          runnable.run();
+        } finally {
+          done.countDown();
+        }
+      }
+    }, delay);
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
   /**
    * Replays mocks.
    */
@@ -687,6 +1062,26 @@ public class TrackDataHubTest extends AndroidTestCase {
       }
     }
 
+    /**
+     * Expects the locations sampled in at a sampling frequency of the loaded
+     * track points to be delivered. Adds their numbers to a list.
+     * 
+     * @param listener the listener
+     * @param sampleFrequency the sampling frequency
+     * @param firstNumber the number of the first location among the loaded
+     *          track points
+     * @param numbers the numbers of the delivered track points
+     */
+    public void expectSampledLocationsDelivered(TrackDataListener listener, int sampleFrequency,
+        int firstNumber, ArrayList<Integer> numbers) {
+      for (int i = 0; i < locations.length; i++) {
+        if ((firstNumber + i) % sampleFrequency == 0) {
+          listener.onSampledInTrackPoint(locations[i]);
+          numbers.add(firstNumber + i);
+        }
+      }
+    }
+
     @Override
     public boolean hasNext() {
       return currentIndex < locations.length - 1;
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.content;
+
+import com.google.android.apps.mytracks.content.Sensor.SensorData;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.content.Sensor.SensorState;
+
+import android.location.Location;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TrackPointBuffer}.
+ */
+public class TrackPointBufferTest extends TestCase {
+
+  private TrackPointBuffer trackPointBuffer;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    trackPointBuffer = new TrackPointBuffer(2);
+  }
+
+  /**
+   * Tests appending more track points than the initial capacity.
+   */
+  public void testAppend() {
+    assertEquals(0, trackPointBuffer.size());
+    assertEquals(-1L, trackPointBuffer.getLastId());
+    for (int i = 0; i < 100; i++) {
+      trackPointBuffer.append(i + 1, createLocation(i, i % 10 == 0 ? 100.0 : 45.0 + i * 0.001));
+    }
+    assertEquals(100, trackPointBuffer.size());
+    assertEquals(100L, trackPointBuffer.getLastId());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i + 1, trackPointBuffer.getId(i));
+      assertEquals(i * 1000L, trackPointBuffer.getTime(i));
+      assertEquals(i % 10 == 0, trackPointBuffer.isSegmentSplit(i));
+      assertEquals(35000000, trackPointBuffer.getLongitudeE6(i));
+      assertEquals((float) i, trackPointBuffer.getSpeed(i));
+      assertTrue(Float.isNaN(trackPointBuffer.getBearing(i)));
+    }
+    assertEquals(45.001, trackPointBuffer.getLatitude(1), 1E-5);
+    assertFalse(trackPointBuffer.hasSensorData());
+    assertTrue(Float.isNaN(trackPointBuffer.getHeartRate(1)));
+
+    trackPointBuffer.clear();
+    assertEquals(0, trackPointBuffer.size());
+    trackPointBuffer.append(1L, createLocation(0, 45.0));
+    assertFalse(trackPointBuffer.isSegmentSplit(0));
+  }
+
+  /**
+   * Tests that the sensor columns are filled only for sending sensors.
+   */
+  public void testAppend_sensorData() {
+    trackPointBuffer.append(1L, createLocation(0, 45.0));
+    MyTracksLocation location = new MyTracksLocation(createLocation(1, 45.0),
+        SensorDataSet.newBuilder()
+            .setHeartRate(SensorData.newBuilder().setState(SensorState.SENDING).setValue(120))
+            .setCadence(SensorData.newBuilder().setState(SensorState.NONE).setValue(80))
+            .build());
+    trackPointBuffer.append(2L, location);
+    trackPointBuffer.append(3L, createLocation(2, 45.0));
+
+    assertTrue(trackPointBuffer.hasSensorData());
+    assertTrue(Float.isNaN(trackPointBuffer.getHeartRate(0)));
+    assertEquals(120f, trackPointBuffer.getHeartRate(1));
+    assertTrue(Float.isNaN(trackPointBuffer.getCadence(1)));
+    assertTrue(Float.isNaN(trackPointBuffer.getPower(1)));
+    assertTrue(Float.isNaN(trackPointBuffer.getHeartRate(2)));
+  }
+
+  /**
+   * Tests copying a range of track points.
+   */
+  public void testCopy() {
+    for (int i = 0; i < 70; i++) {
+      trackPointBuffer.append(i + 1, createLocation(i, i == 66 ? 100.0 : 45.0));
+    }
+    TrackPointBuffer copy = trackPointBuffer.copy(65, 5);
+    assertEquals(5, copy.size());
+    assertEquals(66L, copy.getId(0));
+    assertEquals(70L, copy.getLastId());
+    assertFalse(copy.isSegmentSplit(0));
+    assertTrue(copy.isSegmentSplit(1));
+
+    Location location = copy.getLocation(2);
+    assertEquals(45.0, location.getLatitude());
+    assertEquals(67000L, location.getTime());
+    assertTrue(location.hasSpeed());
+    assertFalse(location.hasBearing());
+
+    try {
+      trackPointBuffer.copy(68, 3);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected
+    }
+  }
+
+  private Location createLocation(int i, double latitude) {
+    Location location = new Location("gps");
+    location.setLatitude(latitude);
+    location.setLongitude(35.0);
+    location.setTime(i * 1000L);
+    location.setSpeed(i);
+    return location;
+  }
+}
@@ -17,6 +17,8 @@ package com.google.android.apps.mytracks.io.file.exporter;
 
 import com.google.android.apps.mytracks.io.file.exporter.CsvTrackWriter;
 
+import android.test.suitebuilder.annotation.LargeTest;
+
 
 /**
  * Tests for {@link CsvTrackWriter}.
@@ -87,4 +89,12 @@ public class CsvTrackWriterTest extends TrackWriterTest {
     builder.append(END_TAG);
     return builder.toString();
   }
+
+  /**
+   * Benchmarks writing a long track.
+   */
+  @LargeTest
+  public void testWriteLocation_benchmark() {
+    benchmark(new CsvTrackWriter(getContext()));
+  }
 }
@@ -17,6 +17,8 @@ package com.google.android.apps.mytracks.io.file.exporter;
 
 import com.google.android.apps.mytracks.io.file.exporter.GpxTrackWriter;
 
+import android.test.suitebuilder.annotation.LargeTest;
+
 import java.util.List;
 
 import org.w3c.dom.Document;
@@ -75,4 +77,12 @@ public class GpxTrackWriterTest extends TrackWriterTest {
     assertEquals(time, getChildTextValue(tag, "time"));
     assertEquals(elevation, getChildTextValue(tag, "ele"));
   }
+
+  /**
+   * Benchmarks writing a long track.
+   */
+  @LargeTest
+  public void testWriteLocation_benchmark() {
+    benchmark(new GpxTrackWriter(getContext()));
+  }
 }
@@ -20,6 +20,7 @@ import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.stats.TripStatistics;
 
 import android.location.Location;
+import android.test.suitebuilder.annotation.LargeTest;
 
 import java.util.List;
 import java.util.Vector;
@@ -101,8 +102,9 @@ public class KmlTrackWriterTest extends TrackWriterTest {
       assertEquals(description, getChildTextValue(tag, "description"));
     }
     Element pointTag = getChildElement(tag, "Point");
-    String expected = location.getLongitude() + "," + location.getLatitude() + ","
-        + location.getAltitude();
+    String expected = formatCoordinate(location.getLongitude()) + ","
+        + formatCoordinate(location.getLatitude()) + ","
+        + formatElevation(location.getAltitude());
     String actual = getChildTextValue(pointTag, "coordinates");
     assertEquals(expected, actual);
   }
@@ -118,10 +120,19 @@ public class KmlTrackWriterTest extends TrackWriterTest {
     List<Element> coordTags = getChildElements(tag, "gx:coord", locations.length);
     for (int i = 0; i < locations.length; i++) {
       Location location = locations[i];
-      String expected = location.getLongitude() + " " + location.getLatitude() + " "
-          + location.getAltitude();
+      String expected = formatCoordinate(location.getLongitude()) + " "
+          + formatCoordinate(location.getLatitude()) + " "
+          + formatElevation(location.getAltitude());
       String actual = coordTags.get(i).getFirstChild().getTextContent();
       assertEquals(expected, actual);
     }
   }
+
+  /**
+   * Benchmarks writing a long track.
+   */
+  @LargeTest
+  public void testWriteLocation_benchmark() {
+    benchmark(new KmlTrackWriter(getContext(), false, false, new FakeDescriptionGenerator()));
+  }
 }
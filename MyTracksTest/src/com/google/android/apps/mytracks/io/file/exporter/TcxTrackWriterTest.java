@@ -20,6 +20,8 @@ import com.google.android.apps.mytracks.content.Sensor;
 import com.google.android.apps.mytracks.io.file.exporter.TcxTrackWriter;
 import com.google.android.apps.mytracks.util.StringUtils;
 
+import android.test.suitebuilder.annotation.LargeTest;
+
 import java.util.List;
 
 import org.w3c.dom.Document;
@@ -74,12 +76,13 @@ public class TcxTrackWriterTest extends TrackWriterTest {
     assertEquals(StringUtils.formatDateTimeIso8601(location.getTime()), getChildTextValue(tag, "Time"));
 
     Element positionTag = getChildElement(tag, "Position");
-    assertEquals(
-        Double.toString(location.getLatitude()), getChildTextValue(positionTag, "LatitudeDegrees"));
-    assertEquals(Double.toString(location.getLongitude()),
+    assertEquals(formatCoordinate(location.getLatitude()),
+        getChildTextValue(positionTag, "LatitudeDegrees"));
+    assertEquals(formatCoordinate(location.getLongitude()),
         getChildTextValue(positionTag, "LongitudeDegrees"));
 
-    assertEquals(Double.toString(location.getAltitude()), getChildTextValue(tag, "AltitudeMeters"));
+    assertEquals(
+        formatElevation(location.getAltitude()), getChildTextValue(tag, "AltitudeMeters"));
     assertTrue(location.getSensorDataSet() != null);
     Sensor.SensorDataSet sds = location.getSensorDataSet();
 
@@ -94,4 +97,12 @@ public class TcxTrackWriterTest extends TrackWriterTest {
     assertEquals(
         Integer.toString(sds.getPower().getValue()), getChildTextValue(tpx.get(0), "Watts"));
   }
+
+  /**
+   * Benchmarks writing a long track.
+   */
+  @LargeTest
+  public void testWriteLocation_benchmark() {
+    benchmark(new TcxTrackWriter(getContext()));
+  }
 }
@@ -7,13 +7,16 @@ import com.google.android.apps.mytracks.content.Track;
 import com.google.android.apps.mytracks.content.Waypoint;
 
 import android.test.AndroidTestCase;
+import android.util.Log;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringReader;
+import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -48,6 +51,7 @@ public abstract class TrackWriterTest extends AndroidTestCase {
   protected static final String WAYPOINT2_CATEGORY = "Waypoint";
   protected static final String WAYPOINT2_DESCRIPTION = "point 2]]>description";
   private static final int BUFFER_SIZE = 10240;
+  private static final int BENCHMARK_SIZE = 200000;
   protected Track track;
   protected MyTracksLocation location1, location2, location3, location4;
   protected Waypoint wp1, wp2;
@@ -106,6 +110,32 @@ public abstract class TrackWriterTest extends AndroidTestCase {
     }
   }
 
+  /**
+   * Formats a coordinate like the track writers, with at most 6 fraction
+   * digits.
+   *
+   * @param value the coordinate
+   */
+  protected static String formatCoordinate(double value) {
+    return format(value, 6);
+  }
+
+  /**
+   * Formats an elevation like the track writers, with at most 1 fraction digit.
+   *
+   * @param value the elevation
+   */
+  protected static String formatElevation(double value) {
+    return format(value, 1);
+  }
+
+  private static String format(double value, int maximumFractionDigits) {
+    NumberFormat numberFormat = NumberFormat.getInstance(Locale.US);
+    numberFormat.setMaximumFractionDigits(maximumFractionDigits);
+    numberFormat.setGroupingUsed(false);
+    return numberFormat.format(value);
+  }
+
   /**
    * Makes the right sequence of calls to the writer in order to write the fake
    * track in {@link #track}.
@@ -138,6 +168,51 @@ public abstract class TrackWriterTest extends AndroidTestCase {
     return output.toString();
   }
 
+  /**
+   * Benchmarks writing a track of {@link #BENCHMARK_SIZE} track points to an
+   * output stream discarding the written bytes.
+   *
+   * @param trackWriter the track writer
+   */
+  protected void benchmark(TrackWriter trackWriter) {
+    final long[] size = new long[1];
+    OutputStream output = new OutputStream() {
+      @Override
+      public void write(int oneByte) {
+        size[0]++;
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int count) {
+        size[0] += count;
+      }
+    };
+    MyTracksLocation location = new MyTracksLocation("mock");
+    populateLocations(location);
+    location.setLatitude(45.0);
+    location.setLongitude(10.0);
+    location.setTime(1375349415250L);
+
+    long start = System.nanoTime();
+    trackWriter.prepare(output);
+    trackWriter.writeBeginTracks();
+    trackWriter.writeOpenSegment();
+    for (int i = 0; i < BENCHMARK_SIZE; i++) {
+      location.setLatitude(location.getLatitude() + 0.0000123);
+      location.setLongitude(location.getLongitude() - 0.0000456);
+      location.setAltitude(100.0 + (i % 1000) * 0.37);
+      location.setTime(location.getTime() + 1003);
+      trackWriter.writeLocation(location);
+    }
+    trackWriter.writeCloseSegment();
+    trackWriter.writeEndTracks();
+    trackWriter.close();
+    long time = System.nanoTime() - start;
+    Log.i(getClass().getSimpleName(), BENCHMARK_SIZE + " track points: " + time / 1000000L
+        + " ms, " + size[0] / 1024 + " KB");
+    assertTrue(size[0] > BENCHMARK_SIZE);
+  }
+
   /**
    * Gets the text data contained inside a tag.
    *
@@ -22,6 +22,7 @@ import static com.google.android.testing.mocking.AndroidMock.expect;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.Factory;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointsColumns;
 import com.google.android.apps.mytracks.content.TracksColumns;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.content.WaypointsColumns;
@@ -34,7 +35,10 @@ import android.location.Location;
 import android.location.LocationManager;
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.util.Log;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Locale;
 import java.util.SimpleTimeZone;
@@ -48,6 +52,112 @@ import org.easymock.Capture;
  */
 public class AbstractTestFileTrackImporter extends AndroidTestCase {
 
+  /**
+   * An input stream generating a file of track points on the fly, to benchmark
+   * importing large files without holding them in memory.
+   */
+  protected abstract static class TrackPointsInputStream extends InputStream {
+
+    private final long size;
+    private final StringBuilder builder = new StringBuilder();
+    private byte[] bytes = new byte[0];
+    private int position;
+    private long numberOfBytes;
+    private int numberOfTrackPoints;
+    private boolean ended;
+
+    /**
+     * Constructor.
+     * 
+     * @param size the approximate size of the file in bytes
+     */
+    protected TrackPointsInputStream(long size) {
+      this.size = size;
+    }
+
+    /**
+     * Gets the number of generated track points.
+     */
+    public int getNumberOfTrackPoints() {
+      return numberOfTrackPoints;
+    }
+
+    /**
+     * Gets the number of generated bytes.
+     */
+    public long getNumberOfBytes() {
+      return numberOfBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (position == bytes.length && !next()) {
+        return -1;
+      }
+      return bytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (position == bytes.length && !next()) {
+        return -1;
+      }
+      int count = Math.min(length, bytes.length - position);
+      System.arraycopy(bytes, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    /**
+     * Gets the file header, up to the first track point.
+     */
+    protected abstract String getHeader();
+
+    /**
+     * Gets the file footer, after the last track point.
+     */
+    protected abstract String getFooter();
+
+    /**
+     * Appends a track point.
+     * 
+     * @param stringBuilder the string builder
+     * @param index the track point index
+     */
+    protected abstract void appendTrackPoint(StringBuilder stringBuilder, int index);
+
+    /**
+     * Generates the next bytes. Returns false at the end of the file.
+     */
+    private boolean next() {
+      if (ended) {
+        return false;
+      }
+      if (numberOfBytes == 0) {
+        builder.append(getHeader());
+      } else if (numberOfBytes >= size) {
+        builder.append(getFooter());
+        ended = true;
+      }
+      fill();
+      return true;
+    }
+
+    /**
+     * Fills the bytes with about 64 KB of track points.
+     */
+    private void fill() {
+      while (!ended && builder.length() < 65536) {
+        appendTrackPoint(builder, numberOfTrackPoints);
+        numberOfTrackPoints++;
+      }
+      bytes = builder.toString().getBytes();
+      builder.setLength(0);
+      position = 0;
+      numberOfBytes += bytes.length;
+    }
+  }
+
   protected static final String TRACK_NAME_0 = "blablub";
   protected static final String TRACK_DESCRIPTION_0 = "s'Laebe isch koi Schlotzer";
 
@@ -91,6 +201,8 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
       TracksColumns.CONTENT_URI.buildUpon(), TRACK_ID_1).build();
   protected static final Uri WAYPOINT_ID_O_URI = ContentUris.appendId(
       WaypointsColumns.CONTENT_URI.buildUpon(), WAYPOINT_ID_0).build();
+  protected static final Uri TRACK_POINT_ID_0_URI = ContentUris.appendId(
+      TrackPointsColumns.CONTENT_URI.buildUpon(), TRACK_POINT_ID_0).build();
 
   protected MyTracksProviderUtils myTracksProviderUtils;
 
@@ -103,6 +215,9 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
     myTracksProviderUtils = AndroidMock.createMock(MyTracksProviderUtils.class);
     oldMyTracksProviderUtilsFactory = TestingProviderUtilsFactory.installWithInstance(
         myTracksProviderUtils);
+
+    // By default, the provider does not support transactions
+    expect(myTracksProviderUtils.beginTransaction()).andStubReturn(false);
   }
 
   @Override
@@ -135,6 +250,25 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
     expect(myTracksProviderUtils.getLastTrackPointId(trackId)).andReturn(trackPointId);
   }
 
+  /**
+   * Expects the writes to run in transactions, instead of the default of no
+   * transaction support. Resets the expectations.
+   * 
+   * @param numberOfCommits the number of committed writes
+   * @param numberOfRollbacks the number of failed writes
+   */
+  protected void expectTransactions(int numberOfCommits, int numberOfRollbacks) {
+    AndroidMock.reset(myTracksProviderUtils);
+    expect(myTracksProviderUtils.beginTransaction())
+        .andReturn(true).times(numberOfCommits + numberOfRollbacks);
+    if (numberOfCommits > 0) {
+      myTracksProviderUtils.setTransactionSuccessful();
+      AndroidMock.expectLastCall().times(numberOfCommits);
+    }
+    myTracksProviderUtils.endTransaction();
+    AndroidMock.expectLastCall().times(numberOfCommits + numberOfRollbacks);
+  }
+
   /**
    * Expects the track to be updated.
    * 
@@ -152,6 +286,39 @@ public class AbstractTestFileTrackImporter extends AndroidTestCase {
     }
   }
 
+  /**
+   * Benchmarks importing a generated file of track points, with a mock
+   * provider utils doing nothing.
+   * 
+   * @param trackImporter the track importer
+   * @param inputStream the input stream
+   */
+  protected void benchmarkImportFile(
+      TrackImporter trackImporter, TrackPointsInputStream inputStream) {
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andStubReturn(TRACK_ID_0_URI);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        (Location[]) AndroidMock.anyObject(), AndroidMock.anyInt(), eq(TRACK_ID_0)))
+        .andStubReturn(1);
+    expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0))
+        .andStubReturn(TRACK_POINT_ID_0);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andStubReturn(TRACK_POINT_ID_1);
+    myTracksProviderUtils.updateTrack((Track) AndroidMock.anyObject());
+    AndroidMock.expectLastCall().anyTimes();
+    expect(myTracksProviderUtils.insertWaypoint((Waypoint) AndroidMock.anyObject()))
+        .andStubReturn(WAYPOINT_ID_O_URI);
+    expect(myTracksProviderUtils.getTrack(AndroidMock.anyLong())).andStubReturn(null);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    long start = System.nanoTime();
+    assertEquals(TRACK_ID_0, trackImporter.importFile(inputStream));
+    long time = System.nanoTime() - start;
+    int numberOfTrackPoints = inputStream.getNumberOfTrackPoints();
+    Log.i(getClass().getSimpleName(), inputStream.getNumberOfBytes() / (1024 * 1024) + " MB, "
+        + numberOfTrackPoints + " track points: " + time / 1000000L + " ms, "
+        + numberOfTrackPoints * 1000000000L / time + " track points/s");
+  }
+
   protected void verifyTrack(Track track, String name, String description, long time) {
     assertEquals(name, track.getName());
     assertEquals(description, track.getDescription());
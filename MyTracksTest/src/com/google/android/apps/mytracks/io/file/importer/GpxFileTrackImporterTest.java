@@ -19,15 +19,34 @@ package com.google.android.apps.mytracks.io.file.importer;
 import static com.google.android.testing.mocking.AndroidMock.eq;
 import static com.google.android.testing.mocking.AndroidMock.expect;
 
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.MyTracksProvider;
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.services.TrackRecordingServiceTest.MockContext;
+import com.google.android.apps.mytracks.util.Iso8601Formatter;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.android.testing.mocking.AndroidMock;
 
+import android.content.ContentUris;
+import android.content.Context;
 import android.location.Location;
+import android.net.Uri;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.easymock.Capture;
 
@@ -38,6 +57,78 @@ import org.easymock.Capture;
  */
 public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
 
+  /**
+   * An input stream pausing at a position until resumed, like a file being
+   * downloaded.
+   */
+  private static class PausingInputStream extends InputStream {
+
+    private final byte[] bytes;
+    private final int pausePosition;
+    private final CountDownLatch paused = new CountDownLatch(1);
+    private final CountDownLatch resumed = new CountDownLatch(1);
+    private int position;
+
+    /**
+     * Constructor.
+     * 
+     * @param bytes the bytes
+     * @param pausePosition the position to pause at
+     */
+    PausingInputStream(byte[] bytes, int pausePosition) {
+      this.bytes = bytes;
+      this.pausePosition = pausePosition;
+    }
+
+    /**
+     * Waits for the stream to pause. Returns true if paused.
+     * 
+     * @param timeout the timeout in seconds
+     */
+    boolean awaitPause(long timeout) throws InterruptedException {
+      return paused.await(timeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Resumes the stream.
+     */
+    void resume() {
+      resumed.countDown();
+    }
+
+    @Override
+    public int available() {
+      // Nothing is available at the pause, so readers return what they have
+      int end = position < pausePosition ? pausePosition : bytes.length;
+      return end - position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] buffer = new byte[1];
+      return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (position == pausePosition) {
+        paused.countDown();
+        try {
+          resumed.await();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted");
+        }
+      }
+      if (position == bytes.length) {
+        return -1;
+      }
+      int count = Math.min(length, available());
+      System.arraycopy(bytes, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+  }
+
   private static String getNameAndDescription(String name, String description) {
     return "<name><![CDATA[" + name + "]]></name>" + "<desc><![CDATA[" + description + "]]></desc>";
   }
@@ -68,6 +159,12 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
       + getTrackPoint(0, null) + getTrackPoint(1, null) + "</trkseg><trkseg>"
       + getTrackPoint(2, null) + getTrackPoint(3, null) + "</trkseg></trk></gpx>";
 
+  private static final String VALID_SENSOR_DATA_GPX = "<gpx><trk><trkseg>"
+      + getTrackPoint(0, TRACK_TIME_0).replace("</trkpt>", "<extensions>"
+          + "<gpxtpx:TrackPointExtension><gpxtpx:hr>140</gpxtpx:hr><gpxtpx:cad>90</gpxtpx:cad>"
+          + "</gpxtpx:TrackPointExtension><power>250</power></extensions></trkpt>")
+      + "</trkseg></trk></gpx>";
+
   private static final String INVALID_XML_GPX = VALID_ONE_TRACK_ONE_SEGMENT_GPX.substring(
       0, VALID_ONE_TRACK_ONE_SEGMENT_GPX.length() - 50);
   private static final String INVALID_LOCATION_GPX = VALID_ONE_TRACK_ONE_SEGMENT_GPX.replaceAll(
@@ -188,6 +285,178 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0, -1L);
   }
 
+  /**
+   * Tests the heart rate, cadence and power in the track point extensions.
+   */
+  public void testSensorData() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+    Capture<Location[]> locations = new Capture<Location[]>();
+
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        AndroidMock.capture(locations), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
+    expect(
+        myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
+            R.string.recording_track_id_key))).andStubReturn(null);
+    expectUpdateTrack(track, true, TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    InputStream inputStream = new ByteArrayInputStream(VALID_SENSOR_DATA_GPX.getBytes());
+    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    assertEquals(TRACK_ID_0, gpxFileTrackImporter.importFile(inputStream));
+    AndroidMock.verify(myTracksProviderUtils);
+
+    Location location = locations.getValue()[0];
+    assertTrue(location instanceof MyTracksLocation);
+    SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
+    assertEquals(140, sensorDataSet.getHeartRate().getValue());
+    assertEquals(90, sensorDataSet.getCadence().getValue());
+    assertEquals(250, sensorDataSet.getPower().getValue());
+  }
+
+  /**
+   * Tests one track written in transactions. The track start id and stop id
+   * come from the inserts.
+   */
+  public void testOneTrackOneSegment_transaction() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+    Location location0 = createLocation(0, DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    Location location1 = createLocation(1, DATE_FORMAT_1.parse(TRACK_TIME_1).getTime());
+
+    /*
+     * One transaction to insert the track, one per batch of track points, one
+     * to update the track, and one for the waypoints
+     */
+    expectTransactions(5, 0);
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expect(myTracksProviderUtils.insertTrackPoints(
+        LocationsMatcher.eqLoc(location0), eq(1), eq(TRACK_ID_0)))
+        .andReturn(new long[] { TRACK_POINT_ID_0, TRACK_POINT_ID_0 });
+    expect(myTracksProviderUtils.insertTrackPoints(
+        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_0)))
+        .andReturn(new long[] { TRACK_POINT_ID_1, TRACK_POINT_ID_1 });
+    expectUpdateTrack(track, true, TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
+    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    assertEquals(TRACK_ID_0, gpxFileTrackImporter.importFile(inputStream));
+    AndroidMock.verify(myTracksProviderUtils);
+    assertEquals(TRACK_POINT_ID_0, track.getValue().getStartId());
+    assertEquals(TRACK_POINT_ID_1, track.getValue().getStopId());
+  }
+
+  /**
+   * Tests one track written in transactions when the track points cannot be
+   * inserted directly. The track start id and stop id come from the inserts.
+   */
+  public void testOneTrackOneSegment_transactionNoInsertTrackPoints() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+    Location location1 = createLocation(1, DATE_FORMAT_1.parse(TRACK_TIME_1).getTime());
+
+    /*
+     * One transaction to insert the track, one per batch of track points, one
+     * to update the track, and one for the waypoints
+     */
+    expectTransactions(5, 0);
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expect(myTracksProviderUtils.insertTrackPoints((Location[]) AndroidMock.anyObject(),
+        AndroidMock.anyInt(), AndroidMock.anyLong())).andStubReturn(null);
+    expect(myTracksProviderUtils.insertTrackPoint(
+        (Location) AndroidMock.anyObject(), eq(TRACK_ID_0))).andReturn(TRACK_POINT_ID_0_URI);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expectUpdateTrack(track, true, TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
+    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    assertEquals(TRACK_ID_0, gpxFileTrackImporter.importFile(inputStream));
+    AndroidMock.verify(myTracksProviderUtils);
+    assertEquals(TRACK_POINT_ID_0, track.getValue().getStartId());
+    assertEquals(TRACK_POINT_ID_1, track.getValue().getStopId());
+  }
+
+  /**
+   * Tests that the writes of an invalid track are committed, then the partly
+   * imported track is deleted.
+   */
+  public void testInvalidTime_transaction() throws Exception {
+    expectTransactions(2, 0);
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expect(myTracksProviderUtils.insertTrackPoints(
+        (Location[]) AndroidMock.anyObject(), eq(1), eq(TRACK_ID_0)))
+        .andReturn(new long[] { TRACK_POINT_ID_0, TRACK_POINT_ID_0 });
+    myTracksProviderUtils.deleteTrack(getContext(), TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    String xml = VALID_ONE_TRACK_ONE_SEGMENT_GPX.replace(TRACK_TIME_1, "invalid");
+    InputStream inputStream = new ByteArrayInputStream(xml.getBytes());
+    GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    assertEquals(-1L, gpxFileTrackImporter.importFile(inputStream));
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Tests that another thread can insert a track while an import is parsing.
+   */
+  public void testImportFile_concurrentInsert() throws Exception {
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    Context context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider myTracksProvider = new MyTracksProvider();
+    myTracksProvider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, myTracksProvider);
+    final MyTracksProviderUtils providerUtils = MyTracksProviderUtils.Factory.get(context);
+
+    // Pause the import in the middle of the track
+    String xml = VALID_ONE_TRACK_TWO_SEGMENTS_GPX;
+    final PausingInputStream inputStream = new PausingInputStream(
+        xml.getBytes(), xml.indexOf("</trkseg>"));
+    final GpxFileTrackImporter gpxFileTrackImporter = new GpxFileTrackImporter(
+        context, providerUtils);
+    ExecutorService executorService = Executors.newFixedThreadPool(2);
+    try {
+      Future<Long> importFuture = executorService.submit(new Callable<Long>() {
+        @Override
+        public Long call() throws Exception {
+          return gpxFileTrackImporter.importFile(inputStream);
+        }
+      });
+      assertTrue(inputStream.awaitPause(10));
+
+      // Times out if the import holds a transaction while parsing
+      Future<Uri> insertFuture = executorService.submit(new Callable<Uri>() {
+        @Override
+        public Uri call() throws Exception {
+          return providerUtils.insertTrack(new Track());
+        }
+      });
+      Uri uri = insertFuture.get(10, TimeUnit.SECONDS);
+      inputStream.resume();
+
+      long trackId = importFuture.get(10, TimeUnit.SECONDS);
+      assertTrue(trackId != -1L);
+      assertEquals(TRACK_NAME_0, providerUtils.getTrack(trackId).getName());
+      assertNotNull(providerUtils.getTrack(ContentUris.parseId(uri)));
+    } finally {
+      inputStream.resume();
+      executorService.shutdownNow();
+      providerUtils.deleteAllTracks(context);
+    }
+  }
+
   /**
    * Test an invalid xml input.
    */
@@ -230,6 +499,35 @@ public class GpxFileTrackImporterTest extends AbstractTestFileTrackImporter {
     testInvalidGpx(INVALID_LONGITUDE_GPX);
   }
 
+  /**
+   * Benchmarks importing a generated 100 MB gpx file.
+   */
+  @LargeTest
+  public void testImportFile_benchmark() throws Exception {
+    final Iso8601Formatter formatter = new Iso8601Formatter();
+    final long startTime = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
+    TrackPointsInputStream inputStream = new TrackPointsInputStream(100L * 1024 * 1024) {
+      @Override
+      protected String getHeader() {
+        return "<gpx><trk><name>benchmark</name><trkseg>";
+      }
+
+      @Override
+      protected String getFooter() {
+        return "</trkseg></trk></gpx>";
+      }
+
+      @Override
+      protected void appendTrackPoint(StringBuilder stringBuilder, int index) {
+        stringBuilder.append("<trkpt lat=\"").append(TRACK_LATITUDE + (index % 10000) * 1E-5)
+            .append("\" lon=\"").append(TRACK_LONGITUDE + (index % 10000) * 1E-5)
+            .append("\"><ele>").append(TRACK_ELEVATION + index % 100).append("</ele><time>")
+            .append(formatter.format(startTime + index * 1000L)).append("</time></trkpt>\n");
+      }
+    };
+    benchmarkImportFile(new GpxFileTrackImporter(getContext(), myTracksProviderUtils), inputStream);
+  }
+
   private void testInvalidGpx(String xml) throws Exception {
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
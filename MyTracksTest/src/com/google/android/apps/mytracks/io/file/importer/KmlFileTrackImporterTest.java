@@ -20,11 +20,13 @@ import static com.google.android.testing.mocking.AndroidMock.eq;
 import static com.google.android.testing.mocking.AndroidMock.expect;
 
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.util.Iso8601Formatter;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 import com.google.android.maps.mytracks.R;
 import com.google.android.testing.mocking.AndroidMock;
 
 import android.location.Location;
+import android.test.suitebuilder.annotation.LargeTest;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
@@ -53,7 +55,7 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     return buffer.toString();
   }
 
-  private static final String VALID_ONE_TRACK_ONE_SEGMENT_GPX =
+  static final String VALID_ONE_TRACK_ONE_SEGMENT_GPX =
       "<kml xmlns:gx=\"http://www.google.com/kml/ext/2.2\"><Placemark>"
       + getNameAndDescription(TRACK_NAME_0, TRACK_DESCRIPTION_0) + "<gx:MultiTrack><gx:Track>"
       + getTrackPoint(0, TRACK_TIME_0) + getTrackPoint(1, TRACK_TIME_1)
@@ -138,4 +140,39 @@ public class KmlFileTrackImporterTest extends AbstractTestFileTrackImporter {
     verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0,
         DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
   }
+
+  /**
+   * Benchmarks importing a generated 100 MB kml file, with a track segment
+   * every 10000 track points.
+   */
+  @LargeTest
+  public void testImportFile_benchmark() throws Exception {
+    final Iso8601Formatter formatter = new Iso8601Formatter();
+    final long startTime = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
+    TrackPointsInputStream inputStream = new TrackPointsInputStream(100L * 1024 * 1024) {
+      @Override
+      protected String getHeader() {
+        return "<kml xmlns:gx=\"http://www.google.com/kml/ext/2.2\"><Placemark>"
+            + "<name>benchmark</name><gx:MultiTrack><gx:Track>";
+      }
+
+      @Override
+      protected String getFooter() {
+        return "</gx:Track></gx:MultiTrack></Placemark></kml>";
+      }
+
+      @Override
+      protected void appendTrackPoint(StringBuilder stringBuilder, int index) {
+        if (index != 0 && index % 10000 == 0) {
+          stringBuilder.append("</gx:Track><gx:Track>");
+        }
+        stringBuilder.append("<when>").append(formatter.format(startTime + index * 1000L))
+            .append("</when><gx:coord>").append(TRACK_LONGITUDE + (index % 10000) * 1E-5)
+            .append(' ').append(TRACK_LATITUDE + (index % 10000) * 1E-5).append(' ')
+            .append(TRACK_ELEVATION + index % 100).append("</gx:coord>\n");
+      }
+    };
+    benchmarkImportFile(
+        new KmlFileTrackImporter(getContext(), -1L, myTracksProviderUtils), inputStream);
+  }
 }
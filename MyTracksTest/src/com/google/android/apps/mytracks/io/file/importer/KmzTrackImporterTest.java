@@ -0,0 +1,327 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import static com.google.android.testing.mocking.AndroidMock.eq;
+import static com.google.android.testing.mocking.AndroidMock.expect;
+
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.io.file.exporter.KmzTrackExporter;
+import com.google.android.apps.mytracks.util.FileUtils;
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.maps.mytracks.R;
+import com.google.android.testing.mocking.AndroidMock;
+
+import android.location.Location;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.easymock.Capture;
+
+/**
+ * Tests for {@link KmzTrackImporter}.
+ *
+ * @author Jimmy Shih
+ */
+public class KmzTrackImporterTest extends AbstractTestFileTrackImporter {
+
+  // A track id not used by a real track, since its photo directory is deleted
+  private static final long IMPORT_TRACK_ID = 123456789L;
+
+  private static final String IMAGE_NAME_0 = "image0.jpg";
+  private static final String IMAGE_NAME_1 = "image1.jpg";
+  private static final String IMAGE_ENTRY_0 = KmzTrackExporter.KMZ_IMAGES_DIR
+      + File.separatorChar + IMAGE_NAME_0;
+  private static final String IMAGE_ENTRY_1 = KmzTrackExporter.KMZ_IMAGES_DIR
+      + File.separatorChar + IMAGE_NAME_1;
+
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    file = new File(getContext().getCacheDir(), "KmzTrackImporterTest.kmz");
+    deletePhotoDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+    deletePhotoDir();
+    super.tearDown();
+  }
+
+  /**
+   * Tests importing a file whose kml is after its images. The kml is imported
+   * first.
+   */
+  public void testImportFile_kmlLast() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+    expectImportKml(track);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    writeFile(createKmz(IMAGE_ENTRY_0, IMAGE_ENTRY_1, KmzTrackExporter.KMZ_KML_FILE));
+    KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(getContext(), IMPORT_TRACK_ID);
+    assertEquals(IMPORT_TRACK_ID, kmzTrackImporter.importFile(file));
+
+    AndroidMock.verify(myTracksProviderUtils);
+    verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0,
+        DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    verifyImage(IMAGE_NAME_0, IMAGE_ENTRY_0);
+    verifyImage(IMAGE_NAME_1, IMAGE_ENTRY_1);
+  }
+
+  /**
+   * Tests importing an input stream. The images after the kml are imported, so
+   * parsing the kml does not close the stream.
+   */
+  public void testImportFile_inputStream() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+    expectImportKml(track);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    byte[] kmz = createKmz(KmzTrackExporter.KMZ_KML_FILE, IMAGE_ENTRY_0, IMAGE_ENTRY_1);
+    KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(getContext(), IMPORT_TRACK_ID);
+    assertEquals(IMPORT_TRACK_ID, kmzTrackImporter.importFile(new ByteArrayInputStream(kmz)));
+
+    AndroidMock.verify(myTracksProviderUtils);
+    verifyTrack(track.getValue(), TRACK_NAME_0, TRACK_DESCRIPTION_0,
+        DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    verifyImage(IMAGE_NAME_0, IMAGE_ENTRY_0);
+    verifyImage(IMAGE_NAME_1, IMAGE_ENTRY_1);
+  }
+
+  /**
+   * Tests importing a file without kml.
+   */
+  public void testImportFile_noKml() throws Exception {
+    myTracksProviderUtils.deleteTrack(getContext(), IMPORT_TRACK_ID);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    writeFile(createKmz(IMAGE_ENTRY_0));
+    KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(getContext(), IMPORT_TRACK_ID);
+    assertEquals(-1L, kmzTrackImporter.importFile(file));
+
+    AndroidMock.verify(myTracksProviderUtils);
+    assertFalse(FileUtils.getPhotoDir(IMPORT_TRACK_ID).exists());
+  }
+
+  /**
+   * Tests importing an input stream without kml. The images already imported
+   * are deleted.
+   */
+  public void testImportFile_inputStreamNoKml() throws Exception {
+    myTracksProviderUtils.deleteTrack(getContext(), IMPORT_TRACK_ID);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    byte[] kmz = createKmz(IMAGE_ENTRY_0);
+    KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(getContext(), IMPORT_TRACK_ID);
+    assertEquals(-1L, kmzTrackImporter.importFile(new ByteArrayInputStream(kmz)));
+
+    AndroidMock.verify(myTracksProviderUtils);
+    assertFalse(FileUtils.getPhotoDir(IMPORT_TRACK_ID).exists());
+  }
+
+  /**
+   * Tests importing a file with a corrupt kml entry. No track is started, and
+   * the images are not imported.
+   */
+  public void testImportFile_corruptKml() throws Exception {
+    AndroidMock.replay(myTracksProviderUtils);
+
+    byte[] kmz = createKmz(KmzTrackExporter.KMZ_KML_FILE, IMAGE_ENTRY_0);
+    corruptEntry(kmz, KmzTrackExporter.KMZ_KML_FILE);
+    writeFile(kmz);
+    KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(getContext(), IMPORT_TRACK_ID);
+    assertEquals(-1L, kmzTrackImporter.importFile(file));
+
+    AndroidMock.verify(myTracksProviderUtils);
+    assertFalse(FileUtils.getPhotoDir(IMPORT_TRACK_ID).exists());
+  }
+
+  /**
+   * Tests importing an input stream with a corrupt kml entry.
+   */
+  public void testImportFile_inputStreamCorruptKml() throws Exception {
+    AndroidMock.replay(myTracksProviderUtils);
+
+    byte[] kmz = createKmz(KmzTrackExporter.KMZ_KML_FILE, IMAGE_ENTRY_0);
+    corruptEntry(kmz, KmzTrackExporter.KMZ_KML_FILE);
+    KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(getContext(), IMPORT_TRACK_ID);
+    assertEquals(-1L, kmzTrackImporter.importFile(new ByteArrayInputStream(kmz)));
+
+    AndroidMock.verify(myTracksProviderUtils);
+    assertFalse(FileUtils.getPhotoDir(IMPORT_TRACK_ID).exists());
+  }
+
+  /**
+   * Tests importing an input stream with a corrupt image entry. The imported
+   * track and images are deleted.
+   */
+  public void testImportFile_inputStreamCorruptImage() throws Exception {
+    expectImportKml(new Capture<Track>());
+    myTracksProviderUtils.deleteTrack(getContext(), IMPORT_TRACK_ID);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    byte[] kmz = createKmz(KmzTrackExporter.KMZ_KML_FILE, IMAGE_ENTRY_0, IMAGE_ENTRY_1);
+    corruptEntry(kmz, IMAGE_ENTRY_1);
+    KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(getContext(), IMPORT_TRACK_ID);
+    assertEquals(-1L, kmzTrackImporter.importFile(new ByteArrayInputStream(kmz)));
+
+    AndroidMock.verify(myTracksProviderUtils);
+    assertFalse(FileUtils.getPhotoDir(IMPORT_TRACK_ID).exists());
+  }
+
+  /**
+   * Tests importing a file which is not a zip file.
+   */
+  public void testImportFile_notZip() throws Exception {
+    myTracksProviderUtils.deleteTrack(getContext(), IMPORT_TRACK_ID);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    writeFile(KmlFileTrackImporterTest.VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
+    KmzTrackImporter kmzTrackImporter = new KmzTrackImporter(getContext(), IMPORT_TRACK_ID);
+    assertEquals(-1L, kmzTrackImporter.importFile(file));
+
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  /**
+   * Expects the kml of {@link #createKmz(String...)} to be imported.
+   *
+   * @param track the captured track
+   */
+  private void expectImportKml(Capture<Track> track) throws Exception {
+    Location location0 = createLocation(0, DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    Location location1 = createLocation(1, DATE_FORMAT_1.parse(TRACK_TIME_1).getTime());
+
+    myTracksProviderUtils.clearTrack(getContext(), IMPORT_TRACK_ID);
+    expectFirstTrackPoint(location0, IMPORT_TRACK_ID, TRACK_POINT_ID_0);
+
+    // A flush happens at the end
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        LocationsMatcher.eqLoc(location1), eq(1), eq(IMPORT_TRACK_ID))).andReturn(1);
+    expect(myTracksProviderUtils.getLastTrackPointId(IMPORT_TRACK_ID))
+        .andReturn(TRACK_POINT_ID_1);
+    expect(
+        myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
+            R.string.recording_track_id_key))).andStubReturn(null);
+    expectUpdateTrack(track, true, IMPORT_TRACK_ID);
+  }
+
+  /**
+   * Creates a kmz file. The kml entry has a track, the other entries have
+   * their names as content.
+   *
+   * @param entryNames the entry names, in order
+   */
+  private static byte[] createKmz(String... entryNames) throws IOException {
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    ZipOutputStream zipOutputStream = new ZipOutputStream(byteArrayOutputStream);
+    for (String entryName : entryNames) {
+      zipOutputStream.putNextEntry(new ZipEntry(entryName));
+      if (entryName.equals(KmzTrackExporter.KMZ_KML_FILE)) {
+        zipOutputStream.write(KmlFileTrackImporterTest.VALID_ONE_TRACK_ONE_SEGMENT_GPX.getBytes());
+      } else {
+        zipOutputStream.write(entryName.getBytes());
+      }
+      zipOutputStream.closeEntry();
+    }
+    zipOutputStream.close();
+    return byteArrayOutputStream.toByteArray();
+  }
+
+  /**
+   * Corrupts the compressed data of an entry. Its first byte is set to a
+   * deflate block of the reserved, invalid type.
+   *
+   * @param kmz the kmz file
+   * @param entryName the entry name
+   */
+  private static void corruptEntry(byte[] kmz, String entryName) {
+    byte[] name = entryName.getBytes();
+
+    // The first occurrence of the name is in the entry local header, ending
+    // with the name length, the extra field length, the name, and the extra
+    // field
+    for (int i = 0; i <= kmz.length - name.length; i++) {
+      int j = 0;
+      while (j < name.length && kmz[i + j] == name[j]) {
+        j++;
+      }
+      if (j == name.length) {
+        int extraLength = (kmz[i - 2] & 0xFF) | (kmz[i - 1] & 0xFF) << 8;
+        kmz[i + name.length + extraLength] = (byte) 0xFF;
+        return;
+      }
+    }
+    fail("No entry " + entryName);
+  }
+
+  /**
+   * Writes the test file.
+   *
+   * @param bytes the file content
+   */
+  private void writeFile(byte[] bytes) throws IOException {
+    FileOutputStream fileOutputStream = new FileOutputStream(file);
+    try {
+      fileOutputStream.write(bytes);
+    } finally {
+      fileOutputStream.close();
+    }
+  }
+
+  /**
+   * Verifies an image is imported in the track photo directory.
+   *
+   * @param imageName the image name
+   * @param entryName the image entry name, the image content
+   */
+  private void verifyImage(String imageName, String entryName) throws IOException {
+    File image = new File(FileUtils.getPhotoDir(IMPORT_TRACK_ID), imageName);
+    assertTrue(image.exists());
+    byte[] content = new byte[(int) image.length()];
+    FileInputStream fileInputStream = new FileInputStream(image);
+    try {
+      assertEquals(content.length, fileInputStream.read(content));
+    } finally {
+      fileInputStream.close();
+    }
+    assertEquals(entryName, new String(content));
+  }
+
+  /**
+   * Deletes the track photo directory.
+   */
+  private void deletePhotoDir() {
+    File dir = FileUtils.getPhotoDir(IMPORT_TRACK_ID);
+    if (dir.isDirectory()) {
+      for (File photo : dir.listFiles()) {
+        photo.delete();
+      }
+      dir.delete();
+    }
+  }
+}
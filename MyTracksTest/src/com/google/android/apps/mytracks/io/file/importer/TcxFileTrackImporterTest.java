@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import static com.google.android.testing.mocking.AndroidMock.eq;
+import static com.google.android.testing.mocking.AndroidMock.expect;
+
+import com.google.android.apps.mytracks.content.MyTracksLocation;
+import com.google.android.apps.mytracks.content.Sensor.SensorDataSet;
+import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.util.Iso8601Formatter;
+import com.google.android.apps.mytracks.util.PreferencesUtils;
+import com.google.android.maps.mytracks.R;
+import com.google.android.testing.mocking.AndroidMock;
+
+import android.location.Location;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.easymock.Capture;
+
+/**
+ * Tests for {@link TcxFileTrackImporter}.
+ */
+public class TcxFileTrackImporterTest extends AbstractTestFileTrackImporter {
+
+  private static final String HEADER = "<TrainingCenterDatabase"
+      + " xmlns=\"http://www.garmin.com/xmlschemas/TrainingCenterDatabase/v2\"><Activities>"
+      + "<Activity Sport=\"Biking\"><Id>" + TRACK_TIME_0 + "</Id>";
+  private static final String FOOTER = "<Notes>" + TRACK_DESCRIPTION_0
+      + "</Notes></Activity></Activities></TrainingCenterDatabase>";
+
+  private static String getTrackPoint(int index, String time, String sensorData) {
+    String latitude = Double.toString(TRACK_LATITUDE + index);
+    String longitude = Double.toString(TRACK_LONGITUDE + index);
+    String altitude = Double.toString(TRACK_ELEVATION + index);
+    return "<Trackpoint><Time>" + time + "</Time><Position><LatitudeDegrees>" + latitude
+        + "</LatitudeDegrees><LongitudeDegrees>" + longitude
+        + "</LongitudeDegrees></Position><AltitudeMeters>" + altitude + "</AltitudeMeters>"
+        + sensorData + "</Trackpoint>";
+  }
+
+  private static final String VALID_ONE_TRACK_ONE_SEGMENT_TCX = HEADER + "<Lap><Track>"
+      + getTrackPoint(0, TRACK_TIME_0, "") + getTrackPoint(1, TRACK_TIME_1, "")
+      + "</Track></Lap>" + FOOTER;
+  private static final String VALID_ONE_TRACK_TWO_SEGMENTS_TCX = HEADER + "<Lap><Track>"
+      + getTrackPoint(0, TRACK_TIME_0, "") + getTrackPoint(1, TRACK_TIME_1, "")
+      + "</Track></Lap><Lap><Track>" + getTrackPoint(2, TRACK_TIME_2, "")
+      + "<Trackpoint><Time>" + TRACK_TIME_2 + "</Time></Trackpoint>"
+      + getTrackPoint(3, TRACK_TIME_3, "") + "</Track></Lap>" + FOOTER;
+  private static final String VALID_SENSOR_DATA_TCX = HEADER + "<Lap><Track>"
+      + getTrackPoint(0, TRACK_TIME_0, "<HeartRateBpm><Value>140</Value></HeartRateBpm>"
+          + "<Cadence>90</Cadence><Extensions><ns3:TPX><ns3:Watts>250</ns3:Watts></ns3:TPX>"
+          + "</Extensions>") + "</Track></Lap>" + FOOTER;
+  private static final String INVALID_TIME_TCX = VALID_ONE_TRACK_ONE_SEGMENT_TCX.replaceAll(
+      "<Time>" + TRACK_TIME_1, "<Time>invalid");
+  private static final String INVALID_HEART_RATE_TCX = VALID_SENSOR_DATA_TCX.replaceAll(
+      "140", "invalid");
+
+  /**
+   * Tests one track with one segment.
+   */
+  public void testOneTrackOneSegment() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+
+    Location location0 = createLocation(0, DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+    Location location1 = createLocation(1, DATE_FORMAT_1.parse(TRACK_TIME_1).getTime());
+
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
+
+    // A flush happens at the end
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_1);
+    expect(
+        myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
+            R.string.recording_track_id_key))).andStubReturn(null);
+    expectUpdateTrack(track, true, TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_ONE_SEGMENT_TCX.getBytes());
+    TcxFileTrackImporter tcxFileTrackImporter = new TcxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    long trackId = tcxFileTrackImporter.importFile(inputStream);
+    assertEquals(TRACK_ID_0, trackId);
+
+    long time0 = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
+    long time1 = DATE_FORMAT_1.parse(TRACK_TIME_1).getTime();
+    assertEquals(time1 - time0, track.getValue().getTripStatistics().getTotalTime());
+    AndroidMock.verify(myTracksProviderUtils);
+    verifyTrack(track.getValue(), TRACK_TIME_0, TRACK_DESCRIPTION_0, time0);
+    assertEquals(getContext().getString(R.string.activity_type_cycling),
+        track.getValue().getCategory());
+  }
+
+  /**
+   * Tests one track with two segments, one per lap. The track point without a
+   * position is skipped.
+   */
+  public void testOneTrackTwoSegments() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+
+    Location location0 = createLocation(0, DATE_FORMAT_0.parse(TRACK_TIME_0).getTime());
+
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expectFirstTrackPoint(location0, TRACK_ID_0, TRACK_POINT_ID_0);
+    // A flush happens at the end
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
+    expect(
+        myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
+            R.string.recording_track_id_key))).andStubReturn(null);
+    expectUpdateTrack(track, true, TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    InputStream inputStream = new ByteArrayInputStream(VALID_ONE_TRACK_TWO_SEGMENTS_TCX.getBytes());
+    TcxFileTrackImporter tcxFileTrackImporter = new TcxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    long trackId = tcxFileTrackImporter.importFile(inputStream);
+    assertEquals(TRACK_ID_0, trackId);
+
+    long time0 = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
+    long time1 = DATE_FORMAT_1.parse(TRACK_TIME_1).getTime();
+    long time2 = DATE_FORMAT_1.parse(TRACK_TIME_2).getTime();
+    long time3 = DATE_FORMAT_1.parse(TRACK_TIME_3).getTime();
+    assertEquals(
+        time1 - time0 + time3 - time2, track.getValue().getTripStatistics().getTotalTime());
+
+    AndroidMock.verify(myTracksProviderUtils);
+    verifyTrack(track.getValue(), TRACK_TIME_0, TRACK_DESCRIPTION_0, time0);
+  }
+
+  /**
+   * Tests the heart rate, cadence and power of a track point.
+   */
+  public void testSensorData() throws Exception {
+    Capture<Track> track = new Capture<Track>();
+    Capture<Location[]> locations = new Capture<Location[]>();
+
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        AndroidMock.capture(locations), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
+    expect(
+        myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
+            R.string.recording_track_id_key))).andStubReturn(null);
+    expectUpdateTrack(track, true, TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    InputStream inputStream = new ByteArrayInputStream(VALID_SENSOR_DATA_TCX.getBytes());
+    TcxFileTrackImporter tcxFileTrackImporter = new TcxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    assertEquals(TRACK_ID_0, tcxFileTrackImporter.importFile(inputStream));
+    AndroidMock.verify(myTracksProviderUtils);
+
+    Location location = locations.getValue()[0];
+    assertTrue(location instanceof MyTracksLocation);
+    SensorDataSet sensorDataSet = ((MyTracksLocation) location).getSensorDataSet();
+    assertEquals(140, sensorDataSet.getHeartRate().getValue());
+    assertEquals(90, sensorDataSet.getCadence().getValue());
+    assertEquals(250, sensorDataSet.getPower().getValue());
+    assertEquals(DATE_FORMAT_0.parse(TRACK_TIME_0).getTime(), sensorDataSet.getCreationTime());
+  }
+
+  /**
+   * Tests an invalid time.
+   */
+  public void testInvalidTime() throws Exception {
+    testInvalidTcx(INVALID_TIME_TCX);
+  }
+
+  /**
+   * Tests an invalid heart rate.
+   */
+  public void testInvalidHeartRate() throws Exception {
+    testInvalidTcx(INVALID_HEART_RATE_TCX);
+  }
+
+  /**
+   * Benchmarks importing a generated 100 MB tcx file.
+   */
+  @LargeTest
+  public void testImportFile_benchmark() throws Exception {
+    final Iso8601Formatter formatter = new Iso8601Formatter();
+    final long startTime = DATE_FORMAT_0.parse(TRACK_TIME_0).getTime();
+    TrackPointsInputStream inputStream = new TrackPointsInputStream(100L * 1024 * 1024) {
+      @Override
+      protected String getHeader() {
+        return HEADER + "<Lap><Track>";
+      }
+
+      @Override
+      protected String getFooter() {
+        return "</Track></Lap>" + FOOTER;
+      }
+
+      @Override
+      protected void appendTrackPoint(StringBuilder stringBuilder, int index) {
+        stringBuilder.append("<Trackpoint><Time>")
+            .append(formatter.format(startTime + index * 1000L))
+            .append("</Time><Position><LatitudeDegrees>")
+            .append(TRACK_LATITUDE + (index % 10000) * 1E-5)
+            .append("</LatitudeDegrees><LongitudeDegrees>")
+            .append(TRACK_LONGITUDE + (index % 10000) * 1E-5)
+            .append("</LongitudeDegrees></Position><AltitudeMeters>")
+            .append(TRACK_ELEVATION + index % 100)
+            .append("</AltitudeMeters><HeartRateBpm><Value>").append(100 + index % 80)
+            .append("</Value></HeartRateBpm></Trackpoint>\n");
+      }
+    };
+    benchmarkImportFile(new TcxFileTrackImporter(getContext(), myTracksProviderUtils), inputStream);
+  }
+
+  private void testInvalidTcx(String xml) throws Exception {
+    expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
+        .andReturn(TRACK_ID_0_URI);
+
+    // For the following, use StubReturn since we don't care whether they are
+    // invoked or not.
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        (Location[]) AndroidMock.anyObject(), AndroidMock.anyInt(), AndroidMock.anyLong()))
+        .andStubReturn(1);
+    expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andStubReturn(TRACK_POINT_ID_0);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andStubReturn(TRACK_POINT_ID_0);
+    expect(
+        myTracksProviderUtils.getTrack(PreferencesUtils.getLong(getContext(),
+            R.string.recording_track_id_key))).andStubReturn(null);
+    myTracksProviderUtils.deleteTrack(getContext(), TRACK_ID_0);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    InputStream inputStream = new ByteArrayInputStream(xml.getBytes());
+    TcxFileTrackImporter tcxFileTrackImporter = new TcxFileTrackImporter(
+        getContext(), myTracksProviderUtils);
+    long trackId = tcxFileTrackImporter.importFile(inputStream);
+    assertEquals(-1L, trackId);
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.apps.mytracks.io.file.importer;
+
+import static com.google.android.testing.mocking.AndroidMock.expect;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.apps.mytracks.io.file.importer.TrackImportWriter.TrackWrites;
+import com.google.android.testing.mocking.AndroidMock;
+import com.google.android.testing.mocking.UsesMocks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TrackImportWriter}.
+ */
+public class TrackImportWriterTest extends TestCase {
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private List<String> writes;
+
+  @UsesMocks(MyTracksProviderUtils.class)
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTracksProviderUtils = AndroidMock.createStrictMock(MyTracksProviderUtils.class);
+    writes = Collections.synchronizedList(new ArrayList<String>());
+  }
+
+  /**
+   * Tests that the single thread writer writes in the order of the writes, the
+   * writes of a track not waiting for the end of the tracks started before.
+   */
+  public void testSingleThreadWriter() {
+    // Each write in its own transaction
+    for (int i = 0; i < 3; i++) {
+      expect(myTracksProviderUtils.beginTransaction()).andReturn(true);
+      myTracksProviderUtils.setTransactionSuccessful();
+      myTracksProviderUtils.endTransaction();
+    }
+    AndroidMock.replay(myTracksProviderUtils);
+
+    TrackImportWriter trackImportWriter = TrackImportWriter.newSingleThreadWriter(
+        myTracksProviderUtils);
+    TrackWrites trackWrites0 = trackImportWriter.startTrackWrites();
+    TrackWrites trackWrites1 = trackImportWriter.startTrackWrites();
+
+    // The second track ends while the first one is still written
+    trackWrites0.write(newWrite("0a"));
+    trackWrites1.write(newWrite("1a"));
+    trackWrites1.end(true);
+    assertTrue(trackWrites1.await());
+    trackWrites0.write(newWrite("0b"));
+    trackWrites0.end(true);
+
+    assertTrue(trackWrites0.await());
+    trackImportWriter.close();
+    AndroidMock.verify(myTracksProviderUtils);
+    assertEquals("[0a, 1a, 0b]", writes.toString());
+  }
+
+  /**
+   * Tests that a failed write is rolled back and skips the following writes.
+   * The previous writes are committed.
+   */
+  public void testFailedWrite() {
+    expect(myTracksProviderUtils.beginTransaction()).andReturn(true);
+    myTracksProviderUtils.setTransactionSuccessful();
+    myTracksProviderUtils.endTransaction();
+    expect(myTracksProviderUtils.beginTransaction()).andReturn(true);
+    myTracksProviderUtils.endTransaction();
+    AndroidMock.replay(myTracksProviderUtils);
+
+    TrackWrites trackWrites = new TrackImportWriter(myTracksProviderUtils).startTrackWrites();
+    trackWrites.write(newWrite("a"));
+    trackWrites.write(new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException();
+      }
+    });
+    trackWrites.write(newWrite("b"));
+    trackWrites.end(true);
+
+    assertFalse(trackWrites.await());
+    AndroidMock.verify(myTracksProviderUtils);
+    assertEquals("[a]", writes.toString());
+  }
+
+  /**
+   * Tests writing when the provider does not support transactions.
+   */
+  public void testNoTransaction() {
+    expect(myTracksProviderUtils.beginTransaction()).andReturn(false);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    TrackWrites trackWrites = new TrackImportWriter(myTracksProviderUtils).startTrackWrites();
+    trackWrites.write(newWrite("a"));
+    trackWrites.end(true);
+
+    assertTrue(trackWrites.await());
+    AndroidMock.verify(myTracksProviderUtils);
+    assertEquals("[a]", writes.toString());
+  }
+
+  /**
+   * Tests that aborting the single thread writer fails the tracks whose writes
+   * are not ended yet, instead of waiting for their writes.
+   */
+  public void testAbort() throws Exception {
+    expect(myTracksProviderUtils.beginTransaction()).andStubReturn(false);
+    AndroidMock.replay(myTracksProviderUtils);
+
+    TrackImportWriter trackImportWriter = TrackImportWriter.newSingleThreadWriter(
+        myTracksProviderUtils);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    TrackWrites trackWrites = trackImportWriter.startTrackWrites();
+    trackWrites.write(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    });
+    trackWrites.write(newWrite("a"));
+    trackWrites.end(true);
+    started.await();
+
+    trackImportWriter.abort();
+    assertFalse(trackWrites.await());
+    assertEquals("[]", writes.toString());
+
+    // Writes after the abort fail
+    TrackWrites laterTrackWrites = trackImportWriter.startTrackWrites();
+    laterTrackWrites.write(newWrite("b"));
+    laterTrackWrites.end(true);
+    assertFalse(laterTrackWrites.await());
+    assertEquals("[]", writes.toString());
+  }
+
+  /**
+   * Creates a write adding a name to the writes.
+   *
+   * @param name the name
+   */
+  private Runnable newWrite(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        writes.add(name);
+      }
+    };
+  }
+}
@@ -20,6 +20,7 @@ import com.google.android.apps.mytracks.TrackStubUtils;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
 import com.google.android.apps.mytracks.content.MyTracksProviderUtils.LocationIterator;
 import com.google.android.apps.mytracks.content.Track;
+import com.google.android.apps.mytracks.content.TrackPointsColumns;
 import com.google.android.apps.mytracks.content.Waypoint;
 import com.google.android.apps.mytracks.io.gdata.maps.MapsGDataConverter;
 import com.google.android.apps.mytracks.io.sendtogoogle.SendRequest;
@@ -116,7 +117,8 @@ public class SendMapsAsyncTaskTest extends AndroidTestCase {
 
     Track track = TrackStubUtils.createTrack(1);
     AndroidMock.expect(myTracksProviderUtilsMock.getTrackPointLocationIterator(
-        TRACK_ID, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
+        TRACK_ID, -1L, false, TrackPointsColumns.NO_SENSOR_COLUMNS,
+        MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
         .andReturn(locationIterator);
     AndroidMock.replay(sendMapsActivityMock, myTracksProviderUtilsMock, locationIterator);
     SendMapsAsyncTask sendMapsAsyncTask = new SendMapsAsyncTask(sendMapsActivityMock,
@@ -139,7 +141,8 @@ public class SendMapsAsyncTaskTest extends AndroidTestCase {
     locationIterator.close();
 
     AndroidMock.expect(myTracksProviderUtilsMock.getTrackPointLocationIterator(
-        TRACK_ID, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
+        TRACK_ID, -1L, false, TrackPointsColumns.NO_SENSOR_COLUMNS,
+        MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
         .andReturn(locationIterator);
 
     AndroidMock.replay(sendMapsActivityMock, myTracksProviderUtilsMock, locationIterator);
@@ -167,7 +170,8 @@ public class SendMapsAsyncTaskTest extends AndroidTestCase {
     locationIterator.close();
 
     AndroidMock.expect(myTracksProviderUtilsMock.getTrackPointLocationIterator(
-        TRACK_ID, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
+        TRACK_ID, -1L, false, TrackPointsColumns.NO_SENSOR_COLUMNS,
+        MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
         .andReturn(locationIterator);
 
     AndroidMock.replay(sendMapsActivityMock, myTracksProviderUtilsMock, locationIterator);
@@ -198,7 +202,8 @@ public class SendMapsAsyncTaskTest extends AndroidTestCase {
     locationIterator.close();
 
     AndroidMock.expect(myTracksProviderUtilsMock.getTrackPointLocationIterator(
-        TRACK_ID, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
+        TRACK_ID, -1L, false, TrackPointsColumns.NO_SENSOR_COLUMNS,
+        MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
         .andReturn(locationIterator);
 
     AndroidMock.replay(sendMapsActivityMock, myTracksProviderUtilsMock, locationIterator);
@@ -228,7 +233,8 @@ public class SendMapsAsyncTaskTest extends AndroidTestCase {
     locationIterator.close();
 
     AndroidMock.expect(myTracksProviderUtilsMock.getTrackPointLocationIterator(
-        TRACK_ID, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
+        TRACK_ID, -1L, false, TrackPointsColumns.NO_SENSOR_COLUMNS,
+        MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY))
         .andReturn(locationIterator);
 
     AndroidMock.replay(sendMapsActivityMock, myTracksProviderUtilsMock, locationIterator);
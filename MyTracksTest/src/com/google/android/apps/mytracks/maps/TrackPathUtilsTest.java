@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.apps.mytracks.maps.TrackPathUtils.LastPolyline;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.internal.IGoogleMapDelegate;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+import com.google.android.gms.maps.model.internal.IPolylineDelegate;
+
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TrackPathUtils} with a fake {@link GoogleMap}.
+ */
+public class TrackPathUtilsTest extends TestCase {
+
+  private static final int COLOR = 1;
+
+  // The number of points sent to the fake map
+  private int numberOfPointsSent;
+  // The number of calls to get the points from the fake map
+  private int numberOfGetPoints;
+
+  private GoogleMap googleMap;
+  private ArrayList<Polyline> paths;
+  private LastPolyline lastPolyline;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    googleMap = newFakeGoogleMap();
+    paths = new ArrayList<Polyline>();
+    lastPolyline = new LastPolyline();
+    numberOfPointsSent = 0;
+    numberOfGetPoints = 0;
+  }
+
+  /**
+   * Tests adding a new path.
+   */
+  public void testAddPath() {
+    ArrayList<LatLng> points = newPoints(0, 10);
+    TrackPathUtils.addPath(googleMap, paths, points, COLOR, false, lastPolyline);
+    assertEquals(1, paths.size());
+    assertEquals(10, paths.get(0).getPoints().size());
+    assertEquals(0, points.size());
+  }
+
+  /**
+   * Tests appending to a path. Long paths are chained polylines.
+   */
+  public void testAddPath_append() {
+    int numberOfPoints = TrackPathUtils.MAX_POLYLINE_POINTS * 3;
+    for (int i = 0; i < numberOfPoints; i++) {
+      TrackPathUtils.addPath(googleMap, paths, newPoints(i, 1), COLOR, true, lastPolyline);
+    }
+    assertEquals(4, paths.size());
+    assertEquals(0, numberOfGetPoints);
+
+    // The polylines are chained
+    List<LatLng> allPoints = new ArrayList<LatLng>();
+    for (int i = 0; i < paths.size(); i++) {
+      List<LatLng> polylinePoints = paths.get(i).getPoints();
+      assertTrue(polylinePoints.size() <= TrackPathUtils.MAX_POLYLINE_POINTS);
+      if (i != 0) {
+        assertEquals(allPoints.get(allPoints.size() - 1), polylinePoints.get(0));
+        polylinePoints = polylinePoints.subList(1, polylinePoints.size());
+      }
+      allPoints.addAll(polylinePoints);
+    }
+    assertEquals(newPoints(0, numberOfPoints), allPoints);
+  }
+
+  /**
+   * Tests appending to a path not added with the last polyline.
+   */
+  public void testAddPath_appendUnknownPolyline() {
+    TrackPathUtils.addPath(googleMap, paths, newPoints(0, 10), COLOR, false, new LastPolyline());
+    TrackPathUtils.addPath(googleMap, paths, newPoints(10, 5), COLOR, true, lastPolyline);
+    assertEquals(1, paths.size());
+    assertEquals(newPoints(0, 15), paths.get(0).getPoints());
+  }
+
+  /**
+   * Benchmarks appending one point at a time to a long path. The number of
+   * points sent to the map per update should not grow with the path.
+   */
+  @LargeTest
+  public void testAddPath_benchmark() {
+    int numberOfUpdates = 50000;
+    long start = System.nanoTime();
+    int maxPointsSent = 0;
+    for (int i = 0; i < numberOfUpdates; i++) {
+      int oldNumberOfPointsSent = numberOfPointsSent;
+      TrackPathUtils.addPath(googleMap, paths, newPoints(i, 1), COLOR, true, lastPolyline);
+      maxPointsSent = Math.max(maxPointsSent, numberOfPointsSent - oldNumberOfPointsSent);
+    }
+    long time = System.nanoTime() - start;
+    Log.i(TrackPathUtilsTest.class.getSimpleName(), numberOfUpdates + " updates: "
+        + time / numberOfUpdates + " ns per update, " + numberOfPointsSent + " points sent, "
+        + paths.size() + " polylines");
+    assertTrue(maxPointsSent <= TrackPathUtils.MAX_POLYLINE_POINTS);
+  }
+
+  private ArrayList<LatLng> newPoints(int start, int count) {
+    ArrayList<LatLng> points = new ArrayList<LatLng>();
+    for (int i = start; i < start + count; i++) {
+      points.add(new LatLng(i * 0.0001, 0));
+    }
+    return points;
+  }
+
+  /**
+   * Creates a fake {@link GoogleMap} keeping its polylines in memory.
+   */
+  private GoogleMap newFakeGoogleMap() throws Exception {
+    IGoogleMapDelegate googleMapDelegate = (IGoogleMapDelegate) Proxy.newProxyInstance(
+        IGoogleMapDelegate.class.getClassLoader(), new Class<?>[] { IGoogleMapDelegate.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("addPolyline")) {
+              PolylineOptions polylineOptions = (PolylineOptions) args[0];
+              numberOfPointsSent += polylineOptions.getPoints().size();
+              return newFakePolylineDelegate(polylineOptions);
+            }
+            return getDefaultValue(method);
+          }
+        });
+    Constructor<GoogleMap> constructor = GoogleMap.class.getDeclaredConstructor(
+        IGoogleMapDelegate.class);
+    constructor.setAccessible(true);
+    return constructor.newInstance(googleMapDelegate);
+  }
+
+  /**
+   * Creates a fake {@link IPolylineDelegate}.
+   *
+   * @param polylineOptions the polyline options
+   */
+  private IPolylineDelegate newFakePolylineDelegate(PolylineOptions polylineOptions) {
+    final ArrayList<LatLng> points = new ArrayList<LatLng>(polylineOptions.getPoints());
+    final int color = polylineOptions.getColor();
+    return (IPolylineDelegate) Proxy.newProxyInstance(IPolylineDelegate.class.getClassLoader(),
+        new Class<?>[] { IPolylineDelegate.class }, new InvocationHandler() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.equals("setPoints")) {
+              List<LatLng> newPoints = (List<LatLng>) args[0];
+              numberOfPointsSent += newPoints.size();
+              points.clear();
+              points.addAll(newPoints);
+              return null;
+            } else if (name.equals("getPoints")) {
+              numberOfGetPoints++;
+              return new ArrayList<LatLng>(points);
+            } else if (name.equals("getColor")) {
+              return color;
+            } else if (name.equals("equalsRemote")) {
+              return proxy == args[0];
+            } else if (name.equals("hashCodeRemote")) {
+              return System.identityHashCode(proxy);
+            }
+            return getDefaultValue(method);
+          }
+        });
+  }
+
+  /**
+   * Gets the default return value of a method.
+   *
+   * @param method the method
+   */
+  private Object getDefaultValue(Method method) {
+    Class<?> returnType = method.getReturnType();
+    if (returnType == boolean.class) {
+      return false;
+    } else if (returnType == int.class) {
+      return 0;
+    } else if (returnType == float.class) {
+      return 0f;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.maps;
+
+import com.google.android.apps.mytracks.MapOverlay.CachedLocation;
+import com.google.android.apps.mytracks.content.TrackPointBuffer;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import android.location.Location;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TrackSimplifier}.
+ */
+public class TrackSimplifierTest extends TestCase {
+
+  private TrackSimplifier trackSimplifier;
+  private ArrayList<CachedLocation> locations;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    trackSimplifier = new TrackSimplifier();
+    locations = new ArrayList<CachedLocation>();
+  }
+
+  /**
+   * Tests that a zero tolerance keeps all the track points and that a large
+   * tolerance keeps only the chunk end points.
+   */
+  public void testSelect() {
+    int numberOfPoints = TrackSimplifier.CHUNK_SIZE * 2;
+    addZigZag(0, numberOfPoints);
+
+    trackSimplifier.select(0.0, null, locations);
+    assertEquals(numberOfPoints, locations.size());
+
+    // The last chunk is incomplete and keeps all its track points
+    trackSimplifier.append(0, 0, -1f);
+    locations.clear();
+    trackSimplifier.select(1E30, null, locations);
+    assertEquals(5, locations.size());
+    for (CachedLocation cachedLocation : locations) {
+      assertTrue(cachedLocation.isValid());
+    }
+  }
+
+  /**
+   * Tests that the track points kept at a tolerance are also kept at any
+   * smaller tolerance.
+   */
+  public void testSelect_monotone() {
+    addZigZag(0, TrackSimplifier.CHUNK_SIZE * 4);
+    int lastSize = Integer.MAX_VALUE;
+    for (int zoom = 21; zoom >= 0; zoom--) {
+      locations.clear();
+      trackSimplifier.select(TrackSimplifier.getTolerance(zoom, 0.0), null, locations);
+      assertTrue(locations.size() <= lastSize);
+      lastSize = locations.size();
+    }
+  }
+
+  /**
+   * Tests that segment splits and skipped chunks add invalid locations.
+   */
+  public void testSelect_segmentSplitAndBounds() {
+    TrackPointBuffer trackPointBuffer = new TrackPointBuffer();
+    trackPointBuffer.append(1L, createLocation(1.0, 1.0));
+    trackPointBuffer.append(2L, createLocation(1.0001, 1.0));
+    trackPointBuffer.append(3L, createLocation(100.0, 0.0));
+    trackPointBuffer.append(4L, createLocation(1.0002, 1.0));
+    trackPointBuffer.append(5L, createLocation(1.0003, 1.0));
+    trackSimplifier.append(trackPointBuffer, 0, trackPointBuffer.size());
+    assertEquals(4, trackSimplifier.size());
+
+    trackSimplifier.select(0.0, null, locations);
+    assertEquals(5, locations.size());
+    assertFalse(locations.get(2).isValid());
+
+    // Only the first segment is inside the bounds
+    locations.clear();
+    trackSimplifier.select(0.0,
+        new LatLngBounds(new LatLng(0.9, 0.9), new LatLng(1.00015, 1.1)), locations);
+    assertEquals(2, locations.size());
+
+    // Bounds crossing the 180th meridian
+    locations.clear();
+    trackSimplifier.select(0.0,
+        new LatLngBounds(new LatLng(0.9, 170.0), new LatLng(1.1, 2.0)), locations);
+    assertEquals(5, locations.size());
+  }
+
+  /**
+   * Tests extending bounds.
+   */
+  public void testExtend() {
+    LatLngBounds bounds = TrackSimplifier.extend(
+        new LatLngBounds(new LatLng(10.0, 10.0), new LatLng(11.0, 12.0)));
+    assertEquals(9.0, bounds.southwest.latitude, 1E-9);
+    assertEquals(8.0, bounds.southwest.longitude, 1E-9);
+    assertEquals(12.0, bounds.northeast.latitude, 1E-9);
+    assertEquals(14.0, bounds.northeast.longitude, 1E-9);
+    assertNull(TrackSimplifier.extend(
+        new LatLngBounds(new LatLng(10.0, -60.0), new LatLng(11.0, 60.0))));
+  }
+
+  /**
+   * Benchmarks appending and selecting a long track. Selecting at a low zoom
+   * level should keep a small fraction of the track points.
+   */
+  @LargeTest
+  public void testSelect_benchmark() {
+    int numberOfPoints = 500000;
+    long start = System.nanoTime();
+    addZigZag(0, numberOfPoints);
+    long appendTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    trackSimplifier.select(TrackSimplifier.getTolerance(10, 0.0), null, locations);
+    long selectTime = System.nanoTime() - start;
+    Log.i(TrackSimplifierTest.class.getSimpleName(), numberOfPoints + " points: append "
+        + appendTime / 1000000L + " ms, select " + selectTime / 1000000L + " ms, "
+        + locations.size() + " selected");
+    assertTrue(locations.size() < numberOfPoints / 10);
+  }
+
+  /**
+   * Adds track points going north with a small zig zag.
+   */
+  private void addZigZag(int start, int count) {
+    for (int i = start; i < start + count; i++) {
+      trackSimplifier.append(i * 100, (i % 2) * 10, 1f);
+    }
+  }
+
+  private Location createLocation(double latitude, double longitude) {
+    Location location = new Location("gps");
+    location.setLatitude(latitude);
+    location.setLongitude(longitude);
+    return location;
+  }
+}
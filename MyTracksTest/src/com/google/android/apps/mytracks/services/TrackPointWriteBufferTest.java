@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.services;
+
+import static com.google.android.testing.mocking.AndroidMock.eq;
+import static com.google.android.testing.mocking.AndroidMock.expect;
+import static com.google.android.testing.mocking.AndroidMock.isA;
+
+import com.google.android.apps.mytracks.content.MyTracksProviderUtils;
+import com.google.android.testing.mocking.AndroidMock;
+import com.google.android.testing.mocking.UsesMocks;
+
+import android.location.Location;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link TrackPointWriteBuffer}.
+ */
+public class TrackPointWriteBufferTest extends TestCase {
+
+  private static final long TRACK_ID = 1L;
+  private static final int MAX_SIZE = 3;
+
+  private MyTracksProviderUtils myTracksProviderUtils;
+  private TrackPointWriteBuffer trackPointWriteBuffer;
+
+  @UsesMocks(MyTracksProviderUtils.class)
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myTracksProviderUtils = AndroidMock.createMock(MyTracksProviderUtils.class);
+    trackPointWriteBuffer = new TrackPointWriteBuffer(
+        myTracksProviderUtils, MAX_SIZE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Tests that a flush is needed only when the size threshold is reached.
+   */
+  public void testIsFlushNeeded_size() {
+    assertTrue(trackPointWriteBuffer.isEmpty());
+    assertFalse(trackPointWriteBuffer.isFlushNeeded());
+    for (int i = 0; i < MAX_SIZE - 1; i++) {
+      trackPointWriteBuffer.add(createLocation(45.0));
+      assertFalse(trackPointWriteBuffer.isFlushNeeded());
+    }
+    trackPointWriteBuffer.add(createLocation(45.0));
+    assertTrue(trackPointWriteBuffer.isFlushNeeded());
+  }
+
+  /**
+   * Tests that a flush is needed when the time threshold is reached.
+   */
+  public void testIsFlushNeeded_time() {
+    trackPointWriteBuffer = new TrackPointWriteBuffer(myTracksProviderUtils, MAX_SIZE, 0L);
+    assertFalse(trackPointWriteBuffer.isFlushNeeded());
+    trackPointWriteBuffer.add(createLocation(45.0));
+    assertTrue(trackPointWriteBuffer.isFlushNeeded());
+  }
+
+  /**
+   * Tests that flush writes all the buffered track points with one insert,
+   * returns the inserted ids, and counts only the valid track points.
+   */
+  public void testFlush() {
+    trackPointWriteBuffer.add(createLocation(45.0));
+    trackPointWriteBuffer.add(createLocation(TrackRecordingService.PAUSE_LATITUDE));
+    assertEquals(1, trackPointWriteBuffer.getNumberOfValidPoints());
+
+    expect(myTracksProviderUtils.insertTrackPoints(
+        isA(Location[].class), eq(2), eq(TRACK_ID))).andReturn(new long[] { 5L, 6L });
+    AndroidMock.replay(myTracksProviderUtils);
+    long[] ids = trackPointWriteBuffer.flush(TRACK_ID);
+    AndroidMock.verify(myTracksProviderUtils);
+    assertEquals(5L, ids[0]);
+    assertEquals(6L, ids[1]);
+
+    assertTrue(trackPointWriteBuffer.isEmpty());
+    assertEquals(0, trackPointWriteBuffer.getNumberOfValidPoints());
+    assertNull(trackPointWriteBuffer.flush(TRACK_ID));
+  }
+
+  /**
+   * Tests that flush falls back to a bulk insert when inserting the track
+   * points directly is not supported.
+   */
+  public void testFlush_bulkInsert() {
+    trackPointWriteBuffer.add(createLocation(45.0));
+    trackPointWriteBuffer.add(createLocation(45.0));
+
+    expect(myTracksProviderUtils.insertTrackPoints(
+        isA(Location[].class), eq(2), eq(TRACK_ID))).andReturn(null);
+    expect(myTracksProviderUtils.bulkInsertTrackPoint(
+        isA(Location[].class), eq(2), eq(TRACK_ID))).andReturn(2);
+    expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(6L);
+    AndroidMock.replay(myTracksProviderUtils);
+    long[] ids = trackPointWriteBuffer.flush(TRACK_ID);
+    AndroidMock.verify(myTracksProviderUtils);
+    assertEquals(-1L, ids[0]);
+    assertEquals(6L, ids[1]);
+    assertTrue(trackPointWriteBuffer.isEmpty());
+  }
+
+  /**
+   * Tests that the track points are kept if the insert fails.
+   */
+  public void testFlush_failed() {
+    for (int i = 0; i < MAX_SIZE; i++) {
+      trackPointWriteBuffer.add(createLocation(45.0));
+    }
+    expect(myTracksProviderUtils.insertTrackPoints(
+        isA(Location[].class), eq(MAX_SIZE), eq(TRACK_ID))).andThrow(new RuntimeException());
+    expect(myTracksProviderUtils.insertTrackPoints(isA(Location[].class), eq(MAX_SIZE + 1),
+        eq(TRACK_ID))).andReturn(new long[] { 1L, MAX_SIZE + 1 });
+    AndroidMock.replay(myTracksProviderUtils);
+    try {
+      trackPointWriteBuffer.flush(TRACK_ID);
+      fail();
+    } catch (RuntimeException e) {
+      // Expected
+    }
+    assertFalse(trackPointWriteBuffer.isEmpty());
+
+    // Adding to a full buffer grows it
+    trackPointWriteBuffer.add(createLocation(45.0));
+    assertEquals(MAX_SIZE + 1, trackPointWriteBuffer.flush(TRACK_ID)[1]);
+    AndroidMock.verify(myTracksProviderUtils);
+  }
+
+  private Location createLocation(double latitude) {
+    Location location = new Location("gps");
+    location.setLatitude(latitude);
+    location.setLongitude(35.0);
+    location.setTime(System.currentTimeMillis());
+    return location;
+  }
+}
@@ -114,4 +114,47 @@ public class DoubleBufferTest extends TestCase {
     }
   }
 
+  /**
+   * Tests that the average and the variance stay close to the ones computed
+   * from the values after many non integer values.
+   */
+  public void testLoopVariance() {
+    DoubleBuffer buffer = new DoubleBuffer(25);
+    double[] values = new double[25];
+
+    for (int i = 0; i < 10000; i++) {
+      double value = 1000.0 + Math.sin(i * 0.1) * 10.0;
+      buffer.setNext(value);
+      values[i % values.length] = value;
+    }
+    double sum = 0;
+    for (double value : values) {
+      sum += value;
+    }
+    double average = sum / values.length;
+    double sumSquares = 0;
+    for (double value : values) {
+      sumSquares += (value - average) * (value - average);
+    }
+    double[] averageAndVariance = buffer.getAverageAndVariance();
+    assertEquals(average, averageAndVariance[0], 1E-9);
+    assertEquals(sumSquares / values.length, averageAndVariance[1], 1E-9);
+  }
+
+  /**
+   * Tests that a NaN only affects the average while it is in the buffer.
+   */
+  public void testNaN() {
+    DoubleBuffer buffer = new DoubleBuffer(3);
+
+    buffer.setNext(1.0);
+    buffer.setNext(Double.NaN);
+    assertTrue(Double.isNaN(buffer.getAverage()));
+    buffer.setNext(2.0);
+    buffer.setNext(3.0);
+    assertTrue(Double.isNaN(buffer.getAverage()));
+    buffer.setNext(4.0);
+    assertEquals(3.0, buffer.getAverage());
+  }
+
 }
@@ -2,10 +2,13 @@
 
 package com.google.android.apps.mytracks.stats;
 
+import com.google.android.apps.mytracks.util.CalorieUtils;
 import com.google.android.apps.mytracks.util.CalorieUtils.ActivityType;
 import com.google.android.apps.mytracks.util.PreferencesUtils;
 
 import android.location.Location;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
 
 import junit.framework.TestCase;
 
@@ -197,6 +200,62 @@ public class TripStatisticsUpdaterTest extends TestCase {
     }
   }
 
+  /**
+   * Tests that the calorie sums give the calorie of a replay for any activity
+   * type and weight.
+   */
+  public void testGetCalorieSums() {
+    ActivityType[] activityTypes = { ActivityType.WALKING, ActivityType.RUNNING,
+        ActivityType.CYCLING };
+    double[] weights = { DEFAULT_WEIGHT, 80.0 };
+    CalorieSums calorieSums = null;
+    for (ActivityType activityType : activityTypes) {
+      for (double weight : weights) {
+        long startTime = 1000;
+        tripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+        for (int i = 0; i < 200; i++) {
+          // Going up and down, with a varying speed
+          Location location = getLocation(Math.abs(100 - i), i * .0001, 2.0f + (i % 5),
+              startTime + i * ONE_SECOND * 5);
+          tripStatisticsUpdater.addLocation(location,
+              PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true, activityType, weight);
+        }
+        if (calorieSums == null) {
+          calorieSums = tripStatisticsUpdater.getCalorieSums();
+        }
+        double calorie = tripStatisticsUpdater.getTripStatistics().getCalorie();
+        assertTrue(calorie > 0);
+        assertEquals(calorie, CalorieUtils.getCalorie(calorieSums, weight, activityType),
+            calorie * 1e-9);
+      }
+    }
+  }
+
+  /**
+   * Benchmarks replaying a track of a million moving locations.
+   */
+  @LargeTest
+  public void testAddLocation_benchmark() {
+    int numberOfLocations = 1000000;
+    long startTime = 1000;
+    tripStatisticsUpdater = new TripStatisticsUpdater(startTime);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < numberOfLocations; i++) {
+      // Moving by .0001 degree latitude (11 meters) with a noisy elevation
+      Location location = getLocation(100.0 + (i % 50) + (i % 7) * 0.5,
+          (i % 100000) * .0001, MOVING_SPEED, startTime + i * ONE_SECOND);
+      tripStatisticsUpdater.addLocation(location,
+          PreferencesUtils.RECORDING_DISTANCE_INTERVAL_DEFAULT, true, ActivityType.WALKING,
+          DEFAULT_WEIGHT);
+    }
+    long time = System.nanoTime() - start;
+
+    assertTrue(tripStatisticsUpdater.getTripStatistics().getTotalDistance() > 0);
+    Log.i(getClass().getSimpleName(), numberOfLocations + " locations: " + time / 1000000L
+        + " ms, " + numberOfLocations * 1000000000L / time + " locations/s");
+  }
+
   /**
    * Sends some locations which keeping moving and checks the statistics.
    * 
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link FixedPointFormatter}.
+ */
+public class FixedPointFormatterTest extends TestCase {
+
+  /**
+   * Tests formatting without grouping.
+   */
+  public void testFormat() {
+    FixedPointFormatter formatter = new FixedPointFormatter(6, false);
+    assertEquals("0", formatter.format(0.0));
+    assertEquals("1", formatter.format(1.0));
+    assertEquals("-1", formatter.format(-1.0));
+    assertEquals("45.123457", formatter.format(45.1234567));
+    assertEquals("-122.08", formatter.format(-122.08));
+    assertEquals("0.000001", formatter.format(0.000001));
+    assertEquals("1234567", formatter.format(1234567.0));
+
+    formatter = new FixedPointFormatter(1, false);
+    assertEquals("10.3", formatter.format(10.25000001));
+    assertEquals("100", formatter.format(99.99));
+  }
+
+  /**
+   * Tests formatting with grouping.
+   */
+  public void testFormat_grouping() {
+    FixedPointFormatter formatter = new FixedPointFormatter(4, true);
+    assertEquals("0", formatter.format(0.0));
+    assertEquals("999", formatter.format(999.0));
+    assertEquals("1,000", formatter.format(1000.0));
+    assertEquals("-1,234,567.5", formatter.format(-1234567.5));
+  }
+
+  /**
+   * Tests that the values not handled directly are formatted like the number
+   * format.
+   */
+  public void testFormat_numberFormat() {
+    assertFormat(6, false, 1E20, -1E20, Double.NaN, Double.POSITIVE_INFINITY, 0.5, 2.5, -0.0);
+    assertFormat(0, true, 0.5, 1.5, 2.5, 1E15);
+  }
+
+  /**
+   * Tests that random values are formatted like the number format.
+   */
+  public void testFormat_random() {
+    Random random = new Random(1);
+    double[] values = new double[10000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+    }
+    assertFormat(6, false, values);
+    assertFormat(1, false, values);
+    assertFormat(4, true, values);
+  }
+
+  /**
+   * Tests formatting into a char array, a char buffer and a print writer.
+   */
+  public void testFormat_destinations() {
+    FixedPointFormatter formatter = new FixedPointFormatter(6, false);
+    char[] chars = new char[16];
+    chars[0] = '[';
+    int end = formatter.format(-45.5, chars, 1);
+    assertEquals("[-45.5", new String(chars, 0, end));
+
+    CharBuffer charBuffer = CharBuffer.allocate(32);
+    formatter.format(1.25, charBuffer);
+    formatter.format(1E20, charBuffer);
+    charBuffer.flip();
+    assertEquals("1.25" + "100000000000000000000", charBuffer.toString());
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter printWriter = new PrintWriter(stringWriter);
+    formatter.format(3.0, printWriter);
+    printWriter.flush();
+    assertEquals("3", stringWriter.toString());
+  }
+
+  /**
+   * Asserts that values are formatted like the number format.
+   */
+  private void assertFormat(int maximumFractionDigits, boolean groupingUsed, double... values) {
+    NumberFormat numberFormat = NumberFormat.getInstance(Locale.US);
+    numberFormat.setMaximumFractionDigits(maximumFractionDigits);
+    numberFormat.setGroupingUsed(groupingUsed);
+    FixedPointFormatter formatter = new FixedPointFormatter(maximumFractionDigits, groupingUsed);
+    for (double value : values) {
+      assertEquals(numberFormat.format(value), formatter.format(value));
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.util;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link Iso8601Formatter}.
+ */
+public class Iso8601FormatterTest extends TestCase {
+
+  private Iso8601Formatter formatter;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    formatter = new Iso8601Formatter();
+  }
+
+  /**
+   * Tests formatting times within the same minute and across minutes, days and
+   * years.
+   */
+  public void testFormat() {
+    assertEquals("1970-01-01T00:00:12.345Z", formatter.format(12345L));
+    assertEquals("1970-01-01T00:00:59.999Z", formatter.format(59999L));
+    assertEquals("1970-01-01T00:01:00.000Z", formatter.format(60000L));
+    assertEquals("1969-12-31T23:59:59.999Z", formatter.format(-1L));
+    assertEquals("2000-02-29T12:30:05.007Z", formatter.format(951827405007L));
+    assertEquals("2013-12-31T23:59:59.000Z", formatter.format(1388534399000L));
+    assertEquals("2014-01-01T00:00:00.000Z", formatter.format(1388534400000L));
+  }
+
+  /**
+   * Tests that times are formatted like
+   * {@link StringUtils#formatDateTimeIso8601(long)}, including the times
+   * outside the supported years.
+   */
+  public void testFormat_random() {
+    Random random = new Random(1);
+    long time = -14000000000000L;
+    while (time < 260000000000000L) {
+      assertEquals(StringUtils.formatDateTimeIso8601(time), formatter.format(time));
+      time += random.nextInt(10) == 0 ? (long) (random.nextDouble() * 1E11) : random.nextInt(5000);
+    }
+  }
+
+  /**
+   * Tests formatting into a char array, a char buffer and a print writer.
+   */
+  public void testFormat_destinations() {
+    char[] chars = new char[Iso8601Formatter.MAX_LENGTH + 1];
+    chars[0] = '[';
+    int end = formatter.format(12345L, chars, 1);
+    assertEquals("[1970-01-01T00:00:12.345Z", new String(chars, 0, end));
+
+    CharBuffer charBuffer = CharBuffer.allocate(Iso8601Formatter.MAX_LENGTH);
+    formatter.format(12345L, charBuffer);
+    charBuffer.flip();
+    assertEquals("1970-01-01T00:00:12.345Z", charBuffer.toString());
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter printWriter = new PrintWriter(stringWriter);
+    formatter.format(12345L, printWriter);
+    printWriter.flush();
+    assertEquals("1970-01-01T00:00:12.345Z", stringWriter.toString());
+  }
+}
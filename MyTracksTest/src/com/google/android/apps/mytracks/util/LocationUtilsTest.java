@@ -0,0 +1,301 @@
+/*
+ * Copyright 2013 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.apps.mytracks.util;
+
+import com.google.android.apps.mytracks.content.Track;
+
+import android.location.Location;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Stack;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the decimation of {@link LocationUtils}.
+ */
+public class LocationUtilsTest extends TestCase {
+
+  private static final String TAG = LocationUtilsTest.class.getSimpleName();
+
+  // About 11 meters
+  private static final double DELTA = 0.0001;
+
+  /**
+   * Tests that the locations on a straight line are dropped and the corner is
+   * kept.
+   */
+  public void testDecimate() {
+    double[] latitudes = new double[21];
+    double[] longitudes = new double[21];
+    for (int i = 0; i <= 10; i++) {
+      latitudes[i] = 45.0 + i * DELTA;
+      longitudes[i] = 10.0;
+      latitudes[10 + i] = 45.0 + 10 * DELTA;
+      longitudes[10 + i] = 10.0 + i * DELTA;
+    }
+    boolean[] keep = new boolean[21];
+    assertEquals(3, LocationUtils.decimate(latitudes, longitudes, 21, 2.0, keep));
+    assertTrue(keep[0]);
+    assertTrue(keep[10]);
+    assertTrue(keep[20]);
+  }
+
+  /**
+   * Tests decimating with a tolerance below and above the deviations.
+   */
+  public void testDecimate_tolerance() {
+    double[] latitudes = new double[100];
+    double[] longitudes = new double[100];
+    createZigZag(latitudes, longitudes, 100);
+    boolean[] keep = new boolean[100];
+    assertEquals(100, LocationUtils.decimate(latitudes, longitudes, 100, 2.0, keep));
+    assertEquals(2, LocationUtils.decimate(latitudes, longitudes, 100, 20.0, keep));
+    assertTrue(keep[0]);
+    assertTrue(keep[99]);
+
+    assertEquals(0, LocationUtils.decimate(latitudes, longitudes, 0, 2.0, keep));
+    assertEquals(1, LocationUtils.decimate(latitudes, longitudes, 1, 2.0, keep));
+  }
+
+  /**
+   * Tests that decimating to a target number of locations keeps the same
+   * locations as decimating with the tolerance giving that number.
+   */
+  public void testDecimateToSize() {
+    double[] latitudes = new double[1000];
+    double[] longitudes = new double[1000];
+    createRandomWalk(latitudes, longitudes, 1000);
+    boolean[] expected = new boolean[1000];
+    int count = LocationUtils.decimate(latitudes, longitudes, 1000, 2.0, expected);
+    assertTrue(count > 2 && count < 1000);
+
+    boolean[] keep = new boolean[1000];
+    assertEquals(count, LocationUtils.decimateToSize(latitudes, longitudes, 1000, count, keep));
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(expected[i], keep[i]);
+    }
+
+    assertEquals(2, LocationUtils.decimateToSize(latitudes, longitudes, 1000, 1, keep));
+    assertTrue(keep[0]);
+    assertTrue(keep[999]);
+    assertEquals(1000, LocationUtils.decimateToSize(latitudes, longitudes, 1000, 2000, keep));
+  }
+
+  /**
+   * Tests that the locations with a significance above a tolerance are the
+   * locations kept by decimating with the tolerance.
+   */
+  public void testGetSignificances() {
+    double[] latitudes = new double[1000];
+    double[] longitudes = new double[1000];
+    createRandomWalk(latitudes, longitudes, 1000);
+    double[] significances = new double[1000];
+    LocationUtils.getSignificances(latitudes, longitudes, 1000, significances);
+    assertEquals(Double.POSITIVE_INFINITY, significances[0]);
+    assertEquals(Double.POSITIVE_INFINITY, significances[999]);
+
+    boolean[] keep = new boolean[1000];
+    for (double tolerance : new double[] { 0.5, 2.0, 10.0 }) {
+      LocationUtils.decimate(latitudes, longitudes, 1000, tolerance, keep);
+      for (int i = 0; i < 1000; i++) {
+        assertEquals(keep[i], significances[i] > tolerance);
+      }
+    }
+  }
+
+  /**
+   * Tests decimating a track.
+   */
+  public void testDecimate_track() {
+    Track track = new Track();
+    for (int i = 0; i <= 10; i++) {
+      track.addLocation(createLocation(45.0 + i * DELTA, 10.0 + (i == 5 ? DELTA : 0.0)));
+    }
+    Location corner = track.getLocations().get(5);
+    LocationUtils.decimate(track, 2.0);
+    ArrayList<Location> locations = track.getLocations();
+    assertEquals(5, locations.size());
+    assertSame(corner, locations.get(2));
+  }
+
+  /**
+   * Benchmarks the decimation against the former implementation over
+   * {@link Location} objects. The former implementation is only run up to
+   * 100k locations, since a million {@link Location} objects do not fit in the
+   * heap of most devices.
+   */
+  @LargeTest
+  public void testDecimate_benchmark() {
+    benchmark(10000, true);
+    benchmark(100000, true);
+    benchmark(1000000, false);
+  }
+
+  private void benchmark(int size, boolean runLocations) {
+    double[] latitudes = new double[size];
+    double[] longitudes = new double[size];
+    createRandomWalk(latitudes, longitudes, size);
+    boolean[] keep = new boolean[size];
+    long start = System.nanoTime();
+    int count = LocationUtils.decimate(latitudes, longitudes, size, 2.0, keep);
+    long time = System.nanoTime() - start;
+    Log.i(TAG, size + " locations: " + time / 1000000L + " ms, " + count + " kept");
+    assertTrue(count > 2 && count < size);
+
+    start = System.nanoTime();
+    count = LocationUtils.decimateToSize(latitudes, longitudes, size, size / 10, keep);
+    time = System.nanoTime() - start;
+    Log.i(TAG, size + " locations to " + size / 10 + ": " + time / 1000000L + " ms");
+    assertTrue(count <= size / 10);
+
+    if (runLocations) {
+      ArrayList<Location> locations = new ArrayList<Location>(size);
+      for (int i = 0; i < size; i++) {
+        locations.add(createLocation(latitudes[i], longitudes[i]));
+      }
+      ArrayList<Location> decimated = new ArrayList<Location>();
+      start = System.nanoTime();
+      decimateLocations(2.0, locations, decimated);
+      time = System.nanoTime() - start;
+      Log.i(TAG, size + " Location objects: " + time / 1000000L + " ms, " + decimated.size()
+          + " kept");
+    }
+  }
+
+  /**
+   * Creates locations going north with a zig zag of about 8 meters.
+   */
+  private void createZigZag(double[] latitudes, double[] longitudes, int size) {
+    for (int i = 0; i < size; i++) {
+      latitudes[i] = 45.0 + i * DELTA;
+      longitudes[i] = 10.0 + (i % 2) * DELTA;
+    }
+  }
+
+  /**
+   * Creates a deterministic random walk with steps of about 1 meter.
+   */
+  private void createRandomWalk(double[] latitudes, double[] longitudes, int size) {
+    long seed = 1;
+    double latitude = 45.0;
+    double longitude = 10.0;
+    double bearing = 0.0;
+    for (int i = 0; i < size; i++) {
+      seed = seed * 6364136223846793005L + 1442695040888963407L;
+      bearing += ((seed >>> 40) / (double) (1L << 24) - 0.5) * 0.5;
+      latitude += Math.cos(bearing) * DELTA / 10;
+      longitude += Math.sin(bearing) * DELTA / 10;
+      latitudes[i] = latitude;
+      longitudes[i] = longitude;
+    }
+  }
+
+  private Location createLocation(double latitude, double longitude) {
+    Location location = new Location("gps");
+    location.setLatitude(latitude);
+    location.setLongitude(longitude);
+    return location;
+  }
+
+  /**
+   * The former decimation over {@link Location} objects, kept for the
+   * benchmark.
+   */
+  private static void decimateLocations(
+      double tolerance, ArrayList<Location> locations, ArrayList<Location> decimated) {
+    final int n = locations.size();
+    if (n < 1) {
+      return;
+    }
+    int idx;
+    int maxIdx = 0;
+    Stack<int[]> stack = new Stack<int[]>();
+    double[] dists = new double[n];
+    dists[0] = 1;
+    dists[n - 1] = 1;
+    double maxDist;
+    double dist = 0.0;
+    int[] current;
+
+    if (n > 2) {
+      int[] stackVal = new int[] { 0, (n - 1) };
+      stack.push(stackVal);
+      while (stack.size() > 0) {
+        current = stack.pop();
+        maxDist = 0;
+        for (idx = current[0] + 1; idx < current[1]; ++idx) {
+          dist = distance(
+              locations.get(idx), locations.get(current[0]), locations.get(current[1]));
+          if (dist > maxDist) {
+            maxDist = dist;
+            maxIdx = idx;
+          }
+        }
+        if (maxDist > tolerance) {
+          dists[maxIdx] = maxDist;
+          int[] stackValCurMax = { current[0], maxIdx };
+          stack.push(stackValCurMax);
+          int[] stackValMaxCur = { maxIdx, current[1] };
+          stack.push(stackValMaxCur);
+        }
+      }
+    }
+
+    decimated.clear();
+    for (idx = 0; idx < n; idx++) {
+      if (dists[idx] != 0) {
+        decimated.add(locations.get(idx));
+      }
+    }
+  }
+
+  /**
+   * The former distance between the point c0 and the line segment c1 to c2.
+   */
+  private static double distance(final Location c0, final Location c1, final Location c2) {
+    if (c1.equals(c2)) {
+      return c2.distanceTo(c0);
+    }
+
+    final double s0lat = c0.getLatitude() * UnitConversions.DEG_TO_RAD;
+    final double s0lng = c0.getLongitude() * UnitConversions.DEG_TO_RAD;
+    final double s1lat = c1.getLatitude() * UnitConversions.DEG_TO_RAD;
+    final double s1lng = c1.getLongitude() * UnitConversions.DEG_TO_RAD;
+    final double s2lat = c2.getLatitude() * UnitConversions.DEG_TO_RAD;
+    final double s2lng = c2.getLongitude() * UnitConversions.DEG_TO_RAD;
+
+    double s2s1lat = s2lat - s1lat;
+    double s2s1lng = s2lng - s1lng;
+    final double u = ((s0lat - s1lat) * s2s1lat + (s0lng - s1lng) * s2s1lng)
+        / (s2s1lat * s2s1lat + s2s1lng * s2s1lng);
+    if (u <= 0) {
+      return c0.distanceTo(c1);
+    }
+    if (u >= 1) {
+      return c0.distanceTo(c2);
+    }
+    Location sa = new Location("");
+    sa.setLatitude(c0.getLatitude() - c1.getLatitude());
+    sa.setLongitude(c0.getLongitude() - c1.getLongitude());
+    Location sb = new Location("");
+    sb.setLatitude(u * (c2.getLatitude() - c1.getLatitude()));
+    sb.setLongitude(u * (c2.getLongitude() - c1.getLongitude()));
+    return sa.distanceTo(sb);
+  }
+}
@@ -19,6 +19,8 @@ package com.google.android.apps.mytracks.util;
 import android.test.AndroidTestCase;
 
 import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.Random;
 import java.util.TimeZone;
 
 /**
@@ -140,6 +142,117 @@ public class StringUtilsTest extends AndroidTestCase {
     assertGetTime("2010-05-04T03:02:01.8-05:30", 2010, 5, 4, 8, 32, 1, 800);
   }
 
+  /**
+   * Tests {@link StringUtils#getTime(CharSequence, int, int)} with a range of a
+   * char sequence.
+   */
+  public void testGetTime_range() {
+    StringBuilder builder = new StringBuilder("<time>2010-05-04T03:02:01.352Z</time>");
+    assertEquals(StringUtils.getTime("2010-05-04T03:02:01.352Z"),
+        StringUtils.getTime(builder, 6, builder.length() - 7));
+    assertEquals(StringUtils.getTime("2010-05-04T03:02:01.3525+01:00"),
+        StringUtils.getTime(new StringBuilder("2010-05-04T03:02:01.3525+01:00 "), 0, 30));
+  }
+
+  /**
+   * Tests {@link StringUtils#getTime(String)} with date times not in the
+   * common format, parsed by the {@link java.text.SimpleDateFormat}.
+   */
+  public void testGetTime_uncommon() {
+    assertGetTime("2010-05-04T03:02:01.35251Z", 2010, 5, 4, 3, 2, 1, 353);
+    assertGetTime("2010-2-4T3:02:01Z", 2010, 2, 4, 3, 2, 1, 0);
+    assertGetTime("2010-02-30T03:02:01Z", 2010, 3, 2, 3, 2, 1, 0);
+  }
+
+  /**
+   * Tests {@link StringUtils#getTime(String)} with invalid date times.
+   */
+  public void testGetTime_invalid() {
+    String[] xmlDateTimes = { "invalid", "2010-05-04", "2010-05-04T03:02:01.Z",
+        "2010-05-04T03:02:01+15:00", "2010-05-04T03:02:01+01:60", "2010-05-04T03:02:01Zulu" };
+    for (String xmlDateTime : xmlDateTimes) {
+      try {
+        StringUtils.getTime(xmlDateTime);
+        fail(xmlDateTime);
+      } catch (IllegalArgumentException e) {
+        // Expected
+      }
+    }
+  }
+
+  /**
+   * Tests {@link StringUtils#parseDouble(CharSequence, int, int)} parses like
+   * {@link Double#parseDouble(String)}.
+   */
+  public void testParseDouble() {
+    String[] values = { "0", "-0", "+0.0", "1", "1.", ".5", "-122.084095", "48.768364", "324.0",
+        "1E-5", "1e+22", "1e23", "1e-23", "123456789012345", "1234567890123456",
+        "12345678901234567890", "0.000000000000000000001", "1.5e0001", "NaN", "-Infinity", "1d" };
+    for (String value : values) {
+      assertParseDouble(value);
+    }
+  }
+
+  /**
+   * Tests {@link StringUtils#parseDouble(CharSequence, int, int)} parses random
+   * values like {@link Double#parseDouble(String)}.
+   */
+  public void testParseDouble_random() {
+    Random random = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(30) - 15);
+      assertParseDouble(Double.toString(value));
+      assertParseDouble(String.format(Locale.US, "%." + random.nextInt(12) + "f", value));
+    }
+  }
+
+  /**
+   * Tests {@link StringUtils#parseDouble(CharSequence, int, int)} with invalid
+   * values.
+   */
+  public void testParseDouble_invalid() {
+    String[] values = { "", ".", "-", "e5", "1e", "1..2", "--1", "invalid" };
+    for (String value : values) {
+      try {
+        StringUtils.parseDouble(value, 0, value.length());
+        fail(value);
+      } catch (NumberFormatException e) {
+        // Expected
+      }
+    }
+  }
+
+  /**
+   * Tests {@link StringUtils#parseInt(CharSequence, int, int)}.
+   */
+  public void testParseInt() {
+    assertEquals(0, StringUtils.parseInt("[0]", 1, 2));
+    assertEquals(140, StringUtils.parseInt("<hr>140</hr>", 4, 7));
+    assertEquals(-1, StringUtils.parseInt("-1", 0, 2));
+    assertEquals(Integer.MAX_VALUE, StringUtils.parseInt("2147483647", 0, 10));
+    String[] values = { "", "2147483648", "1.5", "invalid" };
+    for (String value : values) {
+      try {
+        StringUtils.parseInt(value, 0, value.length());
+        fail(value);
+      } catch (NumberFormatException e) {
+        // Expected
+      }
+    }
+  }
+
+  /**
+   * Asserts {@link StringUtils#parseDouble(CharSequence, int, int)} parses a
+   * value, surrounded by other chars, like {@link Double#parseDouble(String)}.
+   *
+   * @param value the value
+   */
+  private void assertParseDouble(String value) {
+    StringBuilder builder = new StringBuilder("<ele>").append(value).append("</ele>");
+    assertEquals(value, Double.doubleToRawLongBits(Double.parseDouble(value)),
+        Double.doubleToRawLongBits(StringUtils.parseDouble(builder, 5, builder.length() - 6)));
+  }
+
   /**
    * Asserts the {@link StringUtils#getTime(String)} returns the expected
    * values.